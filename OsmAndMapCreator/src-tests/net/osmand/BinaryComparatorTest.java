@@ -0,0 +1,180 @@
+package net.osmand;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.osmand.BinaryComparator.SimilarCities;
+import net.osmand.binary.MapZooms;
+import net.osmand.data.City;
+import net.osmand.data.City.CityType;
+import net.osmand.data.preparation.IndexCreator;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.util.MapUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Similar cities should be found as by the previous scan around index, and poi report lines should be written in
+ * natural order of amenities (as by the previous merge of both files sorted whole), not in order of tiles.
+ */
+public class BinaryComparatorTest {
+
+	private static final String[] NAMES = { "Aa", "aa (x)", "Bb", "Cc" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSimilarCitiesSameAsScan() {
+		Random rnd = new Random(1);
+		for (int test = 0; test < 200; test++) {
+			// long runs of same name are searched by grid
+			int n = rnd.nextInt(test % 2 == 0 ? 10 : 120);
+			List<City> cities = new ArrayList<City>();
+			for (int k = 0; k < n; k++) {
+				cities.add(city(rnd));
+			}
+			if (test % 3 != 0) {
+				final Collator collator = OsmAndCollator.primaryCollator();
+				Collections.sort(cities, new Comparator<City>() {
+
+					@Override
+					public int compare(City o1, City o2) {
+						return collator.compare(strip(o1.getName()), strip(o2.getName()));
+					}
+				});
+			}
+			SimilarCities similar = new SimilarCities(cities);
+			for (int q = 0; q < 50; q++) {
+				City city = city(rnd);
+				int j = rnd.nextInt(n + 1);
+				assertSame(searchSimilarCities(city, cities, j), similar.search(city, j));
+			}
+		}
+	}
+
+	@Test
+	public void testPoiReportInNaturalOrder() throws Exception {
+		File first = generate("first", 2);
+		File second = generate("second", 1);
+		PrintStream out = System.out;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(bytes, true, "UTF-8"));
+		try {
+			BinaryComparator.main(new String[] { "--poi", "--poi-details", "--unique-1", "--unique-2",
+					first.getAbsolutePath(), second.getAbsolutePath() });
+		} finally {
+			System.setOut(out);
+		}
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 40; i++) {
+			if (i % 5 == 1 || i % 5 == 2 || i % 5 == 3) {
+				expected.add(i);
+			}
+		}
+		List<Integer> actual = new ArrayList<Integer>();
+		Pattern poi = Pattern.compile("Poi (\\d+)");
+		for (String line : new String(bytes.toByteArray(), "UTF-8").split("\n")) {
+			Matcher m = poi.matcher(line);
+			if (line.startsWith("Amenity") && m.find()) {
+				actual.add(Integer.parseInt(m.group(1)));
+			}
+		}
+		assertEquals(expected, actual);
+	}
+
+	private City city(Random rnd) {
+		City c = new City(CityType.CITY);
+		c.setName(NAMES[rnd.nextInt(NAMES.length)]);
+		// distances around similarity distance
+		c.setLocation(50 + rnd.nextDouble() * 0.6, 4 + rnd.nextDouble());
+		return c;
+	}
+
+	// pois with even ids in one zoom 6 tile and with odd ids in another, file without pois i % 5 == skip and
+	// description of pois i % 5 == 3 different in each file
+	private File generate(String name, int skip) throws Exception {
+		File dir = folder.newFolder(name);
+		File osm = new File(dir, name + ".osm");
+		Writer w = new OutputStreamWriter(new FileOutputStream(osm), "UTF-8");
+		w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n");
+		for (int i = 0; i < 40; i++) {
+			if (i % 5 == skip) {
+				continue;
+			}
+			w.write("<node id='" + (i + 1) + "' lat='" + (52.0 + i * 0.001) + "' lon='" + (i % 2 == 0 ? 4.0 : 16.0)
+					+ "'>\n<tag k='amenity' v='cafe'/>\n<tag k='name' v='Poi " + i + "'/>\n");
+			if (i % 5 == 3) {
+				w.write("<tag k='description' v='Poi " + i + " " + name + "'/>\n");
+			}
+			w.write("</node>\n");
+		}
+		w.write("</osm>\n");
+		w.close();
+		IndexCreator creator = new IndexCreator(dir);
+		creator.setIndexMap(false);
+		creator.setIndexPOI(true);
+		creator.setIndexRouting(false);
+		creator.setIndexAddress(false);
+		creator.setIndexTransport(false);
+		creator.setMapFileName(name + ".obf");
+		creator.generateIndexes(osm, new ConsoleProgressImplementation(1), null, MapZooms.getDefault(), null, null);
+		return new File(dir, name + ".obf");
+	}
+
+	// previous implementation of BinaryComparator.searchSimilarCities
+	private static City searchSimilarCities(City city, List<City> search, int j) {
+		Collator collator = OsmAndCollator.primaryCollator();
+		boolean offByOneError = false;
+		for (int t = Math.min(j, search.size() - 1); t >= 0; t--) {
+			City ps = search.get(t);
+			if (collator.compare(strip(city.getName()), strip(ps.getName())) != 0) {
+				if (offByOneError) {
+					break;
+				} else {
+					offByOneError = true;
+					continue;
+				}
+			}
+			if (MapUtils.getDistance(city.getLocation(), ps.getLocation()) < 25500) {
+				return ps;
+			}
+		}
+
+		offByOneError = false;
+		for (int t = j; t < search.size(); t++) {
+			City ps = search.get(t);
+			if (collator.compare(strip(city.getName()), strip(ps.getName())) != 0) {
+				if (offByOneError) {
+					break;
+				} else {
+					offByOneError = true;
+					continue;
+				}
+			}
+			if (MapUtils.getDistance(city.getLocation(), ps.getLocation()) < 25500) {
+				return ps;
+			}
+		}
+		return null;
+	}
+
+	private static String strip(String name) {
+		return name.indexOf('(') != -1 ? name.substring(0, name.indexOf('(')).trim() : name;
+	}
+}
@@ -2,6 +2,11 @@ package net.osmand.data;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.Way;
@@ -235,5 +240,89 @@ public class MultipolygonTest {
 		assertTrue(testee.hasOpenedPolygons());
 	}
 
+	@Test
+	public void test_closingRingFromReversedParts()
+	{
+		MultipolygonBuilder bld = new MultipolygonBuilder();
+		bld.addOuterWay(polygon(n(1,1),n(1,2),n(1,4)));
+		bld.addOuterWay(polygon(n(3,1),n(3,2),n(3,4)));
+		bld.addOuterWay(polygon(n(3,4),n(2,4),n(1,4)));
+		bld.addOuterWay(polygon(n(1,1),n(3,1)));
+		Multipolygon testee = bld.build();
+		assertEquals(1, testee.countOuterPolygons());
+		assertFalse(testee.hasOpenedPolygons());
+		assertEquals(8, testee.getOuterRings().get(0).getBorder().size());
+	}
+
+	@Test
+	public void test_combineIntoLongerSecondChain()
+	{
+		MultipolygonBuilder bld = new MultipolygonBuilder();
+		List<Ring> rings = bld.combineToRings(Arrays.asList(polygon(n(1,1),n(1,2),n(1,3),n(1,4)), polygon(n(1,4),n(1,5))));
+		assertEquals(1, rings.size());
+		assertEquals(5, rings.get(0).getBorder().size());
+
+		// shorter way is added after longer chain, then the ring is closed by short way
+		rings = bld.combineToRings(Arrays.asList(polygon(n(1,4),n(1,5)), polygon(n(1,1),n(1,2),n(1,3),n(1,4)),
+				polygon(n(1,5),n(2,5),n(2,1)), polygon(n(2,1),n(1,1))));
+		assertEquals(1, rings.size());
+		assertTrue(rings.get(0).isClosed());
+		assertEquals(8, rings.get(0).getBorder().size());
+	}
 
+	@Test
+	public void test_splitPerOuterRingAssignsInners()
+	{
+		MultipolygonBuilder bld = new MultipolygonBuilder();
+		bld.addOuterWay(scale(40, closedBaseCircle));
+		bld.addOuterWay(move(0, 100, scale(40, closedBaseCircle)));
+		// inners of same area are considered equal by the sorted set
+		bld.addInnerWay(closedBaseCircle);
+		bld.addInnerWay(move(10, 10, scale(3, closedBaseCircle)));
+		bld.addInnerWay(move(0, 100, scale(2, closedBaseCircle)));
+		List<Multipolygon> mps = bld.splitPerOuterRing(null);
+		assertEquals(2, mps.size());
+		int inners = 0;
+		for (Multipolygon m : mps) {
+			assertEquals(1, m.getOuterRings().size());
+			Ring outer = m.getOuterRings().get(0);
+			for (Ring inner : m.getInnerRings()) {
+				assertTrue(inner.isIn(outer));
+				inners++;
+			}
+		}
+		assertEquals(3, inners);
+	}
+
+	@Test(timeout = 20000)
+	public void test_combineManySegments()
+	{
+		// circle of 100k segments added in random order and direction
+		int segments = 100000;
+		List<Way> ways = new ArrayList<Way>();
+		Node[] nodes = new Node[segments];
+		for (int i = 0; i < segments; i++) {
+			double a = 2 * Math.PI * i / segments;
+			nodes[i] = new Node(10 * Math.sin(a), 10 * Math.cos(a), 1000000 + i);
+		}
+		Random rnd = new Random(1);
+		for (int i = 0; i < segments; i++) {
+			Way w = new Way(wayid++);
+			Node a = nodes[i];
+			Node b = nodes[(i + 1) % segments];
+			if (rnd.nextBoolean()) {
+				w.addNode(a);
+				w.addNode(b);
+			} else {
+				w.addNode(b);
+				w.addNode(a);
+			}
+			ways.add(w);
+		}
+		Collections.shuffle(ways, rnd);
+		List<Ring> rings = new MultipolygonBuilder().combineToRings(ways);
+		assertEquals(1, rings.size());
+		assertTrue(rings.get(0).isClosed());
+		assertEquals(segments + 1, rings.get(0).getBorder().size());
+	}
 }
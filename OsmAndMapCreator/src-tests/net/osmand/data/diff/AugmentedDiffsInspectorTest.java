@@ -0,0 +1,164 @@
+package net.osmand.data.diff;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.data.diff.AugmentedDiffsInspector.Context;
+import net.osmand.map.OsmandRegions;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Entities routed to regions by tile grid and written from bit sets should be the same files as written by
+ * previous implementation (polygon test per node and full scan per region).
+ */
+public class AugmentedDiffsInspectorTest {
+
+	private static final String DATE = "20160301";
+	private static final String TIME = "070000";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStreamingOutputSameAsFullScan() throws Exception {
+		Map<String, String> files = compare(null);
+		assertEquals(Arrays.asList(AugmentedDiffsInspector.DEFAULT_REGION), new ArrayList<String>(files.keySet()));
+		String expected = files.get(AugmentedDiffsInspector.DEFAULT_REGION);
+		assertTrue(expected.contains("Nieuwe Straat"));
+		assertTrue(expected.contains("osmand_change"));
+	}
+
+	@Test
+	public void testRegionsSameAsPolygonTest() throws Exception {
+		TestRegions regions = new TestRegions();
+		// border of west and east goes through the tile of the diff, tile is inside of the country
+		regions.addRectangle("west", 52.0, 4.0, 53.0, 4.8945);
+		regions.addRectangle("east", 52.0, 4.8945, 53.0, 6.0);
+		regions.addRectangle("north", 52.3755, 4.0, 53.0, 6.0);
+		regions.addRectangle("country", 50.0, 3.0, 54.0, 7.0);
+		// bounding box contains the diff, but polygon doesn't
+		regions.add("triangle", 50.0, 3.0, 50.0, 7.0, 54.0, 3.0);
+		regions.addRectangle("far", 47.0, 6.0, 55.0, 15.0);
+		Map<String, String> files = compare(regions);
+		assertEquals("[country, east, north, west]", new TreeSet<String>(files.keySet()).toString());
+		assertTrue(files.get("west").contains("Koffie"));
+		assertTrue(files.get("country").contains("Nieuwe Straat"));
+		// footway from west to north, nodes of the way are completed in every region of the way
+		assertTrue(files.get("north").contains("Koffie"));
+	}
+
+	/**
+	 * @return content of written files by region, files of both implementations should be equal
+	 */
+	private Map<String, String> compare(OsmandRegions regions) throws Exception {
+		File input = new File(AugmentedDiffsInspectorTest.class.getResource(DATE + "-" + TIME + ".osm").toURI());
+		File legacyDir = folder.newFolder("legacy");
+		File streamingDir = folder.newFolder("streaming");
+		AugmentedDiffsInspector inspector = new AugmentedDiffsInspector();
+		// both implementations run on the same parsed diff, ids of generated entities are global
+		Context ctx = inspector.parseFile(input);
+		inspector.prepareRegions(ctx, ctx.newIds, ctx.regionsNew, regions);
+		inspector.prepareRegions(ctx, ctx.oldIds, ctx.regionsOld, regions);
+		inspector.write(ctx, legacyDir, DATE, TIME, input.lastModified());
+
+		RegionTileGrid grid = regions == null ? null : new RegionTileGrid(regions);
+		inspector.routeEntities(ctx, false, grid);
+		inspector.routeEntities(ctx, true, grid);
+		inspector.writeRegions(ctx, streamingDir, DATE, TIME, input.lastModified(), 2);
+
+		assertEquals(new TreeSet<String>(Arrays.asList(legacyDir.list())),
+				new TreeSet<String>(Arrays.asList(streamingDir.list())));
+		Map<String, String> res = new HashMap<String, String>();
+		for (String region : ctx.regionsNew.keySet()) {
+			String path = region + "/" + DATE + "/" + region + "_" + TIME + ".osm.gz";
+			String expected = readGz(new File(legacyDir, path));
+			assertEquals(region, expected, readGz(new File(streamingDir, path)));
+			res.put(region, expected);
+		}
+		return res;
+	}
+
+	private String readGz(File f) throws IOException {
+		assertTrue(f.getName() + " is not written", f.exists());
+		InputStream is = new GZIPInputStream(new FileInputStream(f));
+		try {
+			return Algorithms.readFromInputStream(is).toString();
+		} finally {
+			is.close();
+		}
+	}
+
+	// polygons of map regions without ocbf file, polygon test is the one of osmand regions
+	private static class TestRegions extends OsmandRegions {
+		private final List<BinaryMapDataObject> objects = new ArrayList<BinaryMapDataObject>();
+		private final Map<BinaryMapDataObject, String> names = new HashMap<BinaryMapDataObject, String>();
+
+		void addRectangle(String name, double bottom, double left, double top, double right) {
+			add(name, bottom, left, bottom, right, top, right, top, left);
+		}
+
+		void add(String name, double... latLons) {
+			int[] coordinates = new int[latLons.length + 2];
+			for (int i = 0; i < latLons.length; i += 2) {
+				coordinates[i] = MapUtils.get31TileNumberX(latLons[i + 1]);
+				coordinates[i + 1] = MapUtils.get31TileNumberY(latLons[i]);
+			}
+			coordinates[latLons.length] = coordinates[0];
+			coordinates[latLons.length + 1] = coordinates[1];
+			BinaryMapDataObject o = new BinaryMapDataObject(objects.size(), coordinates, null, 0, true,
+					new int[0], null);
+			objects.add(o);
+			names.put(o, name);
+		}
+
+		@Override
+		public List<BinaryMapDataObject> query(int lx, int rx, int ty, int by) throws IOException {
+			List<BinaryMapDataObject> res = new ArrayList<BinaryMapDataObject>();
+			for (BinaryMapDataObject o : objects) {
+				int minX = Integer.MAX_VALUE, maxX = 0, minY = Integer.MAX_VALUE, maxY = 0;
+				for (int i = 0; i < o.getPointsLength(); i++) {
+					minX = Math.min(minX, o.getPoint31XTile(i));
+					maxX = Math.max(maxX, o.getPoint31XTile(i));
+					minY = Math.min(minY, o.getPoint31YTile(i));
+					maxY = Math.max(maxY, o.getPoint31YTile(i));
+				}
+				if (minX <= rx && maxX >= lx && minY <= by && maxY >= ty) {
+					res.add(o);
+				}
+			}
+			return res;
+		}
+
+		@Override
+		public List<BinaryMapDataObject> query(int tile31x, int tile31y) throws IOException {
+			return query(tile31x, tile31x, tile31y, tile31y);
+		}
+
+		@Override
+		public String getDownloadName(BinaryMapDataObject o) {
+			return names.get(o);
+		}
+
+		@Override
+		public boolean isDownloadOfType(BinaryMapDataObject object, String type) {
+			return OsmandRegions.MAP_TYPE.equals(type);
+		}
+	}
+}
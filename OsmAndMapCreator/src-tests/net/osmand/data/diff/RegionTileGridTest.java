@@ -0,0 +1,56 @@
+package net.osmand.data.diff;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RegionTileGridTest {
+
+	private static final int SIZE = 1 << (31 - RegionTileGrid.ZOOM);
+	private static final int LEFT = 1000 * SIZE;
+	private static final int TOP = 1500 * SIZE;
+	private static final int RIGHT = LEFT + SIZE - 1;
+	private static final int BOTTOM = TOP + SIZE - 1;
+
+	private static int[] rect(int left, int top, int right, int bottom) {
+		return new int[] { left, top, right, top, right, bottom, left, bottom, left, top };
+	}
+
+	// crosses the tile from top to bottom, no vertex and no corner of the tile is inside
+	private static final int[] STRIP = rect(LEFT + 1000, TOP - 10 * SIZE, LEFT + 2000, BOTTOM + 10 * SIZE);
+	private static final int[] AROUND = rect(LEFT - 10 * SIZE, TOP - 10 * SIZE, RIGHT + 10 * SIZE, BOTTOM + 10 * SIZE);
+
+	@Test
+	public void testThinStripCrossingTile() {
+		assertTrue(RegionTileGrid.crossesTile(STRIP, null, LEFT, RIGHT, TOP, BOTTOM));
+		// diagonal strip passing through the tile
+		int[] diagonal = new int[] { LEFT - SIZE, TOP - SIZE, LEFT - SIZE + 10, TOP - SIZE,
+				RIGHT + SIZE + 10, BOTTOM + SIZE, RIGHT + SIZE, BOTTOM + SIZE };
+		assertTrue(RegionTileGrid.crossesTile(diagonal, null, LEFT, RIGHT, TOP, BOTTOM));
+		// same strip next to the tile
+		int[] shifted = rect(RIGHT + 1000, TOP - 10 * SIZE, RIGHT + 2000, BOTTOM + 10 * SIZE);
+		assertFalse(RegionTileGrid.crossesTile(shifted, null, LEFT, RIGHT, TOP, BOTTOM));
+	}
+
+	@Test
+	public void testHoleCrossingTile() {
+		// all corners of the tile are inside of outer ring and outside of the hole
+		assertFalse(RegionTileGrid.crossesTile(AROUND, null, LEFT, RIGHT, TOP, BOTTOM));
+		assertTrue(RegionTileGrid.crossesTile(AROUND, new int[][] { STRIP }, LEFT, RIGHT, TOP, BOTTOM));
+		int[] farHole = rect(RIGHT + SIZE, TOP, RIGHT + 2 * SIZE, BOTTOM);
+		assertFalse(RegionTileGrid.crossesTile(AROUND, new int[][] { farHole }, LEFT, RIGHT, TOP, BOTTOM));
+	}
+
+	@Test
+	public void testSegmentCrossesTile() {
+		// touches the border
+		assertTrue(RegionTileGrid.segmentCrossesTile(LEFT - 10, TOP - 10, LEFT + 10, TOP - 10 + 20, LEFT, RIGHT,
+				TOP, BOTTOM));
+		// passes by the corner
+		assertFalse(RegionTileGrid.segmentCrossesTile(LEFT - 20, TOP + 5, LEFT + 5, TOP - 20, LEFT, RIGHT, TOP,
+				BOTTOM));
+		// horizontal segment through the tile
+		assertTrue(RegionTileGrid.segmentCrossesTile(LEFT - SIZE, TOP + 5, RIGHT + SIZE, TOP + 5, LEFT, RIGHT, TOP,
+				BOTTOM));
+	}
+}
@@ -0,0 +1,58 @@
+package net.osmand.data.preparation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Batches of registered statements should be reported by table name, also when the last batch is flushed on close.
+ */
+public class AbstractIndexPartCreatorTest {
+	private static final Log log = LogFactory.getLog(AbstractIndexPartCreatorTest.class);
+
+	@Test
+	public void testTableStatistics() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "part_creator_test_" + System.currentTimeMillis());
+		dir.mkdirs();
+		try {
+			Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(
+					new File(dir, "test.db").getAbsolutePath(), log);
+			conn.setAutoCommit(false);
+			conn.createStatement().executeUpdate("create table points (id bigint primary key, name varchar(64))");
+			IndexCreatorMetrics metrics = new IndexCreatorMetrics();
+			AbstractIndexPartCreator creator = new AbstractIndexPartCreator();
+			creator.setMetrics(metrics);
+			PreparedStatement insert = creator.createPrepareStatement(conn, "points",
+					"insert into points (id, name) values (?, ?)");
+			PreparedStatement delete = creator.createPrepareStatement(conn, "delete from points where id = ?");
+			for (int i = 0; i < 2500; i++) {
+				insert.setLong(1, i);
+				insert.setString(2, "point " + i);
+				creator.addBatch(insert, 1000, true);
+			}
+			delete.setLong(1, 0);
+			creator.addBatch(delete);
+			creator.closeAllPreparedStatements();
+			conn.commit();
+			conn.close();
+
+			JSONObject tables = metrics.toJson().getJSONObject("tables");
+			// statement registered without table is not reported
+			assertEquals(1, tables.length());
+			assertEquals(2500, tables.getJSONObject("points").getLong("rows"));
+			// batch size grows after fast batches, the rest is flushed on close
+			assertTrue(tables.getJSONObject("points").getLong("batches") >= 2);
+		} finally {
+			Algorithms.removeAllFiles(dir);
+		}
+	}
+}
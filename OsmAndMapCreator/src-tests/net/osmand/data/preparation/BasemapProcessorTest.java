@@ -0,0 +1,105 @@
+package net.osmand.data.preparation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import net.osmand.binary.MapZooms;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.osm.MapRenderingTypesEncoder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Basemap generated with the pool of threads should be the same file as generated by one thread.
+ */
+public class BasemapProcessorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long nodeId = 1;
+	private long wayId = 1;
+
+	@Test
+	public void testThreadsSameAsSingleThread() throws Exception {
+		File osm = folder.newFile("basemap.osm");
+		writeBasemap(osm);
+		byte[] expected = generate(osm, 1);
+		assertTrue(expected.length > 0);
+		assertArrayEquals(expected, generate(osm, 4));
+		// submission order is kept by the pool of any size
+		assertArrayEquals(expected, generate(osm, 3));
+	}
+
+	private byte[] generate(File osm, int threads) throws Exception {
+		File dir = folder.newFolder("threads_" + threads);
+		IndexCreator creator = new IndexCreator(dir);
+		creator.setIndexPOI(true);
+		creator.setMapFileName("basemap.obf");
+		creator.setLastModifiedDate(1000000L);
+		creator.setBasemapThreads(threads);
+		creator.generateBasemapIndex(new ConsoleProgressImplementation(1), null, MapZooms.getDefault(),
+				new MapRenderingTypesEncoder("basemap"), null, "basemap", osm);
+		return Files.readAllBytes(new File(dir, "basemap.obf").toPath());
+	}
+
+	// motorways crossing many tiles, cities, coastline and lakes (multipolygons)
+	private void writeBasemap(File osm) throws Exception {
+		Writer w = new OutputStreamWriter(new FileOutputStream(osm), "UTF-8");
+		w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n");
+		for (int i = 0; i < 30; i++) {
+			double lat = 44.0 + i * 0.3;
+			long[] road = new long[20];
+			for (int j = 0; j < road.length; j++) {
+				road[j] = node(w, lat + (j % 2) * 0.05, 2.0 + j * 0.4);
+			}
+			way(w, road, "highway", "motorway", "ref", "A" + i);
+			long city = nodeId++;
+			w.write("<node id='" + city + "' lat='" + (lat + 0.1) + "' lon='" + (3.0 + i * 0.2) + "'>\n"
+					+ "<tag k='place' v='city'/>\n<tag k='name' v='City " + i + "'/>\n"
+					+ "<tag k='population' v='" + (100000 + i * 1000) + "'/>\n</node>\n");
+			double llat = lat + 0.15;
+			double llon = 5.0 + i * 0.1;
+			long a = node(w, llat, llon);
+			long b = node(w, llat, llon + 0.3);
+			long c = node(w, llat + 0.2, llon + 0.3);
+			long d = node(w, llat + 0.2, llon);
+			long outer = wayId;
+			way(w, new long[] { a, b, c, d, a });
+			w.write("<relation id='" + (i + 1) + "'>\n<member type='way' ref='" + outer + "' role='outer'/>\n"
+					+ "<tag k='type' v='multipolygon'/>\n<tag k='natural' v='water'/>\n"
+					+ "<tag k='name' v='Lake " + i + "'/>\n</relation>\n");
+		}
+		long[] coast = new long[200];
+		for (int j = 0; j < coast.length; j++) {
+			coast[j] = node(w, 43.5 + Math.sin(j / 10.0) * 0.2, 1.0 + j * 0.05);
+		}
+		way(w, coast, "natural", "coastline");
+		w.write("</osm>\n");
+		w.close();
+	}
+
+	private long node(Writer w, double lat, double lon) throws Exception {
+		long id = nodeId++;
+		w.write("<node id='" + id + "' lat='" + lat + "' lon='" + lon + "'/>\n");
+		return id;
+	}
+
+	private void way(Writer w, long[] nodes, String... tags) throws Exception {
+		w.write("<way id='" + (wayId++) + "'>\n");
+		for (long n : nodes) {
+			w.write("<nd ref='" + n + "'/>\n");
+		}
+		for (int i = 0; i < tags.length; i += 2) {
+			w.write("<tag k='" + tags[i] + "' v='" + tags[i + 1] + "'/>\n");
+		}
+		w.write("</way>\n");
+	}
+}
@@ -0,0 +1,53 @@
+package net.osmand.data.preparation;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Cpu time of a phase should include worker threads, and peak heap of jvm should not be reset by a new run.
+ */
+public class IndexCreatorMetricsTest {
+
+	@Test
+	public void testCpuTimeOfWorkers() throws Exception {
+		IndexCreatorMetrics metrics = new IndexCreatorMetrics();
+		metrics.startPhase("work");
+		final long[] workerCpu = new long[1];
+		Thread worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long start = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+				long s = 0;
+				while (ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - start < 300000000L) {
+					s += Math.sqrt(s + 1);
+				}
+				workerCpu[0] = (ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - start) / 1000000;
+			}
+		});
+		worker.start();
+		worker.join();
+		metrics.finishPhase(0);
+		long cpuTime = metrics.toJson().getJSONObject("phases").getJSONObject("work").getLong("cpuTime");
+		assertTrue(cpuTime + " < " + workerCpu[0], cpuTime >= workerCpu[0]);
+	}
+
+	@Test
+	public void testPeakHeapNotReset() throws Exception {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		IndexCreatorMetrics metrics = new IndexCreatorMetrics();
+		JSONObject json = metrics.toJson();
+		assertTrue(json.getLong("peakHeapUsedAtStart") >= peak);
+		assertTrue(json.getLong("peakHeapUsed") >= json.getLong("peakHeapUsedAtStart"));
+	}
+}
@@ -0,0 +1,155 @@
+package net.osmand.data.preparation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import net.osmand.binary.MapZooms;
+import net.osmand.binary.MapZooms.MapZoomPair;
+import net.osmand.data.diff.ObfFileInMemory;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.util.Algorithms;
+
+import org.junit.Test;
+
+/**
+ * Objects generated by two partitions should be the same as generated by one run, and every object (including
+ * multipolygon crossing partitions) should be written by one partition only.
+ */
+public class IndexCreatorPartitionedTest {
+
+	private long nodeId = 1;
+	private long wayId = 1;
+
+	@Test
+	public void testTwoPartitionsSameAsSingleRun() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "partitioned_test_" + System.currentTimeMillis());
+		dir.mkdirs();
+		try {
+			File osm = new File(dir, "stripe.osm");
+			writeStripe(osm);
+
+			File single = new File(dir, "single");
+			single.mkdirs();
+			IndexCreator creator = new IndexCreator(single);
+			creator.setIndexMap(true);
+			creator.setIndexPOI(true);
+			creator.setIndexRouting(true);
+			creator.setIndexAddress(false);
+			creator.setIndexTransport(false);
+			creator.setGenerateLowLevelIndexes(false);
+			creator.setMapFileName("stripe.obf");
+			creator.generateIndexes(osm, new ConsoleProgressImplementation(1), null, MapZooms.getDefault(), null, null);
+
+			File parted = new File(dir, "partitioned");
+			parted.mkdirs();
+			IndexCreatorPartitioned partitioned = new IndexCreatorPartitioned(parted, 2, 2);
+			partitioned.setIndexMap(true);
+			partitioned.setIndexPOI(true);
+			partitioned.setIndexRouting(true);
+			partitioned.setMapFileName("stripe.obf");
+			partitioned.setDeleteTempFiles(false);
+			partitioned.generateIndexes(new File[] { osm }, new ConsoleProgressImplementation(1), null,
+					MapZooms.getDefault(), null);
+
+			ObfFileInMemory expected = read(new File(single, "stripe.obf"));
+			ObfFileInMemory actual = read(new File(parted, "stripe.obf"));
+			// low level ways are merged only inside of partition, so compare the most detailed level
+			MapZoomPair detailed = detailedZoom(expected);
+			assertEquals(sorted(expected.get(detailed).keys()), sorted(actual.get(detailed).keys()));
+			assertEquals(sorted(expected.getRoutingData().keys()), sorted(actual.getRoutingData().keys()));
+			assertEquals(sorted(expected.getPoiObjects().keys()), sorted(actual.getPoiObjects().keys()));
+
+			// nothing is written twice
+			int mapObjects = 0, routeObjects = 0, poiObjects = 0;
+			for (int i = 0; i < 2; i++) {
+				ObfFileInMemory part = read(new File(parted, "partition_" + i + "/stripe.obf"));
+				assertFalse(part.getPoiObjects().isEmpty());
+				mapObjects += part.get(detailed).size();
+				routeObjects += part.getRoutingData().size();
+				poiObjects += part.getPoiObjects().size();
+			}
+			assertEquals(expected.get(detailed).size(), mapObjects);
+			assertEquals(expected.getRoutingData().size(), routeObjects);
+			assertEquals(expected.getPoiObjects().size(), poiObjects);
+		} finally {
+			Algorithms.removeAllFiles(dir);
+		}
+	}
+
+	private ObfFileInMemory read(File obf) throws Exception {
+		ObfFileInMemory f = new ObfFileInMemory();
+		f.readObfFiles(Collections.singletonList(obf));
+		return f;
+	}
+
+	private MapZoomPair detailedZoom(ObfFileInMemory f) {
+		MapZoomPair res = null;
+		for (MapZoomPair p : f.getZooms()) {
+			if (res == null || p.getMinZoom() > res.getMinZoom()) {
+				res = p;
+			}
+		}
+		return res;
+	}
+
+	private String sorted(long[] ids) {
+		Arrays.sort(ids);
+		return Arrays.toString(ids);
+	}
+
+	// roads, buildings and cafes spread along the stripe and forest multipolygon crossing all of them
+	private void writeStripe(File osm) throws Exception {
+		Writer w = new OutputStreamWriter(new FileOutputStream(osm), "UTF-8");
+		w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n");
+		for (int i = 0; i < 40; i++) {
+			double lon = 4.0 + i * 0.01;
+			long[] road = new long[5];
+			for (int j = 0; j < road.length; j++) {
+				road[j] = node(w, 52.0 + j * 0.002, lon);
+			}
+			way(w, road, "highway", "residential", "name", "Street " + i);
+			double blat = 52.02;
+			long a = node(w, blat, lon);
+			long b = node(w, blat, lon + 0.001);
+			long c = node(w, blat + 0.001, lon + 0.001);
+			long d = node(w, blat + 0.001, lon);
+			way(w, new long[] { a, b, c, d, a }, "building", "yes");
+			long cafe = nodeId++;
+			w.write("<node id='" + cafe + "' lat='52.01' lon='" + (lon + 0.005) + "'>\n"
+					+ "<tag k='amenity' v='cafe'/>\n<tag k='name' v='Cafe " + i + "'/>\n</node>\n");
+		}
+		long a = node(w, 52.05, 4.0);
+		long b = node(w, 52.05, 4.4);
+		long c = node(w, 52.06, 4.4);
+		long d = node(w, 52.06, 4.0);
+		long outer = wayId;
+		way(w, new long[] { a, b, c, d, a });
+		w.write("<relation id='1'>\n<member type='way' ref='" + outer + "' role='outer'/>\n"
+				+ "<tag k='type' v='multipolygon'/>\n<tag k='landuse' v='forest'/>\n</relation>\n");
+		w.write("</osm>\n");
+		w.close();
+	}
+
+	private long node(Writer w, double lat, double lon) throws Exception {
+		long id = nodeId++;
+		w.write("<node id='" + id + "' lat='" + lat + "' lon='" + lon + "'/>\n");
+		return id;
+	}
+
+	private void way(Writer w, long[] nodes, String... tags) throws Exception {
+		w.write("<way id='" + (wayId++) + "'>\n");
+		for (long n : nodes) {
+			w.write("<nd ref='" + n + "'/>\n");
+		}
+		for (int i = 0; i < tags.length; i += 2) {
+			w.write("<tag k='" + tags[i] + "' v='" + tags[i + 1] + "'/>\n");
+		}
+		w.write("</way>\n");
+	}
+}
@@ -0,0 +1,106 @@
+package net.osmand.data.preparation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.osmand.data.Amenity;
+import net.osmand.data.diff.ObfFileInMemory;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.osm.MapRenderingTypesEncoder;
+import net.osmand.osm.edit.Node;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Poi data blocks encoded by the pool of threads should be the same as encoded by one thread, and should be read
+ * back with the same pois as written by the previous writer ({@link PoiDataByBoxQueries}).
+ */
+public class IndexPoiCreatorTest {
+
+	private static final String[] TYPES = { "amenity", "cafe", "amenity", "restaurant", "shop", "bakery",
+			"tourism", "hotel", "amenity", "pharmacy" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testThreadsSameAsSingleThread() throws Exception {
+		boolean zip = IndexPoiCreator.ZIP_LONG_STRINGS;
+		// long descriptions are zipped by encoding threads
+		IndexPoiCreator.ZIP_LONG_STRINGS = true;
+		try {
+			File single = write(new IndexPoiCreator(new MapRenderingTypesEncoder(null, "test"), false), 1);
+			File threads = write(new IndexPoiCreator(new MapRenderingTypesEncoder(null, "test"), false), 4);
+			File previous = write(new PoiDataByBoxQueries(new MapRenderingTypesEncoder(null, "test")), 1);
+			assertArrayEquals(Files.readAllBytes(single.toPath()), Files.readAllBytes(threads.toPath()));
+
+			List<String> expected = read(previous);
+			assertEquals(600, expected.size());
+			assertEquals(expected, read(single));
+			assertEquals(expected, read(threads));
+		} finally {
+			IndexPoiCreator.ZIP_LONG_STRINGS = zip;
+		}
+	}
+
+	private File write(IndexPoiCreator creator, int threads) throws Exception {
+		File dir = folder.newFolder();
+		creator.setWriteThreads(threads);
+		creator.createDatabaseStructure(new File(dir, "test.poi.odb"));
+		// ids of osm db
+		long id = 1;
+		// several pois in a box, boxes spread over a few zoom 16 tiles in two cities
+		for (int city = 0; city < 2; city++) {
+			for (int i = 0; i < 300; i++) {
+				Node n = new Node(52.0 + city * 0.7 + (i % 20) * 0.003, 4.0 + city * 1.3 + (i / 20) * 0.004,
+						(id++) << OsmDbCreator.SHIFT_ID);
+				int t = (i % (TYPES.length / 2)) * 2;
+				n.putTag(TYPES[t], TYPES[t + 1]);
+				n.putTag("name", "Poi " + city + " " + i);
+				if (i % 3 == 0) {
+					n.putTag("opening_hours", "Mo-Fr 08:00-" + (17 + i % 5) + ":00");
+				}
+				if (i % 7 == 0) {
+					StringBuilder b = new StringBuilder();
+					for (int k = 0; k < 20; k++) {
+						b.append("Description ").append(i).append(' ');
+					}
+					n.putTag("description", b.toString());
+				}
+				creator.iterateEntity(n, null, false);
+			}
+		}
+		File obf = new File(dir, "test.obf");
+		RandomAccessFile raf = new RandomAccessFile(obf, "rw");
+		BinaryMapIndexWriter writer = new BinaryMapIndexWriter(raf, 1000000L);
+		creator.writeBinaryPoiIndex(writer, "test", new ConsoleProgressImplementation(1));
+		writer.close();
+		raf.close();
+		creator.commitAndClosePoiFile(null);
+		return obf;
+	}
+
+	private List<String> read(File obf) throws Exception {
+		ObfFileInMemory f = new ObfFileInMemory();
+		f.readObfFiles(Collections.singletonList(obf));
+		List<String> res = new ArrayList<String>();
+		for (Map<String, Amenity> amenities : f.getPoiObjects().valueCollection()) {
+			for (Amenity a : amenities.values()) {
+				res.add(a.getId() + " " + a.getType().getKeyName() + " " + a.getSubType() + " " + a.getName() + " "
+						+ a.getLocation() + " " + new TreeMap<String, String>(a.getAdditionalInfo()));
+			}
+		}
+		Collections.sort(res);
+		return res;
+	}
+}
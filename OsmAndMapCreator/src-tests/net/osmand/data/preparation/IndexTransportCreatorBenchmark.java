@@ -0,0 +1,72 @@
+package net.osmand.data.preparation;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.util.Arrays;
+
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes transport index of synthetic network with queries per route and stop ({@link TransportIndexByQueries}) and
+ * with ordered scans, prints time of both and checks that files are equal.
+ *
+ * Usage : IndexTransportCreatorBenchmark [--routes=50000] [--stops=20000] [--dir=tmp]
+ */
+public class IndexTransportCreatorBenchmark {
+	private static final Log log = LogFactory.getLog(IndexTransportCreatorBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+		int routes = 50000;
+		int stops = 20000;
+		File dir = new File(System.getProperty("java.io.tmpdir"), "transport_benchmark");
+		for (String a : args) {
+			if (a.startsWith("--routes=")) {
+				routes = Integer.parseInt(a.substring("--routes=".length()));
+			} else if (a.startsWith("--stops=")) {
+				stops = Integer.parseInt(a.substring("--stops=".length()));
+			} else if (a.startsWith("--dir=")) {
+				dir = new File(a.substring("--dir=".length()));
+			}
+		}
+		Algorithms.removeAllFiles(dir);
+		dir.mkdirs();
+		try {
+			IndexTransportCreator creator = new IndexTransportCreator();
+			Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(
+					new File(dir, "transport.db").getAbsolutePath(), log);
+			conn.setAutoCommit(false);
+			creator.createDatabaseStructure(conn, DBDialect.SQLITE, new File(dir, "stops.rtree").getAbsolutePath());
+			long time = System.nanoTime();
+			IndexTransportCreatorTest.createNetwork(creator, routes, stops, false);
+			long insert = System.nanoTime() - time;
+
+			File expected = new File(dir, "queries.obf");
+			time = System.nanoTime();
+			IndexTransportCreatorTest.writeIndex(creator, conn, expected, true);
+			long queries = System.nanoTime() - time;
+
+			File actual = new File(dir, "scans.obf");
+			time = System.nanoTime();
+			IndexTransportCreatorTest.writeIndex(creator, conn, actual, false);
+			long scans = System.nanoTime() - time;
+			conn.close();
+
+			System.out.println("Transport network of " + routes + " routes, " + stops + " stops is inserted in "
+					+ insert / 1000000 + " ms");
+			System.out.println("Queries : " + queries / 1000000 + " ms");
+			System.out.println("Scans : " + scans / 1000000 + " ms, speed up "
+					+ String.format("%.1f", queries / (double) scans));
+			if (!Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()))) {
+				System.out.println("Files are different");
+				System.exit(1);
+			}
+			System.out.println("Files are equal");
+		} finally {
+			Algorithms.removeAllFiles(dir);
+		}
+	}
+}
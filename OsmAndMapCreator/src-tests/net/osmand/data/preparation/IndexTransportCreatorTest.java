@@ -0,0 +1,123 @@
+package net.osmand.data.preparation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import net.osmand.data.TransportRoute;
+import net.osmand.data.TransportStop;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+/**
+ * Transport index written by ordered scans should be byte-identical to index written with queries per route and stop
+ * ({@link TransportIndexByQueries}). Timings of big network are printed by {@link IndexTransportCreatorBenchmark}.
+ */
+public class IndexTransportCreatorTest {
+	private static final Log log = LogFactory.getLog(IndexTransportCreatorTest.class);
+
+	private static final String[] TYPES = { "bus", "tram", "trolleybus", "subway", "train" };
+
+	@Test
+	public void testScansSameAsQueries() throws Exception {
+		compare(2000, 1000, false);
+	}
+
+	@Test
+	public void testRoutesNotOrderedById() throws Exception {
+		compare(500, 300, true);
+	}
+
+	private void compare(int routes, int stops, boolean shuffle) throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "transport_test_" + System.currentTimeMillis());
+		dir.mkdirs();
+		try {
+			IndexTransportCreator creator = new IndexTransportCreator();
+			Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(
+					new File(dir, "transport.db").getAbsolutePath(), log);
+			conn.setAutoCommit(false);
+			creator.createDatabaseStructure(conn, DBDialect.SQLITE, new File(dir, "stops.rtree").getAbsolutePath());
+			createNetwork(creator, routes, stops, shuffle);
+
+			File expected = new File(dir, "queries.obf");
+			writeIndex(creator, conn, expected, true);
+			File actual = new File(dir, "scans.obf");
+			writeIndex(creator, conn, actual, false);
+			conn.close();
+
+			assertTrue(expected.length() > 0);
+			assertTrue(Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath())));
+		} finally {
+			Algorithms.removeAllFiles(dir);
+		}
+	}
+
+	static void writeIndex(IndexTransportCreator creator, Connection conn, File file, boolean byQueries)
+			throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		BinaryMapIndexWriter writer = new BinaryMapIndexWriter(raf, 0l);
+		if (byQueries) {
+			TransportIndexByQueries.writeBinaryTransportIndex(creator, writer, "test", conn);
+		} else {
+			creator.writeBinaryTransportIndex(writer, "test", conn);
+		}
+		writer.close();
+		raf.close();
+	}
+
+	static void createNetwork(IndexTransportCreator creator, int routes, int stops, boolean shuffle) throws Exception {
+		Random rnd = new Random(17);
+		List<TransportStop> allStops = new ArrayList<TransportStop>();
+		for (int i = 0; i < stops; i++) {
+			TransportStop s = new TransportStop();
+			s.setId(1000l + i);
+			s.setName("Stop " + (i % 3000));
+			if (i % 4 == 0) {
+				s.setEnName("Stop en " + i);
+			}
+			s.setLocation(52 + rnd.nextDouble(), 4 + rnd.nextDouble());
+			allStops.add(s);
+		}
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < routes; i++) {
+			order.add(i);
+		}
+		if (shuffle) {
+			Collections.shuffle(order, rnd);
+		}
+		long nodeId = 1;
+		for (int i : order) {
+			TransportRoute r = new TransportRoute();
+			r.setId(2l * i);
+			// many routes with same type and ref
+			r.setRef(Integer.toString(i % 200));
+			r.setType(TYPES[i % TYPES.length]);
+			r.setName("Route " + i);
+			r.setOperator("Operator " + (i % 10));
+			int start = rnd.nextInt(stops);
+			int cnt = 5 + rnd.nextInt(15);
+			for (int k = 0; k < cnt; k++) {
+				r.getForwardStops().add(allStops.get((start + k * 7) % stops));
+			}
+			Way w = new Way(-i - 1);
+			for (int k = 0; k < 10; k++) {
+				w.addNode(new Node(52 + rnd.nextDouble(), 4 + rnd.nextDouble(), nodeId++));
+			}
+			r.addWay(w);
+			creator.insertTransportIntoIndex(r);
+		}
+	}
+}
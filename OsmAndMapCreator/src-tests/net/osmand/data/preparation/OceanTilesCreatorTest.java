@@ -0,0 +1,80 @@
+package net.osmand.data.preparation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.osmand.data.MultipolygonFileTest;
+import net.osmand.util.MapUtils;
+
+import org.junit.Test;
+
+public class OceanTilesCreatorTest {
+
+	@Test
+	public void testStreamingSameAsInMemory() throws Exception {
+		File input = new File(MultipolygonFileTest.class.getResource("multipolygon.osm").toURI());
+		compare(input);
+	}
+
+	@Test
+	public void testStreamingSameAsInMemoryRandomCoastlines() throws Exception {
+		File input = File.createTempFile("coastline", ".osm");
+		try {
+			writeRandomCoastlines(input);
+			compare(input);
+		} finally {
+			input.delete();
+		}
+	}
+
+	private void compare(File input) throws Exception {
+		File expected = File.createTempFile("oceantiles", ".dat");
+		File actual = File.createTempFile("oceantiles_streaming", ".dat");
+		try {
+			OceanTilesCreator.createTilesFile(input.getAbsolutePath(), expected.getAbsolutePath());
+			OceanTilesCreator.createTilesFileStreaming(input.getAbsolutePath(), actual.getAbsolutePath(), 3);
+			assertTrue(Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath())));
+		} finally {
+			expected.delete();
+			actual.delete();
+		}
+	}
+
+	private void writeRandomCoastlines(File f) throws IOException {
+		Random rnd = new Random(7);
+		int ways = 200;
+		int nodesPerWay = 20;
+		Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n");
+		for (int i = 0; i < ways * nodesPerWay; i++) {
+			double lat;
+			double lon;
+			if (i % 5 == 0) {
+				// exactly on tile borders
+				lat = MapUtils.getLatitudeFromTile(OceanTilesCreator.TILE_ZOOMLEVEL, 1000 + rnd.nextInt(50));
+				lon = MapUtils.getLongitudeFromTile(OceanTilesCreator.TILE_ZOOMLEVEL, 2000 + rnd.nextInt(50));
+			} else {
+				lat = 50 + rnd.nextDouble() * 10;
+				lon = rnd.nextDouble() * 10;
+			}
+			w.write("<node id='" + (i + 1) + "' lat='" + lat + "' lon='" + lon + "'/>\n");
+		}
+		for (int i = 0; i < ways; i++) {
+			w.write("<way id='" + (i + 1) + "'>\n");
+			for (int j = 0; j < nodesPerWay; j++) {
+				w.write("<nd ref='" + (i * nodesPerWay + j + 1) + "'/>\n");
+			}
+			w.write("<tag k='natural' v='coastline'/>\n</way>\n");
+		}
+		w.write("</osm>\n");
+		w.close();
+	}
+}
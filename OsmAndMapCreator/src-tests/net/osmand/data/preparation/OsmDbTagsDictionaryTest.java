@@ -0,0 +1,94 @@
+package net.osmand.data.preparation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.osm.edit.Node;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+/**
+ * Tags should be decoded as they were encoded, also when dictionary is full and new keys and values are stored inline.
+ */
+public class OsmDbTagsDictionaryTest {
+	private static final Log log = LogFactory.getLog(OsmDbTagsDictionaryTest.class);
+
+	private static final int MAX_SIZE = 8;
+
+	@Test
+	public void testRoundtrip() throws Exception {
+		OsmDbTagsDictionary dictionary = new OsmDbTagsDictionary(MAX_SIZE);
+		List<Map<String, String>> tags = tags();
+		List<byte[]> encoded = new ArrayList<byte[]>();
+		for (Map<String, String> t : tags) {
+			encoded.add(dictionary.encodeTags(t));
+		}
+		// new keys are not added to the full dictionary
+		assertEquals(MAX_SIZE, dictionary.size());
+		for (int i = 0; i < tags.size(); i++) {
+			assertEquals(tags.get(i), decode(dictionary, encoded.get(i)));
+		}
+	}
+
+	@Test
+	public void testRoundtripAfterLoad() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "tags_dictionary_test_" + System.currentTimeMillis());
+		dir.mkdirs();
+		try {
+			Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(
+					new File(dir, "nodes.tmp.odb").getAbsolutePath(), log);
+			OsmDbTagsDictionary.createTable(conn, DBDialect.SQLITE);
+			OsmDbTagsDictionary dictionary = new OsmDbTagsDictionary(MAX_SIZE);
+			List<Map<String, String>> tags = tags();
+			List<byte[]> encoded = new ArrayList<byte[]>();
+			for (Map<String, String> t : tags) {
+				encoded.add(dictionary.encodeTags(t));
+				dictionary.save(conn);
+			}
+			OsmDbTagsDictionary loaded = OsmDbTagsDictionary.load(conn);
+			conn.close();
+			assertEquals(MAX_SIZE, loaded.size());
+			for (int i = 0; i < tags.size(); i++) {
+				assertEquals(tags.get(i), decode(loaded, encoded.get(i)));
+			}
+		} finally {
+			Algorithms.removeAllFiles(dir);
+		}
+	}
+
+	private Map<String, String> decode(OsmDbTagsDictionary dictionary, byte[] encoded) {
+		Node n = new Node(0, 0, 1);
+		dictionary.decodeTags(n, encoded);
+		return new LinkedHashMap<String, String>(n.getTags());
+	}
+
+	// common tags first, then more distinct keys and values than dictionary can hold
+	private List<Map<String, String>> tags() {
+		List<Map<String, String>> res = new ArrayList<Map<String, String>>();
+		res.add(map("highway", "residential", "name", "Main street", "oneway", "yes"));
+		res.add(map("highway", "primary", "ref", "A1"));
+		for (int i = 0; i < 10; i++) {
+			res.add(map("highway", "residential", "key" + i, "value" + i, "name:uk", "Вулиця " + i));
+		}
+		res.add(map("description", "long text value that is never stored in the dictionary of tags"));
+		res.add(map());
+		return res;
+	}
+
+	private Map<String, String> map(String... kv) {
+		Map<String, String> m = new LinkedHashMap<String, String>();
+		for (int i = 0; i < kv.length; i += 2) {
+			m.put(kv[i], kv[i + 1]);
+		}
+		return m;
+	}
+}
@@ -0,0 +1,58 @@
+package net.osmand.data.preparation;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.osm.MapRenderingTypesEncoder;
+
+/**
+ * Previous implementation of {@link IndexPoiCreator#writePoiDataBlocks} with query per box and atoms written by
+ * the writer one by one, kept as reference for tests.
+ */
+class PoiDataByBoxQueries extends IndexPoiCreator {
+
+	public PoiDataByBoxQueries(MapRenderingTypesEncoder renderingTypes) {
+		super(renderingTypes, false);
+	}
+
+	@Override
+	void writePoiDataBlocks(BinaryMapIndexWriter writer, List<PoiTileBox> leafs,
+			Map<PoiTileBox, List<BinaryFileReference>> fpToWriteSeeks, PoiCreatorCategories globalCategories)
+			throws SQLException, IOException {
+		PreparedStatement prepareStatement = getPoiConnection()
+				.prepareStatement("SELECT id, x, y, type, subtype, additionalTags from poi "
+						+ "where x >= ? AND x < ? AND y >= ? AND y < ?");
+		for (Map.Entry<PoiTileBox, List<BinaryFileReference>> entry : fpToWriteSeeks.entrySet()) {
+			int z = entry.getKey().zoom;
+			int x = entry.getKey().x;
+			int y = entry.getKey().y;
+			writer.startWritePoiData(z, x, y, entry.getValue());
+			prepareStatement.setInt(1, x << (31 - z));
+			prepareStatement.setInt(2, (x + 1) << (31 - z));
+			prepareStatement.setInt(3, y << (31 - z));
+			prepareStatement.setInt(4, (y + 1) << (31 - z));
+			ResultSet rset = prepareStatement.executeQuery();
+			Map<PoiAdditionalType, String> mp = new HashMap<PoiAdditionalType, String>();
+			while (rset.next()) {
+				long id = rset.getLong(1);
+				int x31 = rset.getInt(2);
+				int y31 = rset.getInt(3);
+				int x24shift = (x31 >> 7) - (x << (24 - z));
+				int y24shift = (y31 >> 7) - (y << (24 - z));
+				String type = rset.getString(4);
+				String subtype = rset.getString(5);
+				writer.writePoiDataAtom(id, x24shift, y24shift, type, subtype,
+						decodeAdditionalInfo(rset.getString(6), mp), globalCategories,
+						ZIP_LONG_STRINGS ? ZIP_STRING_LIMIT : -1);
+			}
+			rset.close();
+			writer.endWritePoiData();
+		}
+		prepareStatement.close();
+	}
+}
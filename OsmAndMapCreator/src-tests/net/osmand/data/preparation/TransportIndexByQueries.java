@@ -0,0 +1,179 @@
+package net.osmand.data.preparation;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.data.TransportStop;
+import net.osmand.util.MapUtils;
+import net.sf.junidecode.Junidecode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import rtree.Element;
+import rtree.RTree;
+import rtree.RTreeException;
+import rtree.Rect;
+
+/**
+ * Previous implementation of {@link IndexTransportCreator#writeBinaryTransportIndex} with queries per route and per
+ * stop, kept as reference for tests and benchmark.
+ */
+class TransportIndexByQueries {
+	private static final Log log = LogFactory.getLog(TransportIndexByQueries.class);
+
+	static void writeBinaryTransportIndex(IndexTransportCreator creator, BinaryMapIndexWriter writer,
+			String regionName, Connection mapConnection) throws IOException, SQLException {
+		try {
+			creator.finishTransportDatabase(mapConnection);
+			PreparedStatement selectTransportRouteData = mapConnection.prepareStatement(
+					"SELECT id, dist, name, name_en, ref, operator, type, color FROM transport_route"); //$NON-NLS-1$
+			PreparedStatement selectTransportData = mapConnection.prepareStatement("SELECT S.stop, " + //$NON-NLS-1$
+					"  A.latitude,  A.longitude, A.name, A.name_en " + //$NON-NLS-1$
+					"FROM transport_route_stop S INNER JOIN transport_stop A ON A.id = S.stop WHERE S.route = ? ORDER BY S.ord asc"); //$NON-NLS-1$
+			PreparedStatement selectTransportRouteGeometry = mapConnection.prepareStatement("SELECT S.geometry " +
+					"FROM transport_route_geometry S WHERE S.route = ?"); //$NON-NLS-1$
+
+			writer.startWriteTransportIndex(regionName);
+
+			writer.startWriteTransportRoutes();
+
+			// expect that memory would be enough
+			Map<String, Integer> stringTable = creator.createStringTableForTransport();
+			Map<Long, Long> transportRoutes = new LinkedHashMap<Long, Long>();
+
+			ResultSet rs = selectTransportRouteData.executeQuery();
+			List<TransportStop> directStops = new ArrayList<>();
+			List<TransportStop> reverseStops = new ArrayList<>();
+			List<byte[]> directGeometry = new ArrayList<>();
+			while (rs.next()) {
+				long idRoute = rs.getLong(1);
+				int dist = rs.getInt(2);
+				String routeName = rs.getString(3);
+				String routeEnName = rs.getString(4);
+				if (routeEnName != null && routeEnName.equals(Junidecode.unidecode(routeName))) {
+					routeEnName = null;
+				}
+				String ref = rs.getString(5);
+				String operator = rs.getString(6);
+				String type = rs.getString(7);
+				String color = rs.getString(8);
+
+				selectTransportData.setLong(1, idRoute);
+				ResultSet rset = selectTransportData.executeQuery();
+				reverseStops.clear();
+				directStops.clear();
+				directGeometry.clear();
+				while (rset.next()) {
+					long idStop = rset.getInt(1);
+					String stopName = rset.getString(4);
+					String stopEnName = rset.getString(5);
+					if (stopEnName != null && stopEnName.equals(Junidecode.unidecode(stopName))) {
+						stopEnName = null;
+					}
+					TransportStop st = new TransportStop();
+					st.setId(idStop);
+					st.setName(stopName);
+					st.setLocation(rset.getDouble(2), rset.getDouble(3));
+					if (stopEnName != null) {
+						st.setEnName(stopEnName);
+					}
+					directStops.add(st);
+				}
+				selectTransportRouteGeometry.setLong(1, idRoute);
+				rset = selectTransportRouteGeometry.executeQuery();
+				while (rset.next()) {
+					byte[] bytes = rset.getBytes(1);
+					directGeometry.add(bytes);
+				}
+				writer.writeTransportRoute(idRoute, routeName, routeEnName, ref, operator, type, dist, color, directStops,
+						directGeometry, stringTable, transportRoutes);
+			}
+			rs.close();
+			selectTransportRouteData.close();
+			selectTransportData.close();
+			writer.endWriteTransportRoutes();
+
+			PreparedStatement selectTransportStop = mapConnection.prepareStatement(
+					"SELECT A.id,  A.latitude,  A.longitude, A.name, A.name_en FROM transport_stop A where A.id = ?"); //$NON-NLS-1$
+			PreparedStatement selectTransportRouteStop = mapConnection.prepareStatement(
+					"SELECT DISTINCT S.route FROM transport_route_stop S join transport_route R  on R.id = S.route WHERE S.stop = ? ORDER BY R.type, R.ref "); //$NON-NLS-1$
+			RTree transportStopsTree = creator.getTransportStopsTree();
+			long rootIndex = transportStopsTree.getFileHdr().getRootIndex();
+			rtree.Node root = transportStopsTree.getReadNode(rootIndex);
+			Rect rootBounds = creator.calcBounds(root);
+			if (rootBounds != null) {
+				writer.startTransportTreeElement(rootBounds.getMinX(), rootBounds.getMaxX(), rootBounds.getMinY(), rootBounds.getMaxY());
+				writeBinaryTransportTree(root, transportStopsTree, writer, selectTransportStop, selectTransportRouteStop,
+						transportRoutes, stringTable);
+				writer.endWriteTransportTreeElement();
+			}
+			selectTransportStop.close();
+			selectTransportRouteStop.close();
+
+			writer.writeTransportStringTable(stringTable);
+
+			writer.endWriteTransportIndex();
+			writer.flush();
+		} catch (RTreeException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void writeBinaryTransportTree(rtree.Node parent, RTree r, BinaryMapIndexWriter writer,
+			PreparedStatement selectTransportStop, PreparedStatement selectTransportRouteStop,
+			Map<Long, Long> transportRoutes, Map<String, Integer> stringTable) throws IOException, RTreeException, SQLException {
+		Element[] e = parent.getAllElements();
+		List<Long> routes = null;
+		for (int i = 0; i < parent.getTotalElements(); i++) {
+			Rect re = e[i].getRect();
+			if (e[i].getElementType() == rtree.Node.LEAF_NODE) {
+				long id = e[i].getPtr();
+				selectTransportStop.setLong(1, id);
+				selectTransportRouteStop.setLong(1, id);
+				ResultSet rs = selectTransportStop.executeQuery();
+				if (rs.next()) {
+					int x24 = (int) MapUtils.getTileNumberX(24, rs.getDouble(3));
+					int y24 = (int) MapUtils.getTileNumberY(24, rs.getDouble(2));
+					String name = rs.getString(4);
+					String nameEn = rs.getString(5);
+					if (nameEn != null && nameEn.equals(Junidecode.unidecode(name))) {
+						nameEn = null;
+					}
+					ResultSet rset = selectTransportRouteStop.executeQuery();
+					if (routes == null) {
+						routes = new ArrayList<Long>();
+					} else {
+						routes.clear();
+					}
+					while (rset.next()) {
+						Long route = transportRoutes.get(rset.getLong(1));
+						if (route == null) {
+							log.error("Something goes wrong with transport route id = " + rset.getLong(1)); //$NON-NLS-1$
+						} else {
+							routes.add(route);
+						}
+					}
+					rset.close();
+					writer.writeTransportStop(id, x24, y24, name, nameEn, stringTable, routes);
+				} else {
+					log.error("Something goes wrong with transport id = " + id); //$NON-NLS-1$
+				}
+			} else {
+				long ptr = e[i].getPtr();
+				rtree.Node ns = r.getReadNode(ptr);
+
+				writer.startTransportTreeElement(re.getMinX(), re.getMaxX(), re.getMinY(), re.getMaxY());
+				writeBinaryTransportTree(ns, r, writer, selectTransportStop, selectTransportRouteStop, transportRoutes, stringTable);
+				writer.endWriteTransportTreeElement();
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package net.osmand.data.preparation.address;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.data.City;
+import net.osmand.data.City.CityType;
+import net.osmand.data.LatLon;
+import net.osmand.data.preparation.DBDialect;
+import net.osmand.data.preparation.address.DBStreetDAO.SimpleStreet;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+/**
+ * Streets of updated city should be found the same way before city is evicted and after it is loaded back from db.
+ */
+public class PartitionedDBStreetDAOTest {
+	private static final Log log = LogFactory.getLog(PartitionedDBStreetDAOTest.class);
+
+	private static final String[][] QUERIES = { { "Main", "Center" }, { "Main", "North" }, { "Main", "South" },
+			{ "Main", null }, { "Side", "Center" }, { "Side", null } };
+
+	@Test
+	public void testReloadAfterUpdate() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "street_dao_test_" + System.currentTimeMillis());
+		dir.mkdirs();
+		try {
+			Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(
+					new File(dir, "address.db").getAbsolutePath(), log);
+			conn.setAutoCommit(false);
+			PartitionedDBStreetDAO dao = new PartitionedDBStreetDAO(3);
+			dao.createDatabaseStructure(conn, DBDialect.SQLITE);
+			City city = city(1, "Town");
+			City other = city(2, "Village");
+
+			long main = dao.insertStreet("Main", Collections.<String, String> emptyMap(), new LatLon(52, 4), city,
+					"Center");
+			dao.insertStreet("Side", Collections.<String, String> emptyMap(), new LatLon(52, 4), city, "Center");
+			long south = dao.insertStreet("Main", Collections.<String, String> emptyMap(), new LatLon(52.1, 4), city,
+					"South");
+			SimpleStreet updated = dao.updateStreetCityPart(dao.findStreet("Main", city, "Center"), "North");
+			assertEquals(main, updated.getId());
+			Map<String, String> names = new HashMap<String, String>();
+			names.put("en", "Main street");
+			dao.updateStreetLangs(dao.findStreet("Side", city, "Center"), names);
+			List<String> cached = find(dao, city);
+			assertEquals(main, dao.findStreet("Main", city, "North").getId());
+			assertNull(dao.findStreet("Main", city, "Center"));
+			// street inserted later is found by name
+			assertEquals(south, dao.findStreet("Main", city).getId());
+
+			// city is evicted by streets of other city and loaded back from db
+			for (int i = 0; i < 4; i++) {
+				dao.insertStreet("Street " + i, Collections.<String, String> emptyMap(), new LatLon(53, 5), other, null);
+			}
+			assertTrue(dao.getCachedStreets() <= 4);
+			assertEquals(cached, find(dao, city));
+			dao.close();
+			conn.close();
+		} finally {
+			Algorithms.removeAllFiles(dir);
+		}
+	}
+
+	private List<String> find(PartitionedDBStreetDAO dao, City city) throws Exception {
+		List<String> res = new ArrayList<String>();
+		for (String[] q : QUERIES) {
+			SimpleStreet s = q[1] == null ? dao.findStreet(q[0], city) : dao.findStreet(q[0], city, q[1]);
+			res.add(s == null ? null : s.getId() + " " + s.getName() + " " + s.getCityPart() + " " + s.getLangs());
+		}
+		return res;
+	}
+
+	private City city(long id, String name) {
+		City c = new City(CityType.CITY);
+		c.setId(id);
+		c.setName(name);
+		return c;
+	}
+}
@@ -0,0 +1,188 @@
+package net.osmand.data.preparation.address;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import net.osmand.data.Building;
+import net.osmand.data.City;
+import net.osmand.data.City.CityType;
+import net.osmand.data.preparation.DBDialect;
+import net.osmand.data.preparation.address.DBStreetDAO.SimpleStreet;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs the same synthetic country-sized address workload (streets registered in cities, buildings and street ways
+ * checked before they are written) with {@link CachedDBStreetDAO} and {@link PartitionedDBStreetDAO}.
+ * Entities come with spatial locality as they do in osm extracts. Prints time, heap used by dao and hit rates,
+ * exits with 1 if answers of daos are different.
+ *
+ * Usage : StreetDAOBenchmark [--cities=20000] [--entities=10000000] [--maxStreets=524288] [--dir=tmp]
+ */
+public class StreetDAOBenchmark {
+	private static final Log log = LogFactory.getLog(StreetDAOBenchmark.class);
+
+	private static final int NAMES = 30000;
+
+	private final int cities;
+	private final int entities;
+	private final City[] cityObjects;
+	private final int[] cityStreets;
+
+	public StreetDAOBenchmark(int cities, int entities) {
+		this.cities = cities;
+		this.entities = entities;
+		Random rnd = new Random(7);
+		cityObjects = new City[cities];
+		cityStreets = new int[cities];
+		for (int i = 0; i < cities; i++) {
+			City c = new City(i % 50 == 0 ? CityType.CITY : CityType.VILLAGE);
+			c.setId(1000000l + i);
+			c.setName("City " + i);
+			c.setLocation(47 + (i / 150) * 0.04, 6 + (i % 150) * 0.06);
+			cityObjects[i] = c;
+			// few big cities with a lot of streets
+			cityStreets[i] = 5 + (int) (Math.pow(rnd.nextDouble(), 6) * 1500);
+		}
+	}
+
+	private long run(DBStreetDAO dao) throws SQLException {
+		Random rnd = new Random(11);
+		long checksum = 17;
+		int city = 0;
+		long wayId = 1;
+		long buildingId = 1;
+		Map<String, String> names = new HashMap<String, String>();
+		for (int k = 0; k < entities; k++) {
+			double r = rnd.nextDouble();
+			// entities are mostly close to each other
+			if (r < 0.001) {
+				city = rnd.nextInt(cities);
+			} else if (r < 0.02) {
+				city = Math.max(0, Math.min(cities - 1, city + rnd.nextInt(301) - 150));
+			}
+			City c = cityObjects[city];
+			int street = (int) (Math.pow(rnd.nextDouble(), 2) * cityStreets[city]);
+			String name = "Street " + ((street * 7919 + city) % NAMES);
+			String cityPart = street % 5 == 0 ? null : c.getName() + " part " + (street % 3);
+			if (rnd.nextInt(10) < 3) {
+				long id = rnd.nextInt(100) < 3 && wayId > 1 ? 1 + (long) (rnd.nextDouble() * (wayId - 1)) : wayId++;
+				Way w = new Way(id);
+				w.addNode(new Node(c.getLocation().getLatitude(), c.getLocation().getLongitude(), id * 2));
+				w.addNode(new Node(c.getLocation().getLatitude() + 0.001, c.getLocation().getLongitude(), id * 2 + 1));
+				boolean exist = dao.findStreetNode(w);
+				checksum = checksum * 31 + (exist ? 1 : 2);
+				if (!exist) {
+					dao.writeStreetWayNodes(Collections.singleton(getStreet(dao, rnd, name, cityPart, c, names)), w);
+				}
+			} else {
+				long id = rnd.nextInt(100) < 10 && buildingId > 1 ? 1 + (long) (rnd.nextDouble() * (buildingId - 1))
+						: buildingId++;
+				Building b = new Building();
+				b.setId(id);
+				b.setName(Integer.toString(1 + rnd.nextInt(200)));
+				b.setLocation(c.getLocation().getLatitude(), c.getLocation().getLongitude());
+				boolean exist = dao.findBuilding(b);
+				checksum = checksum * 31 + (exist ? 1 : 2);
+				if (!exist) {
+					long streetId = getStreet(dao, rnd, name, cityPart, c, names);
+					checksum = checksum * 31 + streetId;
+					Set<Long> ids = Collections.singleton(streetId);
+					dao.writeBuilding(ids, b);
+				}
+			}
+		}
+		dao.commit();
+		return checksum;
+	}
+
+	// same as IndexAddressCreator.getOrRegisterStreetIdForCity
+	private long getStreet(DBStreetDAO dao, Random rnd, String name, String cityPart, City c, Map<String, String> names)
+			throws SQLException {
+		SimpleStreet s = dao.findStreet(name, c, cityPart);
+		names.clear();
+		names.put("en", name + " en");
+		if (s == null) {
+			if (cityPart == null) {
+				cityPart = c.getName();
+			}
+			return dao.insertStreet(name, names, c.getLocation(), c, cityPart);
+		}
+		if (rnd.nextInt(100) == 0 && !s.getLangs().contains("de;")) {
+			names.clear();
+			names.put("de", name + " de");
+			s = dao.updateStreetLangs(s, names);
+		}
+		return s.getId();
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private long benchmark(String title, DBStreetDAO dao, File dir) throws SQLException {
+		File db = new File(dir, title + ".db");
+		db.delete();
+		Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(db.getAbsolutePath(), log);
+		conn.setAutoCommit(false);
+		dao.createDatabaseStructure(conn, DBDialect.SQLITE);
+		long heap = usedHeap();
+		long time = System.nanoTime();
+		long checksum = run(dao);
+		time = System.nanoTime() - time;
+		heap = usedHeap() - heap;
+		System.out.println(String.format("%s : %d ms, heap %d Mb", title, time / 1000000, heap >> 20));
+		if (dao instanceof PartitionedDBStreetDAO) {
+			PartitionedDBStreetDAO p = (PartitionedDBStreetDAO) dao;
+			System.out.println(String.format("  street hit rate %.4f, filter hit rate %.4f", p.getStreetHitRate(),
+					p.getFilterHitRate()));
+			System.out.println("  " + p.getStatistics());
+		}
+		dao.close();
+		conn.commit();
+		conn.close();
+		Algorithms.removeAllFiles(db);
+		return checksum;
+	}
+
+	public static void main(String[] args) throws SQLException {
+		int cities = 20000;
+		int entities = 10000000;
+		int maxStreets = PartitionedDBStreetDAO.DEFAULT_MAX_CACHED_STREETS;
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		for (String a : args) {
+			if (a.startsWith("--cities=")) {
+				cities = Integer.parseInt(a.substring("--cities=".length()));
+			} else if (a.startsWith("--entities=")) {
+				entities = Integer.parseInt(a.substring("--entities=".length()));
+			} else if (a.startsWith("--maxStreets=")) {
+				maxStreets = Integer.parseInt(a.substring("--maxStreets=".length()));
+			} else if (a.startsWith("--dir=")) {
+				dir = new File(a.substring("--dir=".length()));
+			}
+		}
+		StreetDAOBenchmark b = new StreetDAOBenchmark(cities, entities);
+		System.out.println(cities + " cities, " + entities + " entities");
+		long expected = b.benchmark("CachedDBStreetDAO", new CachedDBStreetDAO(), dir);
+		long actual = b.benchmark("PartitionedDBStreetDAO", new PartitionedDBStreetDAO(maxStreets), dir);
+		if (expected != actual) {
+			System.out.println("Results are different");
+			System.exit(1);
+		}
+		System.out.println("Results are equal");
+	}
+}
@@ -0,0 +1,76 @@
+package net.osmand.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.osm.MapRenderingTypesEncoder.EntityConvertApplyType;
+import net.osmand.osm.edit.Entity.EntityType;
+
+import org.junit.Test;
+
+public class MapRenderingTypesEncoderTest {
+
+	private static final String[][] CORPUS = {
+		{ "highway", "residential", "name", "Main Street", "oneway", "yes" },
+		{ "highway", "primary", "ref", "A 1;B 2", "lanes", "2", "maxspeed", "50" },
+		{ "highway", "track", "tracktype", "grade2", "surface", "gravel" },
+		{ "highway", "footway", "footway", "sidewalk" },
+		{ "highway", "bus_stop", "name", "Central", "shelter", "yes" },
+		{ "building", "yes", "addr:housenumber", "12", "addr:street", "Main Street" },
+		{ "amenity", "parking", "parking", "underground", "access", "private" },
+		{ "amenity", "charging_station", "socket:type2", "2", "socket:type2:output", "22 kW" },
+		{ "amenity", "place_of_worship", "religion", "christian", "denomination", "catholic" },
+		{ "shop", "supermarket", "name", "Market", "opening_hours", "Mo-Sa 08:00-20:00" },
+		{ "natural", "water", "water", "lake", "name", "Lake" },
+		{ "natural", "coastline" },
+		{ "landuse", "forest", "leaf_type", "needleleaved" },
+		{ "waterway", "river", "name", "River", "tunnel", "culvert" },
+		{ "railway", "rail", "usage", "main", "electrified", "contact_line", "service", "siding" },
+		{ "power", "line", "voltage", "110000" },
+		{ "boundary", "administrative", "admin_level", "4" },
+		{ "route", "bicycle", "network", "lcn", "osmc:symbol", "red:white:red_bar" },
+		{ "route", "hiking", "network", "iwn", "osmc:symbol", "blue:white:blue_lower::A:black" },
+		{ "tourism", "hotel", "stars", "4", "wikipedia", "en:Hotel" },
+		{ "seamark:type", "light_minor", "seamark:light:colour", "red" },
+		{ "piste:type", "downhill", "piste:difficulty", "easy" },
+		{ "aerialway", "chair_lift", "aerialway:occupancy", "4" },
+		{ "leisure", "pitch", "sport", "soccer;tennis", "surface", "Grass" },
+		{ "barrier", "gate", "access", "NO" },
+		{ "osmand_region_name", "germany", "highway", "motorway", "ref", "A 9" },
+		{ "name", "Only name" },
+	};
+
+	@Test
+	public void testCompiledConvertsSameAsInterpreted() {
+		MapRenderingTypesEncoder compiled = new MapRenderingTypesEncoder(null, "world");
+		MapRenderingTypesEncoder interpreted = new MapRenderingTypesEncoder(null, "world");
+		compiled.getEncodingRuleTypes();
+		interpreted.getEncodingRuleTypes();
+		interpreted.setCompiledConverts(false);
+		List<Map<String, String>> corpus = new ArrayList<Map<String, String>>();
+		for (String[] c : CORPUS) {
+			Map<String, String> tags = new LinkedHashMap<String, String>();
+			for (int i = 0; i < c.length; i += 2) {
+				tags.put(c[i], c[i + 1]);
+			}
+			corpus.add(tags);
+		}
+		// second pass is served by cache of compiled converts
+		for (int pass = 0; pass < 2; pass++) {
+			for (Map<String, String> tags : corpus) {
+				for (EntityType et : new EntityType[] { EntityType.NODE, EntityType.WAY, EntityType.RELATION }) {
+					for (EntityConvertApplyType at : EntityConvertApplyType.values()) {
+						assertEquals(tags + " " + et + " " + at,
+								interpreted.transformTags(new LinkedHashMap<String, String>(tags), et, at),
+								compiled.transformTags(new LinkedHashMap<String, String>(tags), et, at));
+					}
+					assertEquals(tags + " " + et, interpreted.splitTags(tags, et), compiled.splitTags(tags, et));
+				}
+			}
+		}
+	}
+}
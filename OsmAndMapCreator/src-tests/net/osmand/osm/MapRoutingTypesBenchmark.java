@@ -0,0 +1,124 @@
+package net.osmand.osm;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.osmand.osm.MapRoutingTypes.MapRouteType;
+
+/**
+ * Encodes a corpus of highway tag maps with interpreted rules, compiled rules and compiled rules with cache of
+ * types by tags signature, prints time and allocated bytes per way.
+ *
+ * Usage : MapRoutingTypesBenchmark [--ways=1000000] [--iterations=5]
+ */
+public class MapRoutingTypesBenchmark {
+
+	private static final String[] HIGHWAYS = { "residential", "service", "track", "footway", "unclassified",
+			"tertiary", "secondary", "primary", "trunk", "motorway", "motorway_link", "living_street", "path",
+			"cycleway" };
+	private static final String[] SURFACES = { "asphalt", "paved", "gravel", "ground", "unpaved", "concrete" };
+	private static final String[] SPEEDS = { "30", "50", "70", "90", "120", "30 mph", "none", "walk" };
+
+	private static List<Map<String, String>> generate(int size) {
+		Random rnd = new Random(0);
+		List<Map<String, String>> res = new ArrayList<Map<String, String>>(size);
+		for (int i = 0; i < size; i++) {
+			Map<String, String> tags = new LinkedHashMap<String, String>();
+			tags.put("highway", HIGHWAYS[rnd.nextInt(HIGHWAYS.length)]);
+			if (rnd.nextInt(3) > 0) {
+				tags.put("name", "Street " + rnd.nextInt(size / 10 + 1));
+			}
+			if (rnd.nextInt(5) == 0) {
+				tags.put("ref", "R " + rnd.nextInt(1000));
+			}
+			if (rnd.nextInt(4) == 0) {
+				tags.put("maxspeed", SPEEDS[rnd.nextInt(SPEEDS.length)]);
+			}
+			if (rnd.nextInt(3) == 0) {
+				tags.put("surface", SURFACES[rnd.nextInt(SURFACES.length)]);
+			}
+			if (rnd.nextInt(6) == 0) {
+				tags.put("oneway", rnd.nextBoolean() ? "yes" : "true");
+			}
+			if (rnd.nextInt(6) == 0) {
+				tags.put("lanes", String.valueOf(1 + rnd.nextInt(4)));
+			}
+			if (rnd.nextInt(8) == 0) {
+				tags.put("lit", "yes");
+			}
+			if (rnd.nextInt(10) == 0) {
+				tags.put("source", "survey " + rnd.nextInt(100));
+			}
+			res.add(tags);
+		}
+		return res;
+	}
+
+	private static void run(String title, MapRoutingTypes types, List<Map<String, String>> ways, int iterations) {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocations = mx instanceof com.sun.management.ThreadMXBean ?
+				(com.sun.management.ThreadMXBean) mx : null;
+		TIntArrayList outTypes = new TIntArrayList();
+		Map<MapRouteType, String> names = new TreeMap<MapRouteType, String>(new Comparator<MapRouteType>() {
+			@Override
+			public int compare(MapRouteType o1, MapRouteType o2) {
+				return o1.getInternalId() - o2.getInternalId();
+			}
+		});
+		long best = Long.MAX_VALUE;
+		long allocated = 0;
+		long encoded = 0;
+		for (int it = 0; it < iterations; it++) {
+			long bytes = allocations == null ? 0 : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+			long time = System.nanoTime();
+			encoded = 0;
+			for (Map<String, String> tags : ways) {
+				if (types.encodeEntity(tags, outTypes, names)) {
+					encoded += outTypes.size();
+				}
+				if (types.encodeBaseEntity(tags, outTypes, names)) {
+					encoded += outTypes.size();
+				}
+			}
+			best = Math.min(best, System.nanoTime() - time);
+			if (allocations != null) {
+				// names map entries are allocated by caller
+				allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+			}
+		}
+		System.out.println(String.format("%s : %.1f ns/way, %d bytes/way, %d types", title,
+				best / (double) ways.size(), allocated / ways.size(), encoded));
+	}
+
+	public static void main(String[] args) {
+		int size = 1000000;
+		int iterations = 5;
+		for (String a : args) {
+			if (a.startsWith("--ways=")) {
+				size = Integer.parseInt(a.substring("--ways=".length()));
+			} else if (a.startsWith("--iterations=")) {
+				iterations = Integer.parseInt(a.substring("--iterations=".length()));
+			}
+		}
+		MapRenderingTypesEncoder encoder = new MapRenderingTypesEncoder(null, "world");
+		encoder.getEncodingRuleTypes();
+		List<Map<String, String>> ways = generate(size);
+
+		MapRoutingTypes interpreted = new MapRoutingTypes(encoder);
+		interpreted.setCompiledRules(false);
+		run("Interpreted", interpreted, ways, iterations);
+		MapRoutingTypes compiled = new MapRoutingTypes(encoder);
+		compiled.setTypesCacheSize(0);
+		run("Compiled", compiled, ways, iterations);
+		run("Compiled + cache", new MapRoutingTypes(encoder), ways, iterations);
+	}
+}
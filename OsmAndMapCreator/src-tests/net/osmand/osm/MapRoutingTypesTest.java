@@ -0,0 +1,97 @@
+package net.osmand.osm;
+
+import static org.junit.Assert.assertEquals;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.osmand.osm.MapRoutingTypes.MapRouteType;
+
+import org.junit.Test;
+
+public class MapRoutingTypesTest {
+
+	private static final String[][] CORPUS = {
+		{ "highway", "residential", "name", "Main Street", "oneway", "yes" },
+		{ "highway", "primary", "ref", "A 1;B 2", "lanes", "2", "maxspeed", "50" },
+		{ "highway", "trunk", "maxspeed", "70 mph", "name:en", "Trunk road", "oneway", "-1" },
+		{ "highway", "motorway", "ref", "A 9", "maxspeed", "none", "toll", "yes", "lanes", "3" },
+		{ "highway", "motorway_link", "oneway", "true", "destination", "Berlin" },
+		{ "highway", "secondary", "maxspeed", "fast", "maxweight", "3.5", "maxheight", "x" },
+		{ "highway", "tertiary", "bridge", "yes", "layer", "1", "surface", "asphalt" },
+		{ "highway", "track", "tracktype", "grade2", "surface", "gravel", "access", "no" },
+		{ "highway", "footway", "footway", "sidewalk" },
+		{ "highway", "living_street", "name", "Hof", "maxspeed", "walk" },
+		{ "highway", "service", "service", "parking_aisle", "oneway", "false" },
+		{ "highway", "cycleway", "segregated", "yes", "name:de", "Radweg" },
+		{ "Highway", "Residential", "NAME", "Upper case" },
+		{ "highway", "unclassified", "junction", "roundabout", "alt_name", "Ring" },
+		{ "route", "ferry", "name", "Ferry", "duration", "00:30", "motor_vehicle", "yes" },
+		{ "railway", "rail", "usage", "main" },
+		{ "building", "yes", "name", "Not a road" },
+		{ "name", "Only name" },
+	};
+
+	@Test
+	public void testCompiledEncodesSameAsInterpreted() {
+		MapRenderingTypesEncoder encoder = new MapRenderingTypesEncoder(null, "world");
+		encoder.getEncodingRuleTypes();
+		MapRoutingTypes compiled = new MapRoutingTypes(encoder);
+		MapRoutingTypes uncached = new MapRoutingTypes(encoder);
+		MapRoutingTypes interpreted = new MapRoutingTypes(encoder);
+		uncached.setTypesCacheSize(0);
+		interpreted.setCompiledRules(false);
+		List<Map<String, String>> corpus = new ArrayList<Map<String, String>>();
+		for (String[] c : CORPUS) {
+			Map<String, String> tags = new LinkedHashMap<String, String>();
+			for (int i = 0; i < c.length; i += 2) {
+				tags.put(c[i], c[i + 1]);
+			}
+			corpus.add(tags);
+		}
+		// same signatures with other names
+		Random rnd = new Random(7);
+		for (int i = 0; i < 200; i++) {
+			Map<String, String> tags = new LinkedHashMap<String, String>(corpus.get(rnd.nextInt(CORPUS.length)));
+			tags.put("name", "Street " + i);
+			if (rnd.nextBoolean()) {
+				tags.put("maxspeed", String.valueOf(10 * rnd.nextInt(13)));
+			}
+			corpus.add(tags);
+		}
+		// second pass is served by cache of encoded types
+		for (int pass = 0; pass < 2; pass++) {
+			for (Map<String, String> tags : corpus) {
+				for (boolean base : new boolean[] { false, true }) {
+					String expected = encode(interpreted, tags, base);
+					assertEquals(tags + " " + base, expected, encode(compiled, tags, base));
+					assertEquals(tags + " " + base, expected, encode(uncached, tags, base));
+				}
+			}
+		}
+		String expected = types(interpreted);
+		assertEquals(expected, types(compiled));
+		assertEquals(expected, types(uncached));
+		assertEquals(String.valueOf(interpreted.getNameRuleType()), String.valueOf(compiled.getNameRuleType()));
+		assertEquals(String.valueOf(interpreted.getRefRuleType()), String.valueOf(compiled.getRefRuleType()));
+	}
+
+	private String encode(MapRoutingTypes types, Map<String, String> tags, boolean base) {
+		TIntArrayList outTypes = new TIntArrayList();
+		Map<MapRouteType, String> names = new LinkedHashMap<MapRouteType, String>();
+		boolean encoded = base ? types.encodeBaseEntity(tags, outTypes, names) : types.encodeEntity(tags, outTypes, names);
+		return encoded + " " + outTypes + " " + names;
+	}
+
+	private String types(MapRoutingTypes types) {
+		StringBuilder b = new StringBuilder();
+		for (MapRouteType rt : types.getEncodingRuleTypes()) {
+			b.append(rt.getInternalId()).append(' ').append(rt).append(' ').append(rt.getFreq()).append('\n');
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,118 @@
+package net.osmand.osm.util;
+
+import static org.junit.Assert.*;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Arrays;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.preparation.IndexCreator;
+import net.osmand.impl.ConsoleProgressImplementation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Connecting roads searched by the pool of threads should be the same as searched one by one.
+ */
+public class CheckRoadConnectivityTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long nodeId = 1;
+	private long wayId = 1;
+
+	@Test
+	public void testParallelSameAsSequential() throws Exception {
+		File dir = folder.getRoot();
+		File osm = new File(dir, "roads.osm");
+		writeRoads(osm);
+		IndexCreator creator = new IndexCreator(dir);
+		creator.setIndexMap(false);
+		creator.setIndexPOI(false);
+		creator.setIndexAddress(false);
+		creator.setIndexTransport(false);
+		creator.setIndexRouting(true);
+		creator.setGenerateLowLevelIndexes(true);
+		creator.setMapFileName("roads.obf");
+		creator.generateIndexes(osm, new ConsoleProgressImplementation(1), null, null, null, null);
+		File obf = new File(dir, "roads.obf");
+
+		TLongHashSet sequentialRemove = new TLongHashSet();
+		TLongObjectHashMap<RouteDataObject> sequential = collect(obf, 1, sequentialRemove);
+		TLongHashSet parallelRemove = new TLongHashSet();
+		TLongObjectHashMap<RouteDataObject> parallel = collect(obf, 4, parallelRemove);
+		assertEquals(sorted(sequential.keys()), sorted(parallel.keys()));
+		assertEquals(sorted(sequentialRemove.toArray()), sorted(parallelRemove.toArray()));
+		// isolated trunks
+		assertFalse(sequentialRemove.isEmpty());
+	}
+
+	private TLongObjectHashMap<RouteDataObject> collect(File obf, int threads, TLongHashSet setToRemove)
+			throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(obf, "r");
+		BinaryMapIndexReader reader = new BinaryMapIndexReader(raf, obf);
+		try {
+			CheckRoadConnectivity crc = new CheckRoadConnectivity();
+			crc.setThreads(threads);
+			return crc.collectDisconnectedRoads(reader, obf, setToRemove);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private String sorted(long[] ids) {
+		Arrays.sort(ids);
+		return Arrays.toString(ids);
+	}
+
+	// pairs of trunks connected through residential roads and isolated trunks
+	private void writeRoads(File osm) throws Exception {
+		Writer w = new OutputStreamWriter(new FileOutputStream(osm), "UTF-8");
+		w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n");
+		for (int i = 0; i < 20; i++) {
+			double lat = 52 + i * 0.02;
+			long[] first = line(w, lat, 4.0, 4.05, 6);
+			long[] second = line(w, lat, 4.07, 4.12, 6);
+			way(w, "trunk", first);
+			way(w, "trunk", second);
+			long middle = node(w, lat + 0.005, 4.06);
+			way(w, "residential", first[first.length - 1], middle);
+			way(w, "residential", middle, second[0]);
+			way(w, "trunk", line(w, lat + 0.01, 4.2, 4.25, 6));
+		}
+		w.write("</osm>\n");
+		w.close();
+	}
+
+	private long[] line(Writer w, double lat, double fromLon, double toLon, int points) throws Exception {
+		long[] ids = new long[points];
+		for (int i = 0; i < points; i++) {
+			ids[i] = node(w, lat, fromLon + (toLon - fromLon) * i / (points - 1));
+		}
+		return ids;
+	}
+
+	private long node(Writer w, double lat, double lon) throws Exception {
+		long id = nodeId++;
+		w.write("<node id='" + id + "' lat='" + lat + "' lon='" + lon + "'/>\n");
+		return id;
+	}
+
+	private void way(Writer w, String highway, long... nodes) throws Exception {
+		w.write("<way id='" + (wayId++) + "'>\n");
+		for (long n : nodes) {
+			w.write("<nd ref='" + n + "'/>\n");
+		}
+		w.write("<tag k='highway' v='" + highway + "'/>\n</way>\n");
+	}
+}
@@ -0,0 +1,201 @@
+package net.osmand.osm.util;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import net.osmand.data.MultipolygonBuilder;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+import net.osmand.osm.util.CombineSRTMIntoFile.CountryTask;
+import net.osmand.osm.util.SRTMContourTile.ContourCollector;
+import net.osmand.osm.util.SRTMContourTile.ContourVisitor;
+import net.osmand.util.MapUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Contours converted to tile file should be read back with same points and tags, and contours of country should
+ * be clipped by its border unless tile is inside of the country and contour doesn't leave the tile.
+ */
+public class CombineSRTMIntoFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long nodeId;
+
+	@Test
+	public void testContoursRoundTrip() throws Exception {
+		ContourCollector collector = new ContourCollector();
+		List<String> expected = new ArrayList<String>();
+		// open, closed and crossing of 0 meridian and equator (negative deltas)
+		expected.add(addContour(collector, "100", false, -0.1, -0.1, 0.1, 0.1, 0.2, -0.05));
+		expected.add(addContour(collector, "200", true, 45.1, 10.1, 45.2, 10.1, 45.2, 10.2));
+		expected.add(addContour(collector, "100", false, -33.9, 151.2, -33.8, 151.3));
+		// tag with characters escaped in osm
+		expected.add(addContour(collector, "<'&\">", false, 45.5, 10.5, 45.6, 10.6));
+		// way with one point is skipped
+		addContour(collector, "300", false, 45.5, 10.5);
+		// missing node is skipped
+		Way w = new Way(++nodeId);
+		w.putTag("contour", "elevation");
+		w.putTag("ele", "400");
+		w.addNode(123456789L);
+		Node n1 = node(collector, 45.7, 10.7);
+		Node n2 = node(collector, 45.8, 10.8);
+		w.addNode(n1);
+		w.addNode(n2);
+		collector.acceptEntityToLoad(null, null, w);
+		expected.add(contour("400", false, n1, n2));
+
+		File file = new File(folder.getRoot(), "N45E010" + SRTMContourTile.EXT);
+		collector.write(file);
+		assertFalse(new File(folder.getRoot(), file.getName() + ".tmp").exists());
+		assertEquals(sorted(expected), sorted(read(file)));
+	}
+
+	@Test
+	public void testBorderClipping() throws Exception {
+		ContourCollector collector = new ContourCollector();
+		addContour(collector, "in", false, 45.1, 10.1, 45.2, 10.2);
+		addContour(collector, "crossing", false, 45.4, 10.1, 45.7, 10.2);
+		addContour(collector, "out", false, 45.7, 10.1, 45.8, 10.2);
+		// goes a bit outside of tile and country
+		addContour(collector, "edge", false, 45.1, 11.6, 45.2, 11.8);
+		File tile = new File(folder.getRoot(), "N45E010" + SRTMContourTile.EXT);
+		collector.write(tile);
+
+		// country covers south half of tile
+		CountryTask task = task(tile, 44.5, 9.5, 45.5, 11.5);
+		assertEquals("[crossing, in]", sorted(writeCountry(task)).toString());
+		// country covers whole tile, contour of tile outside of country is skipped
+		// tile is inside, only contours leaving the tile are checked
+		task = task(tile, 44.5, 9.5, 46.5, 11.5);
+		assertEquals("[crossing, in, out]", sorted(writeCountry(task)).toString());
+		task.insideTiles.add("N45E010");
+		assertEquals("[crossing, in, out]", sorted(writeCountry(task)).toString());
+	}
+
+	@Test
+	public void testTileBounds() {
+		int[] b = CombineSRTMIntoFile.getTileBounds31("S34W071");
+		assertEquals(MapUtils.get31TileNumberX(-71), b[0]);
+		assertEquals(MapUtils.get31TileNumberY(-33), b[1]);
+		assertEquals(MapUtils.get31TileNumberX(-70), b[2]);
+		assertEquals(MapUtils.get31TileNumberY(-34), b[3]);
+		int[] x = { MapUtils.get31TileNumberX(-70.5), MapUtils.get31TileNumberX(-69.9) };
+		int[] y = { MapUtils.get31TileNumberY(-33.5), MapUtils.get31TileNumberY(-33.5) };
+		assertTrue(CombineSRTMIntoFile.withinTile(b, x, y, 1));
+		assertFalse(CombineSRTMIntoFile.withinTile(b, x, y, 2));
+	}
+
+	private CountryTask task(File tile, double bottom, double left, double top, double right) {
+		Way border = new Way(-1);
+		border.addNode(new Node(bottom, left, -1));
+		border.addNode(new Node(bottom, right, -2));
+		border.addNode(new Node(top, right, -3));
+		border.addNode(new Node(top, left, -4));
+		border.addNode(border.getNodes().get(0));
+		MultipolygonBuilder bld = new MultipolygonBuilder();
+		bld.addOuterWay(border);
+		CountryTask task = new CountryTask();
+		task.name = "test";
+		task.polygon = bld.build();
+		task.contourFiles.add(tile);
+		return task;
+	}
+
+	private List<String> writeCountry(CountryTask task) throws IOException {
+		File osm = folder.newFile();
+		int ways = CombineSRTMIntoFile.writeCountryContours(task, osm);
+		List<String> res = new ArrayList<String>();
+		BufferedReader r = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(osm)),
+				"UTF-8"));
+		try {
+			String s;
+			while ((s = r.readLine()) != null) {
+				if (s.startsWith("<tag k='ele' v='")) {
+					res.add(s.substring("<tag k='ele' v='".length(), s.lastIndexOf('\'')));
+				}
+			}
+		} finally {
+			r.close();
+		}
+		assertEquals(ways, res.size());
+		return res;
+	}
+
+	private String addContour(ContourCollector collector, String ele, boolean closed, double... latLons) {
+		Way w = new Way(++nodeId);
+		w.putTag("contour", "elevation");
+		w.putTag("ele", ele);
+		List<Node> nodes = new ArrayList<Node>();
+		for (int i = 0; i < latLons.length; i += 2) {
+			Node n = node(collector, latLons[i], latLons[i + 1]);
+			nodes.add(n);
+			w.addNode(n);
+		}
+		if (closed) {
+			w.addNode(nodes.get(0));
+		}
+		collector.acceptEntityToLoad(null, null, w);
+		return contour(ele, closed, nodes.toArray(new Node[nodes.size()]));
+	}
+
+	private Node node(ContourCollector collector, double lat, double lon) {
+		Node n = new Node(lat, lon, ++nodeId);
+		collector.acceptEntityToLoad(null, null, n);
+		return n;
+	}
+
+	private String contour(String ele, boolean closed, Node... nodes) {
+		Map<String, String> tags = new HashMap<String, String>();
+		tags.put("ele", ele);
+		int[] x = new int[nodes.length];
+		int[] y = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			x[i] = MapUtils.get31TileNumberX(nodes[i].getLongitude());
+			y[i] = MapUtils.get31TileNumberY(nodes[i].getLatitude());
+		}
+		return contour(tags, x, y, nodes.length, closed);
+	}
+
+	private static String contour(Map<String, String> tags, int[] x31, int[] y31, int length, boolean closed) {
+		StringBuilder b = new StringBuilder(tags.get("ele")).append(closed ? " closed" : "");
+		for (int i = 0; i < length; i++) {
+			b.append(" ").append(x31[i]).append(",").append(y31[i]);
+		}
+		return b.toString();
+	}
+
+	private List<String> read(File file) throws IOException {
+		final List<String> res = new ArrayList<String>();
+		SRTMContourTile.read(file, new ContourVisitor() {
+			@Override
+			public void visitContour(Map<String, String> tags, int[] x31, int[] y31, int length, boolean closed) {
+				assertEquals("elevation", tags.get("contour"));
+				res.add(contour(tags, x31, y31, length, closed));
+			}
+		});
+		return res;
+	}
+
+	private static List<String> sorted(List<String> l) {
+		List<String> res = new ArrayList<String>(l);
+		Collections.sort(res);
+		return res;
+	}
+}
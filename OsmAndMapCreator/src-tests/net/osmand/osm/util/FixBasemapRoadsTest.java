@@ -0,0 +1,161 @@
+package net.osmand.osm.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+import net.osmand.osm.util.FixBasemapRoads.RoadInfo;
+import net.osmand.osm.util.FixBasemapRoads.RoadLine;
+
+import org.junit.Test;
+
+/**
+ * Road lines merged with distances of segments kept per line should be the same as merged by recalculating the whole
+ * line after every change (as it was done before).
+ */
+public class FixBasemapRoadsTest {
+
+	private interface Merger {
+
+		void reverse(RoadLine line);
+
+		void cut(RoadLine line, Node n);
+
+		void merge(RoadLine toMerge, RoadLine toKeep);
+	}
+
+	private interface Scenario {
+
+		RoadLine run(Merger m);
+	}
+
+	private class IncrementalMerger implements Merger {
+		private final RoadInfo ri = new FixBasemapRoads().new RoadInfo();
+
+		RoadLine line(Way w) {
+			RoadLine l = new RoadLine(w);
+			ri.registerRoadLine(l);
+			return l;
+		}
+
+		@Override
+		public void reverse(RoadLine line) {
+			ri.reverseRoad(line);
+		}
+
+		@Override
+		public void cut(RoadLine line, Node n) {
+			line.addLastNode(n);
+		}
+
+		@Override
+		public void merge(RoadLine toMerge, RoadLine toKeep) {
+			ri.mergeRoadInto(toMerge, toKeep);
+		}
+	}
+
+	private class RecalculatingMerger extends IncrementalMerger {
+
+		@Override
+		public void cut(RoadLine line, Node n) {
+			line.getLastWay().addNode(n);
+		}
+
+		@Override
+		public void merge(RoadLine toMerge, RoadLine toKeep) {
+			toKeep.combinedWays.addAll(0, toMerge.combinedWays);
+			toKeep.updateData();
+		}
+	}
+
+	@Test
+	public void testOverlappingSegments() {
+		compare(new Scenario() {
+			@Override
+			public RoadLine run(Merger m) {
+				// second line goes back over last segment of the first one
+				RoadLine a = line(m, 1, 1, 2, 3, 4);
+				RoadLine b = line(m, 2, 4, 3, 5, 6);
+				RoadLine c = line(m, 3, 6, 5, 7, 8);
+				m.merge(a, b);
+				m.merge(b, c);
+				return c;
+			}
+		});
+	}
+
+	@Test
+	public void testReversedSegments() {
+		compare(new Scenario() {
+			@Override
+			public RoadLine run(Merger m) {
+				RoadLine a = line(m, 1, 4, 3, 2, 1);
+				RoadLine b = line(m, 2, 9, 8, 7, 6, 5);
+				RoadLine c = line(m, 3, 4, 10);
+				m.reverse(a);
+				m.reverse(b);
+				m.merge(a, b);
+				// line of several ways is reversed back
+				m.reverse(b);
+				m.merge(c, b);
+				m.reverse(b);
+				return b;
+			}
+		});
+	}
+
+	@Test
+	public void testMergeWithCut() {
+		compare(new Scenario() {
+			@Override
+			public RoadLine run(Merger m) {
+				RoadLine a = line(m, 1, 1, 2, 3);
+				RoadLine b = line(m, 2, 5, 6, 7);
+				RoadLine c = line(m, 3, 3, 2, 11);
+				m.cut(a, node(5));
+				m.merge(a, b);
+				m.reverse(c);
+				m.cut(c, node(1));
+				m.merge(c, b);
+				return b;
+			}
+		});
+	}
+
+	private void compare(Scenario s) {
+		RoadLine expected = s.run(new RecalculatingMerger());
+		RoadLine actual = s.run(new IncrementalMerger());
+		assertEquals(ways(expected), ways(actual));
+		assertEquals(Arrays.toString(expected.segments.toArray()), Arrays.toString(actual.segments.toArray()));
+		assertEquals(expected.distance, actual.distance, 0);
+		assertTrue(expected.distance > 0);
+		assertEquals(expected.first.getId(), actual.first.getId());
+		assertEquals(expected.last.getId(), actual.last.getId());
+		assertEquals(expected.beginPoint, actual.beginPoint);
+		assertEquals(expected.endPoint, actual.endPoint);
+	}
+
+	private List<String> ways(RoadLine l) {
+		List<String> res = new ArrayList<String>();
+		for (Way w : l.combinedWays) {
+			res.add(w.getId() + " " + Arrays.toString(w.getNodeIds().toArray()));
+		}
+		return res;
+	}
+
+	private RoadLine line(Merger m, long wayId, long... nodes) {
+		Way w = new Way(wayId);
+		for (long n : nodes) {
+			w.addNode(node(n));
+		}
+		return ((IncrementalMerger) m).line(w);
+	}
+
+	private Node node(long id) {
+		return new Node(52 + (id % 3) * 0.001, 4 + id * 0.002, id);
+	}
+}
@@ -0,0 +1,107 @@
+package net.osmand.osm.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic coastline (islands split in pieces, some pieces reversed, ways shuffled) and prints time,
+ * rings and peak heap of stitching. File is generated once with --generate :
+ *
+ * <pre>
+ * java FixLinkedCoastlineBenchmark --generate --islands=200000 --file=/tmp/coastline.osm
+ * java -Xmx512m FixLinkedCoastlineBenchmark --file=/tmp/coastline.osm
+ * </pre>
+ */
+public class FixLinkedCoastlineBenchmark {
+
+	private static void generate(File file, int islands, int pieces) throws Exception {
+		Random rnd = new Random(0);
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+		w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\">\n");
+		int pointsInPiece = 20;
+		long nodeId = 1;
+		List<String> ways = new ArrayList<String>();
+		for (int i = 0; i < islands; i++) {
+			double lat = -70 + rnd.nextDouble() * 140;
+			double lon = -179 + rnd.nextDouble() * 358;
+			double r = 0.01 + rnd.nextDouble() * 0.2;
+			int points = pieces * pointsInPiece;
+			long first = nodeId;
+			for (int p = 0; p < points; p++) {
+				double a = 2 * Math.PI * p / points;
+				w.write("\t<node id=\"" + (nodeId++) + "\" lat=\"" + (lat + r * Math.sin(a)) + "\" lon=\""
+						+ (lon + r * Math.cos(a)) + "\"/>\n");
+			}
+			for (int k = 0; k < pieces; k++) {
+				StringBuilder b = new StringBuilder();
+				boolean reverse = rnd.nextInt(10) == 0;
+				for (int p = 0; p <= pointsInPiece; p++) {
+					int ind = reverse ? pointsInPiece - p : p;
+					long id = first + (k * pointsInPiece + ind) % points;
+					b.append("\t\t<nd ref=\"").append(id).append("\"/>\n");
+				}
+				ways.add(b.toString());
+			}
+		}
+		Collections.shuffle(ways, rnd);
+		for (int i = 0; i < ways.size(); i++) {
+			w.write("\t<way id=\"" + (i + 1) + "\">\n" + ways.get(i)
+					+ "\t\t<tag k=\"natural\" v=\"coastline\"/>\n\t</way>\n");
+		}
+		w.write("</osm>\n");
+		w.close();
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (p.getType() == MemoryType.HEAP) {
+				peak += p.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int islands = 200000;
+		int pieces = 4;
+		File file = new File(System.getProperty("java.io.tmpdir"), "coastline.osm");
+		boolean generate = false;
+		for (String a : args) {
+			if (a.startsWith("--islands=")) {
+				islands = Integer.parseInt(a.substring("--islands=".length()));
+			} else if (a.startsWith("--pieces=")) {
+				pieces = Integer.parseInt(a.substring("--pieces=".length()));
+			} else if (a.startsWith("--file=")) {
+				file = new File(a.substring("--file=".length()));
+			} else if (a.equals("--generate")) {
+				generate = true;
+			}
+		}
+		if (generate) {
+			long time = System.currentTimeMillis();
+			generate(file, islands, pieces);
+			System.out.println("Coastline of " + islands + " islands is generated in "
+					+ (System.currentTimeMillis() - time) + " ms, " + (file.length() >> 20) + " Mb");
+			return;
+		}
+		File out = new File(file.getParentFile(), file.getName() + "_out.osm");
+		long time = System.currentTimeMillis();
+		FixLinkedCoastline fix = FixLinkedCoastline.process(file, out);
+		time = System.currentTimeMillis() - time;
+		System.out.println(String.format("%d rings, %d reversed, %d not closed in %d ms, max heap %d Mb, "
+				+ "peak heap %d Mb", fix.getRings(), fix.getReversed(), fix.getNotClosedChains(), time,
+				Runtime.getRuntime().maxMemory() >> 20, peakHeap() >> 20));
+		out.delete();
+	}
+}
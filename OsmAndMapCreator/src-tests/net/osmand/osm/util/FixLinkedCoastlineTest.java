@@ -0,0 +1,194 @@
+package net.osmand.osm.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.osmand.PlatformUtil;
+import net.osmand.osm.util.FixLinkedCoastline.CoastlineWay;
+import net.osmand.osm.util.FixLinkedCoastline.UnclosedChain;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Synthetic broken coastline : split island with reversed piece, clockwise island, duplicated island, chain with
+ * small gap (closed) and chain with big gap (reported).
+ */
+public class FixLinkedCoastlineTest {
+
+	private List<List<CoastlineWay>> rings = new ArrayList<List<CoastlineWay>>();
+
+	private FixLinkedCoastline create() {
+		return new FixLinkedCoastline(new FixLinkedCoastline.RingVisitor() {
+			@Override
+			public void visitRing(List<CoastlineWay> ring) throws IOException {
+				rings.add(ring);
+			}
+		});
+	}
+
+	// lat, lon pairs with node ids
+	private static CoastlineWay way(long id, long[] ids, double... latLons) {
+		double[] lats = new double[ids.length];
+		double[] lons = new double[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			lats[i] = latLons[2 * i];
+			lons[i] = latLons[2 * i + 1];
+		}
+		return new CoastlineWay(id, new String[] { "natural", "land_coastline" }, ids, lats, lons);
+	}
+
+	private static double area(List<CoastlineWay> ring) {
+		double area = 0;
+		for (CoastlineWay w : ring) {
+			for (int i = 1; i < w.getNodesCount(); i++) {
+				area += (w.getLongitude(i) - w.getLongitude(i - 1)) * (w.getLatitude(i) + w.getLatitude(i - 1));
+			}
+		}
+		// positive for counterclockwise
+		return -area / 2;
+	}
+
+	private static void checkRing(List<CoastlineWay> ring) {
+		for (int i = 0; i < ring.size(); i++) {
+			CoastlineWay w = ring.get(i);
+			CoastlineWay n = ring.get((i + 1) % ring.size());
+			assertEquals(n.getNodeId(0), w.getNodeId(w.getNodesCount() - 1));
+			assertEquals(n.getLatitude(0), w.getLatitude(w.getNodesCount() - 1), 0);
+			assertEquals("coastline", w.getTag("natural"));
+		}
+		assertTrue(area(ring) > 0);
+	}
+
+	private void addBrokenCoastline(FixLinkedCoastline fix) throws IOException {
+		// island split in 3 pieces, counterclockwise is 1-2-3, piece 2 is reversed
+		fix.addWay(way(2, new long[] { 12, 11 }, 11, 11, 10, 11));
+		fix.addWay(way(1, new long[] { 10, 11 }, 10, 10, 10, 11));
+		assertTrue(rings.isEmpty());
+		fix.addWay(way(3, new long[] { 12, 13, 10 }, 11, 11, 11, 10, 10, 10));
+		assertEquals(1, rings.size());
+		// clockwise island
+		fix.addWay(way(4, new long[] { 100, 101, 102, 103, 100 }, 20, 20, 21, 20, 21, 21, 20, 21, 20, 20));
+		assertEquals(2, rings.size());
+		// same island again
+		fix.addWay(way(5, new long[] { 200, 201, 202, 203, 200 }, 20.001, 20, 21, 20, 21, 21, 20, 21, 20.001, 20));
+		assertEquals(2, rings.size());
+		// chain with 6 km gap
+		fix.addWay(way(6, new long[] { 300, 301, 302 }, 30, 30, 30, 31, 31, 31));
+		fix.addWay(way(7, new long[] { 302, 303, 304 }, 31, 31, 31, 30, 30.05, 30));
+		// chain with 1100 km gap
+		fix.addWay(way(8, new long[] { 400, 401 }, 0, 50, 0, 55));
+		fix.addWay(way(9, new long[] { 402, 401 }, 0, 60, 0, 55));
+		assertEquals(2, rings.size());
+	}
+
+	@Test
+	public void testStitching() throws IOException {
+		FixLinkedCoastline fix = create();
+		addBrokenCoastline(fix);
+		fix.finish();
+		assertEquals(3, rings.size());
+		assertEquals(2, fix.getRings());
+		assertEquals(1, fix.getDuplicatedIslands());
+		// 2 pieces and ring of split island, clockwise island and piece of far chain
+		assertEquals(5, fix.getReversed());
+
+		List<CoastlineWay> island = rings.get(0);
+		assertEquals(3, island.size());
+		checkRing(island);
+		checkRing(rings.get(1));
+		assertEquals(4, rings.get(1).get(0).getId());
+
+		List<CoastlineWay> gap = rings.get(2);
+		assertEquals(2, gap.size());
+		assertEquals(6, gap.get(0).getId());
+		assertEquals(300, gap.get(1).getNodeId(2));
+
+		List<UnclosedChain> unclosed = fix.getUnclosedChains();
+		assertEquals(2, unclosed.size());
+		assertTrue(unclosed.get(0).closed);
+		assertTrue(unclosed.get(0).gap > 5000 && unclosed.get(0).gap < 6000);
+		assertFalse(unclosed.get(1).closed);
+		assertEquals(2, unclosed.get(1).ways);
+		assertTrue(unclosed.get(1).gap > 1000000);
+		assertEquals(1, fix.getNotClosedChains());
+	}
+
+	@Test
+	public void testProcessFile() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		File read = new File(dir, "coastline_test_" + System.currentTimeMillis() + ".osm");
+		File write = new File(dir, read.getName() + "_out.osm");
+		try {
+			Writer w = new OutputStreamWriter(new FileOutputStream(read), "UTF-8");
+			w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\">\n");
+			double[][] nodes = { { 10, 10 }, { 10, 11 }, { 11, 11 }, { 11, 10 } };
+			for (int i = 0; i < nodes.length; i++) {
+				w.write("<node id=\"" + (i + 1) + "\" lat=\"" + nodes[i][0] + "\" lon=\"" + nodes[i][1] + "\""
+						+ (i == 2 ? "><tag k=\"name\" v=\"A &amp; B\"/></node>\n" : "/>\n"));
+			}
+			// second piece is reversed
+			long[][] ways = { { 1, 2 }, { 3, 2 }, { 3, 4, 1 } };
+			for (int i = 0; i < ways.length; i++) {
+				w.write("<way id=\"" + (i + 1) + "\">");
+				for (long n : ways[i]) {
+					w.write("<nd ref=\"" + n + "\"/>");
+				}
+				w.write("<tag k=\"natural\" v=\"coastline\"/></way>\n");
+			}
+			w.write("</osm>\n");
+			w.close();
+
+			FixLinkedCoastline fix = FixLinkedCoastline.process(read, write);
+			assertEquals(1, fix.getRings());
+			assertEquals(1, fix.getReversed());
+
+			Set<String> nodeIds = new HashSet<String>();
+			List<String> refs = new ArrayList<String>();
+			String name = null;
+			int waysCount = 0;
+			InputStream is = new FileInputStream(write);
+			try {
+				XmlPullParser parser = PlatformUtil.newXMLPullParser();
+				parser.setInput(is, "UTF-8");
+				int next;
+				while ((next = parser.next()) != XmlPullParser.END_DOCUMENT) {
+					if (next == XmlPullParser.START_TAG) {
+						if (parser.getName().equals("node")) {
+							assertTrue(waysCount == 0);
+							nodeIds.add(parser.getAttributeValue("", "id"));
+						} else if (parser.getName().equals("way")) {
+							waysCount++;
+						} else if (parser.getName().equals("nd")) {
+							refs.add(parser.getAttributeValue("", "ref"));
+						} else if (parser.getName().equals("tag") && "name".equals(parser.getAttributeValue("", "k"))) {
+							name = parser.getAttributeValue("", "v");
+						}
+					}
+				}
+			} finally {
+				is.close();
+			}
+			assertEquals(3, waysCount);
+			assertEquals(4, nodeIds.size());
+			assertTrue(nodeIds.containsAll(refs));
+			assertEquals("A & B", name);
+		} finally {
+			read.delete();
+			write.delete();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package net.osmand.osm.util;
+
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.util.MapUtils;
+
+/**
+ * Compares original segment based {@link ManyToOneRoadCalculation} with calculation on compressed road graph:
+ * result (common ways) should be the same, time is printed for both.
+ *
+ * Usage : ManyToOneRoadBenchmark --obf=file.obf [--top=lat] [--zoom=9] [--threads=N] [--iterations=3]
+ */
+public class ManyToOneRoadBenchmark {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File obf = null;
+		double top = Double.NaN;
+		int zoom = 9;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int iterations = 3;
+		for (String a : args) {
+			if (a.startsWith("--obf=")) {
+				obf = new File(a.substring("--obf=".length()));
+			} else if (a.startsWith("--top=")) {
+				top = Double.parseDouble(a.substring("--top=".length()));
+			} else if (a.startsWith("--zoom=")) {
+				zoom = Integer.parseInt(a.substring("--zoom=".length()));
+			} else if (a.startsWith("--threads=")) {
+				threads = Integer.parseInt(a.substring("--threads=".length()));
+			} else if (a.startsWith("--iterations=")) {
+				iterations = Integer.parseInt(a.substring("--iterations=".length()));
+			}
+		}
+		if (obf == null || !obf.exists()) {
+			System.out.println("Usage : ManyToOneRoadBenchmark --obf=file.obf [--top=lat] [--zoom=9] [--threads=N] [--iterations=3]");
+			System.exit(1);
+		}
+		RandomAccessFile raf = new RandomAccessFile(obf, "r"); //$NON-NLS-1$
+		BinaryMapIndexReader reader = new BinaryMapIndexReader(raf, obf);
+		if (Double.isNaN(top)) {
+			// first band of the region
+			top = MapUtils.getLatitudeFromTile(zoom,
+					(int) MapUtils.getTileNumberY(zoom, reader.getRoutingIndexes().get(0).getTopLatitude()) + 1);
+		}
+		double bottom = MapUtils.getLatitudeFromTile(zoom, (MapUtils.getTileNumberY(zoom, top) + 1));
+		ManyToOneRoadCalculation calculation = new ManyToOneRoadCalculation();
+
+		long time = System.nanoTime();
+		List<TLongArrayList> expected = calculation.manyToManyCalculation(reader, top, bottom);
+		long original = System.nanoTime() - time;
+
+		long best = Long.MAX_VALUE;
+		List<TLongArrayList> actual = null;
+		for (int i = 0; i < iterations; i++) {
+			time = System.nanoTime();
+			actual = calculation.manyToManyCalculation(reader, top, bottom, threads);
+			best = Math.min(best, System.nanoTime() - time);
+		}
+		raf.close();
+
+		System.out.println("Band " + top + " - " + bottom + ", common ways " + expected.size());
+		System.out.println("Original : " + original / 1000000 + " ms");
+		System.out.println("Graph (" + threads + " threads) : " + best / 1000000 + " ms, speed up "
+				+ String.format("%.1f", original / (double) best));
+		if (!expected.toString().equals(actual.toString())) {
+			System.out.println("Results are different :\n" + expected + "\n" + actual);
+			System.exit(1);
+		}
+		System.out.println("Results are equal");
+	}
+}
@@ -0,0 +1,387 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.MapZooms;
+import net.osmand.data.LatLon;
+import net.osmand.data.preparation.DBDialect;
+import net.osmand.data.preparation.IndexCreator;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.osm.MapRenderingTypesEncoder;
+import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Performance harness over the route tests (*.test.xml in this package).
+ * Obf files are either taken from a folder or generated with {@link IndexCreator} from osm extracts named as tests
+ * (cz.osm.pbf, uk.osm.bz2...), so regressions of generated obf files are caught as well as regressions of router.
+ * Every route is calculated several times after warmup, visited segments, loaded tiles, time and allocated bytes
+ * are written as json and optionally checked against a previous result.
+ *
+ * Usage : RoutingBenchmark (--obf=dir | --osm=dir [--work=dir]) [--iterations=5] [--warmup=2] [--out=file.json]
+ * [--baseline=file.json] [--threshold=1.2] [test names...]
+ */
+public class RoutingBenchmark {
+
+	private static final Log log = PlatformUtil.getLog(RoutingBenchmark.class);
+	private static final String[] TESTS = new String[] { "cz", "uk", "nl", "nl2", "nl_leid", "blr" };
+	private static final String[] OSM_EXTENSIONS = new String[] { ".osm", ".osm.bz2", ".osm.pbf", ".pbf" };
+	private static final int MEMORY_LIMIT = 1000;
+
+	private File obfDir;
+	private File osmDir;
+	private File workDir;
+	private int iterations = 5;
+	private int warmup = 2;
+	private double threshold = 1.2;
+	private JSONObject baseline;
+	private final List<String> failures = new ArrayList<String>();
+
+	public static class RouteCase {
+		String file;
+		int index;
+		String description;
+		String vehicle;
+		LatLon start;
+		LatLon end;
+		double expectedDistance;
+		double bestPercent;
+
+		String getKey() {
+			return file + "#" + index;
+		}
+	}
+
+	public static class RouteRun {
+		boolean found;
+		double distance;
+		int visitedSegments;
+		int loadedTiles;
+		long time;
+		long allocatedBytes;
+	}
+
+	public static void main(String[] args) throws Exception {
+		RoutingBenchmark benchmark = new RoutingBenchmark();
+		File out = null;
+		List<String> tests = new ArrayList<String>();
+		for (String a : args) {
+			if (a.startsWith("--obf=")) {
+				benchmark.obfDir = new File(a.substring("--obf=".length()));
+			} else if (a.startsWith("--osm=")) {
+				benchmark.osmDir = new File(a.substring("--osm=".length()));
+			} else if (a.startsWith("--work=")) {
+				benchmark.workDir = new File(a.substring("--work=".length()));
+			} else if (a.startsWith("--iterations=")) {
+				benchmark.iterations = Integer.parseInt(a.substring("--iterations=".length()));
+			} else if (a.startsWith("--warmup=")) {
+				benchmark.warmup = Integer.parseInt(a.substring("--warmup=".length()));
+			} else if (a.startsWith("--threshold=")) {
+				benchmark.threshold = Double.parseDouble(a.substring("--threshold=".length()));
+			} else if (a.startsWith("--baseline=")) {
+				File f = new File(a.substring("--baseline=".length()));
+				benchmark.baseline = new JSONObject(readFile(f));
+			} else if (a.startsWith("--out=")) {
+				out = new File(a.substring("--out=".length()));
+			} else {
+				tests.add(a);
+			}
+		}
+		if (benchmark.obfDir == null && benchmark.osmDir == null) {
+			System.out.println("Usage : RoutingBenchmark (--obf=dir | --osm=dir [--work=dir]) [--iterations=5] [--warmup=2] "
+					+ "[--out=file.json] [--baseline=file.json] [--threshold=1.2] [test names...]");
+			return;
+		}
+		if (tests.isEmpty()) {
+			tests.addAll(Arrays.asList(TESTS));
+		}
+		JSONObject res = benchmark.run(tests);
+		String json = res.toString(2);
+		if (out != null) {
+			Writer w = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+			try {
+				w.write(json);
+			} finally {
+				w.close();
+			}
+		} else {
+			System.out.println(json);
+		}
+		for (String f : benchmark.failures) {
+			System.err.println("FAILED " + f);
+		}
+		if (!benchmark.failures.isEmpty()) {
+			System.exit(1);
+		}
+	}
+
+	public JSONObject run(List<String> tests) throws Exception {
+		JSONArray routes = new JSONArray();
+		for (String test : tests) {
+			BinaryMapIndexReader[] readers = openReaders(test);
+			if (readers == null) {
+				log.warn("No data for route test " + test);
+				continue;
+			}
+			try {
+				for (RouteCase rc : parseTests(test)) {
+					routes.put(runCase(rc, readers));
+				}
+			} finally {
+				for (BinaryMapIndexReader r : readers) {
+					r.close();
+				}
+			}
+		}
+		JSONObject res = new JSONObject();
+		res.put("iterations", iterations);
+		res.put("warmup", warmup);
+		res.put("routes", routes);
+		res.put("failures", new JSONArray(failures));
+		return res;
+	}
+
+	private BinaryMapIndexReader[] openReaders(String test) throws Exception {
+		List<File> files = new ArrayList<File>();
+		if (osmDir != null) {
+			File obf = generateObf(test);
+			if (obf != null) {
+				files.add(obf);
+			}
+		} else {
+			for (File f : obfDir.listFiles()) {
+				if (f.getName().endsWith(".obf")) {
+					files.add(f);
+				}
+			}
+		}
+		if (files.isEmpty()) {
+			return null;
+		}
+		BinaryMapIndexReader[] rs = new BinaryMapIndexReader[files.size()];
+		int it = 0;
+		for (File f : files) {
+			RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
+			rs[it++] = new BinaryMapIndexReader(raf, f);
+		}
+		return rs;
+	}
+
+	/**
+	 * Generates routing obf for osm extract of the test, obf is regenerated only if extract is newer
+	 */
+	private File generateObf(String test) throws Exception {
+		File source = null;
+		for (String ext : OSM_EXTENSIONS) {
+			File f = new File(osmDir, test + ext);
+			if (f.exists()) {
+				source = f;
+				break;
+			}
+		}
+		if (source == null) {
+			return null;
+		}
+		File dir = workDir == null ? osmDir : workDir;
+		dir.mkdirs();
+		String name = test + "_route_benchmark.obf";
+		File obf = new File(dir, name);
+		if (obf.exists() && obf.lastModified() >= source.lastModified()) {
+			return obf;
+		}
+		long time = System.currentTimeMillis();
+		IndexCreator creator = new IndexCreator(dir);
+		creator.setDialects(DBDialect.SQLITE_IN_MEMORY, DBDialect.SQLITE_IN_MEMORY);
+		creator.setIndexRouting(true);
+		creator.setIndexMap(false);
+		creator.setIndexPOI(false);
+		creator.setIndexAddress(false);
+		creator.setIndexTransport(false);
+		creator.setMapFileName(name);
+		creator.generateIndexes(source, new ConsoleProgressImplementation(1), null, MapZooms.getDefault(),
+				new MapRenderingTypesEncoder(test), log);
+		new File(dir, IndexCreator.TEMP_NODES_DB).delete();
+		log.info("Obf for " + test + " is generated in " + (System.currentTimeMillis() - time) + " ms");
+		return obf;
+	}
+
+	private List<RouteCase> parseTests(String test) throws Exception {
+		List<RouteCase> res = new ArrayList<RouteCase>();
+		InputStream is = RoutingBenchmark.class.getResourceAsStream(test + ".test.xml");
+		if (is == null) {
+			throw new IllegalArgumentException("Route test " + test + " is not found");
+		}
+		try {
+			DocumentBuilder dom = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			Document doc = dom.parse(is);
+			NodeList list = doc.getElementsByTagName("test");
+			for (int i = 0; i < list.getLength(); i++) {
+				Element e = (Element) list.item(i);
+				RouteCase rc = new RouteCase();
+				rc.file = test;
+				rc.index = i;
+				rc.description = e.getAttribute("description");
+				rc.vehicle = Algorithms.isEmpty(e.getAttribute("vehicle")) ? "car" : e.getAttribute("vehicle");
+				rc.start = new LatLon(Double.parseDouble(e.getAttribute("start_lat")),
+						Double.parseDouble(e.getAttribute("start_lon")));
+				rc.end = new LatLon(Double.parseDouble(e.getAttribute("target_lat")),
+						Double.parseDouble(e.getAttribute("target_lon")));
+				rc.expectedDistance = parseDouble(e.getAttribute("complete_distance"));
+				rc.bestPercent = parseDouble(e.getAttribute("best_percent"));
+				res.add(rc);
+			}
+		} finally {
+			is.close();
+		}
+		return res;
+	}
+
+	private JSONObject runCase(RouteCase rc, BinaryMapIndexReader[] readers) throws Exception {
+		for (int i = 0; i < warmup; i++) {
+			calculate(rc, readers);
+		}
+		List<RouteRun> runs = new ArrayList<RouteRun>();
+		for (int i = 0; i < iterations; i++) {
+			runs.add(calculate(rc, readers));
+		}
+		RouteRun last = runs.get(runs.size() - 1);
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		long sum = 0;
+		long allocated = 0;
+		for (RouteRun r : runs) {
+			min = Math.min(min, r.time);
+			max = Math.max(max, r.time);
+			sum += r.time;
+			allocated += r.allocatedBytes;
+		}
+		double avg = sum / (double) runs.size();
+		JSONObject o = new JSONObject();
+		o.put("key", rc.getKey());
+		o.put("description", rc.description);
+		o.put("vehicle", rc.vehicle);
+		o.put("found", last.found);
+		o.put("distance", last.distance);
+		o.put("expectedDistance", rc.expectedDistance);
+		o.put("visitedSegments", last.visitedSegments);
+		o.put("loadedTiles", last.loadedTiles);
+		o.put("minTimeMs", min / 1e6);
+		o.put("avgTimeMs", avg / 1e6);
+		o.put("maxTimeMs", max / 1e6);
+		o.put("allocatedBytes", allocated / runs.size());
+		o.put("allocationRateMBs", allocated / (1024d * 1024d) / Math.max(sum / 1e9, 1e-9));
+		checkThresholds(rc, last, avg, o);
+		log.info(rc.getKey() + " " + rc.description + " : " + o);
+		return o;
+	}
+
+	private void checkThresholds(RouteCase rc, RouteRun last, double avgTime, JSONObject o) throws Exception {
+		if (!last.found) {
+			failures.add(rc.getKey() + " route is not found");
+			return;
+		}
+		if (rc.expectedDistance > 0 && rc.bestPercent > 0) {
+			double diff = Math.abs(last.distance - rc.expectedDistance) * 100 / rc.expectedDistance;
+			if (diff > rc.bestPercent) {
+				failures.add(rc.getKey() + " distance " + last.distance + " differs from " + rc.expectedDistance
+						+ " by " + diff + "%");
+			}
+		}
+		JSONObject b = getBaseline(rc.getKey());
+		if (b != null) {
+			if (last.visitedSegments > b.getInt("visitedSegments") * threshold) {
+				failures.add(rc.getKey() + " visited segments " + last.visitedSegments + " (baseline "
+						+ b.getInt("visitedSegments") + ")");
+			}
+			if (avgTime / 1e6 > b.getDouble("avgTimeMs") * threshold) {
+				failures.add(rc.getKey() + " time " + o.getDouble("avgTimeMs") + " ms (baseline "
+						+ b.getDouble("avgTimeMs") + " ms)");
+			}
+		}
+	}
+
+	private JSONObject getBaseline(String key) throws Exception {
+		if (baseline == null) {
+			return null;
+		}
+		JSONArray routes = baseline.getJSONArray("routes");
+		for (int i = 0; i < routes.length(); i++) {
+			if (key.equals(routes.getJSONObject(i).getString("key"))) {
+				return routes.getJSONObject(i);
+			}
+		}
+		return null;
+	}
+
+	private RouteRun calculate(RouteCase rc, BinaryMapIndexReader[] readers) throws Exception {
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		RoutingConfiguration config = RoutingConfiguration.getDefault().build(rc.vehicle, MEMORY_LIMIT, params);
+		RoutePlannerFrontEnd frontEnd = new RoutePlannerFrontEnd(false);
+		RoutingContext ctx = frontEnd.buildRoutingContext(config, null, readers, RouteCalculationMode.NORMAL);
+		long allocated = getAllocatedBytes();
+		long time = System.nanoTime();
+		List<RouteSegmentResult> route = frontEnd.searchRoute(ctx, rc.start, rc.end, null, null);
+		RouteRun r = new RouteRun();
+		r.time = System.nanoTime() - time;
+		r.allocatedBytes = getAllocatedBytes() - allocated;
+		r.found = route != null && !route.isEmpty();
+		if (route != null) {
+			for (RouteSegmentResult s : route) {
+				r.distance += s.getDistance();
+			}
+		}
+		r.visitedSegments = ctx.visitedSegments;
+		r.loadedTiles = ctx.loadedTiles;
+		return r;
+	}
+
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	private static double parseDouble(String s) {
+		if (Algorithms.isEmpty(s)) {
+			return 0;
+		}
+		return Double.parseDouble(s.trim());
+	}
+
+	private static String readFile(File f) throws IOException {
+		InputStream is = new FileInputStream(f);
+		try {
+			return Algorithms.readFromInputStream(is).toString();
+		} finally {
+			is.close();
+		}
+	}
+}
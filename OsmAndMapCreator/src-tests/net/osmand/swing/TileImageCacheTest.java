@@ -0,0 +1,213 @@
+package net.osmand.swing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import net.osmand.util.Algorithms;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives the tile cache with pan / zoom sequences the same way as {@link MapPanel} does:
+ * visible tiles are requested, ring around viewport and viewport of next zoom are prefetched.
+ */
+public class TileImageCacheTest {
+
+	private static final int TILE = 64;
+	private static final int ZOOM = 4;
+	private static final int VIEW_WIDTH = 4;
+	private static final int VIEW_HEIGHT = 3;
+
+	private File dir;
+	private TileImageCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		dir = new File(System.getProperty("java.io.tmpdir"), "tile_cache_test_" + System.currentTimeMillis());
+		for (int z = ZOOM; z <= ZOOM + 1; z++) {
+			for (int x = 0; x < (1 << z); x++) {
+				for (int y = 0; y < (1 << z); y++) {
+					File f = getFile(x, y, z);
+					f.getParentFile().mkdirs();
+					BufferedImage img = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_RGB);
+					Graphics2D g = img.createGraphics();
+					g.setColor(new Color(x * 8 % 256, y * 8 % 256, z * 20));
+					g.fillRect(0, 0, TILE, TILE);
+					g.dispose();
+					ImageIO.write(img, "png", f);
+				}
+			}
+		}
+		// enough for ~60 tiles
+		cache = new TileImageCache(60 * TILE * TILE * 3, 2);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+		Algorithms.removeAllFiles(dir);
+	}
+
+	private File getFile(int x, int y, int z) {
+		return new File(dir, z + "/" + x + "/" + y + ".png.tile");
+	}
+
+	private String getKey(int x, int y, int z) {
+		return z + "/" + x + "/" + y;
+	}
+
+	/**
+	 * Waits until all visible tiles are available
+	 */
+	private void frame(int left, int top, int z) throws InterruptedException {
+		Set<String> requested = new HashSet<String>();
+		for (int x = left - 1; x <= left + VIEW_WIDTH; x++) {
+			for (int y = top - 1; y <= top + VIEW_HEIGHT; y++) {
+				requested.add(getKey(x, y, z));
+			}
+		}
+		for (int x = 2 * left + VIEW_WIDTH / 2; x < 2 * left + VIEW_WIDTH / 2 + VIEW_WIDTH; x++) {
+			for (int y = 2 * top + VIEW_HEIGHT / 2; y < 2 * top + VIEW_HEIGHT / 2 + VIEW_HEIGHT; y++) {
+				requested.add(getKey(x, y, z + 1));
+			}
+		}
+		cache.retainRequests(requested);
+		Image[][] images = new Image[VIEW_WIDTH][VIEW_HEIGHT];
+		for (int i = 0; i < VIEW_WIDTH; i++) {
+			for (int j = 0; j < VIEW_HEIGHT; j++) {
+				images[i][j] = cache.getImage(getKey(left + i, top + j, z), getFile(left + i, top + j, z));
+			}
+		}
+		for (String key : requested) {
+			String[] s = key.split("/");
+			cache.prefetch(key, getFile(Integer.parseInt(s[1]), Integer.parseInt(s[2]), Integer.parseInt(s[0])));
+		}
+		for (int i = 0; i < VIEW_WIDTH; i++) {
+			for (int j = 0; j < VIEW_HEIGHT; j++) {
+				String key = getKey(left + i, top + j, z);
+				long deadline = System.currentTimeMillis() + 10000;
+				while (images[i][j] == null && System.currentTimeMillis() < deadline) {
+					images[i][j] = cache.peekImage(key);
+					if (images[i][j] == null) {
+						Thread.sleep(1);
+					}
+				}
+				assertNotNull(key, images[i][j]);
+			}
+		}
+	}
+
+	private void waitPrefetch(Set<String> keys) throws InterruptedException {
+		for (String k : keys) {
+			while (cache.isPending(k)) {
+				Thread.sleep(1);
+			}
+		}
+	}
+
+	private void waitAll(int left, int top, int z) throws InterruptedException {
+		Set<String> keys = new HashSet<String>();
+		for (int x = 2 * left; x < 2 * left + 2 * VIEW_WIDTH; x++) {
+			for (int y = 2 * top; y < 2 * top + 2 * VIEW_HEIGHT; y++) {
+				keys.add(getKey(x, y, z + 1));
+			}
+		}
+		for (int x = left - 1; x <= left + VIEW_WIDTH; x++) {
+			for (int y = top - 1; y <= top + VIEW_HEIGHT; y++) {
+				keys.add(getKey(x, y, z));
+			}
+		}
+		waitPrefetch(keys);
+	}
+
+	@Test
+	public void testPanAndZoomSequence() throws InterruptedException {
+		int left = 4;
+		int top = 4;
+		frame(left, top, ZOOM);
+		waitAll(left, top, ZOOM);
+		cache.resetStatistics();
+		// pan right, down, back left
+		int[][] moves = { { 1, 0 }, { 1, 0 }, { 1, 0 }, { 0, 1 }, { 0, 1 }, { -1, 0 }, { -1, 0 }, { 0, -1 } };
+		for (int[] m : moves) {
+			left += m[0];
+			top += m[1];
+			frame(left, top, ZOOM);
+			waitAll(left, top, ZOOM);
+		}
+		double panHitRate = cache.getHitRate();
+		// zoom in around center of viewport, next zoom was prefetched
+		cache.resetStatistics();
+		frame(2 * left + VIEW_WIDTH / 2, 2 * top + VIEW_HEIGHT / 2, ZOOM + 1);
+		double zoomHitRate = cache.getHitRate();
+		assertEquals(1d, panHitRate, 1e-9);
+		assertEquals(1d, zoomHitRate, 1e-9);
+		assertTrue(cache.getSizeInBytes() <= cache.getBudget());
+	}
+
+	@Test
+	public void testBudget() throws InterruptedException {
+		Set<String> all = new HashSet<String>();
+		for (int x = 0; x < 16; x++) {
+			for (int y = 0; y < 16; y++) {
+				cache.prefetch(getKey(x, y, ZOOM), getFile(x, y, ZOOM));
+				all.add(getKey(x, y, ZOOM));
+			}
+		}
+		waitPrefetch(all);
+		assertTrue(cache.size() < all.size());
+		assertTrue(cache.getSizeInBytes() <= cache.getBudget());
+	}
+
+	@Test
+	public void testSoftEviction() {
+		// strong references keep evicted images reachable, so gc can't clear soft references
+		List<Image> images = new ArrayList<Image>();
+		for (int x = 0; x < 100; x++) {
+			BufferedImage img = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_RGB);
+			images.add(img);
+			cache.putImage(getKey(x, 0, ZOOM), img);
+		}
+		assertTrue(cache.size() < images.size());
+		assertTrue(cache.getSizeInBytes() <= cache.getBudget());
+		// least recently used tile is evicted first
+		String first = getKey(0, 0, ZOOM);
+		assertFalse(cache.getKeys().contains(first));
+		cache.resetStatistics();
+		assertSame(images.get(0), cache.getImage(first));
+		assertEquals(1d, cache.getHitRate(), 1e-9);
+		assertTrue(cache.getKeys().contains(first));
+		assertTrue(cache.getSizeInBytes() <= cache.getBudget());
+	}
+
+	@Test
+	public void testStaleRequestsAreCancelled() {
+		for (int x = 0; x < 32; x++) {
+			for (int y = 0; y < 32; y++) {
+				cache.prefetch(getKey(x, y, ZOOM + 1), getFile(x, y, ZOOM + 1));
+			}
+		}
+		cache.retainRequests(Collections.<String> emptySet());
+		for (int x = 0; x < 32; x++) {
+			for (int y = 0; y < 32; y++) {
+				assertFalse(cache.isPending(getKey(x, y, ZOOM + 1)));
+			}
+		}
+	}
+}
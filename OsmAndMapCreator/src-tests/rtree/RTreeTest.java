@@ -0,0 +1,139 @@
+package rtree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.osmand.util.Algorithms;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Trees of different files have own node caches, so they could be built, packed and queried by several threads
+ * at the same time.
+ */
+public class RTreeTest {
+
+	private static final int TREES = 4;
+	private static final int SIZE = 20000;
+
+	private File dir;
+
+	@Before
+	public void setUp() {
+		dir = new File(System.getProperty("java.io.tmpdir"), "rtree_test_" + System.currentTimeMillis());
+		dir.mkdirs();
+		RTree.clearCache();
+	}
+
+	@After
+	public void tearDown() {
+		RTree.clearCache();
+		Algorithms.removeAllFiles(dir);
+	}
+
+	@Test
+	public void testParallelInsertAndPack() throws Exception {
+		ExecutorService service = Executors.newFixedThreadPool(TREES);
+		try {
+			List<Future<Void>> res = new ArrayList<Future<Void>>();
+			for (int t = 0; t < TREES; t++) {
+				final int seed = t;
+				res.add(service.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						buildAndCheck(seed);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : res) {
+				f.get();
+			}
+		} finally {
+			service.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		List<LeafElement> elements = generate(1);
+		String name = new File(dir, "closed.rtree").getAbsolutePath();
+		RTree tree = new RTree(name);
+		for (LeafElement e : elements) {
+			tree.insert(e);
+		}
+		// cached nodes are written on close
+		tree.close();
+		RTree reopened = new RTree(name);
+		Rect all = new Rect(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		assertEquals(ptrs(elements, all), ptrs(reopened.overlaps(all)));
+		reopened.close();
+	}
+
+	private void buildAndCheck(int seed) throws Exception {
+		List<LeafElement> elements = generate(seed);
+		RTree tree = new RTree(new File(dir, "tree" + seed).getAbsolutePath());
+		for (LeafElement e : elements) {
+			tree.insert(e);
+		}
+		tree.flush();
+		Random rnd = new Random(seed);
+		List<Rect> queries = new ArrayList<Rect>();
+		for (int i = 0; i < 20; i++) {
+			int x = rnd.nextInt(1000000);
+			int y = rnd.nextInt(1000000);
+			queries.add(new Rect(x, y, x + rnd.nextInt(100000), y + rnd.nextInt(100000)));
+		}
+		for (Rect q : queries) {
+			assertEquals(ptrs(elements, q), ptrs(tree.overlaps(q)));
+		}
+		String packed = new File(dir, "tree" + seed + ".packed").getAbsolutePath();
+		new Pack().packTree(tree, packed);
+		tree.close();
+		RTree packedTree = new RTree(packed);
+		for (Rect q : queries) {
+			assertEquals(ptrs(elements, q), ptrs(packedTree.overlaps(q)));
+		}
+		packedTree.close();
+	}
+
+	private List<LeafElement> generate(int seed) throws Exception {
+		Random rnd = new Random(seed);
+		List<LeafElement> res = new ArrayList<LeafElement>();
+		for (int i = 0; i < SIZE; i++) {
+			int x = rnd.nextInt(1000000);
+			int y = rnd.nextInt(1000000);
+			res.add(new LeafElement(new Rect(x, y, x + rnd.nextInt(1000), y + rnd.nextInt(1000)), seed * SIZE + i));
+		}
+		return res;
+	}
+
+	private TreeSet<Long> ptrs(List<LeafElement> elements, Rect q) throws IllegalValueException {
+		TreeSet<Long> res = new TreeSet<Long>();
+		for (LeafElement e : elements) {
+			if (e.getRect().overlaps(q)) {
+				res.add(e.getPtr());
+			}
+		}
+		return res;
+	}
+
+	private TreeSet<Long> ptrs(List<?> found) {
+		TreeSet<Long> res = new TreeSet<Long>();
+		for (Object o : found) {
+			res.add(((LeafElement) o).getPtr());
+		}
+		return res;
+	}
+}
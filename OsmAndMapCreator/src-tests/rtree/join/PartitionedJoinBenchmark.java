@@ -0,0 +1,127 @@
+package rtree.join;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rtree.LeafElement;
+import rtree.Pack;
+import rtree.RTree;
+import rtree.Rect;
+
+/**
+ * Joins two synthetic trees (rectangles of road and building size over a country sized area, with dense cities)
+ * and prints time, pairs and peak heap. Trees are built once with --build (packing needs all elements in
+ * memory), then the join could be run with fixed heap:
+ *
+ * <pre>
+ * java -Xmx3g PartitionedJoinBenchmark --build --size=10000000 --dir=/tmp/join
+ * java -Xmx256m PartitionedJoinBenchmark --dir=/tmp/join [--threads=4] [--grid] [--memory=64]
+ * </pre>
+ *
+ * Trees of 10M rectangles (1 Gb each, built in 43 s) are joined into 7083835 pairs in 13-18 s with peak heap of
+ * 27 Mb under -Xmx128m and 45-71 Mb under -Xmx256m, 462-466 Mb are spilled.
+ */
+public class PartitionedJoinBenchmark {
+
+	private static List<LeafElement> generate(int size, long seed) throws Exception {
+		// same cities in both trees
+		Random rnd = new Random(0);
+		int[] cities = new int[200];
+		for (int i = 0; i < cities.length; i++) {
+			cities[i] = rnd.nextInt(1 << 30);
+		}
+		rnd = new Random(seed);
+		List<LeafElement> res = new ArrayList<LeafElement>(size);
+		for (int i = 0; i < size; i++) {
+			int x;
+			int y;
+			if (rnd.nextInt(3) > 0) {
+				int c = rnd.nextInt(cities.length / 2) * 2;
+				x = cities[c] + (int) (rnd.nextGaussian() * (1 << 20));
+				y = cities[c + 1] + (int) (rnd.nextGaussian() * (1 << 20));
+			} else {
+				x = rnd.nextInt(1 << 30);
+				y = rnd.nextInt(1 << 30);
+			}
+			x = Math.max(0, x);
+			y = Math.max(0, y);
+			int w = rnd.nextInt(10) == 0 ? 0 : rnd.nextInt(1 << 14);
+			int h = rnd.nextInt(10) == 0 ? 0 : rnd.nextInt(1 << 14);
+			res.add(new LeafElement(new Rect(x, y, x + w, y + h), i));
+		}
+		return res;
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (p.getType() == MemoryType.HEAP) {
+				peak += p.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int size = 10000000;
+		File dir = new File(System.getProperty("java.io.tmpdir"), "join");
+		boolean build = false;
+		int threads = 1;
+		int partitioning = PartitionedJoin.STR;
+		long memory = 0;
+		for (String a : args) {
+			if (a.startsWith("--size=")) {
+				size = Integer.parseInt(a.substring("--size=".length()));
+			} else if (a.startsWith("--dir=")) {
+				dir = new File(a.substring("--dir=".length()));
+			} else if (a.equals("--build")) {
+				build = true;
+			} else if (a.startsWith("--threads=")) {
+				threads = Integer.parseInt(a.substring("--threads=".length()));
+			} else if (a.equals("--grid")) {
+				partitioning = PartitionedJoin.GRID;
+			} else if (a.startsWith("--memory=")) {
+				memory = Long.parseLong(a.substring("--memory=".length())) << 20;
+			}
+		}
+		File lt = new File(dir, "left.rtree");
+		File rt = new File(dir, "right.rtree");
+		if (build) {
+			dir.mkdirs();
+			long time = System.currentTimeMillis();
+			new Pack().packTree(generate(size, 1), lt.getAbsolutePath());
+			RTree.clearCache();
+			new Pack().packTree(generate(size, 2), rt.getAbsolutePath());
+			RTree.clearCache();
+			System.out.println("Trees of " + size + " rectangles are built in " + (System.currentTimeMillis() - time)
+					+ " ms");
+			return;
+		}
+		PartitionedJoin join = new PartitionedJoin(new RTree(lt.getAbsolutePath()), new RTree(rt.getAbsolutePath()));
+		join.setThreads(threads);
+		join.setPartitioning(partitioning);
+		join.setTempDir(dir);
+		if (memory > 0) {
+			join.setMemoryLimit(memory);
+		}
+		final AtomicLong checksum = new AtomicLong();
+		long time = System.currentTimeMillis();
+		long pairs = join.relate(new PartitionedJoin.JoinCallback() {
+			@Override
+			public void joined(long ltPtr, long rtPtr) throws IOException {
+				checksum.addAndGet(ltPtr * 31 + rtPtr);
+			}
+		});
+		time = System.currentTimeMillis() - time;
+		System.out.println(String.format("%d pairs (checksum %d) in %d ms, %d threads, %d cells, spilled %d Mb, "
+				+ "max heap %d Mb, peak heap %d Mb", pairs, checksum.get(), time, threads, join.getCells(),
+				join.getSpilledBytes() >> 20, Runtime.getRuntime().maxMemory() >> 20, peakHeap() >> 20));
+	}
+}
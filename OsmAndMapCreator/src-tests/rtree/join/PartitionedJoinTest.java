@@ -0,0 +1,140 @@
+package rtree.join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import rtree.LeafElement;
+import rtree.Pack;
+import rtree.RTree;
+import rtree.Rect;
+
+/**
+ * Partitioned join should give every overlapping pair (as {@link Rect#overlaps(Rect)}) exactly once.
+ */
+public class PartitionedJoinTest {
+
+	private static final int SIZE = 6000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private RTree left;
+	private RTree right;
+	private Set<Long> expected;
+
+	@Before
+	public void setUp() throws Exception {
+		RTree.clearCache();
+		Random rnd = new Random(13);
+		List<LeafElement> lt = generate(rnd, 0);
+		List<LeafElement> rt = generate(rnd, SIZE);
+		// same rectangles and points in both trees
+		for (int i = 0; i < 100; i++) {
+			Rect r = lt.get(i * 7).getRect();
+			rt.set(i, new LeafElement(new Rect(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY()), rt.get(i).getPtr()));
+		}
+		left = pack(lt, "left.rtree");
+		right = pack(rt, "right.rtree");
+		expected = new HashSet<Long>();
+		for (LeafElement l : lt) {
+			for (LeafElement r : rt) {
+				if (l.getRect().overlaps(r.getRect())) {
+					expected.add(l.getPtr() * SIZE * 2 + r.getPtr());
+				}
+			}
+		}
+		assertTrue(expected.size() > SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		RTree.clearCache();
+	}
+
+	private List<LeafElement> generate(Random rnd, int firstPtr) throws Exception {
+		List<LeafElement> res = new ArrayList<LeafElement>();
+		for (int i = 0; i < SIZE; i++) {
+			int x;
+			int y;
+			if (i % 3 == 0) {
+				// dense cluster
+				x = 40000 + rnd.nextInt(5000);
+				y = 40000 + rnd.nextInt(5000);
+			} else {
+				x = rnd.nextInt(1000000);
+				y = rnd.nextInt(1000000);
+			}
+			int w = i % 10 == 0 ? 0 : rnd.nextInt(i % 50 == 1 ? 200000 : 3000);
+			int h = i % 10 == 0 ? 0 : rnd.nextInt(3000);
+			res.add(new LeafElement(new Rect(x, y, x + w, y + h), firstPtr + i));
+		}
+		Collections.shuffle(res, rnd);
+		return res;
+	}
+
+	private RTree pack(List<LeafElement> elements, String name) throws Exception {
+		String file = new File(folder.getRoot(), name).getAbsolutePath();
+		assertEquals(0, new Pack().packTree(elements, file));
+		return new RTree(file);
+	}
+
+	private void check(PartitionedJoin join) throws Exception {
+		final Set<Long> actual = Collections.synchronizedSet(new HashSet<Long>());
+		final int[] duplicates = new int[1];
+		join.setTempDir(folder.getRoot());
+		long count = join.relate(new PartitionedJoin.JoinCallback() {
+			@Override
+			public void joined(long ltPtr, long rtPtr) throws IOException {
+				if (!actual.add(ltPtr * SIZE * 2 + rtPtr)) {
+					synchronized (duplicates) {
+						duplicates[0]++;
+					}
+				}
+			}
+		});
+		assertEquals(0, duplicates[0]);
+		assertEquals(expected.size(), count);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testGrid() throws Exception {
+		PartitionedJoin join = new PartitionedJoin(left, right);
+		join.setPartitioning(PartitionedJoin.GRID);
+		join.setCells(64);
+		check(join);
+	}
+
+	@Test
+	public void testStrSmallMemoryParallel() throws Exception {
+		PartitionedJoin join = new PartitionedJoin(left, right);
+		join.setPartitioning(PartitionedJoin.STR);
+		join.setMemoryLimit(256 << 10);
+		join.setThreads(4);
+		check(join);
+		assertTrue(join.getCells() > 16);
+	}
+
+	@Test
+	public void testCellBiggerThanMemory() throws Exception {
+		PartitionedJoin join = new PartitionedJoin(left, right);
+		join.setCells(1);
+		join.setMemoryLimit(64 << 10);
+		check(join);
+	}
+}
@@ -1,6 +1,9 @@
 package net.osmand;
 
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -11,12 +14,20 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import net.osmand.binary.BinaryIndexPart;
 import net.osmand.binary.BinaryMapAddressReaderAdapter;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
 import net.osmand.data.Amenity;
 import net.osmand.data.Building;
 import net.osmand.data.City;
@@ -46,6 +57,9 @@ public class BinaryComparator {
 	private static final int POI_DETAILS = 55;
 	private static final int COMPARE_UNIQUE_1 = 91;
 	private static final int COMPARE_UNIQUE_2 = 92;
+	private static final int COMMENT = 0;
+	// amenities are compared by zoom 6 tiles
+	private static final int POI_TILE_SHIFT = 31 - 6;
 	private static final Integer[] ADDRESS_COMPARE = { CITY_COMPARE, CITY_NAME_COMPARE, STREET_COMPARE,
 			STREET_NAME_COMPARE, BUILDINGS_COMPARE, INTERSECTIONS_COMPARE };
 	private static final Map<String, Integer> COMPARE_ARGS = new HashMap<String, Integer>();
@@ -123,11 +137,15 @@ public class BinaryComparator {
 		}
 		Set<Integer> addressCompareSet = new HashSet<Integer>(COMPARE_SET);
 		addressCompareSet.retainAll(Arrays.asList(ADDRESS_COMPARE));
-		if (!addressCompareSet.isEmpty()) {
-			compareAddress(indexes.get(0), indexes.get(1));
-		}
-		if (COMPARE_SET.contains(POI_COMPARE) || COMPARE_SET.contains(POI_DETAILS)) {
-			comparePoi(indexes.get(0), indexes.get(1));
+		boolean address = !addressCompareSet.isEmpty();
+		boolean poi = COMPARE_SET.contains(POI_COMPARE) || COMPARE_SET.contains(POI_DETAILS);
+		if (address && poi) {
+			// poi are compared in parallel with own readers, its report is written after address report
+			compareInParallel(indexes.get(0), indexes.get(1));
+		} else if (address) {
+			compareAddress(indexes.get(0), indexes.get(1), new Report(true));
+		} else if (poi) {
+			comparePoi(indexes.get(0), indexes.get(1), new Report(true));
 		}
 		if (isOsmOutput()) {
 			fosm.write("</osm>".getBytes());
@@ -135,14 +153,49 @@ public class BinaryComparator {
 		}
 	}
 
-	private List<Amenity> loadAmenities(BinaryMapIndexReader index) throws IOException {
-		List<Amenity> amenities = new ArrayList<Amenity>(index.searchPoi(BinaryMapIndexReader.buildSearchPoiRequest(
-				0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, -1,
+	private void compareInParallel(BinaryMapIndexReader i0, BinaryMapIndexReader i1) throws IOException {
+		final File f0 = i0.getFile();
+		final File f1 = i1.getFile();
+		final Report poiReport = new Report(false);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Void> poiTask = executor.submit(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					RandomAccessFile r0 = new RandomAccessFile(f0, "r");
+					RandomAccessFile r1 = new RandomAccessFile(f1, "r");
+					try {
+						comparePoi(new BinaryMapIndexReader(r0, f0), new BinaryMapIndexReader(r1, f1), poiReport);
+					} finally {
+						r0.close();
+						r1.close();
+					}
+					return null;
+				}
+			});
+			compareAddress(i0, i1, new Report(true));
+			try {
+				poiTask.get();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		poiReport.flush();
+	}
+
+	private List<Amenity> loadAmenities(BinaryMapIndexReader index, int left, int top, int right, int bottom) throws IOException {
+		return new ArrayList<Amenity>(index.searchPoi(BinaryMapIndexReader.buildSearchPoiRequest(
+				left, right, top, bottom, -1,
 				BinaryMapIndexReader.ACCEPT_ALL_POI_TYPE_FILTER,
 				null)));
-		Collections.sort(amenities, getNaturalOrder());
-		log.info("Read " + amenities.size() + " amenities from " + index.getFile());
-		return amenities;
 	}
 
 	private Comparator<Amenity> getNaturalOrder() {
@@ -183,60 +236,81 @@ public class BinaryComparator {
 		return ((long) MapUtils.getTileNumberX(21, loc.getLongitude()) << 31 | (long) MapUtils.getTileNumberY(21, loc.getLatitude()));
 	}
 
-	private void comparePoiDetails(Amenity a0, Amenity a1) throws IOException {
+	/**
+	 * Hash key equal for amenities which are equal in natural order
+	 */
+	private static String amenityKey(Amenity a) {
+		return (a.getId() < 0 ? "l" + latlon(a) : Long.toString(a.getId())) + "/" + a.getType().ordinal() + "/"
+				+ a.getSubType();
+	}
+
+	private void comparePoiDetails(Amenity a0, Amenity a1, PoiLines r) {
 		if (!Algorithms.objectEquals(a0.getSubType(), a1.getSubType())) {
-			printMapObject(POI_DETAILS, a0,
+			r.printMapObject(POI_DETAILS, a0,
 					"Amenity subtypes are not equal " + a0.getSubType() + " <> " + a1.getSubType());
 		}
 		if (!Algorithms.objectEquals(a0.getAdditionalInfo(), a1.getAdditionalInfo())) {
-			printMapObject(POI_DETAILS, a0,
+			r.printMapObject(POI_DETAILS, a0,
 					"Amenity info is not equal " + a0.getAdditionalInfo() + " <> " + a1.getAdditionalInfo());
 		}
 		if (!Algorithms.objectEquals(a0.getNamesMap(true), a1.getNamesMap(true))) {
-			printMapObject(POI_DETAILS, a0,
+			r.printMapObject(POI_DETAILS, a0,
 					"Amenity name is not equal " + a0.getNamesMap(true) + " <> " + a1.getNamesMap(true));
 		}
 		if (MapUtils.getDistance(a0.getLocation(), a1.getLocation()) > 50) {
-			printMapObject(POI_DETAILS, a0,
+			r.printMapObject(POI_DETAILS, a0,
 					"Amenitis are too far" + a0.getLocation() + " <> " + a1.getLocation() + " " + MapUtils.getDistance(a0.getLocation(), a1.getLocation()));
 		}
 	}
 
-	private void comparePoi(BinaryMapIndexReader i0, BinaryMapIndexReader i1) throws IOException {
-		List<Amenity> amenities0 = loadAmenities(i0);
-		List<Amenity> amenities1 = loadAmenities(i1);
-		int i = 0;
-		int j = 0;
+	/**
+	 * Amenities are read tile by tile and joined by hash key, amenities without pair in the same tile
+	 * (moved to another tile) are kept in pending maps until the end. Report lines are sorted in natural
+	 * order of amenities as written by merge of both files sorted whole.
+	 */
+	private void comparePoi(BinaryMapIndexReader i0, BinaryMapIndexReader i1, Report r) throws IOException {
+		int[] bbox = getPoiBbox(i0);
+		int[] bbox1 = getPoiBbox(i1);
+		if (bbox == null) {
+			bbox = bbox1;
+		} else if (bbox1 != null) {
+			bbox = new int[] { Math.min(bbox[0], bbox1[0]), Math.min(bbox[1], bbox1[1]),
+					Math.max(bbox[2], bbox1[2]), Math.max(bbox[3], bbox1[3]) };
+		}
 		int[] uniqueCount = {0, 0};
-		Comparator<Amenity> c = getNaturalOrder();
-		Amenity a0 = get(amenities0, 0);
-		Amenity a1 = get(amenities1, 0);
-		while (i < amenities0.size() || j < amenities1.size()) {
-			int cmp = c.compare(a0, a1);
-			if (cmp < 0) {
-				if (COMPARE_SET.contains(COMPARE_UNIQUE_1) && COMPARE_SET.contains(POI_COMPARE)) {
-					uniqueCount[0]++;
-					printAmenity(a0, 0);
-				}
-				i++;
-				a0 = get(amenities0, i);
-			} else if (cmp > 0) {
-				if (COMPARE_SET.contains(COMPARE_UNIQUE_2) && COMPARE_SET.contains(POI_COMPARE)) {
-					uniqueCount[1]++;
-					printAmenity(a1, 1);
+		int[] total = {0, 0};
+		Map<String, LinkedList<Amenity>> pending0 = new HashMap<String, LinkedList<Amenity>>();
+		Map<String, LinkedList<Amenity>> pending1 = new HashMap<String, LinkedList<Amenity>>();
+		PoiLines lines = new PoiLines();
+		if (bbox != null) {
+			for (int tx = bbox[0] >>> POI_TILE_SHIFT; tx <= bbox[2] >>> POI_TILE_SHIFT; tx++) {
+				for (int ty = bbox[1] >>> POI_TILE_SHIFT; ty <= bbox[3] >>> POI_TILE_SHIFT; ty++) {
+					int left = tx << POI_TILE_SHIFT;
+					int top = ty << POI_TILE_SHIFT;
+					int right = (int) Math.min(Integer.MAX_VALUE, ((long) (tx + 1) << POI_TILE_SHIFT) - 1);
+					int bottom = (int) Math.min(Integer.MAX_VALUE, ((long) (ty + 1) << POI_TILE_SHIFT) - 1);
+					List<Amenity> amenities0 = loadAmenities(i0, left, top, right, bottom);
+					List<Amenity> amenities1 = loadAmenities(i1, left, top, right, bottom);
+					total[0] += amenities0.size();
+					total[1] += amenities1.size();
+					joinAmenities(amenities0, amenities1, pending0, pending1, lines);
 				}
-				j++;
-				a1 = get(amenities1, j);
-			} else {
-				if (COMPARE_SET.contains(POI_DETAILS) && a0 != null && a1 != null) {
-					comparePoiDetails(a0, a1);
+			}
+		}
+		log.info("Read " + total[0] + " amenities from " + i0.getFile());
+		log.info("Read " + total[1] + " amenities from " + i1.getFile());
+		for (int compareUnique : Arrays.asList(COMPARE_UNIQUE_1, COMPARE_UNIQUE_2)) {
+			int uniqueToFile = compareUnique - COMPARE_UNIQUE_1;
+			if (COMPARE_SET.contains(compareUnique) && COMPARE_SET.contains(POI_COMPARE)) {
+				for (LinkedList<Amenity> l : (uniqueToFile == 0 ? pending0 : pending1).values()) {
+					for (Amenity a : l) {
+						uniqueCount[uniqueToFile]++;
+						printAmenity(a, uniqueToFile, lines);
+					}
 				}
-				i++;
-				j++;
-				a0 = get(amenities0, i);
-				a1 = get(amenities1, j);
 			}
 		}
+		lines.flush(r);
 		for (int compareUnique : Arrays.asList(COMPARE_UNIQUE_1, COMPARE_UNIQUE_2)) {
 			if (COMPARE_SET.contains(compareUnique)) {
 				int uniqueToFile = compareUnique - COMPARE_UNIQUE_1;
@@ -245,16 +319,102 @@ public class BinaryComparator {
 		}
 	}
 
-	private void compareAddress(BinaryMapIndexReader i0, BinaryMapIndexReader i1) throws IOException {
+	private void joinAmenities(List<Amenity> amenities0, List<Amenity> amenities1,
+			Map<String, LinkedList<Amenity>> pending0, Map<String, LinkedList<Amenity>> pending1, PoiLines r) {
+		Comparator<Amenity> c = getNaturalOrder();
+		Collections.sort(amenities0, c);
+		Collections.sort(amenities1, c);
+		boolean details = COMPARE_SET.contains(POI_DETAILS);
+		Map<String, LinkedList<Amenity>> tile1 = new HashMap<String, LinkedList<Amenity>>();
+		for (Amenity a1 : amenities1) {
+			addAmenity(tile1, amenityKey(a1), a1);
+		}
+		for (Amenity a0 : amenities0) {
+			String key = amenityKey(a0);
+			Amenity a1 = pollAmenity(tile1, key);
+			if (a1 == null) {
+				a1 = pollAmenity(pending1, key);
+			}
+			if (a1 == null) {
+				addAmenity(pending0, key, a0);
+			} else if (details) {
+				comparePoiDetails(a0, a1, r);
+			}
+		}
+		for (Amenity a1 : amenities1) {
+			String key = amenityKey(a1);
+			LinkedList<Amenity> l = tile1.get(key);
+			if (l == null || l.getFirst() != a1) {
+				continue;
+			}
+			pollAmenity(tile1, key);
+			Amenity a0 = pollAmenity(pending0, key);
+			if (a0 == null) {
+				addAmenity(pending1, key, a1);
+			} else if (details) {
+				comparePoiDetails(a0, a1, r);
+			}
+		}
+	}
+
+	private static void addAmenity(Map<String, LinkedList<Amenity>> map, String key, Amenity a) {
+		LinkedList<Amenity> l = map.get(key);
+		if (l == null) {
+			l = new LinkedList<Amenity>();
+			map.put(key, l);
+		}
+		l.add(a);
+	}
+
+	private static Amenity pollAmenity(Map<String, LinkedList<Amenity>> map, String key) {
+		LinkedList<Amenity> l = map.get(key);
+		if (l == null) {
+			return null;
+		}
+		Amenity a = l.poll();
+		if (l.isEmpty()) {
+			map.remove(key);
+		}
+		return a;
+	}
+
+	/**
+	 * @return left, top, right, bottom of all poi regions in 31 coordinates or null
+	 */
+	private int[] getPoiBbox(BinaryMapIndexReader index) {
+		int[] bbox = null;
+		for (BinaryIndexPart part : index.getIndexes()) {
+			if (part instanceof PoiRegion) {
+				PoiRegion pr = (PoiRegion) part;
+				int left = MapUtils.get31TileNumberX(pr.getLeftLongitude());
+				int right = MapUtils.get31TileNumberX(pr.getRightLongitude());
+				int top = MapUtils.get31TileNumberY(pr.getTopLatitude());
+				int bottom = MapUtils.get31TileNumberY(pr.getBottomLatitude());
+				if (bbox == null) {
+					bbox = new int[] { left, top, right, bottom };
+				} else {
+					bbox[0] = Math.min(bbox[0], left);
+					bbox[1] = Math.min(bbox[1], top);
+					bbox[2] = Math.max(bbox[2], right);
+					bbox[3] = Math.max(bbox[3], bottom);
+				}
+			}
+		}
+		return bbox;
+	}
+
+	private void compareAddress(BinaryMapIndexReader i0, BinaryMapIndexReader i1, Report r) throws IOException {
 		for (int cityType : BinaryMapAddressReaderAdapter.CITY_TYPES) {
 			List<City> ct0 = i0.getCities(null, cityType);
 			List<City> ct1 = i1.getCities(null, cityType);
 			Comparator<City> c = comparator();
 			Collections.sort(ct0, c);
 			Collections.sort(ct1, c);
+			SimilarCities similar0 = new SimilarCities(ct0);
+			SimilarCities similar1 = new SimilarCities(ct1);
 			int i = 0;
 			int j = 0;
-			printComment("CITY TYPE: " + cityType);
+			r.printComment("CITY TYPE: " + cityType);
 			while (i < ct0.size() || j < ct1.size()) {
 				City c0 = get(ct0, i);
 				City c1 = get(ct1, j);
@@ -262,13 +422,13 @@ public class BinaryComparator {
 				if (cmp < 0) {
 					while (c.compare(c0, c1) < 0) {
 						if (COMPARE_SET.contains(CITY_COMPARE) && COMPARE_SET.contains(COMPARE_UNIQUE_1)) {
-							City ps = searchSimilarCities(c0, ct1, j);
+							City ps = similar1.search(c0, j);
 							if (ps != null) {
 								int distance = (int) MapUtils.getDistance(c0.getLocation(), ps.getLocation());
-								printMapObject(CITY_COMPARE, c0, "(1). Extra city in 1st file: " + c0
+								r.printMapObject(CITY_COMPARE, c0, "(1). Extra city in 1st file: " + c0
 										+ "( " + distance + " m ) possible duplicate " + ps);
 							} else {
-								printMapObject(CITY_COMPARE, c0, "(1)! Extra city in 1st file: " + c0);
+								r.printMapObject(CITY_COMPARE, c0, "(1)! Extra city in 1st file: " + c0);
 							}
 						}
 						i++;
@@ -277,13 +437,13 @@ public class BinaryComparator {
 				} else if (cmp > 0) {
 					while (c.compare(c0, c1) > 0) {
 						if (COMPARE_SET.contains(CITY_COMPARE) && COMPARE_SET.contains(COMPARE_UNIQUE_2)) {
-							City ps = searchSimilarCities(c1, ct0, i);
+							City ps = similar0.search(c1, i);
 							if (ps != null) {
 								int distance = (int) MapUtils.getDistance(c1.getLocation(), ps.getLocation());
-								printMapObject(CITY_COMPARE, c1, "(1). Extra city in 2nd file: " + c1
+								r.printMapObject(CITY_COMPARE, c1, "(1). Extra city in 2nd file: " + c1
 										+ "( " + distance + " m ) possible duplicate " + ps);
 							} else {
-								printMapObject(CITY_COMPARE, c1, "(1)! Extra city in 2nd file: " + c0);
+								r.printMapObject(CITY_COMPARE, c1, "(1)! Extra city in 2nd file: " + c0);
 							}
 						}
 						j++;
@@ -297,121 +457,134 @@ public class BinaryComparator {
 					j++;
 					i0.preloadStreets(c0, null);
 					i1.preloadStreets(c1, null);
-					if (COMPARE_SET.contains(CITY_NAME_COMPARE) && !c0.getNamesMap(true).equals(c1.getNamesMap(true))) {
-						printComment("(1). City all names are not same : " + c1 + " "
-								+ (new JSONObject(c0.getNamesMap(true)) + " != "
-								+ (new JSONObject(c1.getNamesMap(true)))));
-					}
-					if (c0.getStreets().size() != c1.getStreets().size()) {
-						if (COMPARE_SET.contains(STREET_COMPARE)) {
-							if (!isOsmOutput()) {
-								printComment("(2). City streets " + c1 + ":  " + c0.getStreets().size() + " <> " + c1.getStreets().size());
-							}
-							List<String> s0 = new ArrayList<String>();
-							List<String> s1 = new ArrayList<String>();
-							for (Street s : c0.getStreets()) {
-								if (c1.getStreetByName(s.getName()) == null) {
-									s0.add(s.getName());
-									if (isOsmOutput()) {
-										printMapObject(STREET_COMPARE, s, "(2) Street " + s
-												+ "is not present in 2nd file");
-									}
-								}
-							}
-							for (Street s : c1.getStreets()) {
-								if (c0.getStreetByName(s.getName()) == null) {
-									if (isOsmOutput()) {
-										printMapObject(STREET_COMPARE, s, "(2) Street " + s
-												+ " is not present in 1st file");
-									}
-									s1.add(s.getName());
-								}
-							}
-							if (s0.isEmpty() && s1.isEmpty()) {
-								// locations of streets are not equal
-								printMapObject(STREET_COMPARE, c0, "(2) Number of streets with same name is not equal" + c0.getStreets());
-							} else {
-								printComment("(2).. " + s0 + "<>" + s1);
-							}
+					compareCity(i0, i1, c0, c1, r);
+				}
+			}
+		}
+	}
+
+	private void compareCity(BinaryMapIndexReader i0, BinaryMapIndexReader i1, City c0, City c1, Report r)
+			throws IOException {
+		if (COMPARE_SET.contains(CITY_NAME_COMPARE) && !c0.getNamesMap(true).equals(c1.getNamesMap(true))) {
+			r.printComment("(1). City all names are not same : " + c1 + " "
+					+ (new JSONObject(c0.getNamesMap(true)) + " != "
+					+ (new JSONObject(c1.getNamesMap(true)))));
+		}
+		if (c0.getStreets().size() != c1.getStreets().size()) {
+			if (COMPARE_SET.contains(STREET_COMPARE)) {
+				if (!isOsmOutput()) {
+					r.printComment("(2). City streets " + c1 + ":  " + c0.getStreets().size() + " <> " + c1.getStreets().size());
+				}
+				List<String> s0 = new ArrayList<String>();
+				List<String> s1 = new ArrayList<String>();
+				for (Street s : c0.getStreets()) {
+					if (c1.getStreetByName(s.getName()) == null) {
+						s0.add(s.getName());
+						if (isOsmOutput()) {
+							r.printMapObject(STREET_COMPARE, s, "(2) Street " + s
+									+ "is not present in 2nd file");
 						}
-					} else {
-						// compare streets
-						for (int ij = 0; ij < c1.getStreets().size(); ij++) {
-							Street s0 = c0.getStreets().get(ij);
-							Street s1 = c1.getStreets().get(ij);
-							if (!s0.getNamesMap(true).equals(s1.getNamesMap(true)) && COMPARE_SET.contains(STREET_NAME_COMPARE)) {
-								printMapObject(STREET_NAME_COMPARE, s0,
-										"(2)- Street all names are not same : " + c1 + " " + s0.getNamesMap(true) + " <> " + s1.getNamesMap(true));
-							}
-							if (s0.getName().equals(s1.getName())) {
-								i0.preloadBuildings(s0, null);
-								i1.preloadBuildings(s1, null);
-								if (COMPARE_SET.contains(BUILDINGS_COMPARE)) {
-									if (s0.getBuildings().size() != s1.getBuildings().size()) {
-										printMapObject(BUILDINGS_COMPARE, s0,
-												"(3). Buildings size: " + s0.getBuildings().size() + "<>"
-														+ s1.getBuildings().size() + " " + c0 + ", " + s0);
-									} else {
-										for (int it = 0; it < s0.getBuildings().size(); it++) {
-											Building b0 = s0.getBuildings().get(it);
-											Building b1 = s1.getBuildings().get(it);
-											if (!b0.getName().equals(b1.getName())) {
-												printMapObject(BUILDINGS_COMPARE, b0,
-														"(4). Buildings name: " + b0.getName() + "<>"
-																+ b1.getName() + " " + c0 + ", " + s0);
-											}
-											if (!Algorithms.objectEquals(b0.getPostcode(), b1.getPostcode())) {
-												printMapObject(BUILDINGS_COMPARE, b0,
-														"(4). Buildings postcode: " + b0.getPostcode()
-																+ "<>" + b1.getPostcode() + " " + c0 + ", " + s0);
-											}
-										}
-									}
-								}
-								if (COMPARE_SET.contains(INTERSECTIONS_COMPARE)) {
-									if (s0.getIntersectedStreets().size() != s1.getIntersectedStreets().size()) {
-										printMapObject(INTERSECTIONS_COMPARE, s0,
-												"(5). Intersections size: " + s0.getIntersectedStreets().size() + "<>"
-														+ s1.getIntersectedStreets().size() + " " + c0 + ", " + s0);
-									} else {
-										Collections.sort(s0.getIntersectedStreets(), MapObject.BY_NAME_COMPARATOR);
-										Collections.sort(s1.getIntersectedStreets(), MapObject.BY_NAME_COMPARATOR);
-										for (int it = 0; it < s0.getIntersectedStreets().size(); it++) {
-											Street st0 = s0.getIntersectedStreets().get(it);
-											Street st1 = s1.getIntersectedStreets().get(it);
-											if (!st0.getName().equals(st1.getName())
-												// || !st0.getNamesMap(true).equals(st1.getNamesMap(true))
-													) {
-												printMapObject(INTERSECTIONS_COMPARE, st0,
-														"(5). Intersections names <> : " + st0
-																+ "<>" + st1 + " " + c0 + ", " + s0 + " ");
-											}
-											if (MapUtils.getDistance(st0.getLocation(), st1.getLocation()) > 1500) {
-												printMapObject(INTERSECTIONS_COMPARE, st0,
-														"(5). Intersections location <> : " + st0
-																+ "<>" + st1 + " " + c0 + ", " + s0 + " ");
-											}
-										}
-									}
-								}
-							} else {
-								if (COMPARE_SET.contains(STREET_NAME_COMPARE)) {
-									printMapObject(STREET_NAME_COMPARE, s0, "(3)? Street name order: " + s0 + "!=" + s1 + " " + c0);
-								}
-							}
+					}
+				}
+				for (Street s : c1.getStreets()) {
+					if (c0.getStreetByName(s.getName()) == null) {
+						if (isOsmOutput()) {
+							r.printMapObject(STREET_COMPARE, s, "(2) Street " + s
+									+ " is not present in 1st file");
 						}
+						s1.add(s.getName());
 					}
 				}
+				if (s0.isEmpty() && s1.isEmpty()) {
+					// locations of streets are not equal
+					r.printMapObject(STREET_COMPARE, c0, "(2) Number of streets with same name is not equal" + c0.getStreets());
+				} else {
+					r.printComment("(2).. " + s0 + "<>" + s1);
+				}
+			}
+			return;
+		}
+		// compare streets
+		for (int ij = 0; ij < c1.getStreets().size(); ij++) {
+			Street s0 = c0.getStreets().get(ij);
+			Street s1 = c1.getStreets().get(ij);
+			if (!s0.getNamesMap(true).equals(s1.getNamesMap(true)) && COMPARE_SET.contains(STREET_NAME_COMPARE)) {
+				r.printMapObject(STREET_NAME_COMPARE, s0,
+						"(2)- Street all names are not same : " + c1 + " " + s0.getNamesMap(true) + " <> " + s1.getNamesMap(true));
+			}
+			if (s0.getName().equals(s1.getName())) {
+				i0.preloadBuildings(s0, null);
+				i1.preloadBuildings(s1, null);
+				if (COMPARE_SET.contains(BUILDINGS_COMPARE)) {
+					compareBuildings(c0, s0, s1, r);
+				}
+				if (COMPARE_SET.contains(INTERSECTIONS_COMPARE)) {
+					compareIntersections(c0, s0, s1, r);
+				}
+			} else {
+				if (COMPARE_SET.contains(STREET_NAME_COMPARE)) {
+					r.printMapObject(STREET_NAME_COMPARE, s0, "(3)? Street name order: " + s0 + "!=" + s1 + " " + c0);
+				}
+			}
+		}
+	}
+
+	private void compareBuildings(City c0, Street s0, Street s1, Report r) throws IOException {
+		if (s0.getBuildings().size() != s1.getBuildings().size()) {
+			r.printMapObject(BUILDINGS_COMPARE, s0,
+					"(3). Buildings size: " + s0.getBuildings().size() + "<>"
+							+ s1.getBuildings().size() + " " + c0 + ", " + s0);
+			return;
+		}
+		for (int it = 0; it < s0.getBuildings().size(); it++) {
+			Building b0 = s0.getBuildings().get(it);
+			Building b1 = s1.getBuildings().get(it);
+			if (!b0.getName().equals(b1.getName())) {
+				r.printMapObject(BUILDINGS_COMPARE, b0,
+						"(4). Buildings name: " + b0.getName() + "<>"
+								+ b1.getName() + " " + c0 + ", " + s0);
+			}
+			if (!Algorithms.objectEquals(b0.getPostcode(), b1.getPostcode())) {
+				r.printMapObject(BUILDINGS_COMPARE, b0,
+						"(4). Buildings postcode: " + b0.getPostcode()
+								+ "<>" + b1.getPostcode() + " " + c0 + ", " + s0);
+			}
+		}
+	}
+
+	private void compareIntersections(City c0, Street s0, Street s1, Report r) throws IOException {
+		if (s0.getIntersectedStreets().size() != s1.getIntersectedStreets().size()) {
+			r.printMapObject(INTERSECTIONS_COMPARE, s0,
+					"(5). Intersections size: " + s0.getIntersectedStreets().size() + "<>"
+							+ s1.getIntersectedStreets().size() + " " + c0 + ", " + s0);
+			return;
+		}
+		Collections.sort(s0.getIntersectedStreets(), MapObject.BY_NAME_COMPARATOR);
+		Collections.sort(s1.getIntersectedStreets(), MapObject.BY_NAME_COMPARATOR);
+		for (int it = 0; it < s0.getIntersectedStreets().size(); it++) {
+			Street st0 = s0.getIntersectedStreets().get(it);
+			Street st1 = s1.getIntersectedStreets().get(it);
+			if (!st0.getName().equals(st1.getName())
+				// || !st0.getNamesMap(true).equals(st1.getNamesMap(true))
+					) {
+				r.printMapObject(INTERSECTIONS_COMPARE, st0,
+						"(5). Intersections names <> : " + st0
+								+ "<>" + st1 + " " + c0 + ", " + s0 + " ");
+			}
+			if (MapUtils.getDistance(st0.getLocation(), st1.getLocation()) > 1500) {
+				r.printMapObject(INTERSECTIONS_COMPARE, st0,
+						"(5). Intersections location <> : " + st0
+								+ "<>" + st1 + " " + c0 + ", " + s0 + " ");
 			}
 		}
 	}
 
-	private void printMapObject(int type, MapObject obj, String msg) throws IOException {
+	private void writeMapObject(int type, LatLon l, String msg) throws IOException {
 		if (!isOsmOutput()) {
 			System.out.println(msg);
 		} else {
 
-			fosm.write(("  <node lat='" + obj.getLocation().getLatitude() + "' lon='" + obj.getLocation().getLongitude() + "' "
+			fosm.write(("  <node lat='" + l.getLatitude() + "' lon='" + l.getLongitude() + "' "
 					+ " id='" + (ELEM_ID--) + "'>\n").getBytes());
 			fosm.write(("  <tag k='comment' v='" +
 					msg.replace('\'', '_').replace("<", "&lt;").replace(">", "&gt;")
@@ -425,8 +598,8 @@ public class BinaryComparator {
 		}
 	}
 
-	private void printAmenity(Amenity amenity, int uniqueToFile) throws IOException {
-		printMapObject(POI_COMPARE, amenity,
+	private void printAmenity(Amenity amenity, int uniqueToFile, PoiLines r) {
+		r.printMapObject(POI_COMPARE, amenity,
 				"Amenity exist only in " + fileNameByNumber[uniqueToFile] + ": " + amenity.toString());
 	}
 
@@ -435,7 +608,7 @@ public class BinaryComparator {
 		return fosm != null;
 	}
 
-	private void printComment(String string) throws IOException {
+	private void writeComment(String string) throws IOException {
 		if (!isOsmOutput()) {
 			System.out.println(string);
 		} else {
@@ -443,48 +616,235 @@ public class BinaryComparator {
 		}
 	}
 
-	private City searchSimilarCities(City city, List<City> search, int j) {
-		// scan similar cities
-		Collator collator = OsmAndCollator.primaryCollator();
-		boolean offByOneError = false;
-		for (int t = Math.min(j, search.size() -1) ; t >= 0; t--) {
-			City ps = search.get(t);
-			if (collator.compare(strip(city.getName()), strip(ps.getName())) != 0) {
-				if (offByOneError) {
-					break;
+	/**
+	 * Report of one comparison. Direct report is written immediately, otherwise lines are kept
+	 * until {@link #flush()} so reports of parallel comparisons are not mixed.
+	 */
+	private class Report {
+		private final boolean direct;
+		private final List<String> messages = new ArrayList<String>();
+		private final List<LatLon> locations = new ArrayList<LatLon>();
+		private final TIntArrayList types = new TIntArrayList();
+
+		Report(boolean direct) {
+			this.direct = direct;
+		}
+
+		void printMapObject(int type, MapObject obj, String msg) throws IOException {
+			LatLon l = isOsmOutput() ? obj.getLocation() : null;
+			if (direct) {
+				writeMapObject(type, l, msg);
+			} else {
+				types.add(type);
+				locations.add(l);
+				messages.add(msg);
+			}
+		}
+
+		void printComment(String string) throws IOException {
+			if (direct) {
+				writeComment(string);
+			} else {
+				types.add(COMMENT);
+				locations.add(null);
+				messages.add(string);
+			}
+		}
+
+		void flush() throws IOException {
+			for (int k = 0; k < messages.size(); k++) {
+				if (types.get(k) == COMMENT) {
+					writeComment(messages.get(k));
 				} else {
-					offByOneError = true;
-					continue;
+					writeMapObject(types.get(k), locations.get(k), messages.get(k));
 				}
 			}
-			if (MapUtils.getDistance(city.getLocation(), ps.getLocation()) < CITY_SIMILARITY_DISTANCE_POSSIBLE) {
-				return ps;
+			messages.clear();
+			locations.clear();
+			types.clear();
+		}
+	}
+
+	/**
+	 * Lines of poi report kept with amenities until all tiles are compared. Sort is stable, so lines of
+	 * equal amenities keep order: details of pairs first, then amenities present in one file only.
+	 */
+	private class PoiLines {
+		private final List<Amenity> amenities = new ArrayList<Amenity>();
+		private final List<String> messages = new ArrayList<String>();
+		private final TIntArrayList types = new TIntArrayList();
+
+		void printMapObject(int type, Amenity a, String msg) {
+			types.add(type);
+			amenities.add(a);
+			messages.add(msg);
+		}
+
+		void flush(Report r) throws IOException {
+			Integer[] order = new Integer[amenities.size()];
+			for (int k = 0; k < order.length; k++) {
+				order[k] = k;
 			}
+			final Comparator<Amenity> c = getNaturalOrder();
+			Arrays.sort(order, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return c.compare(amenities.get(o1), amenities.get(o2));
+				}
+			});
+			for (int k : order) {
+				r.printMapObject(types.get(k), amenities.get(k), messages.get(k));
+			}
+			amenities.clear();
+			messages.clear();
+			types.clear();
 		}
+	}
 
-		offByOneError = false;
-		for (int t = j; t < search.size(); t++) {
-			City ps = search.get(t);
-			if (collator.compare(strip(city.getName()), strip(ps.getName())) != 0) {
-				if (offByOneError) {
-					break;
+	/**
+	 * Sorted cities split into runs with same (stripped) name. Cities of long runs are put into grid keyed by
+	 * run and zoom 9 tile, so close cities with same name are found without scanning the whole run.
+	 */
+	static class SimilarCities {
+		private static final int GRID_ZOOM = 9;
+		private static final int GRID_MIN_RUN = 16;
+		private final List<City> cities;
+		private final String[] names;
+		private final int[] runStart;
+		private final int[] runEnd;
+		private final TLongObjectHashMap<TIntArrayList> grid = new TLongObjectHashMap<TIntArrayList>();
+		private final Collator collator = OsmAndCollator.primaryCollator();
+
+		SimilarCities(List<City> cities) {
+			this.cities = cities;
+			int n = cities.size();
+			names = new String[n];
+			runStart = new int[n];
+			runEnd = new int[n];
+			for (int k = 0; k < n; k++) {
+				names[k] = strip(cities.get(k).getName());
+				if (k > 0 && collator.compare(names[k - 1], names[k]) == 0) {
+					runStart[k] = runStart[k - 1];
 				} else {
+					runStart[k] = k;
+				}
+			}
+			for (int k = n - 1; k >= 0; k--) {
+				runEnd[k] = k < n - 1 && runStart[k + 1] == runStart[k] ? runEnd[k + 1] : k;
+			}
+			for (int k = 0; k < n; k++) {
+				if (runEnd[k] - runStart[k] + 1 >= GRID_MIN_RUN) {
+					LatLon l = cities.get(k).getLocation();
+					long key = gridKey(runStart[k], (int) MapUtils.getTileNumberX(GRID_ZOOM, l.getLongitude()),
+							(int) MapUtils.getTileNumberY(GRID_ZOOM, l.getLatitude()));
+					TIntArrayList list = grid.get(key);
+					if (list == null) {
+						list = new TIntArrayList();
+						grid.put(key, list);
+					}
+					list.add(k);
+				}
+			}
+		}
+
+		private long gridKey(int run, int tx, int ty) {
+			return (((long) run) << (2 * GRID_ZOOM)) | (tx << GRID_ZOOM) | ty;
+		}
+
+		private boolean sameName(String name, int k) {
+			return collator.compare(name, names[k]) == 0;
+		}
+
+		/**
+		 * Same result as scan back and forth from position j with 1 mismatch allowed in each direction
+		 */
+		City search(City city, int j) {
+			String name = strip(city.getName());
+			boolean offByOneError = false;
+			int t = Math.min(j, cities.size() - 1);
+			while (t >= 0) {
+				if (!sameName(name, t)) {
+					if (offByOneError) {
+						break;
+					}
 					offByOneError = true;
+					t--;
 					continue;
 				}
+				City ps = closest(city, runStart[t], t, true);
+				if (ps != null) {
+					return ps;
+				}
+				t = runStart[t] - 1;
 			}
-			if (MapUtils.getDistance(city.getLocation(), ps.getLocation()) < CITY_SIMILARITY_DISTANCE_POSSIBLE) {
-				return ps;
+			offByOneError = false;
+			t = j;
+			while (t < cities.size()) {
+				if (!sameName(name, t)) {
+					if (offByOneError) {
+						break;
+					}
+					offByOneError = true;
+					t++;
+					continue;
+				}
+				City ps = closest(city, t, runEnd[t], false);
+				if (ps != null) {
+					return ps;
+				}
+				t = runEnd[t] + 1;
+			}
+			return null;
+		}
+
+		private City closest(City city, int from, int to, boolean backward) {
+			LatLon l = city.getLocation();
+			if (runEnd[from] - runStart[from] + 1 < GRID_MIN_RUN) {
+				for (int k = 0; k <= to - from; k++) {
+					City ps = cities.get(backward ? to - k : from + k);
+					if (MapUtils.getDistance(l, ps.getLocation()) < CITY_SIMILARITY_DISTANCE_POSSIBLE) {
+						return ps;
+					}
+				}
+				return null;
+			}
+			// 1 degree of latitude is longer than 110 km
+			double dlat = CITY_SIMILARITY_DISTANCE_POSSIBLE / 110000d;
+			double top = Math.min(85, l.getLatitude() + dlat);
+			double bottom = Math.max(-85, l.getLatitude() - dlat);
+			double dlon = dlat / Math.max(0.01, Math.cos(Math.toRadians(Math.max(Math.abs(top), Math.abs(bottom)))));
+			int left = (int) MapUtils.getTileNumberX(GRID_ZOOM, Math.max(-180, l.getLongitude() - dlon));
+			int right = (int) MapUtils.getTileNumberX(GRID_ZOOM, Math.min(179.9999, l.getLongitude() + dlon));
+			int tileTop = (int) MapUtils.getTileNumberY(GRID_ZOOM, top);
+			int tileBottom = (int) MapUtils.getTileNumberY(GRID_ZOOM, bottom);
+			int found = -1;
+			for (int tx = left; tx <= right; tx++) {
+				for (int ty = tileTop; ty <= tileBottom; ty++) {
+					TIntArrayList list = grid.get(gridKey(runStart[from], tx, ty));
+					if (list == null) {
+						continue;
+					}
+					for (int p = 0; p < list.size(); p++) {
+						int k = list.get(p);
+						if (k < from || k > to || (found != -1 && (backward ? k < found : k > found))) {
+							continue;
+						}
+						if (MapUtils.getDistance(l, cities.get(k).getLocation()) < CITY_SIMILARITY_DISTANCE_POSSIBLE) {
+							found = k;
+						}
+					}
+				}
 			}
+			return found == -1 ? null : cities.get(found);
 		}
-		return null;
 	}
 
 	private <T> T get(List<T> list, int i) {
 		return i >= list.size() ? null : list.get(i);
 	}
 
-	private String strip(String name) {
+	private static String strip(String name) {
 		return name.indexOf('(') != -1 ? name.substring(0, name.indexOf('(')).trim() : name;
 	}
 
@@ -20,6 +20,7 @@ import net.osmand.data.diff.ObfRegionSplitter;
 import net.osmand.data.index.GenerateRegionTags;
 import net.osmand.data.index.IndexUploader;
 import net.osmand.data.preparation.IndexCreator;
+import net.osmand.data.preparation.IndexCreatorPartitioned;
 import net.osmand.data.preparation.OceanTilesCreator;
 import net.osmand.impl.ConsoleProgressImplementation;
 import net.osmand.osm.MapRenderingTypesEncoder;
@@ -69,7 +70,8 @@ public class MainUtilities {
 			} else if (utl.equals("generate-obf-diff")) {
 				ObfDiffGenerator.main(subArgsArray);
 			} else if (utl.equals("generate-ocean-tile")) {
-				OceanTilesCreator.createTilesFile(subArgsArray[0], subArgsArray.length > 1 ? subArgsArray[1] : null);
+				OceanTilesCreator.createTilesFileStreaming(subArgsArray[0], subArgsArray.length > 1 ? subArgsArray[1] : null,
+						Runtime.getRuntime().availableProcessors());
 			} else if (utl.equals("test-routing")) {
 				net.osmand.router.TestRouting.main(subArgsArray);
 			} else if (utl.equals("generate-ocbf")) {
@@ -91,6 +93,21 @@ public class MainUtilities {
 				ic.setIndexTransport(true);
 				ic.setLastModifiedDate(new File(subArgsArray[0]).lastModified());
 				generateObf(subArgsArray, ic);
+			} else if (utl.equals("generate-obf-partitioned")) {
+				if (subArgsArray.length < 3) {
+					System.out.println("Usage: <path to osm file> <partitions> <threads>");
+					return;
+				}
+				File osmFile = new File(subArgsArray[0]);
+				IndexCreatorPartitioned ic = new IndexCreatorPartitioned(new File("."),
+						Integer.parseInt(subArgsArray[1]), Integer.parseInt(subArgsArray[2]));
+				ic.setIndexMap(true);
+				ic.setIndexPOI(true);
+				ic.setIndexRouting(true);
+				ic.setRenderingTypesFile(DataExtractionSettings.getSettings().getMapRenderingTypesFile());
+				ic.setLastModifiedDate(osmFile.lastModified());
+				ic.generateIndexes(new File[] { osmFile }, new ConsoleProgressImplementation(), null,
+						MapZooms.getDefault(), log);
 			} else if (utl.equals("generate-map")) {
 				IndexCreator ic = new IndexCreator(new File("."));
 				ic.setIndexMap(true);
@@ -211,6 +228,8 @@ public class MainUtilities {
 		System.out.println("each utility has own argument list and own synopsys. Here is the list:");
 		System.out.println("\t\t generate-obf <path to osm file>: simple way to generate obf file in place. "
 				+ "\t\t\t	Another supported options generate-map, generate-address, generate-poi, generate-roads (generate obf partially)");
+		System.out.println("\t\t generate-obf-partitioned <path to osm file> <partitions> <threads>: generates map, poi and routing "
+				+ "sections of large region by longitude stripes in parallel (address and transport are not supported)");
 		System.out.println("\t\t check-ocean-tile <lat> <lon> <zoom=11>: checks ocean or land tile is in bz2 list");
 		System.out.println("\t\t generate-ocean-tile <coastline osm file> <optional output file>: creates ocean tiles 12 zoom");
 		System.out.println("\t\t generate-java-style <pathtostyle> <pathtooutputfolder>: prints rendering style as java interpreted code");
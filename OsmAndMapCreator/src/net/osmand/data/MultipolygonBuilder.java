@@ -1,12 +1,18 @@
 package net.osmand.data;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.Way;
 
 import org.apache.commons.logging.Log;
@@ -77,81 +83,206 @@ public class MultipolygonBuilder {
 	 * @return a list with multipolygons which have exactly one outer ring
 	 */
 	public List<Multipolygon> splitPerOuterRing(Log log) {
-		SortedSet<Ring> inners = new TreeSet<Ring>(combineToRings(innerWays));
+		SortedSet<Ring> innersSet = new TreeSet<Ring>(combineToRings(innerWays));
+		Ring[] inners = innersSet.toArray(new Ring[innersSet.size()]);
 		ArrayList<Ring> outers = combineToRings(outerWays);
 		ArrayList<Multipolygon> multipolygons = new ArrayList<Multipolygon>();
+		// inner ring could be inside of outer only if its bbox is inside of outer bbox,
+		// so inners are sorted by left border and only inners starting inside of outer bbox are tested
+		final double[][] innerBoxes = new double[inners.length][];
+		Integer[] byLeft = new Integer[inners.length];
+		for (int i = 0; i < inners.length; i++) {
+			innerBoxes[i] = getBBox(inners[i]);
+			byLeft[i] = i;
+		}
+		Arrays.sort(byLeft, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(innerBoxes[o1][0], innerBoxes[o2][0]);
+			}
+		});
+		double[] lefts = new double[inners.length];
+		for (int i = 0; i < inners.length; i++) {
+			lefts[i] = innerBoxes[byLeft[i]][0];
+		}
+		boolean[] assigned = new boolean[inners.length];
+		int unassigned = inners.length;
 		// loop; start with the smallest outer ring
 		for (Ring outer : outers) {
+			double[] obox = getBBox(outer);
+			TIntArrayList candidates = new TIntArrayList();
+			int st = lowerBound(lefts, obox[0]);
+			for (int k = st; k < lefts.length && lefts[k] <= obox[2]; k++) {
+				double[] ibox = innerBoxes[byLeft[k]];
+				if (ibox[1] >= obox[1] && ibox[2] <= obox[2] && ibox[3] <= obox[3]) {
+					candidates.add(byLeft[k]);
+				}
+			}
+			// empty rings have no bbox and are tested as before
+			for (int k = lefts.length - 1; k >= 0 && Double.isNaN(lefts[k]); k--) {
+				candidates.add(byLeft[k]);
+			}
+			candidates.sort();
 			ArrayList<Ring> innersInsideOuter = new ArrayList<Ring>();
-			Iterator<Ring> innerIt = inners.iterator();
-			while (innerIt.hasNext()) {
-				Ring inner = innerIt.next();
-				if (inner.isIn(outer)) {
-					innersInsideOuter.add(inner);
-					innerIt.remove();
+			for (int k = 0; k < candidates.size(); k++) {
+				int i = candidates.get(k);
+				if (!assigned[i] && inners[i].isIn(outer)) {
+					innersInsideOuter.add(inners[i]);
+					assigned[i] = true;
+					unassigned--;
 				}
 			}
 			multipolygons.add(new Multipolygon(outer, innersInsideOuter, id));
 		}
 
-		if (inners.size() != 0 && log != null) {
+		if (unassigned != 0 && log != null) {
 			log.warn("Multipolygon " + getId() + " has a mismatch in outer and inner rings");
 		}
 
 		return multipolygons;
 	}
 
+	private static int lowerBound(double[] sorted, double value) {
+		int l = 0;
+		int r = sorted.length;
+		while (l < r) {
+			int m = (l + r) >>> 1;
+			// NaN (empty rings) are sorted to the end
+			if (sorted[m] < value) {
+				l = m + 1;
+			} else {
+				r = m;
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * @return left, top, right, bottom (lon, lat) or NaN for ring without loaded nodes
+	 */
+	private static double[] getBBox(Ring r) {
+		double[] bbox = new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+		for (Node n : r.getBorder()) {
+			if (n == null) {
+				continue;
+			}
+			if (Double.isNaN(bbox[0])) {
+				bbox[0] = bbox[2] = n.getLongitude();
+				bbox[1] = bbox[3] = n.getLatitude();
+			} else {
+				bbox[0] = Math.min(bbox[0], n.getLongitude());
+				bbox[2] = Math.max(bbox[2], n.getLongitude());
+				bbox[1] = Math.min(bbox[1], n.getLatitude());
+				bbox[3] = Math.max(bbox[3], n.getLatitude());
+			}
+		}
+		return bbox;
+	}
+
 	public Multipolygon build() {
 		return new Multipolygon(combineToRings(outerWays), combineToRings(innerWays), id);
 	}
 
+	/**
+	 * Connects ways by their end points. Open chains are indexed by first and last node id, so every way
+	 * is attached in constant time and nodes are copied only into the longer chain. Way is created once per ring.
+	 * Closed rings are not extended anymore.
+	 */
 	public ArrayList<Ring> combineToRings(List<Way> ways) {
-		// make a list of multiLines (connecter pieces of way)
-		ArrayList<Way> multiLines = new ArrayList<Way>();
+		TLongObjectHashMap<List<Chain>> endpoints = new TLongObjectHashMap<List<Chain>>();
+		List<Chain> chains = new ArrayList<Chain>();
+		int order = 0;
 		for (Way toAdd : ways) {
 			if (toAdd.getNodeIds().size() < 2) {
 				continue;
 			}
-			// iterate over the multiLines, and add the way to the correct one
-			Way changedWay = toAdd;
-			Way newWay;
-			do {
-				newWay = null;
-				if (changedWay != null) {
-					ListIterator<Way> it = multiLines.listIterator();
-					while (it.hasNext()) {
-						Way w = it.next();
-						newWay = combineTwoWaysIfHasPoints(changedWay, w);
-						if (newWay != null) {
-							changedWay = newWay;
-							it.remove();
-							break;
-						}
-					}
+			Chain c = new Chain(toAdd);
+			while (!c.isClosed()) {
+				Chain other = findChain(endpoints, c.getFirstNodeId(), null);
+				other = findChain(endpoints, c.getLastNodeId(), other);
+				if (other == null) {
+					break;
+				}
+				removeEndpoint(endpoints, other.getFirstNodeId(), other);
+				removeEndpoint(endpoints, other.getLastNodeId(), other);
+				Chain combined = combineChains(c, other);
+				// nodes of the shorter chain are copied into the longer one which is kept
+				(combined == c ? other : c).merged = true;
+				c = combined;
+			}
+			c.order = order++;
+			if (!c.isClosed()) {
+				addEndpoint(endpoints, c.getFirstNodeId(), c);
+				addEndpoint(endpoints, c.getLastNodeId(), c);
+			}
+			if (!c.listed) {
+				c.listed = true;
+				chains.add(c);
+			}
+		}
+		// the same order as chains were changed last time
+		List<Chain> result = new ArrayList<Chain>();
+		for (Chain c : chains) {
+			if (!c.merged) {
+				result.add(c);
+			}
+		}
+		Collections.sort(result, new Comparator<Chain>() {
+			@Override
+			public int compare(Chain o1, Chain o2) {
+				return o1.order < o2.order ? -1 : (o1.order == o2.order ? 0 : 1);
+			}
+		});
+		ArrayList<Ring> rings = new ArrayList<Ring>();
+		for (Chain c : result) {
+			rings.add(new Ring(c.toWay()));
+		}
+		return rings;
+	}
+
+	private Chain findChain(TLongObjectHashMap<List<Chain>> endpoints, long nodeId, Chain best) {
+		List<Chain> list = endpoints.get(nodeId);
+		if (list != null) {
+			for (Chain c : list) {
+				if (best == null || c.order < best.order) {
+					best = c;
 				}
-			} while (newWay != null);
-			multiLines.add(changedWay);
+			}
+		}
+		return best;
+	}
 
+	private void addEndpoint(TLongObjectHashMap<List<Chain>> endpoints, long nodeId, Chain c) {
+		List<Chain> list = endpoints.get(nodeId);
+		if (list == null) {
+			list = new ArrayList<Chain>(1);
+			endpoints.put(nodeId, list);
 		}
-		ArrayList<Ring> result = new ArrayList<Ring>();
-		for (Way multiLine : multiLines) {
-			Ring r = new Ring(multiLine);
-			result.add(r);
+		list.add(c);
+	}
+
+	private void removeEndpoint(TLongObjectHashMap<List<Chain>> endpoints, long nodeId, Chain c) {
+		List<Chain> list = endpoints.get(nodeId);
+		if (list != null) {
+			for (int i = 0; i < list.size(); i++) {
+				if (list.get(i) == c) {
+					list.remove(i);
+					break;
+				}
+			}
+			if (list.isEmpty()) {
+				endpoints.remove(nodeId);
+			}
 		}
-		return result;
 	}
 
 	/**
-	 * make a new Way with the nodes from two other ways
-	 *
-	 * @param w1 the first way
-	 * @param w2 the second way
-	 * @return null if it is not possible
+	 * Combines chains with the same rules as ways were combined before: w1 (possibly reversed) followed by w2
+	 * (possibly reversed). Nodes of the shorter chain are copied into the longer one.
 	 */
-	private Way combineTwoWaysIfHasPoints(Way w1, Way w2) {
-		boolean combine = true;
-		boolean firstReverse = false;
-		boolean secondReverse = false;
+	private Chain combineChains(Chain w1, Chain w2) {
+		boolean firstReverse;
+		boolean secondReverse;
 		if (w1.getFirstNodeId() == w2.getFirstNodeId()) {
 			firstReverse = true;
 			secondReverse = false;
@@ -161,37 +292,134 @@ public class MultipolygonBuilder {
 		} else if (w1.getLastNodeId() == w2.getLastNodeId()) {
 			firstReverse = false;
 			secondReverse = true;
-		} else if (w1.getFirstNodeId() == w2.getLastNodeId()) {
+		} else {
 			firstReverse = true;
 			secondReverse = true;
+		}
+		if (firstReverse) {
+			w1.reverse();
+		}
+		if (secondReverse) {
+			w2.reverse();
+		}
+		if (w1.size() >= w2.size()) {
+			w1.append(w2);
+			return w1;
 		} else {
-			combine = false;
-		}
-		if (combine) {
-			Way newWay = new Way(nextRandId());
-			boolean nodePresent = w1.getNodes() != null || w1.getNodes().size() != 0;
-			int w1size = nodePresent ? w1.getNodes().size() : w1.getNodeIds().size();
-			for (int i = 0; i < w1size; i++) {
-				int ind = firstReverse ? (w1size - 1 - i) : i;
-				if (nodePresent) {
-					newWay.addNode(w1.getNodes().get(ind));
-				} else {
-					newWay.addNode(w1.getNodeIds().get(ind));
+			w2.prepend(w1);
+			return w2;
+		}
+	}
+
+	/**
+	 * Connected sequence of nodes: reversed head followed by tail, so it grows at both ends
+	 * and is reversed by swapping head and tail.
+	 */
+	private static class Chain {
+		private TLongArrayList headIds = new TLongArrayList();
+		private TLongArrayList tailIds;
+		private List<Node> headNodes = new ArrayList<Node>();
+		private List<Node> tailNodes;
+		private boolean nodesPresent;
+		// not combined way is used as is
+		private Way single;
+		int order = Integer.MAX_VALUE;
+		boolean merged;
+		boolean listed;
+
+		Chain(Way w) {
+			single = w;
+			tailIds = new TLongArrayList(w.getNodeIds());
+			tailNodes = w.getNodes() == null ? new ArrayList<Node>() : new ArrayList<Node>(w.getNodes());
+			nodesPresent = tailNodes.size() == tailIds.size();
+		}
+
+		int size() {
+			return headIds.size() + tailIds.size();
+		}
+
+		long getNodeId(int i) {
+			int h = headIds.size();
+			return i < h ? headIds.get(h - 1 - i) : tailIds.get(i - h);
+		}
+
+		Node getNode(int i) {
+			int h = headNodes.size();
+			return i < h ? headNodes.get(h - 1 - i) : tailNodes.get(i - h);
+		}
+
+		long getFirstNodeId() {
+			return getNodeId(0);
+		}
+
+		long getLastNodeId() {
+			return getNodeId(size() - 1);
+		}
+
+		boolean isClosed() {
+			return getFirstNodeId() == getLastNodeId();
+		}
+
+		void reverse() {
+			TLongArrayList ids = headIds;
+			headIds = tailIds;
+			tailIds = ids;
+			List<Node> nodes = headNodes;
+			headNodes = tailNodes;
+			tailNodes = nodes;
+			single = null;
+		}
+
+		/**
+		 * Appends chain which starts with the last node of this chain
+		 */
+		void append(Chain c) {
+			combineNodesPresent(c);
+			for (int i = 1; i < c.size(); i++) {
+				tailIds.add(c.getNodeId(i));
+				if (nodesPresent) {
+					tailNodes.add(c.getNode(i));
 				}
 			}
-			int w2size = nodePresent ? w2.getNodes().size() : w2.getNodeIds().size();
-			for (int i = 1; i < w2size; i++) {
-				int ind = secondReverse ? (w2size - 1 - i) : i;
-				if (nodePresent) {
-					newWay.addNode(w2.getNodes().get(ind));
-				} else {
-					newWay.addNode(w2.getNodeIds().get(ind));
+			single = null;
+		}
+
+		/**
+		 * Prepends chain which ends with the first node of this chain
+		 */
+		void prepend(Chain c) {
+			combineNodesPresent(c);
+			for (int i = c.size() - 2; i >= 0; i--) {
+				headIds.add(c.getNodeId(i));
+				if (nodesPresent) {
+					headNodes.add(c.getNode(i));
 				}
 			}
-			return newWay;
+			single = null;
 		}
-		return null;
 
+		private void combineNodesPresent(Chain c) {
+			if (nodesPresent && !c.nodesPresent) {
+				nodesPresent = false;
+				headNodes.clear();
+				tailNodes.clear();
+			}
+		}
+
+		Way toWay() {
+			if (single != null) {
+				return single;
+			}
+			Way w = new Way(nextRandId());
+			for (int i = 0; i < size(); i++) {
+				if (nodesPresent) {
+					w.addNode(getNode(i));
+				} else {
+					w.addNode(getNodeId(i));
+				}
+			}
+			return w;
+		}
 	}
 
 	private static long initialValue = -1000;
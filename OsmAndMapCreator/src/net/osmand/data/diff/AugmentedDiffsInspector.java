@@ -1,5 +1,8 @@
 package net.osmand.data.diff;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -8,6 +11,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -15,6 +19,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -71,20 +80,161 @@ public class AugmentedDiffsInspector {
 				osmandRegions.prepareFile(ocbfFile.getAbsolutePath());
 				osmandRegions.cacheAllCountries();
 			}
-			inspector.prepareRegions(ctx, ctx.newIds, ctx.regionsNew, osmandRegions);
-			inspector.prepareRegions(ctx, ctx.oldIds, ctx.regionsOld, osmandRegions);
+			RegionTileGrid grid = osmandRegions == null ? null : new RegionTileGrid(osmandRegions);
+			inspector.routeEntities(ctx, false, grid);
+			inspector.routeEntities(ctx, true, grid);
 			String name = inputFile.getName();
 			String date = name.substring(0, name.indexOf('-'));
 			String time = name.substring(name.indexOf('-') + 1, name.indexOf('.'));
 			
-			inspector.write(ctx, targetDir, date, time, inputFile.lastModified());
+			inspector.writeRegions(ctx, targetDir, date, time, inputFile.lastModified(),
+					Runtime.getRuntime().availableProcessors());
 		} catch (Throwable e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
 	}
 
-	private void prepareRegions(Context ctx, Map<EntityId, Entity> ids, Map<String, Set<EntityId>> regionsMap,
+	/**
+	 * Distributes entities to regions: nodes by location, ways by their nodes (and nodes are completed by regions of
+	 * the way) and relations by their members. Every region keeps bit set of entity positions, so output preserves
+	 * order of the diff and no full scan is needed per region.
+	 */
+	void routeEntities(Context ctx, boolean old, RegionTileGrid grid) throws IOException {
+		Map<EntityId, Entity> ids = old ? ctx.oldIds : ctx.newIds;
+		Entity[] entities = ids.values().toArray(new Entity[ids.size()]);
+		if (old) {
+			ctx.oldEntities = entities;
+		} else {
+			ctx.newEntities = entities;
+		}
+		TObjectIntHashMap<EntityId> positions = new TObjectIntHashMap<EntityId>(entities.length * 2, 0.5f, -1);
+		TIntArrayList[] entityRegions = new TIntArrayList[entities.length];
+		for (int i = 0; i < entities.length; i++) {
+			positions.put(EntityId.valueOf(entities[i]), i);
+		}
+		// 1. nodes
+		for (int i = 0; i < entities.length; i++) {
+			if (entities[i] instanceof Node) {
+				Node n = (Node) entities[i];
+				TIntArrayList lst = new TIntArrayList(2);
+				entityRegions[i] = lst;
+				if (grid == null) {
+					addEntityToRegion(ctx.getRegion(DEFAULT_REGION), old, i, lst);
+				} else {
+					int y = MapUtils.get31TileNumberY(n.getLatitude());
+					int x = MapUtils.get31TileNumberX(n.getLongitude());
+					for (String dw : grid.getRegions(x, y)) {
+						addEntityToRegion(ctx.getRegion(dw), old, i, lst);
+					}
+				}
+			}
+		}
+		// 2. add ways and complete ways with missing nodes
+		for (int i = 0; i < entities.length; i++) {
+			if (entities[i] instanceof Way) {
+				Way w = (Way) entities[i];
+				TIntArrayList lst = new TIntArrayList(2);
+				entityRegions[i] = lst;
+				for (EntityId it : w.getEntityIds()) {
+					int p = positions.get(it);
+					if (p >= 0 && entityRegions[p] != null) {
+						addEntityToRegions(ctx, entityRegions[p], old, i, lst);
+					}
+				}
+				for (EntityId it : w.getEntityIds()) {
+					int p = positions.get(it);
+					if (p >= 0 && entityRegions[p] != null) {
+						addEntityToRegions(ctx, lst, old, p, entityRegions[p]);
+					}
+				}
+			}
+		}
+		// 3. add relations (not complete with ways or nodes)
+		for (int i = 0; i < entities.length; i++) {
+			if (entities[i] instanceof Relation) {
+				Relation r = (Relation) entities[i];
+				TIntArrayList lst = new TIntArrayList(2);
+				entityRegions[i] = lst;
+				for (RelationMember it : r.getMembers()) {
+					int p = positions.get(it.getEntityId());
+					if (p >= 0 && entityRegions[p] != null) {
+						addEntityToRegions(ctx, entityRegions[p], old, i, lst);
+					}
+				}
+			}
+		}
+	}
+
+	private void addEntityToRegions(Context ctx, TIntArrayList regions, boolean old, int position, TIntArrayList lst) {
+		for (int k = 0; k < regions.size(); k++) {
+			addEntityToRegion(ctx.regionsList.get(regions.get(k)), old, position, lst);
+		}
+	}
+
+	private void addEntityToRegion(RegionEntities region, boolean old, int position, TIntArrayList lst) {
+		(old ? region.oldSet : region.newSet).set(position);
+		if (!lst.contains(region.index)) {
+			lst.add(region.index);
+		}
+	}
+
+	/**
+	 * Writes files of regions with new data concurrently
+	 */
+	void writeRegions(final Context ctx, File targetDir, String date, final String time, final long lastModified,
+			int threads) throws IOException, InterruptedException {
+		targetDir.mkdirs();
+		ExecutorService service = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<Future<File>> results = new ArrayList<Future<File>>();
+		for (final RegionEntities reg : ctx.regionsList) {
+			if (reg.newSet.isEmpty()) {
+				continue;
+			}
+			final File dr = new File(targetDir, reg.name + "/" + date);
+			results.add(service.submit(new Callable<File>() {
+				@Override
+				public File call() throws Exception {
+					dr.mkdirs();
+					List<Node> nodes = new ArrayList<Node>();
+					List<Way> ways = new ArrayList<Way>();
+					List<Relation> relations = new ArrayList<Relation>();
+					groupObjects(ctx.oldEntities, reg.oldSet, nodes, ways, relations);
+					groupObjects(ctx.newEntities, reg.newSet, nodes, ways, relations);
+					return writeFile(dr, reg.name + "_" + time, nodes, ways, relations, lastModified);
+				}
+			}));
+		}
+		service.shutdown();
+		try {
+			for (Future<File> f : results) {
+				f.get();
+			}
+		} catch (ExecutionException e) {
+			service.shutdownNow();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void groupObjects(Entity[] entities, BitSet set, List<Node> nodes, List<Way> ways,
+			List<Relation> relations) {
+		if (entities == null) {
+			return;
+		}
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+			Entity e = entities[i];
+			if (e instanceof Node) {
+				nodes.add((Node) e);
+			} else if (e instanceof Way) {
+				ways.add((Way) e);
+			} else {
+				relations.add((Relation) e);
+			}
+		}
+	}
+
+	// previous implementation (polygon test per node and full scan per region), used to verify streaming output
+	void prepareRegions(Context ctx, Map<EntityId, Entity> ids, Map<String, Set<EntityId>> regionsMap,
 			OsmandRegions osmandRegions) throws IOException {
 		Map<EntityId, Set<String>> mp = new HashMap<Entity.EntityId, Set<String>>();
 		for (Entity e : ids.values()) {
@@ -158,7 +308,7 @@ public class AugmentedDiffsInspector {
 		lst.add(dw);
 	}
 
-	private void write(Context ctx, File targetDir, String date, String time, long lastModified) throws XMLStreamException, IOException, SQLException, InterruptedException, XmlPullParserException {
+	void write(Context ctx, File targetDir, String date, String time, long lastModified) throws XMLStreamException, IOException, SQLException, InterruptedException, XmlPullParserException {
 		targetDir.mkdirs();
 //		writeFile(targetDir, "world", ctx.oldIds, null, ctx.newIds, null);
 		for(String reg : ctx.regionsNew.keySet()) {
@@ -176,6 +326,11 @@ public class AugmentedDiffsInspector {
 		List<Relation> relations = new ArrayList<Relation>();
 		groupObjects(octx, oset, nodes, ways, relations);
 		groupObjects(nctx, nset, nodes, ways, relations);
+		return writeFile(targetDir, prefix, nodes, ways, relations, lastModified);
+	}
+
+	private File writeFile(File targetDir, String prefix, List<Node> nodes, List<Way> ways, List<Relation> relations,
+			long lastModified) throws XMLStreamException, IOException, FileNotFoundException {
 		File f = new File(targetDir, prefix + ".osm.gz");
 		FileOutputStream fous = new FileOutputStream(f);
 		GZIPOutputStream gz = new GZIPOutputStream(fous);
@@ -202,7 +357,20 @@ public class AugmentedDiffsInspector {
 		}
 	}
 
-	private static class Context {
+	static class RegionEntities {
+		final String name;
+		final int index;
+		// positions of entities in the diff
+		final BitSet oldSet = new BitSet();
+		final BitSet newSet = new BitSet();
+
+		RegionEntities(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+	}
+
+	static class Context {
 		Map<EntityId, Entity> oldIds = new LinkedHashMap<Entity.EntityId, Entity>();
 		Map<EntityId, Entity> newIds = new LinkedHashMap<Entity.EntityId, Entity>();
 		Map<EntityId, Entity> oldOIds = new LinkedHashMap<Entity.EntityId, Entity>();
@@ -211,9 +379,23 @@ public class AugmentedDiffsInspector {
 		Map<LatLon, Node> newLocNodes = new LinkedHashMap<LatLon, Node>();
 		Map<String, Set<EntityId>> regionsNew = new LinkedHashMap<String, Set<EntityId>>();
 		Map<String, Set<EntityId>> regionsOld = new LinkedHashMap<String, Set<EntityId>>();
+		Entity[] oldEntities;
+		Entity[] newEntities;
+		Map<String, RegionEntities> regions = new HashMap<String, RegionEntities>();
+		List<RegionEntities> regionsList = new ArrayList<RegionEntities>();
+
+		RegionEntities getRegion(String name) {
+			RegionEntities r = regions.get(name);
+			if (r == null) {
+				r = new RegionEntities(name, regionsList.size());
+				regions.put(name, r);
+				regionsList.add(r);
+			}
+			return r;
+		}
 	}
 
-	private Context parseFile(File file) throws XmlPullParserException, IOException {
+	Context parseFile(File file) throws XmlPullParserException, IOException {
 		XmlPullParser parser = PlatformUtil.newXMLPullParser();
 		InputStream fis = new FileInputStream(file);
 		if (file.getName().endsWith(".gz")) {
@@ -0,0 +1,166 @@
+package net.osmand.data.diff;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.map.OsmandRegions;
+import net.osmand.util.Algorithms;
+
+/**
+ * Cache of map regions (download names) per zoom 12 tile. Tiles completely covered by region polygon are resolved
+ * without any polygon test, only regions whose outer or inner rings cross the tile (border tiles) are tested
+ * point by point.
+ * Tiles are calculated lazily once and could be reused for many diffs.
+ */
+public class RegionTileGrid {
+
+	public static final int ZOOM = 12;
+	private static final int SHIFT = 31 - ZOOM;
+
+	private static class TileRegions {
+		final List<String> inner = new ArrayList<String>();
+		final List<BinaryMapDataObject> border = new ArrayList<BinaryMapDataObject>();
+	}
+
+	private final OsmandRegions osmandRegions;
+	private final TLongObjectHashMap<TileRegions> tiles = new TLongObjectHashMap<TileRegions>();
+
+	public RegionTileGrid(OsmandRegions osmandRegions) {
+		this.osmandRegions = osmandRegions;
+	}
+
+	public int getTilesCount() {
+		return tiles.size();
+	}
+
+	/**
+	 * @return download names of map regions containing the point (returned list should not be modified)
+	 */
+	public synchronized List<String> getRegions(int x31, int y31) throws IOException {
+		int tx = x31 >>> SHIFT;
+		int ty = y31 >>> SHIFT;
+		long key = (((long) tx) << ZOOM) | ty;
+		TileRegions t = tiles.get(key);
+		if (t == null) {
+			t = calculateTile(tx, ty);
+			tiles.put(key, t);
+		}
+		if (t.border.isEmpty()) {
+			return t.inner;
+		}
+		List<String> res = new ArrayList<String>(t.inner);
+		for (BinaryMapDataObject b : t.border) {
+			if (osmandRegions.contain(b, x31, y31)) {
+				String dw = osmandRegions.getDownloadName(b);
+				if (!res.contains(dw)) {
+					res.add(dw);
+				}
+			}
+		}
+		return res;
+	}
+
+	private TileRegions calculateTile(int tx, int ty) throws IOException {
+		int left = tx << SHIFT;
+		int right = left + ((1 << SHIFT) - 1);
+		int top = ty << SHIFT;
+		int bottom = top + ((1 << SHIFT) - 1);
+		TileRegions t = new TileRegions();
+		for (BinaryMapDataObject b : osmandRegions.query(left, right, top, bottom)) {
+			String dw = osmandRegions.getDownloadName(b);
+			if (Algorithms.isEmpty(dw) || !osmandRegions.isDownloadOfType(b, OsmandRegions.MAP_TYPE)) {
+				continue;
+			}
+			if (crossesTile(b, left, right, top, bottom)) {
+				t.border.add(b);
+			} else if (osmandRegions.contain(b, left, top)) {
+				// no edge of outer or inner rings crosses the tile, so it is completely inside or outside
+				if (!t.inner.contains(dw)) {
+					t.inner.add(dw);
+				}
+			}
+		}
+		return t;
+	}
+
+	private static boolean crossesTile(BinaryMapDataObject b, int left, int right, int top, int bottom) {
+		int[] outer = new int[b.getPointsLength() * 2];
+		for (int i = 0; i < b.getPointsLength(); i++) {
+			outer[2 * i] = b.getPoint31XTile(i);
+			outer[2 * i + 1] = b.getPoint31YTile(i);
+		}
+		return crossesTile(outer, b.getPolygonInnerCoordinates(), left, right, top, bottom);
+	}
+
+	/**
+	 * @param outer x, y pairs of outer ring
+	 * @param inner x, y pairs of every inner ring (could be null)
+	 * @return true if any edge of polygon intersects the tile (thin strip or hole could cross the tile without
+	 *         any vertex inside of it)
+	 */
+	static boolean crossesTile(int[] outer, int[][] inner, int left, int right, int top, int bottom) {
+		if (ringCrossesTile(outer, left, right, top, bottom)) {
+			return true;
+		}
+		if (inner != null) {
+			for (int[] ring : inner) {
+				if (ringCrossesTile(ring, left, right, top, bottom)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean ringCrossesTile(int[] ring, int left, int right, int top, int bottom) {
+		int n = ring.length / 2;
+		for (int i = 0; i < n; i++) {
+			// ring is closed even if last point is not the same as first one
+			int j = (i + 1) % n;
+			if (segmentCrossesTile(ring[2 * i], ring[2 * i + 1], ring[2 * j], ring[2 * j + 1], left, right, top,
+					bottom)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Liang-Barsky clipping of the segment by the tile rectangle
+	static boolean segmentCrossesTile(int x0, int y0, int x1, int y1, int left, int right, int top, int bottom) {
+		if (inside(x0, y0, left, right, top, bottom) || inside(x1, y1, left, right, top, bottom)) {
+			return true;
+		}
+		double dx = (double) x1 - x0;
+		double dy = (double) y1 - y0;
+		double[] t = new double[] { 0, 1 };
+		return clip(-dx, (double) x0 - left, t) && clip(dx, (double) right - x0, t)
+				&& clip(-dy, (double) y0 - top, t) && clip(dy, (double) bottom - y0, t);
+	}
+
+	private static boolean clip(double p, double q, double[] t) {
+		if (p == 0) {
+			return q >= 0;
+		}
+		double r = q / p;
+		if (p < 0) {
+			if (r > t[1]) {
+				return false;
+			}
+			t[0] = Math.max(t[0], r);
+		} else {
+			if (r < t[0]) {
+				return false;
+			}
+			t[1] = Math.min(t[1], r);
+		}
+		return true;
+	}
+
+	private static boolean inside(int x, int y, int left, int right, int top, int bottom) {
+		return x >= left && x <= right && y >= top && y <= bottom;
+	}
+}
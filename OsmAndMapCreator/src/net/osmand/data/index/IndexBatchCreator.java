@@ -36,6 +36,7 @@ import net.osmand.PlatformUtil;
 import net.osmand.binary.MapZooms;
 import net.osmand.data.preparation.DBDialect;
 import net.osmand.data.preparation.IndexCreator;
+import net.osmand.data.preparation.IndexCreatorMetrics;
 import net.osmand.impl.ConsoleProgressImplementation;
 import net.osmand.osm.MapRenderingTypesEncoder;
 import net.osmand.regions.CountryOcbfGeneration;
@@ -96,6 +97,8 @@ public class IndexBatchCreator {
 	boolean indexAddress = false;
 	boolean indexMap = false;
 	boolean indexRouting = false;
+	// expose metrics of the current generation over JMX
+	boolean metricsJmx = false;
 
 	private String wget;
 
@@ -194,6 +197,7 @@ public class IndexBatchCreator {
 				process.getAttribute("indexRouting").equalsIgnoreCase("true");
 		indexTransport = Boolean.parseBoolean(process.getAttribute("indexTransport"));
 		indexAddress = Boolean.parseBoolean(process.getAttribute("indexAddress"));
+		metricsJmx = Boolean.parseBoolean(process.getAttribute("metricsJmx"));
 		parseProcessAttributes(process);
 
 		list = doc.getElementsByTagName("process_attributes");
@@ -562,6 +566,10 @@ public class IndexBatchCreator {
 				if (fh != null) {
 					LogManager.getLogManager().getLogger("").addHandler(fh);
 				}
+				File metricsFileName = new File(workDir, mapFileName + IndexCreatorMetrics.METRICS_EXT);
+				if (metricsJmx) {
+					indexCreator.getMetrics().registerMBean(mapFileName);
+				}
 				try {
 					indexCreator.generateIndexes(file, new ConsoleProgressImplementation(1), null, mapZooms,
 							new MapRenderingTypesEncoder(renderingTypesFile, file.getName()), warningsAboutMapData);
@@ -570,6 +578,13 @@ public class IndexBatchCreator {
 						fh.close();
 						LogManager.getLogManager().getLogger("").removeHandler(fh);
 					}
+					indexCreator.getMetrics().unregisterMBean();
+					// don't hide exception of generation
+					try {
+						indexCreator.getMetrics().writeJson(metricsFileName);
+					} catch (IOException e) {
+						log.error("Metrics are not written to " + metricsFileName.getName(), e); //$NON-NLS-1$
+					}
 				}
 				File generated = new File(workDir, mapFileName);
 				File dest = new File(indexDirFiles, generated.getName());
@@ -586,6 +601,13 @@ public class IndexBatchCreator {
 				Algorithms.streamCopy(fin, fout);
 				fin.close();
 				fout.close();
+				if (metricsFileName.exists()) {
+					fout = new FileOutputStream(new File(indexDirFiles, metricsFileName.getName()));
+					fin = new FileInputStream(metricsFileName);
+					Algorithms.streamCopy(fin, fout);
+					fin.close();
+					fout.close();
+				}
 				//	logFileName.renameTo(new File(indexDirFiles, logFileName.getName()));
 
 			} catch (Exception e) {
@@ -7,6 +7,8 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -20,8 +22,39 @@ public class AbstractIndexPartCreator {
 
 	private final static Log log = LogFactory.getLog(AbstractIndexPartCreator.class);
 	protected int BATCH_SIZE = 1000;
+	// batch size grows while batches are executed fast
+	private static final int MAX_ADAPTIVE_BATCH_SIZE = 64000;
+	private static final long FAST_BATCH_MS = 100;
+	private static final long SLOW_BATCH_MS = 1000;
 
 	protected Map<PreparedStatement, Integer> pStatements = new LinkedHashMap<PreparedStatement, Integer>();
+	private ConcurrentMap<PreparedStatement, BatchStatistics> batchStatistics =
+			new ConcurrentHashMap<PreparedStatement, BatchStatistics>();
+	protected IndexCreatorMetrics metrics;
+
+	// statements of one creator could be executed by different threads
+	private static class BatchStatistics {
+		// null for statements registered without table, they are not reported
+		final String table;
+		int batchSize;
+		long rows;
+		long batches;
+		long executionTime;
+
+		BatchStatistics(String table) {
+			this.table = table;
+		}
+
+		synchronized void executed(long rows, long time) {
+			this.rows += rows;
+			this.batches++;
+			this.executionTime += time;
+		}
+	}
+
+	public void setMetrics(IndexCreatorMetrics metrics) {
+		this.metrics = metrics;
+	}
 
 	public PreparedStatement createPrepareStatement(Connection mapConnection,
 			String string) throws SQLException {
@@ -30,12 +63,31 @@ public class AbstractIndexPartCreator {
 		return prepareStatement;
 	}
 
+	/**
+	 * Creates statement which batches are reported in statistics of the table
+	 */
+	public PreparedStatement createPrepareStatement(Connection mapConnection, String table,
+			String string) throws SQLException {
+		PreparedStatement prepareStatement = mapConnection.prepareStatement(string);
+		registerStatement(prepareStatement, table);
+		return prepareStatement;
+	}
+
+	/**
+	 * Registers statement which batches are reported in statistics of the table
+	 */
+	protected void registerStatement(PreparedStatement p, String table) {
+		pStatements.put(p, 0);
+		batchStatistics.putIfAbsent(p, new BatchStatistics(table));
+	}
+
 	protected void closePreparedStatements(PreparedStatement... preparedStatements) throws SQLException {
 		for (PreparedStatement p : preparedStatements) {
 			if (p != null) {
-				p.executeBatch();
+				Integer pending = pStatements.remove(p);
+				executeBatch(p, pending == null ? 0 : pending);
+				logBatchStatistics(p);
 				p.close();
-				pStatements.remove(p);
 			}
 		}
 	}
@@ -43,17 +95,47 @@ public class AbstractIndexPartCreator {
 	protected void closeAllPreparedStatements() throws SQLException {
 		for (PreparedStatement p : pStatements.keySet()) {
 			if (pStatements.get(p) > 0) {
-				p.executeBatch();
+				executeBatch(p, pStatements.get(p));
 			}
+			logBatchStatistics(p);
 			p.close();
 		}
 	}
 
+	/**
+	 * Executes the rest of the batch, rows are counted in statistics of the table
+	 */
+	private void executeBatch(PreparedStatement p, int rows) throws SQLException {
+		long time = System.currentTimeMillis();
+		p.executeBatch();
+		BatchStatistics st = batchStatistics.get(p);
+		if (st != null && rows > 0) {
+			st.executed(rows, System.currentTimeMillis() - time);
+		}
+	}
+
+	private void logBatchStatistics(PreparedStatement p) {
+		BatchStatistics st = batchStatistics.remove(p);
+		if (st == null) {
+			return;
+		}
+		synchronized (st) {
+			if (st.rows > 0 && st.table != null) {
+				if (metrics != null) {
+					metrics.addTableBatches(st.table, st.rows, st.batches, st.executionTime);
+				}
+				log.info(String.format("Table %s: %d rows in %d batches (last size %d), %d ms, %.0f rows/sec", st.table,
+						st.rows, st.batches, st.batchSize, st.executionTime,
+						st.rows * 1000d / Math.max(1, st.executionTime)));
+			}
+		}
+	}
+
 	protected boolean executePendingPreparedStatements() throws SQLException {
 		boolean exec = false;
 		for (PreparedStatement p : pStatements.keySet()) {
 			if (pStatements.get(p) > 0) {
-				p.executeBatch();
+				executeBatch(p, pStatements.get(p));
 				pStatements.put(p, 0);
 				exec = true;
 			}
@@ -71,14 +153,36 @@ public class AbstractIndexPartCreator {
 
 	protected void addBatch(PreparedStatement p, int batchSize, boolean commit) throws SQLException {
 		p.addBatch();
-		if (pStatements.get(p) >= batchSize) {
+		BatchStatistics st = batchStatistics.get(p);
+		if (st == null) {
+			st = new BatchStatistics(null);
+			BatchStatistics existing = batchStatistics.putIfAbsent(p, st);
+			st = existing == null ? st : existing;
+		}
+		if (st.batchSize < batchSize) {
+			synchronized (st) {
+				st.batchSize = Math.max(st.batchSize, batchSize);
+			}
+		}
+		int count = pStatements.get(p);
+		if (count >= Math.max(batchSize, st.batchSize)) {
+			long time = System.currentTimeMillis();
 			p.executeBatch();
 			if (commit) {
 				p.getConnection().commit();
 			}
+			time = System.currentTimeMillis() - time;
+			synchronized (st) {
+				st.executed(count + 1, time);
+				if (time < FAST_BATCH_MS) {
+					st.batchSize = Math.min(st.batchSize * 2, MAX_ADAPTIVE_BATCH_SIZE);
+				} else if (time > SLOW_BATCH_MS) {
+					st.batchSize = Math.max(st.batchSize / 2, batchSize);
+				}
+			}
 			pStatements.put(p, 0);
 		} else {
-			pStatements.put(p, pStatements.get(p) + 1);
+			pStatements.put(p, count + 1);
 		}
 	}
 
@@ -106,7 +210,7 @@ public class AbstractIndexPartCreator {
 			if (!nodeIsLastSubTree(tree, rootIndex)) {
 				// there is a bug for small files in packing method
 				new Pack().packTree(tree, packFileName);
-				tree.getFileHdr().getFile().close();
+				tree.close();
 				file = new File(nonPackFileName);
 				file.delete();
 
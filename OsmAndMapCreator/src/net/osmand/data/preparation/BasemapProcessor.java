@@ -2,7 +2,9 @@ package net.osmand.data.preparation;
 
 
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -11,6 +13,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
@@ -21,6 +24,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -65,10 +73,7 @@ public class BasemapProcessor {
 
     private BitSet seaTileInfo = new BitSet(BITS_COUNT);
     private BitSet landTileInfo = new BitSet(BITS_COUNT);
-    private TIntArrayList typeUse = new TIntArrayList();
-    List<MapRulType> tempNameUse = new ArrayList<MapRulType>();
-    TIntArrayList addtypeUse = new TIntArrayList(8);
-    TreeMap<MapRulType, String> namesUse = new TreeMap<MapRulType, String>(new Comparator<MapRulType>() {
+    private static final Comparator<MapRulType> NAMES_ORDER = new Comparator<MapRulType>() {
 
 		@Override
 		public int compare(MapRulType o1, MapRulType o2) {
@@ -80,7 +85,7 @@ public class BasemapProcessor {
 			}
 			return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
 		}
-	});
+	};
 
     private final int zoomWaySmoothness;
     private final MapRenderingTypesEncoder renderingTypes;
@@ -89,6 +94,12 @@ public class BasemapProcessor {
     private SimplisticQuadTree[] quadTrees;
     private static int MOST_DETAILED_APPROXIMATION = 11;
 
+    // names of all objects are stored once per processor
+    private final StringTable stringTable = new StringTable();
+    private final AtomicLong entitySequence = new AtomicLong();
+    private ThreadPoolExecutor executor;
+    private final AtomicReference<RuntimeException> executorError = new AtomicReference<RuntimeException>();
+
     protected static class SimplisticQuadTree {
         int zoom;
         int x;
@@ -102,34 +113,34 @@ public class BasemapProcessor {
         }
 
         SimplisticQuadTree[] children = null;
-        Map<MapZoomPair, List<SimplisticBinaryData>> dataObjects = null;
+        Map<MapZoomPair, TileData> dataObjects = null;
 
 
         public SimplisticQuadTree[] getAllChildren() {
-            initChildren();
-            return children;
+            return initChildren();
         }
 
-        public boolean areChildrenDefined() {
+        public synchronized boolean areChildrenDefined() {
             return children != null;
         }
 
-        public void addQuadData(MapZoomPair p, SimplisticBinaryData w) {
-
+        public synchronized TileData getOrCreateData(MapZoomPair p) {
             if (dataObjects == null) {
-                dataObjects = new LinkedHashMap<MapZooms.MapZoomPair, List<SimplisticBinaryData>>();
+                dataObjects = new LinkedHashMap<MapZooms.MapZoomPair, TileData>();
             }
-            if (!dataObjects.containsKey(p)) {
-                dataObjects.put(p, new ArrayList<SimplisticBinaryData>());
+            TileData data = dataObjects.get(p);
+            if (data == null) {
+                data = new TileData();
+                dataObjects.put(p, data);
             }
-            dataObjects.get(p).add(w);
+            return data;
         }
 
-        public boolean dataIsDefined(MapZoomPair p) {
+        public synchronized boolean dataIsDefined(MapZoomPair p) {
             return dataObjects != null && dataObjects.get(p) != null;
         }
 
-        public List<SimplisticBinaryData> getData(MapZoomPair p) {
+        public synchronized TileData getData(MapZoomPair p) {
             return dataObjects.get(p);
         }
 
@@ -137,38 +148,193 @@ public class BasemapProcessor {
             if (zm <= zoom) {
                 return this;
             } else {
-                initChildren();
+                SimplisticQuadTree[] ch = initChildren();
                 int nx = (x >> (zm - zoom - 1)) - (this.x << 1);
                 int ny = (y >> (zm - zoom - 1)) - (this.y << 1);
                 if (nx > 1 || nx < 0 || ny > 1 || ny < 0) {
                     return null;
                 }
-                return children[nx * 2 + ny].getOrCreateSubTree(x, y, zm);
+                return ch[nx * 2 + ny].getOrCreateSubTree(x, y, zm);
             }
         }
 
-        private void initChildren() {
+        // children are created by worker threads, so they are read under the same lock
+        private synchronized SimplisticQuadTree[] initChildren() {
             if (children == null) {
-                children = new SimplisticQuadTree[4];
+                SimplisticQuadTree[] ch = new SimplisticQuadTree[4];
                 for (int i = 0; i < 2; i++) {
                     for (int j = 0; j < 2; j++) {
-                        children[i * 2 + j] = new SimplisticQuadTree(((this.x << 1) + i), ((this.y << 1) + j), zoom + 1);
-                        children[i * 2 + j].seaCharacteristic = seaCharacteristic;
+                        ch[i * 2 + j] = new SimplisticQuadTree(((this.x << 1) + i), ((this.y << 1) + j), zoom + 1);
+                        ch[i * 2 + j].seaCharacteristic = seaCharacteristic;
                     }
                 }
+                children = ch;
             }
+            return children;
         }
     }
 
 
-    private static class SimplisticBinaryData {
+    /**
+     * Map objects of one tile and zoom pair stored in columns: coordinates, types and names of all objects
+     * are appended to the same primitive arrays, object i occupies [offset(i), offset(i + 1)) of every column.
+     * Names are stored as pairs of rule internal id and id in the {@link StringTable}.
+     */
+    protected static class TileData {
+        // sequence number of source entity, objects are written in that order
+        private final TLongArrayList order = new TLongArrayList();
         // consequent 31 coordinates
-        public byte[] coordinates;
-	    public byte[] innerCoordinates;
-        public int[] types;
-        public int[] addTypes;
-        public long id = -500;
-        public Map<MapRulType, String> names;
+        private final TIntArrayList coordinates = new TIntArrayList();
+        private final TIntArrayList coordinatesOffset = new TIntArrayList();
+        private final TIntArrayList types = new TIntArrayList();
+        private final TIntArrayList typesOffset = new TIntArrayList();
+        private final TIntArrayList addTypes = new TIntArrayList();
+        private final TIntArrayList addTypesOffset = new TIntArrayList();
+        private final TIntArrayList names = new TIntArrayList();
+        private final TIntArrayList namesOffset = new TIntArrayList();
+
+        public TileData() {
+            coordinatesOffset.add(0);
+            typesOffset.add(0);
+            addTypesOffset.add(0);
+            namesOffset.add(0);
+        }
+
+        public synchronized void add(long sequence, int[] coords, int coordsLength, int[] tps, int[] addTps, int[] nms) {
+            order.add(sequence);
+            coordinates.add(coords, 0, coordsLength);
+            coordinatesOffset.add(coordinates.size());
+            types.add(tps);
+            typesOffset.add(types.size());
+            if (addTps != null) {
+                addTypes.add(addTps);
+            }
+            addTypesOffset.add(addTypes.size());
+            if (nms != null) {
+                names.add(nms);
+            }
+            namesOffset.add(names.size());
+        }
+
+        public synchronized int size() {
+            return order.size();
+        }
+
+        /**
+         * @return indexes of objects ordered by entity sequence, objects of the same entity keep order of addition
+         */
+        public synchronized int[] getSortedIndexes() {
+            int[] res = new int[order.size()];
+            boolean sorted = true;
+            for (int i = 0; i < res.length; i++) {
+                res[i] = i;
+                if (i > 0 && order.get(i - 1) > order.get(i)) {
+                    sorted = false;
+                }
+            }
+            if (!sorted) {
+                Integer[] ind = new Integer[res.length];
+                for (int i = 0; i < ind.length; i++) {
+                    ind[i] = i;
+                }
+                // stable sort
+                Arrays.sort(ind, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer o1, Integer o2) {
+                        long l1 = order.get(o1);
+                        long l2 = order.get(o2);
+                        return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+                    }
+                });
+                for (int i = 0; i < ind.length; i++) {
+                    res[i] = ind[i];
+                }
+            }
+            return res;
+        }
+
+        public synchronized byte[] getCoordinates(int ind) throws IOException {
+            int s = coordinatesOffset.get(ind);
+            int e = coordinatesOffset.get(ind + 1);
+            ByteArrayOutputStream bcoordinates = new ByteArrayOutputStream((e - s) * 4);
+            for (int i = s; i < e; i++) {
+                Algorithms.writeInt(bcoordinates, coordinates.get(i));
+            }
+            return bcoordinates.toByteArray();
+        }
+
+        public synchronized int[] getTypes(int ind) {
+            return types.toArray(typesOffset.get(ind), typesOffset.get(ind + 1) - typesOffset.get(ind));
+        }
+
+        public synchronized int[] getAddTypes(int ind) {
+            int s = addTypesOffset.get(ind);
+            int e = addTypesOffset.get(ind + 1);
+            return s == e ? null : addTypes.toArray(s, e - s);
+        }
+
+        public synchronized int[] getNames(int ind) {
+            int s = namesOffset.get(ind);
+            int e = namesOffset.get(ind + 1);
+            return s == e ? null : names.toArray(s, e - s);
+        }
+    }
+
+    protected static class StringTable {
+        private final TObjectIntHashMap<String> ids = new TObjectIntHashMap<String>();
+        private final List<String> strings = new ArrayList<String>();
+
+        public synchronized int getId(String s) {
+            if (ids.containsKey(s)) {
+                return ids.get(s);
+            }
+            int id = strings.size();
+            strings.add(s);
+            ids.put(s, id);
+            return id;
+        }
+
+        public synchronized String getString(int id) {
+            return strings.get(id);
+        }
+
+        public synchronized int size() {
+            return strings.size();
+        }
+    }
+
+    // encoding buffers of one entity, not shared between threads
+    private class EntityEncoding {
+        final long sequence;
+        final TIntArrayList typeUse = new TIntArrayList();
+        final List<MapRulType> tempNameUse = new ArrayList<MapRulType>();
+        final TIntArrayList addtypeUse = new TIntArrayList(8);
+        final TreeMap<MapRulType, String> namesUse = new TreeMap<MapRulType, String>(NAMES_ORDER);
+
+        EntityEncoding(long sequence) {
+            this.sequence = sequence;
+        }
+
+        int[] getTypes() {
+            return typeUse.toArray();
+        }
+
+        int[] getAddTypes() {
+            return !addtypeUse.isEmpty() ? addtypeUse.toArray() : null;
+        }
+
+        int[] getNames() {
+            if (namesUse.isEmpty()) {
+                return null;
+            }
+            int[] nms = new int[namesUse.size() * 2];
+            int i = 0;
+            for (Entry<MapRulType, String> e : namesUse.entrySet()) {
+                nms[i++] = e.getKey().getInternalId();
+                nms[i++] = stringTable.getId(e.getValue());
+            }
+            return nms;
+        }
     }
 
     protected BasemapProcessor() {
@@ -351,6 +517,7 @@ public class BasemapProcessor {
 
 
     public void writeBasemapFile(BinaryMapIndexWriter writer, String regionName) throws IOException {
+        objectId = -20;
         writer.startWriteMapIndex(regionName);
         // write map encoding rules
         writer.writeMapEncodingRules(renderingTypes.getEncodingRuleTypes());
@@ -383,29 +550,36 @@ public class BasemapProcessor {
             MapDataBlock.Builder dataBlock = MapDataBlock.newBuilder();
             SimplisticQuadTree quad = e.getKey();
             Map<String, Integer> stringTable = new LinkedHashMap<String, Integer>();
-            long baseId = 0;
-            for (SimplisticBinaryData w : quad.getData(level)) {
-            	baseId = Math.min(w.id, baseId);
-            }
+            TileData data = quad.getData(level);
+            int[] indexes = data.getSortedIndexes();
+            long baseId = Math.min(objectId - indexes.length + 1, 0);
             dataBlock.setBaseId(baseId);
-            for (SimplisticBinaryData w : quad.getData(level)) {
-                int[] wts = null;
+            for (int ind : indexes) {
+                long id = objectId--;
+                int[] types = data.getTypes(ind);
+                int[] addTypes = data.getAddTypes(ind);
+                int[] nms = data.getNames(ind);
+                int[] wts = new int[types.length];
+                for (int j = 0; j < types.length; j++) {
+                    wts[j] = renderingTypes.getTypeByInternalId(types[j]).getTargetId();
+                }
                 int[] wats = null;
-                if (w.types != null) {
-                    wts = new int[w.types.length];
-                    for (int j = 0; j < w.types.length; j++) {
-                        wts[j] = renderingTypes.getTypeByInternalId(w.types[j]).getTargetId();
+                if (addTypes != null) {
+                    wats = new int[addTypes.length];
+                    for (int j = 0; j < addTypes.length; j++) {
+                        wats[j] = renderingTypes.getTypeByInternalId(addTypes[j]).getTargetId();
                     }
                 }
-                if (w.addTypes != null) {
-                    wats = new int[w.addTypes.length];
-                    for (int j = 0; j < w.addTypes.length; j++) {
-                        wats[j] = renderingTypes.getTypeByInternalId(w.addTypes[j]).getTargetId();
+                Map<MapRulType, String> names = null;
+                if (nms != null) {
+                    names = new LinkedHashMap<MapRulType, String>();
+                    for (int j = 0; j < nms.length; j += 2) {
+                        names.put(renderingTypes.getTypeByInternalId(nms[j]), this.stringTable.getString(nms[j + 1]));
                     }
                 }
-                MapData mapData = writer.writeMapData(w.id - baseId,
+                MapData mapData = writer.writeMapData(id - baseId,
                         quad.x << (31 - quad.zoom), quad.y << (31 - quad.zoom), false,
-                        w.coordinates, w.innerCoordinates, wts, wats, w.names, null, stringTable, dataBlock, level.getMaxZoom() > 15);
+                        data.getCoordinates(ind), null, wts, wats, names, null, stringTable, dataBlock, level.getMaxZoom() > 15);
                 if (mapData != null) {
                     dataBlock.addDataObjects(mapData);
                 }
@@ -444,8 +618,59 @@ public class BasemapProcessor {
 
 	final int PIXELS_THRESHOLD_AREA = 24;
 
-	private static long ID = -20;
+	// ids are not needed, they are assigned in the order of writing to save space
+	private long objectId = -20;
+
+	/**
+	 * Processes entities with the pool of threads, {@link #submitEntity(Entity)} keeps the order of submission
+	 * in the written file so result doesn't depend on number of threads.
+	 * {@link #finishProcessing()} should be called before writing basemap file.
+	 */
+	public void startParallelProcessing(int threads) {
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	public void submitEntity(final Entity e) {
+		final long sequence = entitySequence.getAndIncrement();
+		if (executor == null) {
+			processEntity(e, sequence);
+			return;
+		}
+		checkExecutorError();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					processEntity(e, sequence);
+				} catch (RuntimeException ex) {
+					executorError.compareAndSet(null, ex);
+				}
+			}
+		});
+	}
+
+	public void finishProcessing() throws InterruptedException {
+		if (executor != null) {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			executor = null;
+		}
+		checkExecutorError();
+	}
+
+	private void checkExecutorError() {
+		RuntimeException ex = executorError.get();
+		if (ex != null) {
+			throw ex;
+		}
+	}
+
 	public void processEntity(Entity e) {
+		processEntity(e, entitySequence.getAndIncrement());
+	}
+
+	private void processEntity(Entity e, long sequence) {
 		if (e instanceof Way) {
 			if ("reverse_coastline".equals(((Way) e).getModifiableTags().get("natural"))) {
 				((Way) e).putTag("natural", "coastline");
@@ -453,8 +678,7 @@ public class BasemapProcessor {
 				((Way) e).getNodeIds().reverse();
 			}
 		}
-		long refId = -Math.abs(e.getId());
-		// save space with ids
+		EntityEncoding enc = new EntityEncoding(sequence);
 
 		for (int level = 0; level < mapZooms.getLevels().size(); level++) {
 			boolean mostDetailed = level == 0;
@@ -463,15 +687,19 @@ public class BasemapProcessor {
 			if (mostDetailed && zoomPair.getMaxZoom() < 10) {
 				throw new IllegalStateException("Zoom pair is not detailed " + zoomPair);
 			}
-			renderingTypes.encodeEntityWithType(e, zoomToEncode, typeUse, addtypeUse, namesUse, tempNameUse);
-			if (typeUse.isEmpty()) {
+			// encoder keeps caches and statistics of rules
+			synchronized (renderingTypes) {
+				renderingTypes.encodeEntityWithType(e, zoomToEncode, enc.typeUse, enc.addtypeUse, enc.namesUse,
+						enc.tempNameUse);
+			}
+			if (enc.typeUse.isEmpty()) {
 				continue;
 			}
 			if (e instanceof Relation) {
 				Relation r = (Relation) e;
 				Iterator<RelationMember> it = r.getMembers().iterator();
 				List<Node> outer = null;
-				List<List<Node>> inner = new ArrayList<List<Node>>();
+				// inner rings are not written to basemap
 				while (it.hasNext()) {
 					RelationMember n = it.next();
 					if (n.getRole().equals("outer")) {
@@ -479,15 +707,13 @@ public class BasemapProcessor {
 							throw new IllegalStateException("2 outer lines for relation = " + e.getId());
 						}
 						outer = ((Way) n.getEntity()).getNodes();
-					} else if (n.getRole().equals("inner")) {
-						inner.add(((Way) n.getEntity()).getNodes());
 					}
 
 				}
 				if (OsmMapUtils.polygonAreaPixels(outer, zoomToEncode) < PIXELS_THRESHOLD_AREA) {
 					continue;
 				}
-				addObject(refId, level, zoomPair, zoomToEncode, outer, inner);
+				addObject(enc, level, zoomPair, zoomToEncode, outer);
 			} else if (e instanceof Way) {
 				if (((Way) e).getNodes().size() < 2) {
 					continue;
@@ -500,9 +726,8 @@ public class BasemapProcessor {
 							continue;
 						}
 					}
-					splitContinuousWay(((Way) e).getNodes(), typeUse.toArray(),
-							!addtypeUse.isEmpty() ? addtypeUse.toArray() : null,
-							zoomPair, zoomToEncode, quadTrees[level], refId);
+					splitContinuousWay(((Way) e).getNodes(), enc.getTypes(), enc.getAddTypes(),
+							zoomPair, zoomToEncode, quadTrees[level], enc.sequence);
 				} else {
 					List<Node> ns = ((Way) e).getNodes();
 					if (!polygon) {
@@ -525,20 +750,20 @@ public class BasemapProcessor {
 						}
 					}
 
-					addObject(refId, level, zoomPair, zoomToEncode, ns, null);
+					addObject(enc, level, zoomPair, zoomToEncode, ns);
 				}
 			} else {
 				int z = getViewZoom(zoomPair.getMinZoom(), zoomToEncode);
 				int tilex = (int) MapUtils.getTileNumberX(z, ((Node) e).getLongitude());
 				int tiley = (int) MapUtils.getTileNumberY(z, ((Node) e).getLatitude());
-				addRawData(Collections.singletonList((Node) e), null, typeUse.toArray(), !addtypeUse.isEmpty() ? addtypeUse.toArray() : null, zoomPair,
-						quadTrees[level], z, tilex, tiley, namesUse.isEmpty() ? null : new LinkedHashMap<MapRulType, String>(namesUse), refId);
+				addRawData(Collections.singletonList((Node) e), enc.getTypes(), enc.getAddTypes(), zoomPair,
+						quadTrees[level], z, tilex, tiley, enc.getNames(), enc.sequence);
 			}
 
 		}
 	}
 
-	private void addObject(long refId, int level, MapZoomPair zoomPair, int zoomToEncode, List<Node> way, List<List<Node>> inner) {
+	private void addObject(EntityEncoding enc, int level, MapZoomPair zoomPair, int zoomToEncode, List<Node> way) {
 		int z = getViewZoom(zoomPair.getMinZoom(), zoomToEncode);
 		int tilex = 0;
 		int tiley = 0;
@@ -561,26 +786,12 @@ public class BasemapProcessor {
 		}
 		List<Node> res = new ArrayList<Node>();
 		OsmMapUtils.simplifyDouglasPeucker(way, zoomToEncode - 1 + 8 + zoomWaySmoothness, 3, res, false);
-		if(inner != null) {
-			Iterator<List<Node>> it = inner.iterator();
-			while(it.hasNext()) {
-				List<Node> list = it.next();
-				if (OsmMapUtils.polygonAreaPixels(list, zoomToEncode) < PIXELS_THRESHOLD_AREA) {
-					it.remove();
-				} else {
-					OsmMapUtils.simplifyDouglasPeucker(list, zoomToEncode - 1 + 8 + zoomWaySmoothness, 4, list, false);
-					if (list.size() <= 3) {
-						it.remove();
-					}
-				}
-			}
-		}
-		addRawData(res, inner, typeUse.toArray(), !addtypeUse.isEmpty() ? addtypeUse.toArray() : null, zoomPair,
-				quadTrees[level], z, tilex, tiley, namesUse.isEmpty() ? null : new LinkedHashMap<MapRulType, String>(namesUse), refId);
+		addRawData(res, enc.getTypes(), enc.getAddTypes(), zoomPair,
+				quadTrees[level], z, tilex, tiley, enc.getNames(), enc.sequence);
 	}
 
 	public void splitContinuousWay(List<Node> ns, int[] types, int[] addTypes, MapZoomPair zoomPair, int zoomToEncode,
-                                   SimplisticQuadTree quadTree, long refId) {
+                                   SimplisticQuadTree quadTree, long sequence) {
         int z = getViewZoom(zoomPair.getMinZoom(), zoomToEncode);
         int i = 1;
         Node prevNode = ns.get(0);
@@ -642,12 +853,12 @@ public class BasemapProcessor {
             }
             List<Node> res = new ArrayList<Node>();
             OsmMapUtils.simplifyDouglasPeucker(w, zoomToEncode - 1 + 8 + zoomWaySmoothness, 3, res, true);
-            addRawData(res, null, types, addTypes, zoomPair, quadTree, z, tilex, tiley, null, refId);
+            addRawData(res, types, addTypes, zoomPair, quadTree, z, tilex, tiley, null, sequence);
         }
     }
 
-    private void addRawData(List<Node> res, List<List<Node>> inner, int[] types, int[] addTypes, MapZoomPair zoomPair, SimplisticQuadTree quadTree, int z, int tilex,
-                            int tiley, Map<MapRulType, String> names, long id) {
+    private void addRawData(List<Node> res, int[] types, int[] addTypes, MapZoomPair zoomPair, SimplisticQuadTree quadTree, int z, int tilex,
+                            int tiley, int[] names, long sequence) {
         SimplisticQuadTree quad = quadTree.getOrCreateSubTree(tilex, tiley, z);
         if (quad == null) {
             if (logMapDataWarn != null) {
@@ -655,49 +866,18 @@ public class BasemapProcessor {
             } else {
                 System.err.println("Tile " + tilex + " / " + tiley + " at " + z + " can not be found");
             }
+            return;
         }
 
-        ByteArrayOutputStream bcoordinates = new ByteArrayOutputStream();
+        int[] coordinates = new int[res.size() * 2];
+        int len = 0;
         for (Node n : res) {
             if (n != null) {
-                int y = MapUtils.get31TileNumberY(n.getLatitude());
-                int x = MapUtils.get31TileNumberX(n.getLongitude());
-                try {
-                    Algorithms.writeInt(bcoordinates, x);
-                    Algorithms.writeInt(bcoordinates, y);
-                } catch (IOException e1) {
-                    throw new IllegalStateException(e1);
-                }
+                coordinates[len++] = MapUtils.get31TileNumberX(n.getLongitude());
+                coordinates[len++] = MapUtils.get31TileNumberY(n.getLatitude());
             }
         }
-        SimplisticBinaryData data = new SimplisticBinaryData();
-        // not needed
-        data.id = ID--; // don't use ref id
-        data.coordinates = bcoordinates.toByteArray();
-        data.types = types;
-        data.addTypes = addTypes;
-        data.names = names;
-	    if(inner != null && inner.size() > 0){
-		    bcoordinates = new ByteArrayOutputStream();
-		    for (List<Node> ln : inner) {
-			    try {
-				    for (Node n : ln) {
-					    if (n != null) {
-						    int y = MapUtils.get31TileNumberY(n.getLatitude());
-						    int x = MapUtils.get31TileNumberX(n.getLongitude());
-						    Algorithms.writeInt(bcoordinates, x);
-						    Algorithms.writeInt(bcoordinates, y);
-
-					    }
-				    }
-				    Algorithms.writeInt(bcoordinates, 0);
-				    Algorithms.writeInt(bcoordinates, 0);
-			    } catch (IOException e1) {
-				    throw new IllegalStateException(e1);
-			    }
-		    }
-	    }
-        quad.addQuadData(zoomPair, data);
+        quad.getOrCreateData(zoomPair).add(sequence, coordinates, len, types, addTypes, names);
     }
 
     private int getViewZoom(int minZoom, int maxZoom) {
@@ -726,6 +906,7 @@ public class BasemapProcessor {
 			creator.setIndexMap(true);
 			creator.setIndexPOI(mini ? false : true);
 			creator.setZoomWaySmoothness(zoomSmoothness);
+			creator.setBasemapThreads(Runtime.getRuntime().availableProcessors());
 			creator.setMapFileName(mini ? "World_basemap_mini_test_2.obf" : "World_basemap_2.obf");
 			ArrayList<File> src = new ArrayList<File>();
 			for (File f : folder.listFiles()) {
@@ -124,6 +124,7 @@ public class BinaryMapIndexWriter {
 	// internal constants to track state of index writing
 	private Stack<Integer> state = new Stack<Integer>();
 	private Stack<BinaryFileReference> stackSizes = new Stack<BinaryFileReference>();
+	private IndexCreatorMetrics metrics;
 
 	private final static int OSMAND_STRUCTURE_INIT = 1;
 	private final static int MAP_INDEX_INIT = 2;
@@ -223,6 +224,17 @@ public class BinaryMapIndexWriter {
 		popState(MAP_INDEX_INIT);
 		int len = writeInt32Size();
 		log.info("MAP INDEX SIZE : " + len);
+		log.info("- COORDINATES SIZE " + coordinatesSize + " COUNT " + coordinatesCount); //$NON-NLS-1$
+		log.info("- TYPES SIZE " + typesSize); //$NON-NLS-1$
+		log.info("- ID SIZE " + idSize); //$NON-NLS-1$
+		log.info("- MAP DATA SIZE " + mapDataSize); //$NON-NLS-1$
+		log.info("- STRING TABLE SIZE " + stringTableSize); //$NON-NLS-1$
+		addSectionSize("map", len);
+		addSectionSize("map.coordinates", coordinatesSize);
+		addSectionSize("map.types", typesSize);
+		addSectionSize("map.ids", idSize);
+		addSectionSize("map.data", mapDataSize);
+		addSectionSize("map.strings", stringTableSize);
 	}
 
 	public void startWriteRouteIndex(String name) throws IOException {
@@ -238,14 +250,20 @@ public class BinaryMapIndexWriter {
 	public void endWriteRouteIndex() throws IOException {
 		popState(ROUTE_INDEX_INIT);
 		int len = writeInt32Size();
-		log.info("- ROUTE TYPE SIZE SIZE " + BinaryMapIndexWriter.ROUTE_TYPES_SIZE); //$NON-NLS-1$
-		log.info("- ROUTE COORDINATES SIZE " + BinaryMapIndexWriter.ROUTE_COORDINATES_SIZE + " COUNT " + BinaryMapIndexWriter.ROUTE_COORDINATES_COUNT); //$NON-NLS-1$
-		log.info("- ROUTE POINTS SIZE " + BinaryMapIndexWriter.ROUTE_POINTS_SIZE);
-		log.info("- ROUTE STRING SIZE " + BinaryMapIndexWriter.ROUTE_STRING_DATA_SIZE); //$NON-NLS-1$
-		log.info("- ROUTE ID SIZE " + BinaryMapIndexWriter.ROUTE_ID_SIZE); //$NON-NLS-1$
-		log.info("-- ROUTE_DATA " + BinaryMapIndexWriter.ROUTE_DATA_SIZE); //$NON-NLS-1$
-		ROUTE_TYPES_SIZE = ROUTE_DATA_SIZE = ROUTE_POINTS_SIZE = ROUTE_ID_SIZE =
-				ROUTE_COORDINATES_COUNT = ROUTE_COORDINATES_SIZE = 0;
+		addSectionSize("route", len);
+		addSectionSize("route.coordinates", routeCoordinatesSize);
+		addSectionSize("route.types", routeTypesSize);
+		addSectionSize("route.points", routePointsSize);
+		addSectionSize("route.strings", routeStringDataSize);
+		addSectionSize("route.ids", routeIdSize);
+		log.info("- ROUTE TYPE SIZE SIZE " + routeTypesSize); //$NON-NLS-1$
+		log.info("- ROUTE COORDINATES SIZE " + routeCoordinatesSize + " COUNT " + routeCoordinatesCount); //$NON-NLS-1$
+		log.info("- ROUTE POINTS SIZE " + routePointsSize);
+		log.info("- ROUTE STRING SIZE " + routeStringDataSize); //$NON-NLS-1$
+		log.info("- ROUTE ID SIZE " + routeIdSize); //$NON-NLS-1$
+		log.info("-- ROUTE_DATA " + routeDataSize); //$NON-NLS-1$
+		routeTypesSize = routeDataSize = routePointsSize = routeIdSize =
+				routeCoordinatesCount = routeCoordinatesSize = 0;
 		log.info("ROUTE INDEX SIZE : " + len);
 	}
 
@@ -473,20 +491,30 @@ public class BinaryMapIndexWriter {
 	}
 
 	// debug data about size of map index
-	public static int COORDINATES_SIZE = 0;
-	public static int COORDINATES_COUNT = 0;
-	public static int ID_SIZE = 0;
-	public static int TYPES_SIZE = 0;
-	public static int MAP_DATA_SIZE = 0;
-	public static int STRING_TABLE_SIZE = 0;
-
-	public static int ROUTE_ID_SIZE = 0;
-	public static int ROUTE_TYPES_SIZE = 0;
-	public static int ROUTE_COORDINATES_SIZE = 0;
-	public static int ROUTE_COORDINATES_COUNT = 0;
-	public static int ROUTE_POINTS_SIZE = 0;
-	public static int ROUTE_DATA_SIZE = 0;
-	public static int ROUTE_STRING_DATA_SIZE = 0;
+	private int coordinatesSize = 0;
+	private int coordinatesCount = 0;
+	private int idSize = 0;
+	private int typesSize = 0;
+	private int mapDataSize = 0;
+	private int stringTableSize = 0;
+
+	private int routeIdSize = 0;
+	private int routeTypesSize = 0;
+	private int routeCoordinatesSize = 0;
+	private int routeCoordinatesCount = 0;
+	private int routePointsSize = 0;
+	private int routeDataSize = 0;
+	private int routeStringDataSize = 0;
+
+	public void setMetrics(IndexCreatorMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	private void addSectionSize(String section, long size) {
+		if (metrics != null) {
+			metrics.addSectionSize(section, size);
+		}
+	}
 
 	public MapDataBlock.Builder createWriteMapDataBlock(long baseid) throws IOException {
 		MapDataBlock.Builder builder = MapDataBlock.newBuilder();
@@ -505,14 +533,14 @@ public class BinaryMapIndexWriter {
 			StringTable st = bs.build();
 			builder.setStringTable(st);
 			int size = st.getSerializedSize();
-			ROUTE_STRING_DATA_SIZE += CodedOutputStream.computeTagSize(OsmandOdb.MapDataBlock.STRINGTABLE_FIELD_NUMBER)
+			routeStringDataSize += CodedOutputStream.computeTagSize(OsmandOdb.MapDataBlock.STRINGTABLE_FIELD_NUMBER)
 					+ CodedOutputStream.computeRawVarint32Size(size) + size;
 		}
 		codedOutStream.writeTag(OsmAndMapIndex.MapRootLevel.BLOCKS_FIELD_NUMBER, FieldType.MESSAGE.getWireType());
 		codedOutStream.flush();
 		ref.writeReference(raf, getFilePointer());
 		RouteDataBlock block = builder.build();
-		ROUTE_DATA_SIZE += block.getSerializedSize();
+		routeDataSize += block.getSerializedSize();
 		codedOutStream.writeMessageNoTag(block);
 	}
 
@@ -545,14 +573,14 @@ public class BinaryMapIndexWriter {
 			throws IOException {
 		RouteData.Builder builder = RouteData.newBuilder();
 		builder.setRouteId(diffId);
-		ROUTE_ID_SIZE += CodedOutputStream.computeInt64Size(RouteData.ROUTEID_FIELD_NUMBER, diffId);
+		routeIdSize += CodedOutputStream.computeInt64Size(RouteData.ROUTEID_FIELD_NUMBER, diffId);
 		// types
 		mapDataBuf.clear();
 		for (int i = 0; i < types.length; i++) {
 			writeRawVarint32(mapDataBuf, types[i]);
 		}
 		builder.setTypes(ByteString.copyFrom(mapDataBuf.toArray()));
-		ROUTE_TYPES_SIZE += CodedOutputStream.computeTagSize(RouteData.TYPES_FIELD_NUMBER)
+		routeTypesSize += CodedOutputStream.computeTagSize(RouteData.TYPES_FIELD_NUMBER)
 				+ CodedOutputStream.computeRawVarint32Size(mapDataBuf.size()) + mapDataBuf.size();
 		// coordinates and point types
 		int pcalcx = pleft >> ROUTE_SHIFT_COORDINATES;
@@ -560,7 +588,7 @@ public class BinaryMapIndexWriter {
 		mapDataBuf.clear();
 		typesDataBuf.clear();
 		for (int k = 0; k < points.length; k++) {
-			ROUTE_COORDINATES_COUNT++;
+			routeCoordinatesCount++;
 
 			int tx = (points[k].x >> ROUTE_SHIFT_COORDINATES) - pcalcx;
 			int ty = (points[k].y >> ROUTE_SHIFT_COORDINATES) - pcalcy;
@@ -579,10 +607,10 @@ public class BinaryMapIndexWriter {
 			}
 		}
 		builder.setPoints(ByteString.copyFrom(mapDataBuf.toArray()));
-		ROUTE_COORDINATES_SIZE += CodedOutputStream.computeTagSize(RouteData.POINTS_FIELD_NUMBER)
+		routeCoordinatesSize += CodedOutputStream.computeTagSize(RouteData.POINTS_FIELD_NUMBER)
 				+ CodedOutputStream.computeRawVarint32Size(mapDataBuf.size()) + mapDataBuf.size();
 		builder.setPointTypes(ByteString.copyFrom(typesDataBuf.toArray()));
-		ROUTE_TYPES_SIZE += CodedOutputStream.computeTagSize(RouteData.POINTTYPES_FIELD_NUMBER)
+		routeTypesSize += CodedOutputStream.computeTagSize(RouteData.POINTTYPES_FIELD_NUMBER)
 				+ CodedOutputStream.computeRawVarint32Size(typesDataBuf.size()) + typesDataBuf.size();
 
 		if (pointNames.size() > 0) {
@@ -597,7 +625,7 @@ public class BinaryMapIndexWriter {
 				}
 				writeRawVarint32(mapDataBuf, ls);
 			}
-			ROUTE_STRING_DATA_SIZE += mapDataBuf.size();
+			routeStringDataSize += mapDataBuf.size();
 			builder.setPointNames(ByteString.copyFrom(mapDataBuf.toArray()));
 		}
 
@@ -612,7 +640,7 @@ public class BinaryMapIndexWriter {
 				}
 				writeRawVarint32(mapDataBuf, ls);
 			}
-			ROUTE_STRING_DATA_SIZE += mapDataBuf.size();
+			routeStringDataSize += mapDataBuf.size();
 			builder.setStringNames(ByteString.copyFrom(mapDataBuf.toArray()));
 		}
 
@@ -632,7 +660,7 @@ public class BinaryMapIndexWriter {
 		StringTable st = bs.build();
 		builder.setStringTable(st);
 		int size = st.getSerializedSize();
-		STRING_TABLE_SIZE += CodedOutputStream.computeTagSize(OsmandOdb.MapDataBlock.STRINGTABLE_FIELD_NUMBER)
+		stringTableSize += CodedOutputStream.computeTagSize(OsmandOdb.MapDataBlock.STRINGTABLE_FIELD_NUMBER)
 				+ CodedOutputStream.computeRawVarint32Size(size) + size;
 
 		codedOutStream.writeTag(OsmAndMapIndex.MapRootLevel.BLOCKS_FIELD_NUMBER, FieldType.MESSAGE.getWireType());
@@ -640,7 +668,7 @@ public class BinaryMapIndexWriter {
 		codedOutStream.flush();
 		ref.writeReference(raf, getFilePointer());
 		MapDataBlock block = builder.build();
-		MAP_DATA_SIZE += block.getSerializedSize();
+		mapDataSize += block.getSerializedSize();
 		codedOutStream.writeMessageNoTag(block);
 	}
 
@@ -673,7 +701,7 @@ public class BinaryMapIndexWriter {
 				delta = skipSomeNodes(coordinates, len, i, x, y, false);
 			}
 		}
-		COORDINATES_SIZE += CodedOutputStream.computeRawVarint32Size(mapDataBuf.size())
+		coordinatesSize += CodedOutputStream.computeRawVarint32Size(mapDataBuf.size())
 				+ CodedOutputStream.computeTagSize(MapData.COORDINATES_FIELD_NUMBER) + mapDataBuf.size();
 		if (area) {
 			data.setAreaCoordinates(ByteString.copyFrom(mapDataBuf.toArray()));
@@ -718,7 +746,7 @@ public class BinaryMapIndexWriter {
 			writeRawVarint32(mapDataBuf, typeUse[i]);
 		}
 		data.setTypes(ByteString.copyFrom(mapDataBuf.toArray()));
-		TYPES_SIZE += CodedOutputStream.computeTagSize(OsmandOdb.MapData.TYPES_FIELD_NUMBER)
+		typesSize += CodedOutputStream.computeTagSize(OsmandOdb.MapData.TYPES_FIELD_NUMBER)
 				+ CodedOutputStream.computeRawVarint32Size(mapDataBuf.size()) + mapDataBuf.size();
 		if (addtypeUse != null && addtypeUse.length > 0) {
 			mapDataBuf.clear();
@@ -726,7 +754,7 @@ public class BinaryMapIndexWriter {
 				writeRawVarint32(mapDataBuf, addtypeUse[i]);
 			}
 			data.setAdditionalTypes(ByteString.copyFrom(mapDataBuf.toArray()));
-			TYPES_SIZE += CodedOutputStream.computeTagSize(OsmandOdb.MapData.ADDITIONALTYPES_FIELD_NUMBER);
+			typesSize += CodedOutputStream.computeTagSize(OsmandOdb.MapData.ADDITIONALTYPES_FIELD_NUMBER);
 		}
 
 		mapDataBuf.clear();
@@ -752,11 +780,11 @@ public class BinaryMapIndexWriter {
 				writeRawVarint32(mapDataBuf, ls);
 			}
 		}
-		STRING_TABLE_SIZE += mapDataBuf.size();
+		stringTableSize += mapDataBuf.size();
 		data.setStringNames(ByteString.copyFrom(mapDataBuf.toArray()));
 
 		data.setId(diffId);
-		ID_SIZE += CodedOutputStream.computeSInt64Size(OsmandOdb.MapData.ID_FIELD_NUMBER, diffId);
+		idSize += CodedOutputStream.computeSInt64Size(OsmandOdb.MapData.ID_FIELD_NUMBER, diffId);
 		return data.build();
 	}
 
@@ -819,6 +847,7 @@ public class BinaryMapIndexWriter {
 		popState(ADDRESS_INDEX_INIT);
 		int len = writeInt32Size();
 		log.info("ADDRESS INDEX SIZE : " + len);
+		addSectionSize("address", len);
 	}
 
 
@@ -1136,6 +1165,7 @@ public class BinaryMapIndexWriter {
 		int len = writeInt32Size();
 		stackBounds.pop();
 		log.info("TRANSPORT INDEX SIZE : " + len);
+		addSectionSize("transport", len);
 	}
 
 	public void writeTransportRoute(long idRoute, String routeName, String routeEnName, String ref, String operator, String type, int dist, String color,
@@ -1353,6 +1383,7 @@ public class BinaryMapIndexWriter {
 		int len = writeInt32Size();
 		stackBounds.pop();
 		log.info("POI INDEX SIZE : " + len);
+		addSectionSize("poi", len);
 	}
 
 	public void writePoiCategoriesTable(PoiCreatorCategories cs) throws IOException {
@@ -1501,7 +1532,7 @@ public class BinaryMapIndexWriter {
 		return res;
 	}
 
-	private String retrieveAdditionalType(String key, Map<PoiAdditionalType, String> additionalNames) {
+	private static String retrieveAdditionalType(String key, Map<PoiAdditionalType, String> additionalNames) {
 		PoiAdditionalType k = null;
 		for (PoiAdditionalType t : additionalNames.keySet()) {
 			if (Algorithms.objectEquals(t.getTag(), key)) {
@@ -1520,6 +1551,20 @@ public class BinaryMapIndexWriter {
 			PoiCreatorCategories globalCategories, int limitZip) throws IOException {
 		checkPeekState(POI_DATA);
 		TIntArrayList types = globalCategories.buildTypeIds(type, subtype);
+		writePoiDataAtom(buildPoiDataAtom(id, x24shift, y24shift, types, additionalNames, limitZip));
+	}
+
+	public void writePoiDataAtom(OsmAndPoiBoxDataAtom atom) throws IOException {
+		checkPeekState(POI_DATA);
+		codedOutStream.writeMessage(OsmandOdb.OsmAndPoiBoxData.POIDATA_FIELD_NUMBER, atom);
+	}
+
+	/**
+	 * Doesn't write anything, so it could be called from several threads to prepare data block
+	 * (additionalNames are modified).
+	 */
+	public static OsmAndPoiBoxDataAtom buildPoiDataAtom(long id, int x24shift, int y24shift, TIntArrayList types,
+			Map<PoiAdditionalType, String> additionalNames, int limitZip) throws IOException {
 		OsmAndPoiBoxDataAtom.Builder builder = OsmandOdb.OsmAndPoiBoxDataAtom.newBuilder();
 		builder.setDx(x24shift);
 		builder.setDy(y24shift);
@@ -1590,8 +1635,7 @@ public class BinaryMapIndexWriter {
 				builder.addTextValues(vl);
 			}
 		}
-		codedOutStream.writeMessage(OsmandOdb.OsmAndPoiBoxData.POIDATA_FIELD_NUMBER, builder.build());
-
+		return builder.build();
 	}
 
 	public void startWritePoiData(int zoom, int x, int y, List<BinaryFileReference> fpPoiBox) throws IOException {
@@ -68,6 +68,9 @@ public class IndexCreator {
 	public static final String TEMP_NODES_DB = "nodes.tmp.odb";
 
 	public static final int STEP_MAIN = 4;
+	// temporary databases are written sequentially by one creator, so bigger pages and cache are faster
+	public static final int TEMP_DB_PAGE_SIZE = 16384;
+	public static final int TEMP_DB_CACHE_SIZE_KB = 128 * 1024;
 
 	private File workingDir = null;
 
@@ -79,6 +82,8 @@ public class IndexCreator {
 
 	private boolean generateLowLevel = true;
 	private int zoomWaySmoothness = 2;
+	private int basemapThreads = 1;
+	private int maxCachedStreets = 0;
 
 	private String regionName;
 	private String mapFileName = null;
@@ -100,13 +105,19 @@ public class IndexCreator {
 	 
 	private File mapFile;
 	private RandomAccessFile mapRAFile;
+	// every creator writes to its own temporary database to avoid contention on one connection
 	private Connection mapConnection;
+	private Connection routeConnection;
+	private Connection addressConnection;
+	private Connection transportConnection;
 
 	public static final int DEFAULT_CITY_ADMIN_LEVEL = 8;
 	private String cityAdminLevel = "" + DEFAULT_CITY_ADMIN_LEVEL;
 	private IndexHeightData heightData = null;
 	
 	private Multipolygon boundary;
+	private IndexPartition partition;
+	private IndexCreatorMetrics metrics = new IndexCreatorMetrics();
 
 
 	public IndexCreator(File workingDir) {
@@ -148,6 +159,17 @@ public class IndexCreator {
 		this.indexTransport = indexTransport;
 	}
 
+	public void setBasemapThreads(int basemapThreads) {
+		this.basemapThreads = basemapThreads;
+	}
+
+	/**
+	 * Address streets are cached with limited size (0 - all streets are in memory)
+	 */
+	public void setMaxCachedStreets(int maxCachedStreets) {
+		this.maxCachedStreets = maxCachedStreets;
+	}
+
 	public void setZoomWaySmoothness(int zoomWaySmoothness) {
 		this.zoomWaySmoothness = zoomWaySmoothness;
 	}
@@ -196,6 +218,10 @@ public class IndexCreator {
 		return getMapFileName() + ".tmp"; //$NON-NLS-1$
 	}
 
+	public String getTempDBFileName(String part) {
+		return getMapFileName() + "." + part + ".tmp"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	public void setDialects(DBDialect osmDBdialect, DBDialect mapIndexDBDialect) {
 		if (osmDBdialect != null) {
 			this.osmDBdialect = osmDBdialect;
@@ -261,6 +287,9 @@ public class IndexCreator {
 	/* ***** END OF GETTERS/SETTERS ***** */
 
 	private void iterateMainEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+		if (partition != null && !partition.isOwner(e)) {
+			return;
+		}
 		if (heightData != null && e instanceof Way) {
 			heightData.proccess((Way) e);
 		}
@@ -341,6 +370,7 @@ public class IndexCreator {
 			dbCreator.setNodeIds(previous.getNodeIds());
 			dbCreator.setWayIds(previous.getWayIds());
 			dbCreator.setRelationIds(previous.getRelationIds());
+			dbCreator.setTagsDictionary(previous.getTagsDictionary());
 		}
 		dbCreator.setBackwardCompatibleIds(backwardCompatibleIds);
 		try {
@@ -369,6 +399,18 @@ public class IndexCreator {
 		}
 	}
 
+	/**
+	 * Loads input files into nodes db and closes it, so the db could be shared by several partitions
+	 */
+	File prepareNodesDB(File[] readFile, IProgress progress, IOsmStorageFilter addFilter,
+			boolean generateUniqueIds, boolean overwriteIds) throws IOException, SQLException, InterruptedException, XmlPullParserException {
+		OsmDbAccessor accessor = initDbAccessor(readFile, progress, addFilter, generateUniqueIds, overwriteIds, false);
+		accessor.closeReadingConnection();
+		osmDBdialect.commitDatabase(accessor.getDbConn());
+		osmDBdialect.closeDatabase(accessor.getDbConn());
+		return dbFile;
+	}
+
 	private OsmDbAccessor initDbAccessor(File[] readFile, IProgress progress, IOsmStorageFilter addFilter,
 			boolean generateUniqueIds, boolean overwriteIds, boolean regeenerateNewIds) throws IOException, SQLException, InterruptedException, XmlPullParserException {
 		OsmDbAccessor accessor = new OsmDbAccessor();
@@ -465,27 +507,54 @@ public class IndexCreator {
 		mapFile = new File(workingDir, getMapFileName());
 		// to save space
 		mapFile.getParentFile().mkdirs();
-		File tempDBMapFile = new File(workingDir, getTempMapDBFileName());
-		mapIndexDBDialect.removeDatabase(tempDBMapFile);
-		mapConnection = (Connection) getDatabaseConnection(tempDBMapFile.getAbsolutePath(), mapIndexDBDialect);
-		mapConnection.setAutoCommit(false);
+		mapConnection = createTempDatabase(getTempMapDBFileName(), true);
 
 		// 2.2 create rtree map
 		if (indexMap) {
 			indexMapCreator.createDatabaseStructure(mapConnection, mapIndexDBDialect, getRTreeMapIndexNonPackFileName());
 		}
 		if (indexRouting) {
-			indexRouteCreator.createDatabaseStructure(mapConnection, mapIndexDBDialect, getRTreeRouteIndexNonPackFileName());
+			routeConnection = createTempDatabase(getTempDBFileName("route"), true);
+			indexRouteCreator.createDatabaseStructure(routeConnection, mapIndexDBDialect, getRTreeRouteIndexNonPackFileName());
 		}
 		if (indexAddress) {
-			indexAddressCreator.createDatabaseStructure(mapConnection, mapIndexDBDialect);
+			addressConnection = createTempDatabase(getTempDBFileName("address"), true);
+			indexAddressCreator.createDatabaseStructure(addressConnection, mapIndexDBDialect);
 		}
 		if (indexPOI) {
 			indexPoiCreator.createDatabaseStructure(getPoiFile());
 		}
 		if (indexTransport) {
-			indexTransportCreator.createDatabaseStructure(mapConnection, mapIndexDBDialect, getRTreeTransportStopsFileName());
+			transportConnection = createTempDatabase(getTempDBFileName("transport"), true);
+			indexTransportCreator.createDatabaseStructure(transportConnection, mapIndexDBDialect, getRTreeTransportStopsFileName());
+		}
+	}
+
+	private Connection createTempDatabase(String fileName, boolean recreate) throws SQLException {
+		File file = new File(workingDir, fileName);
+		if (recreate) {
+			mapIndexDBDialect.removeDatabase(file);
+		}
+		Connection conn = (Connection) getDatabaseConnection(file.getAbsolutePath(), mapIndexDBDialect);
+		Statement stat = conn.createStatement();
+		// page size is applied only to new database (before first table is created)
+		stat.executeUpdate("PRAGMA page_size = " + TEMP_DB_PAGE_SIZE); //$NON-NLS-1$
+		stat.executeUpdate("PRAGMA cache_size = -" + TEMP_DB_CACHE_SIZE_KB); //$NON-NLS-1$
+		stat.close();
+		conn.setAutoCommit(false);
+		return conn;
+	}
+
+	private Connection closeTempDatabase(Connection conn, String fileName) throws SQLException {
+		if (conn != null) {
+			conn.commit();
+			conn.close();
+			File tempDBFile = new File(workingDir, fileName);
+			if (mapIndexDBDialect.databaseFileExists(tempDBFile) && deleteDatabaseIndexes) {
+				mapIndexDBDialect.removeDatabase(tempDBFile);
+			}
 		}
+		return null;
 	}
 
 
@@ -505,6 +574,9 @@ public class IndexCreator {
 
 			final BasemapProcessor processor = new BasemapProcessor(logMapDataWarn, mapZooms, renderingTypes,
 					zoomWaySmoothness);
+			if (basemapThreads > 1) {
+				processor.startParallelProcessing(basemapThreads);
+			}
 			final IndexPoiCreator poiCreator = indexPOI ? new IndexPoiCreator(renderingTypes, false) : null;
 			if (indexPOI) {
 				poiCreator.createDatabaseStructure(getPoiFile());
@@ -517,10 +589,10 @@ public class IndexCreator {
 			accessor.iterateOverEntities(progress, EntityType.NODE, new OsmDbVisitor() {
 				@Override
 				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
-					processor.processEntity(e);
 					if (indexPOI) {
 						poiCreator.iterateEntity(e, ctx, true);
 					}
+					processor.submitEntity(e);
 				}
 			});
 			setGeneralProgress(progress, "[70 / 100]");
@@ -528,10 +600,10 @@ public class IndexCreator {
 			accessor.iterateOverEntities(progress, EntityType.WAY, new OsmDbVisitor() {
 				@Override
 				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
-					processor.processEntity(e);
 					if (indexPOI) {
 						poiCreator.iterateEntity(e, ctx, true);
 					}
+					processor.submitEntity(e);
 				}
 			});
 			setGeneralProgress(progress, "[90 / 100]");
@@ -541,9 +613,10 @@ public class IndexCreator {
 				@Override
 				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
 					ctx.loadEntityRelation((Relation) e);
-					processor.processEntity(e);
+					processor.submitEntity(e);
 				}
 			});
+			processor.finishProcessing();
 			accessor.closeReadingConnection();
 
 			mapFile = new File(workingDir, getMapFileName());
@@ -614,9 +687,17 @@ public class IndexCreator {
 		this.indexTransportCreator = new IndexTransportCreator();
 		this.indexPoiCreator = new IndexPoiCreator(renderingTypes, overwriteIds);
 		this.indexAddressCreator = new IndexAddressCreator(logMapDataWarn);
+		if (maxCachedStreets > 0) {
+			indexAddressCreator.setMaxCachedStreets(maxCachedStreets);
+		}
 		this.indexMapCreator = new IndexVectorMapCreator(logMapDataWarn, mapZooms, renderingTypes,
 				zoomWaySmoothness);
 		this.indexRouteCreator = new IndexRouteCreator(renderingTypes, logMapDataWarn, generateLowLevel);
+		indexTransportCreator.setMetrics(metrics);
+		indexPoiCreator.setMetrics(metrics);
+		indexAddressCreator.setMetrics(metrics);
+		indexMapCreator.setMetrics(metrics);
+		indexRouteCreator.setMetrics(metrics);
 
 		// init address
 		indexAddressCreator.initSettings(cityAdminLevel);
@@ -629,9 +710,10 @@ public class IndexCreator {
 			// do not create temp map file and rtree files
 			if (recreateOnlyBinaryFile) {
 				mapFile = new File(workingDir, getMapFileName());
-				File tempDBMapFile = new File(workingDir, getTempMapDBFileName());
-				mapConnection = (Connection) getDatabaseConnection(tempDBMapFile.getAbsolutePath(), mapIndexDBDialect);
-				mapConnection.setAutoCommit(false);
+				mapConnection = createTempDatabase(getTempMapDBFileName(), false);
+				if (indexTransport) {
+					transportConnection = createTempDatabase(getTempDBFileName("transport"), false);
+				}
 				try {
 					if (indexMap) {
 						indexMapCreator.createRTreeFiles(getRTreeMapIndexPackFileName());
@@ -649,13 +731,18 @@ public class IndexCreator {
 			} else {
 				// 2. Create index connections and index structure
 				createDatabaseIndexesStructure();
+				metrics.startPhase("load_osm");
 				OsmDbAccessor accessor = initDbAccessor(readFile, progress, addFilter, generateUniqueIds, overwriteIds, false);
+				metrics.finishPhase(accessor.getAllNodes() + accessor.getAllWays() + accessor.getAllRelations());
 
 				// 3. Processing all entries
 				// 3.1 write all cities
+				metrics.startPhase("cities");
 				writeAllCities(accessor, progress);
 				// 3.2 index address relations
+				metrics.startPhase("relations_preindex");
 				indexRelations(accessor, progress);
+				metrics.finishPhase(0);
 				// 3.3 MAIN iterate over all entities
 				iterateMainEntities(accessor, progress);
 				accessor.closeReadingConnection();
@@ -671,6 +758,7 @@ public class IndexCreator {
 				// 3.4 combine all low level ways and simplify them
 				if (indexMap || indexRouting) {
 					setGeneralProgress(progress, "[90 / 100]");
+					metrics.startPhase("low_level_ways");
 					if (indexMap) {
 						progress.startTask(Messages.getString("IndexCreator.INDEX_LO_LEVEL_WAYS"),
 								indexMapCreator.getLowLevelWays());
@@ -684,6 +772,7 @@ public class IndexCreator {
 				}
 
 				// 4. packing map rtree indexes
+				metrics.startPhase("pack_rtree");
 				if (indexMap) {
 					setGeneralProgress(progress, "[90 / 100]"); //$NON-NLS-1$
 					progress.startTask(Messages.getString("IndexCreator.PACK_RTREE_MAP"), -1); //$NON-NLS-1$
@@ -698,6 +787,7 @@ public class IndexCreator {
 					progress.startTask(Messages.getString("IndexCreator.PACK_RTREE_TRANSP"), -1); //$NON-NLS-1$
 					indexTransportCreator.packRTree(getRTreeTransportStopsFileName(), getRTreeTransportStopsPackFileName());
 				}
+				metrics.finishPhase(0);
 			}
 
 			// 5. Writing binary file
@@ -708,37 +798,45 @@ public class IndexCreator {
 				mapRAFile = new RandomAccessFile(mapFile, "rw");
 				BinaryMapIndexWriter writer = new BinaryMapIndexWriter(mapRAFile, lastModifiedDate == null ? System.currentTimeMillis() :
 					lastModifiedDate.longValue());
+				writer.setMetrics(metrics);
 				if (indexMap) {
 					setGeneralProgress(progress, "[95 of 100]");
 					progress.startTask("Writing map index to binary file...", -1);
+					metrics.startPhase("write_map");
 					indexMapCreator.writeBinaryMapIndex(writer, regionName);
 				}
 				if (indexRouting) {
 					setGeneralProgress(progress, "[95 of 100]");
 					progress.startTask("Writing route index to binary file...", -1);
+					metrics.startPhase("write_route");
 					indexRouteCreator.writeBinaryRouteIndex(mapFile, writer, regionName, generateLowLevel);
 				}
 
 				if (indexAddress) {
 					setGeneralProgress(progress, "[95 of 100]");
 					progress.startTask("Writing address index to binary file...", -1);
+					metrics.startPhase("write_address");
 					indexAddressCreator.writeBinaryAddressIndex(writer, regionName, progress);
 				}
 
 				if (indexPOI) {
 					setGeneralProgress(progress, "[95 of 100]");
 					progress.startTask("Writing poi index to binary file...", -1);
+					metrics.startPhase("write_poi");
 					indexPoiCreator.writeBinaryPoiIndex(writer, regionName, progress);
 				}
 
 				if (indexTransport) {
 					setGeneralProgress(progress, "[95 of 100]");
 					progress.startTask("Writing transport index to binary file...", -1);
-					indexTransportCreator.writeBinaryTransportIndex(writer, regionName, mapConnection);
+					metrics.startPhase("write_transport");
+					indexTransportCreator.writeBinaryTransportIndex(writer, regionName, transportConnection);
 				}
+				metrics.finishPhase(0);
 				progress.finishTask();
 				writer.close();
 				mapRAFile.close();
+				metrics.setCounter("obfSize", mapFile.length());
 				log.info("Finish writing binary file"); //$NON-NLS-1$
 			}
 		} catch (RuntimeException e) {
@@ -767,16 +865,10 @@ public class IndexCreator {
 				indexRouteCreator.commitAndCloseFiles(getRTreeRouteIndexNonPackFileName(), getRTreeRouteIndexPackFileName(),
 						deleteDatabaseIndexes);
 
-				if (mapConnection != null) {
-					mapConnection.commit();
-					mapConnection.close();
-					mapConnection = null;
-					File tempDBFile = new File(workingDir, getTempMapDBFileName());
-					if (mapIndexDBDialect.databaseFileExists(tempDBFile) && deleteDatabaseIndexes) {
-						// do not delete it for now
-						mapIndexDBDialect.removeDatabase(tempDBFile);
-					}
-				}
+				mapConnection = closeTempDatabase(mapConnection, getTempMapDBFileName());
+				routeConnection = closeTempDatabase(routeConnection, getTempDBFileName("route"));
+				addressConnection = closeTempDatabase(addressConnection, getTempDBFileName("address"));
+				transportConnection = closeTempDatabase(transportConnection, getTempDBFileName("transport"));
 
 
 			} catch (SQLException e) {
@@ -791,28 +883,34 @@ public class IndexCreator {
 	private void iterateMainEntities(OsmDbAccessor accessor, IProgress progress) throws SQLException, InterruptedException {
 		setGeneralProgress(progress, "[50 / 100]");
 		progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_NODES"), accessor.getAllNodes());
-		accessor.iterateOverEntities(progress, EntityType.NODE, new OsmDbVisitor() {
+		metrics.startPhase("nodes");
+		int cnt = accessor.iterateOverEntities(progress, EntityType.NODE, new OsmDbVisitor() {
 			@Override
 			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
 				iterateMainEntity(e, ctx);
 			}
 		});
+		metrics.finishPhase(cnt);
 		setGeneralProgress(progress, "[70 / 100]");
 		progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_WAYS"), accessor.getAllWays());
-		accessor.iterateOverEntities(progress, EntityType.WAY, new OsmDbVisitor() {
+		metrics.startPhase("ways");
+		cnt = accessor.iterateOverEntities(progress, EntityType.WAY, new OsmDbVisitor() {
 			@Override
 			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
 				iterateMainEntity(e, ctx);
 			}
 		});
+		metrics.finishPhase(cnt);
 		setGeneralProgress(progress, "[85 / 100]");
 		progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_REL"), accessor.getAllRelations());
-		accessor.iterateOverEntities(progress, EntityType.RELATION, new OsmDbVisitor() {
+		metrics.startPhase("relations");
+		cnt = accessor.iterateOverEntities(progress, EntityType.RELATION, new OsmDbVisitor() {
 			@Override
 			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
 				iterateMainEntity(e, ctx);
 			}
 		});
+		metrics.finishPhase(cnt);
 	}
 
 	private void indexRelations(OsmDbAccessor accessor, IProgress progress) throws SQLException, InterruptedException {
@@ -827,7 +925,8 @@ public class IndexCreator {
 						indexAddressCreator.indexBoundariesRelation(e, ctx);
 					}
 					if (indexMap) {
-						indexMapCreator.indexMapRelationsAndMultiPolygons(e, ctx);
+						// ways of multipolygon are excluded in every partition, but it is written only by owner
+						indexMapCreator.indexMapRelationsAndMultiPolygons(e, ctx, partition == null || partition.isOwner(e));
 					}
 					if (indexRouting) {
 						indexRouteCreator.indexRelations(e, ctx);
@@ -896,6 +995,18 @@ public class IndexCreator {
 		return boundary;
 	}
 
+	public IndexCreatorMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setPartition(IndexPartition partition) {
+		this.partition = partition;
+	}
+
+	public IndexPartition getPartition() {
+		return partition;
+	}
+
 	public static void main(String[] args) throws IOException, SQLException, InterruptedException, XmlPullParserException {
 		long time = System.currentTimeMillis();
 		
@@ -935,13 +1046,6 @@ public class IndexCreator {
 		//new File(file),
 
 		log.info("WHOLE GENERATION TIME :  " + (System.currentTimeMillis() - time)); //$NON-NLS-1$
-		log.info("COORDINATES_SIZE " + BinaryMapIndexWriter.COORDINATES_SIZE + " count " + BinaryMapIndexWriter.COORDINATES_COUNT); //$NON-NLS-1$ //$NON-NLS-2$
-		log.info("TYPES_SIZE " + BinaryMapIndexWriter.TYPES_SIZE); //$NON-NLS-1$
-		log.info("ID_SIZE " + BinaryMapIndexWriter.ID_SIZE); //$NON-NLS-1$
-		log.info("- COORD_TYPES_ID SIZE " + (BinaryMapIndexWriter.COORDINATES_SIZE + BinaryMapIndexWriter.TYPES_SIZE + BinaryMapIndexWriter.ID_SIZE)); //$NON-NLS-1$
-		log.info("- MAP_DATA_SIZE " + BinaryMapIndexWriter.MAP_DATA_SIZE); //$NON-NLS-1$
-		log.info("- STRING_TABLE_SIZE " + BinaryMapIndexWriter.STRING_TABLE_SIZE); //$NON-NLS-1$
-		log.info("-- MAP_DATA_AND_STRINGS SIZE " + (BinaryMapIndexWriter.MAP_DATA_SIZE + BinaryMapIndexWriter.STRING_TABLE_SIZE)); //$NON-NLS-1$
 
 	}
 
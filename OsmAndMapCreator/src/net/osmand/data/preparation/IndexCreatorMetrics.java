@@ -0,0 +1,256 @@
+package net.osmand.data.preparation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Structured metrics of one {@link IndexCreator} run: wall and cpu time per phase, processed entities,
+ * insert rates per table, bytes written per obf section, peak heap and gc time.
+ * Metrics are written as json next to the generation log and could be exposed over JMX.
+ * Cpu time, peak heap and gc time are measured for the whole jvm, so they include work of other creators
+ * running at the same time.
+ */
+public class IndexCreatorMetrics implements IndexCreatorMetricsMBean {
+	private static final Log log = LogFactory.getLog(IndexCreatorMetrics.class);
+
+	public static final String METRICS_EXT = ".metrics.json";
+
+	public static class PhaseMetrics {
+		long wallTime;
+		long cpuTime;
+		long entities;
+	}
+
+	public static class TableMetrics {
+		long rows;
+		long batches;
+		long executionTime;
+	}
+
+	private final long startTime;
+	private final long startGcTime;
+	private final long startPeakHeap;
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+	private final Map<String, PhaseMetrics> phases = new LinkedHashMap<String, PhaseMetrics>();
+	private final Map<String, TableMetrics> tables = new LinkedHashMap<String, TableMetrics>();
+	private final Map<String, Long> sections = new LinkedHashMap<String, Long>();
+	private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+	private String currentPhase;
+	private long phaseStartWall;
+	private long phaseStartCpu;
+	private ObjectName mbeanName;
+
+	public IndexCreatorMetrics() {
+		startTime = System.currentTimeMillis();
+		startGcTime = getTotalGcTime();
+		// peaks are not reset, they are shared by the whole jvm
+		startPeakHeap = getPeakHeapUsed();
+	}
+
+	public synchronized void startPhase(String phase) {
+		if (currentPhase != null) {
+			finishPhase(0);
+		}
+		currentPhase = phase;
+		phaseStartWall = System.currentTimeMillis();
+		phaseStartCpu = getCpuTime();
+	}
+
+	/**
+	 * Finishes current phase, cpu time is measured for all threads of the process (worker pools and gc too)
+	 */
+	public synchronized void finishPhase(long entities) {
+		if (currentPhase == null) {
+			return;
+		}
+		PhaseMetrics p = phases.get(currentPhase);
+		if (p == null) {
+			p = new PhaseMetrics();
+			phases.put(currentPhase, p);
+		}
+		long wall = System.currentTimeMillis() - phaseStartWall;
+		p.wallTime += wall;
+		p.cpuTime += getCpuTime() - phaseStartCpu;
+		p.entities += entities;
+		log.info("Phase " + currentPhase + " : " + wall + " ms" + (entities > 0 ? ", entities " + entities : ""));
+		currentPhase = null;
+	}
+
+	public synchronized void addTableBatches(String table, long rows, long batches, long executionTime) {
+		TableMetrics t = tables.get(table);
+		if (t == null) {
+			t = new TableMetrics();
+			tables.put(table, t);
+		}
+		t.rows += rows;
+		t.batches += batches;
+		t.executionTime += executionTime;
+	}
+
+	public synchronized void addSectionSize(String section, long bytes) {
+		Long l = sections.get(section);
+		sections.put(section, (l == null ? 0 : l) + bytes);
+	}
+
+	public synchronized void setCounter(String name, long value) {
+		counters.put(name, value);
+	}
+
+	private long getCpuTime() {
+		if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime() / 1000000;
+		}
+		// only calling thread is measured when process cpu time is not available
+		if (threadBean.isCurrentThreadCpuTimeSupported()) {
+			return threadBean.getCurrentThreadCpuTime() / 1000000;
+		}
+		return 0;
+	}
+
+	private static long getTotalGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+
+	@Override
+	public synchronized String getCurrentPhase() {
+		return currentPhase;
+	}
+
+	@Override
+	public long getElapsedTime() {
+		return System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Sum of peaks of heap memory pools since jvm start. Pools reach their peaks at different moments,
+	 * so it is an upper bound of the peak heap usage.
+	 */
+	@Override
+	public long getPeakHeapUsed() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Sum of peaks of heap memory pools when the run started, peak heap is raised by the run if it is bigger
+	 */
+	@Override
+	public long getPeakHeapUsedAtStart() {
+		return startPeakHeap;
+	}
+
+	@Override
+	public long getGcTime() {
+		return getTotalGcTime() - startGcTime;
+	}
+
+	@Override
+	public String getMetricsJson() {
+		try {
+			return toJson().toString(2);
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public synchronized JSONObject toJson() throws JSONException {
+		JSONObject res = new JSONObject();
+		res.put("elapsedTime", getElapsedTime());
+		res.put("peakHeapUsed", getPeakHeapUsed());
+		res.put("peakHeapUsedAtStart", getPeakHeapUsedAtStart());
+		res.put("gcTime", getGcTime());
+		JSONObject ph = new JSONObject();
+		for (Entry<String, PhaseMetrics> e : phases.entrySet()) {
+			PhaseMetrics p = e.getValue();
+			JSONObject o = new JSONObject();
+			o.put("wallTime", p.wallTime);
+			o.put("cpuTime", p.cpuTime);
+			if (p.entities > 0) {
+				o.put("entities", p.entities);
+				o.put("entitiesPerSec", p.entities * 1000 / Math.max(1, p.wallTime));
+			}
+			ph.put(e.getKey(), o);
+		}
+		res.put("phases", ph);
+		JSONObject tb = new JSONObject();
+		for (Entry<String, TableMetrics> e : tables.entrySet()) {
+			TableMetrics t = e.getValue();
+			JSONObject o = new JSONObject();
+			o.put("rows", t.rows);
+			o.put("batches", t.batches);
+			o.put("executionTime", t.executionTime);
+			o.put("rowsPerSec", t.rows * 1000 / Math.max(1, t.executionTime));
+			tb.put(e.getKey(), o);
+		}
+		res.put("tables", tb);
+		res.put("sections", new JSONObject(sections));
+		res.put("counters", new JSONObject(counters));
+		return res;
+	}
+
+	public void writeJson(File file) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			w.write(getMetricsJson());
+		} finally {
+			w.close();
+		}
+	}
+
+	public void registerMBean(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			mbeanName = new ObjectName("net.osmand:type=IndexCreator,name=" + ObjectName.quote(name));
+			if (server.isRegistered(mbeanName)) {
+				server.unregisterMBean(mbeanName);
+			}
+			server.registerMBean(this, mbeanName);
+		} catch (Exception e) {
+			log.warn("Metrics are not registered in JMX: " + e.getMessage(), e);
+			mbeanName = null;
+		}
+	}
+
+	public void unregisterMBean() {
+		if (mbeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			} catch (Exception e) {
+				log.warn(e.getMessage(), e);
+			}
+			mbeanName = null;
+		}
+	}
+}
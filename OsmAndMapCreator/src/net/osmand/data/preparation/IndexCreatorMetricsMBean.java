@@ -0,0 +1,19 @@
+package net.osmand.data.preparation;
+
+/**
+ * JMX view of {@link IndexCreatorMetrics}
+ */
+public interface IndexCreatorMetricsMBean {
+
+	public String getCurrentPhase();
+
+	public long getElapsedTime();
+
+	public long getPeakHeapUsed();
+
+	public long getPeakHeapUsedAtStart();
+
+	public long getGcTime();
+
+	public String getMetricsJson();
+}
@@ -0,0 +1,215 @@
+package net.osmand.data.preparation;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.osmand.IProgress;
+import net.osmand.IndexConstants;
+import net.osmand.binary.MapZooms;
+import net.osmand.data.diff.ObfFileInMemory;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.osm.MapRenderingTypesEncoder;
+import net.osmand.osm.io.IOsmStorageFilter;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xmlpull.v1.XmlPullParserException;
+
+import rtree.RTree;
+import rtree.RTreeException;
+
+/**
+ * Partitioned generation for very large regions. Input is loaded once into shared nodes db, then it is split into
+ * longitude stripes ({@link IndexPartition}) with the same amount of nodes. Every stripe runs map / routing / poi
+ * indexing independently in its own folder (own temporary db, rtree and poi files) and all partial obf files are
+ * stitched into one file.
+ *
+ * Address and transport sections are not supported. Low level ways are only merged inside one partition and
+ * routing file doesn't contain base (low level) routing section.
+ */
+public class IndexCreatorPartitioned {
+	private static final Log log = LogFactory.getLog(IndexCreatorPartitioned.class);
+
+	private final File workingDir;
+	private final int partitions;
+	private final int threads;
+
+	private boolean indexMap;
+	private boolean indexPOI;
+	private boolean indexRouting;
+	private int zoomWaySmoothness = 2;
+	private String renderingTypesFile = null;
+	private String regionName;
+	private String mapFileName;
+	private Long lastModifiedDate = null;
+	private boolean deleteTempFiles = true;
+	private DBDialect osmDBdialect = DBDialect.SQLITE;
+
+	public IndexCreatorPartitioned(File workingDir, int partitions, int threads) {
+		this.workingDir = workingDir;
+		this.partitions = Math.max(1, partitions);
+		this.threads = Math.max(1, threads);
+	}
+
+	public void setIndexMap(boolean indexMap) {
+		this.indexMap = indexMap;
+	}
+
+	public void setIndexPOI(boolean indexPOI) {
+		this.indexPOI = indexPOI;
+	}
+
+	public void setIndexRouting(boolean indexRouting) {
+		this.indexRouting = indexRouting;
+	}
+
+	public void setZoomWaySmoothness(int zoomWaySmoothness) {
+		this.zoomWaySmoothness = zoomWaySmoothness;
+	}
+
+	/**
+	 * Rendering types are not thread safe, so every partition creates own encoder from that file (null - default)
+	 */
+	public void setRenderingTypesFile(String renderingTypesFile) {
+		this.renderingTypesFile = renderingTypesFile;
+	}
+
+	public void setRegionName(String regionName) {
+		this.regionName = regionName;
+	}
+
+	public void setMapFileName(String mapFileName) {
+		this.mapFileName = mapFileName;
+	}
+
+	public void setLastModifiedDate(Long lastModifiedDate) {
+		this.lastModifiedDate = lastModifiedDate;
+	}
+
+	public void setDeleteTempFiles(boolean deleteTempFiles) {
+		this.deleteTempFiles = deleteTempFiles;
+	}
+
+	public File generateIndexes(final File[] readFiles, IProgress progress, IOsmStorageFilter addFilter,
+			final MapZooms mapZooms, final Log logMapDataWarn) throws IOException, SQLException, InterruptedException,
+			XmlPullParserException {
+		long time = System.currentTimeMillis();
+		if (regionName == null && readFiles.length > 0) {
+			int i = readFiles[0].getName().indexOf('.');
+			if (i > -1) {
+				regionName = Algorithms.capitalizeFirstLetterAndLowercase(readFiles[0].getName().substring(0, i));
+			}
+		}
+		// 1. load all files once to shared nodes db
+		IndexCreator loader = createIndexCreator(workingDir);
+		final File nodesDB = loader.prepareNodesDB(readFiles, progress, addFilter, false, false);
+		Connection conn = (Connection) osmDBdialect.getDatabaseConnection(nodesDB.getAbsolutePath(), log);
+		List<IndexPartition> parts = IndexPartition.splitByNodeDensity(conn, partitions);
+		osmDBdialect.closeDatabase(conn);
+		log.info("Nodes db prepared in " + (System.currentTimeMillis() - time) + " ms, " + parts.size() + " partitions");
+
+		// 2. index every partition separately
+		ExecutorService service = Executors.newFixedThreadPool(threads);
+		List<Future<File>> results = new ArrayList<Future<File>>();
+		for (final IndexPartition p : parts) {
+			results.add(service.submit(new Callable<File>() {
+				@Override
+				public File call() throws Exception {
+					return generatePartition(p, nodesDB, readFiles, mapZooms, logMapDataWarn);
+				}
+			}));
+		}
+		service.shutdown();
+		List<File> partFiles = new ArrayList<File>();
+		try {
+			for (Future<File> f : results) {
+				partFiles.add(f.get());
+			}
+		} catch (ExecutionException e) {
+			service.shutdownNow();
+			log.error("Partition failed", e.getCause()); //$NON-NLS-1$
+			throw new IOException(e.getCause());
+		}
+		log.info("All partitions indexed in " + (System.currentTimeMillis() - time) + " ms");
+
+		// 3. stitch partitions into one file: every entity and multipolygon is written only by its owner partition
+		// (see IndexPartition), so sections are merged without duplicates
+		File result = new File(workingDir, getMapFileName());
+		if (result.exists()) {
+			result.delete();
+		}
+		ObfFileInMemory merged = new ObfFileInMemory();
+		merged.readObfFiles(partFiles);
+		if (lastModifiedDate != null) {
+			merged.updateTimestamp(lastModifiedDate);
+		}
+		try {
+			merged.writeFile(result, true);
+		} catch (RTreeException e) {
+			throw new IOException(e);
+		} finally {
+			RTree.clearCache();
+		}
+		if (deleteTempFiles) {
+			for (File f : partFiles) {
+				Algorithms.removeAllFiles(f.getParentFile());
+			}
+			osmDBdialect.removeDatabase(nodesDB);
+		}
+		log.info("Partitioned generation finished in " + (System.currentTimeMillis() - time) + " ms");
+		return result;
+	}
+
+	private File generatePartition(IndexPartition p, File nodesDB, File[] readFiles, MapZooms mapZooms,
+			Log logMapDataWarn) throws IOException, SQLException, InterruptedException, XmlPullParserException {
+		long time = System.currentTimeMillis();
+		File dir = new File(workingDir, "partition_" + p.getIndex());
+		dir.mkdirs();
+		IndexCreator creator = createIndexCreator(dir);
+		creator.setPartition(p);
+		creator.setNodesDBFile(nodesDB);
+		creator.setDeleteOsmDB(false);
+		creator.setMapFileName(getMapFileName());
+		MapRenderingTypesEncoder renderingTypes = new MapRenderingTypesEncoder(renderingTypesFile, regionName);
+		creator.generateIndexes(readFiles, new ConsoleProgressImplementation(), null, mapZooms,
+				renderingTypes, logMapDataWarn, false, false);
+		log.info(p + " indexed in " + (System.currentTimeMillis() - time) + " ms");
+		return new File(dir, getMapFileName());
+	}
+
+	private IndexCreator createIndexCreator(File dir) {
+		IndexCreator creator = new IndexCreator(dir);
+		creator.setDialects(osmDBdialect, null);
+		creator.setIndexMap(indexMap);
+		creator.setIndexPOI(indexPOI);
+		creator.setIndexRouting(indexRouting);
+		creator.setIndexAddress(false);
+		creator.setIndexTransport(false);
+		// base routing section is not stitched
+		creator.setGenerateLowLevelIndexes(false);
+		creator.setZoomWaySmoothness(zoomWaySmoothness);
+		creator.setRegionName(regionName);
+		creator.setLastModifiedDate(lastModifiedDate);
+		if (dir == workingDir) {
+			creator.setNodesDBFile(new File(workingDir, IndexCreator.TEMP_NODES_DB));
+		}
+		return creator;
+	}
+
+	private String getMapFileName() {
+		if (mapFileName == null) {
+			return regionName + IndexConstants.BINARY_MAP_INDEX_EXT;
+		}
+		return mapFileName;
+	}
+}
@@ -0,0 +1,126 @@
+package net.osmand.data.preparation;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+
+/**
+ * Longitude stripe of the input used by partitioned generation (see {@link IndexCreatorPartitioned}).
+ * Each entity is owned by exactly one partition: nodes by their own location, ways by the location of their first
+ * loaded node and relations by id. So objects crossing partition borders are always indexed once and independently
+ * of the processing order.
+ */
+public class IndexPartition {
+
+	// histogram resolution for splitting (1/10 of degree)
+	private static final int BUCKETS_PER_DEGREE = 10;
+	private static final int BUCKETS = 360 * BUCKETS_PER_DEGREE;
+
+	private final int index;
+	private final int count;
+	private final double lonLeft;
+	private final double lonRight;
+
+	public IndexPartition(int index, int count, double lonLeft, double lonRight) {
+		this.index = index;
+		this.count = count;
+		this.lonLeft = lonLeft;
+		this.lonRight = lonRight;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public double getLonLeft() {
+		return lonLeft;
+	}
+
+	public double getLonRight() {
+		return lonRight;
+	}
+
+	public boolean containsLongitude(double lon) {
+		if (lon < lonLeft) {
+			return index == 0;
+		}
+		if (lon >= lonRight) {
+			return index == count - 1;
+		}
+		return true;
+	}
+
+	public boolean isOwner(Entity e) {
+		if (e instanceof Node) {
+			return containsLongitude(((Node) e).getLongitude());
+		} else if (e instanceof Way) {
+			for (Node n : ((Way) e).getNodes()) {
+				if (n != null) {
+					return containsLongitude(n.getLongitude());
+				}
+			}
+			// way without loaded nodes goes to the first partition
+			return index == 0;
+		}
+		return (int) (Math.abs(e.getId()) % count) == index;
+	}
+
+	/**
+	 * Splits nodes db into stripes with approximately the same number of nodes
+	 */
+	public static List<IndexPartition> splitByNodeDensity(Connection dbConn, int partitions) throws SQLException {
+		long[] histogram = new long[BUCKETS];
+		long total = 0;
+		Statement stat = dbConn.createStatement();
+		ResultSet rs = stat.executeQuery("SELECT CAST((longitude + 180) * " + BUCKETS_PER_DEGREE
+				+ " AS INTEGER), count(*) FROM node GROUP BY 1"); //$NON-NLS-1$
+		while (rs.next()) {
+			int b = Math.max(0, Math.min(BUCKETS - 1, rs.getInt(1)));
+			histogram[b] += rs.getLong(2);
+			total += rs.getLong(2);
+		}
+		rs.close();
+		stat.close();
+
+		List<IndexPartition> result = new ArrayList<IndexPartition>();
+		double left = -180;
+		long acc = 0;
+		int bucket = 0;
+		for (int i = 0; i < partitions - 1; i++) {
+			long limit = total * (i + 1) / partitions;
+			while (bucket < BUCKETS && acc + histogram[bucket] <= limit) {
+				acc += histogram[bucket++];
+			}
+			double right = -180 + ((double) bucket) / BUCKETS_PER_DEGREE;
+			if (right <= left) {
+				// too dense bucket, skip empty partition
+				continue;
+			}
+			result.add(new IndexPartition(result.size(), partitions, left, right));
+			left = right;
+		}
+		result.add(new IndexPartition(result.size(), partitions, left, 180));
+		// fix count in case some partitions were skipped
+		List<IndexPartition> res = new ArrayList<IndexPartition>();
+		for (IndexPartition p : result) {
+			res.add(new IndexPartition(p.index, result.size(), p.lonLeft, p.lonRight));
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "Partition " + (index + 1) + "/" + count + " [" + lonLeft + ", " + lonRight + ")";
+	}
+}
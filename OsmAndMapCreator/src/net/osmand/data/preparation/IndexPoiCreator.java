@@ -1,6 +1,7 @@
 package net.osmand.data.preparation;
 
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.File;
@@ -16,16 +17,23 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.osmand.IProgress;
 import net.osmand.IndexConstants;
 import net.osmand.binary.BinaryMapPoiReaderAdapter;
+import net.osmand.binary.OsmandOdb.OsmAndPoiBoxDataAtom;
 import net.osmand.data.Amenity;
 import net.osmand.impl.ConsoleProgressImplementation;
 import net.osmand.osm.MapPoiTypes;
@@ -59,6 +67,7 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 	private static final int ZOOM_TO_WRITE_CATEGORIES_END = 16;
 	private static final int CHARACTERS_TO_BUILD = 4;
 	private boolean useInMemoryCreator = true;
+	private int writeThreads = Runtime.getRuntime().availableProcessors();
 	public static long GENERATE_OBJ_ID = -(1L << 10L);
 	public static boolean ZIP_LONG_STRINGS = false;
 	public static int ZIP_STRING_LIMIT = 100;
@@ -86,6 +95,13 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 		this.poiTypes = poiTypes;
 	}
 
+	/**
+	 * Threads to encode poi data blocks
+	 */
+	public void setWriteThreads(int writeThreads) {
+		this.writeThreads = Math.max(1, writeThreads);
+	}
+
 	private long assignIdForMultipolygon(Relation orig) {
 		long ll = orig.getId();
 		return genId(SHIFT_MULTIPOLYGON_IDS, (ll << 6) );
@@ -104,7 +120,11 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 		tempAmenityList.clear();
 		tagsTransform.addPropogatedTags(e);
 		Map<String, String> tags = e.getTags();
-		Map<String, String> etags = renderingTypes.transformTags(tags, EntityType.valueOf(e), EntityConvertApplyType.POI);
+		Map<String, String> etags;
+		// encoder is shared with basemap processor which encodes entities in its own threads
+		synchronized (renderingTypes) {
+			etags = renderingTypes.transformTags(tags, EntityType.valueOf(e), EntityConvertApplyType.POI);
+		}
 		boolean privateReg = "private".equals(e.getTag("access"));
 		tempAmenityList = EntityParser.parseAmenities(poiTypes, e, etags, tempAmenityList);
 		if (!tempAmenityList.isEmpty() && poiPreparedStatement != null) {
@@ -163,7 +183,10 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 
 	public void iterateRelation(Relation e, OsmDbAccessorContext ctx) throws SQLException {
 
-		Map<String, String> tags = renderingTypes.transformTags(e.getTags(), EntityType.RELATION, EntityConvertApplyType.POI);
+		Map<String, String> tags;
+		synchronized (renderingTypes) {
+			tags = renderingTypes.transformTags(e.getTags(), EntityType.RELATION, EntityConvertApplyType.POI);
+		}
 		for (String t : tags.keySet()) {
 			boolean index = poiTypes.parseAmenity(t, tags.get(t), true, tags) != null;
 			if (index) {
@@ -190,6 +213,10 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 		}
 	}
 
+	Connection getPoiConnection() {
+		return poiConnection;
+	}
+
 	public void removePoiFile() {
 		Algorithms.removeAllFiles(poiIndexFile);
 	}
@@ -197,15 +224,30 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 
 	public void insertAmenityIntoPoi(Amenity amenity) throws SQLException {
 		assert IndexConstants.POI_TABLE != null : "use constants here to show table usage "; //$NON-NLS-1$
+		int x = MapUtils.get31TileNumberX(amenity.getLocation().getLongitude());
+		int y = MapUtils.get31TileNumberY(amenity.getLocation().getLatitude());
 		poiPreparedStatement.setLong(1, amenity.getId());
-		poiPreparedStatement.setInt(2, MapUtils.get31TileNumberX(amenity.getLocation().getLongitude()));
-		poiPreparedStatement.setInt(3, MapUtils.get31TileNumberY(amenity.getLocation().getLatitude()));
+		poiPreparedStatement.setInt(2, x);
+		poiPreparedStatement.setInt(3, y);
 		poiPreparedStatement.setString(4, amenity.getType().getKeyName());
 		poiPreparedStatement.setString(5, amenity.getSubType());
 		poiPreparedStatement.setString(6, encodeAdditionalInfo(amenity, amenity.getAdditionalInfo(), amenity.getName(), amenity.getEnName(false)));
+		poiPreparedStatement.setLong(7, getTileKey(x >> (31 - ZOOM_TO_SAVE_END), y >> (31 - ZOOM_TO_SAVE_END)));
 		addBatch(poiPreparedStatement);
 	}
 
+	/**
+	 * Morton code of the tile on {@link #ZOOM_TO_SAVE_END}: tiles of every smaller zoom are contiguous in key order,
+	 * so poi table scanned by key visits tree of boxes depth first.
+	 */
+	static long getTileKey(int tileX, int tileY) {
+		long key = 0;
+		for (int i = ZOOM_TO_SAVE_END - 1; i >= 0; i--) {
+			key = (key << 2) | (((tileY >> i) & 1) << 1) | ((tileX >> i) & 1);
+		}
+		return key;
+	}
+
 	private PoiAdditionalType getOrCreate(String tag, String value, boolean text) {
 		String ks = PoiAdditionalType.getKey(tag, value, text);
 		if (additionalTypesByTag.containsKey(ks)) {
@@ -252,7 +294,7 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 	}
 
 
-	private Map<PoiAdditionalType, String> decodeAdditionalInfo(String name,
+	Map<PoiAdditionalType, String> decodeAdditionalInfo(String name,
 			Map<PoiAdditionalType, String> tempNames) {
 		tempNames.clear();
 		if (name.length() == 0) {
@@ -292,19 +334,19 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 		Statement stat = poiConnection.createStatement();
 		stat.executeUpdate("create table " + IndexConstants.POI_TABLE + //$NON-NLS-1$
 				" (id bigint, x int, y int,"
-				+ "type varchar(1024), subtype varchar(1024), additionalTags varchar(8096), "
+				+ "type varchar(1024), subtype varchar(1024), additionalTags varchar(8096), tile bigint, "
 				+ "primary key(id, type, subtype))");
-		stat.executeUpdate("create index poi_loc on poi (x, y, type, subtype)");
+		stat.executeUpdate("create index poi_tile on poi (tile)");
 		stat.executeUpdate("create index poi_id on poi (id, type, subtype)");
 		stat.execute("PRAGMA user_version = " + IndexConstants.POI_TABLE_VERSION); //$NON-NLS-1$
 		stat.close();
 
 		// create prepared statment
 		poiPreparedStatement = poiConnection
-				.prepareStatement("INSERT INTO " + IndexConstants.POI_TABLE + "(id, x, y, type, subtype, additionalTags) " + //$NON-NLS-1$//$NON-NLS-2$
-						"VALUES (?, ?, ?, ?, ?, ?)");
+				.prepareStatement("INSERT INTO " + IndexConstants.POI_TABLE + "(id, x, y, type, subtype, additionalTags, tile) " + //$NON-NLS-1$//$NON-NLS-2$
+						"VALUES (?, ?, ?, ?, ?, ?, ?)");
 		poiDeleteStatement = poiConnection.prepareStatement("DELETE FROM " + IndexConstants.POI_TABLE + " where id = ?");
-		pStatements.put(poiPreparedStatement, 0);
+		registerStatement(poiPreparedStatement, IndexConstants.POI_TABLE);
 
 		poiConnection.setAutoCommit(false);
 	}
@@ -368,6 +410,13 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 			return types;
 		}
 
+		/**
+		 * Thread safe version of {@link #buildTypeIds(String, String)} once indexes are built
+		 */
+		public void buildTypeIds(String category, String subcategory, TIntArrayList types) {
+			internalBuildType(category, subcategory, types);
+		}
+
 		private void internalBuildType(String category, String subcategory, TIntArrayList types) {
 			int catInd = catIndexes.get(category);
 			if (toSplit(subcategory)) {
@@ -430,8 +479,9 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 		int zoomToStart = ZOOM_TO_SAVE_START;
 		IntBbox bbox = new IntBbox();
 		Tree<PoiTileBox> rootZoomsTree = new Tree<PoiTileBox>();
+		List<PoiTileBox> leafs = new ArrayList<PoiTileBox>();
 		// 0. process all entities
-		processPOIIntoTree(namesIndex, zoomToStart, bbox, rootZoomsTree);
+		processPOIIntoTree(namesIndex, zoomToStart, bbox, rootZoomsTree, leafs);
 
 		// 1. write header
 		long startFpPoiIndex = writer.startWritePoiIndex(regionName, bbox.minX, bbox.maxX, bbox.maxY, bbox.minY);
@@ -464,56 +514,8 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 			writePoiBoxes(writer, subs, startFpPoiIndex, fpToWriteSeeks, globalCategories);
 		}
 
-		// 4. write poi data
-		// not so effective probably better to load in memory one time
-		PreparedStatement prepareStatement = poiConnection
-				.prepareStatement("SELECT id, x, y, type, subtype, additionalTags from poi "
-						+ "where x >= ? AND x < ? AND y >= ? AND y < ?");
-		for (Map.Entry<PoiTileBox, List<BinaryFileReference>> entry : fpToWriteSeeks.entrySet()) {
-			int z = entry.getKey().zoom;
-			int x = entry.getKey().x;
-			int y = entry.getKey().y;
-			writer.startWritePoiData(z, x, y, entry.getValue());
-
-			if (useInMemoryCreator) {
-				List<PoiData> poiData = entry.getKey().poiData;
-
-				for (PoiData poi : poiData) {
-					int x31 = poi.x;
-					int y31 = poi.y;
-					String type = poi.type;
-					String subtype = poi.subtype;
-					int x24shift = (x31 >> 7) - (x << (24 - z));
-					int y24shift = (y31 >> 7) - (y << (24 - z));
-					writer.writePoiDataAtom(poi.id, x24shift, y24shift, type, subtype, poi.additionalTags,
-							globalCategories, ZIP_LONG_STRINGS ? ZIP_STRING_LIMIT : -1);
-				}
-
-			} else {
-				prepareStatement.setInt(1, x << (31 - z));
-				prepareStatement.setInt(2, (x + 1) << (31 - z));
-				prepareStatement.setInt(3, y << (31 - z));
-				prepareStatement.setInt(4, (y + 1) << (31 - z));
-				ResultSet rset = prepareStatement.executeQuery();
-				Map<PoiAdditionalType, String> mp = new HashMap<PoiAdditionalType, String>();
-				while (rset.next()) {
-					long id = rset.getLong(1);
-					int x31 = rset.getInt(2);
-					int y31 = rset.getInt(3);
-					int x24shift = (x31 >> 7) - (x << (24 - z));
-					int y24shift = (y31 >> 7) - (y << (24 - z));
-					String type = rset.getString(4);
-					String subtype = rset.getString(5);
-					writer.writePoiDataAtom(id, x24shift, y24shift, type, subtype,
-							decodeAdditionalInfo(rset.getString(6), mp), globalCategories,
-							ZIP_LONG_STRINGS ? ZIP_STRING_LIMIT : -1);
-				}
-				rset.close();
-			}
-			writer.endWritePoiData();
-		}
-
-		prepareStatement.close();
+		// 4. write poi data in order of tile key
+		writePoiDataBlocks(writer, leafs, fpToWriteSeeks, globalCategories);
 
 		writer.endWritePoiIndex();
 
@@ -528,15 +530,137 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 		return null;
 	}
 
+	/**
+	 * Writes data blocks of leaf boxes in order of tile key (tests compare it with the previous writer).
+	 */
+	void writePoiDataBlocks(BinaryMapIndexWriter writer, List<PoiTileBox> leafs,
+			Map<PoiTileBox, List<BinaryFileReference>> fpToWriteSeeks, PoiCreatorCategories globalCategories)
+			throws SQLException, IOException {
+		int limitZip = ZIP_LONG_STRINGS ? ZIP_STRING_LIMIT : -1;
+		ExecutorService encoder = Executors.newFixedThreadPool(writeThreads);
+		LinkedList<PoiBlockTask> queue = new LinkedList<PoiBlockTask>();
+		try {
+			if (useInMemoryCreator) {
+				for (PoiTileBox box : leafs) {
+					submitPoiBlock(writer, encoder, queue, new PoiBlockTask(box, box.poiData, globalCategories, limitZip),
+							fpToWriteSeeks);
+					box.poiData = null;
+				}
+			} else {
+				// one cursor pass, rows of a leaf box are contiguous and boxes come in the same order as leafs
+				Statement stat = poiConnection.createStatement();
+				ResultSet rs = stat.executeQuery("SELECT x,y,type,subtype,additionalTags,id,tile from poi ORDER BY tile");
+				PoiTileData data = null;
+				long tile = -1;
+				int leaf = -1;
+				while (rs.next()) {
+					long key = rs.getLong(7);
+					if (data == null || key != tile) {
+						if (data != null) {
+							submitPoiBlock(writer, encoder, queue, new PoiBlockTask(leafs.get(leaf), data, globalCategories,
+									limitZip), fpToWriteSeeks);
+						}
+						leaf++;
+						tile = key;
+						data = new PoiTileData();
+						PoiTileBox box = leafs.get(leaf);
+						if (getTileKey(box.x, box.y) != tile) {
+							throw new IllegalStateException("Poi table is changed while writing " + box.x + " " + box.y);
+						}
+					}
+					data.add(rs.getLong(6), rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4), rs.getString(5));
+				}
+				if (data != null) {
+					submitPoiBlock(writer, encoder, queue, new PoiBlockTask(leafs.get(leaf), data, globalCategories, limitZip),
+							fpToWriteSeeks);
+				}
+				rs.close();
+				stat.close();
+			}
+			while (!queue.isEmpty()) {
+				writePoiBlock(writer, queue.poll(), fpToWriteSeeks);
+			}
+		} finally {
+			encoder.shutdownNow();
+		}
+	}
+
+	private void submitPoiBlock(BinaryMapIndexWriter writer, ExecutorService encoder, LinkedList<PoiBlockTask> queue,
+			PoiBlockTask task, Map<PoiTileBox, List<BinaryFileReference>> fpToWriteSeeks) throws IOException {
+		task.result = encoder.submit(task);
+		queue.add(task);
+		// keep limited number of encoded blocks in memory
+		while (queue.size() > writeThreads * 4) {
+			writePoiBlock(writer, queue.poll(), fpToWriteSeeks);
+		}
+	}
+
+	private void writePoiBlock(BinaryMapIndexWriter writer, PoiBlockTask task,
+			Map<PoiTileBox, List<BinaryFileReference>> fpToWriteSeeks) throws IOException {
+		List<OsmAndPoiBoxDataAtom> atoms;
+		try {
+			atoms = task.result.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		PoiTileBox box = task.box;
+		writer.startWritePoiData(box.zoom, box.x, box.y, fpToWriteSeeks.get(box));
+		for (OsmAndPoiBoxDataAtom atom : atoms) {
+			writer.writePoiDataAtom(atom);
+		}
+		writer.endWritePoiData();
+	}
+
+	private class PoiBlockTask implements Callable<List<OsmAndPoiBoxDataAtom>> {
+		private final PoiTileBox box;
+		private final PoiTileData data;
+		private final PoiCreatorCategories globalCategories;
+		private final int limitZip;
+		private Future<List<OsmAndPoiBoxDataAtom>> result;
+
+		public PoiBlockTask(PoiTileBox box, PoiTileData data, PoiCreatorCategories globalCategories, int limitZip) {
+			this.box = box;
+			this.data = data;
+			this.globalCategories = globalCategories;
+			this.limitZip = limitZip;
+		}
+
+		@Override
+		public List<OsmAndPoiBoxDataAtom> call() throws IOException {
+			List<OsmAndPoiBoxDataAtom> atoms = new ArrayList<OsmAndPoiBoxDataAtom>(data.ids.size());
+			Map<PoiAdditionalType, String> additionalTags = new LinkedHashMap<PoiAdditionalType, String>();
+			TIntArrayList types = new TIntArrayList();
+			for (int i = 0; i < data.ids.size(); i++) {
+				int x24shift = (data.x.get(i) >> 7) - (box.x << (24 - box.zoom));
+				int y24shift = (data.y.get(i) >> 7) - (box.y << (24 - box.zoom));
+				types.clear();
+				globalCategories.buildTypeIds(data.types.get(i), data.subtypes.get(i), types);
+				decodeAdditionalInfo(data.additionalTags.get(i), additionalTags);
+				atoms.add(BinaryMapIndexWriter.buildPoiDataAtom(data.ids.get(i), x24shift, y24shift, types,
+						additionalTags, limitZip));
+			}
+			return atoms;
+		}
+	}
+
 	private void processPOIIntoTree(Map<String, Set<PoiTileBox>> namesIndex, int zoomToStart, IntBbox bbox,
-			Tree<PoiTileBox> rootZoomsTree) throws SQLException {
+			Tree<PoiTileBox> rootZoomsTree, List<PoiTileBox> leafs) throws SQLException {
 		ResultSet rs;
+		// ordered by tile key, so new box could only be a continuation of the last subtree
 		if (useInMemoryCreator) {
-			rs = poiConnection.createStatement().executeQuery("SELECT x,y,type,subtype,id,additionalTags from poi");
+			rs = poiConnection.createStatement().executeQuery(
+					"SELECT x,y,type,subtype,additionalTags,id from poi ORDER BY tile");
 		} else {
-			rs = poiConnection.createStatement().executeQuery("SELECT x,y,type,subtype from poi");
+			rs = poiConnection.createStatement().executeQuery(
+					"SELECT x,y,type,subtype,additionalTags from poi ORDER BY tile");
 		}
 		rootZoomsTree.setNode(new PoiTileBox());
+		Map<String, String> types = new HashMap<String, String>();
 
 		int count = 0;
 		ConsoleProgressImplementation console = new ConsoleProgressImplementation();
@@ -556,9 +680,10 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 				console.progress(10000);
 			}
 
-			String type = rs.getString(3);
-			String subtype = rs.getString(4);
-			decodeAdditionalInfo(rs.getString(6), additionalTags);
+			String type = intern(types, rs.getString(3));
+			String subtype = intern(types, rs.getString(4));
+			String encodedTags = rs.getString(5);
+			decodeAdditionalInfo(encodedTags, additionalTags);
 
 			Tree<PoiTileBox> prevTree = rootZoomsTree;
 			rootZoomsTree.getNode().categories.addCategory(type, subtype, additionalTags);
@@ -566,10 +691,11 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 				int xs = x >> (31 - i);
 				int ys = y >> (31 - i);
 				Tree<PoiTileBox> subtree = null;
-				for (Tree<PoiTileBox> sub : prevTree.getSubtrees()) {
+				List<Tree<PoiTileBox>> subtrees = prevTree.getSubtrees();
+				if (!subtrees.isEmpty()) {
+					Tree<PoiTileBox> sub = subtrees.get(subtrees.size() - 1);
 					if (sub.getNode().x == xs && sub.getNode().y == ys && sub.getNode().zoom == i) {
 						subtree = sub;
-						break;
 					}
 				}
 				if (subtree == null) {
@@ -581,6 +707,9 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 					poiBox.zoom = i;
 
 					prevTree.addSubTree(subtree);
+					if (i == ZOOM_TO_SAVE_END) {
+						leafs.add(poiBox);
+					}
 				}
 				subtree.getNode().categories.addCategory(type, subtype, additionalTags);
 
@@ -603,22 +732,24 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 
 			if (useInMemoryCreator) {
 				if (prevTree.getNode().poiData == null) {
-					prevTree.getNode().poiData = new ArrayList<PoiData>();
+					prevTree.getNode().poiData = new PoiTileData();
 				}
-				PoiData poiData = new PoiData();
-				poiData.x = x;
-				poiData.y = y;
-				poiData.type = type;
-				poiData.subtype = subtype;
-				poiData.id = rs.getLong(5);
-				poiData.additionalTags.putAll(additionalTags);
-				prevTree.getNode().poiData.add(poiData);
-
+				prevTree.getNode().poiData.add(rs.getLong(6), x, y, type, subtype, encodedTags);
 			}
 		}
+		rs.close();
 		log.info("Poi processing finished");
 	}
 
+	private static String intern(Map<String, String> strings, String s) {
+		String r = strings.get(s);
+		if (r == null) {
+			strings.put(s, s);
+			r = s;
+		}
+		return r;
+	}
+
 	private void addNamePrefix(String name, String nameEn, PoiTileBox data, Map<String, Set<PoiTileBox>> poiData,
 			Set<String> names) {
 		if (name != null) {
@@ -694,13 +825,25 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 		writer.endWritePoiBox();
 	}
 
-	private static class PoiData {
-		int x;
-		int y;
-		String type;
-		String subtype;
-		long id;
-		Map<PoiAdditionalType, String> additionalTags = new HashMap<PoiAdditionalType, String>();
+	/**
+	 * Pois of one box kept in parallel arrays, additional tags stay encoded until block is written
+	 */
+	private static class PoiTileData {
+		TLongArrayList ids = new TLongArrayList();
+		TIntArrayList x = new TIntArrayList();
+		TIntArrayList y = new TIntArrayList();
+		List<String> types = new ArrayList<String>();
+		List<String> subtypes = new ArrayList<String>();
+		List<String> additionalTags = new ArrayList<String>();
+
+		public void add(long id, int x31, int y31, String type, String subtype, String encodedTags) {
+			ids.add(id);
+			x.add(x31);
+			y.add(y31);
+			types.add(type);
+			subtypes.add(subtype);
+			additionalTags.add(encodedTags);
+		}
 	}
 
 	public static class PoiTileBox {
@@ -708,7 +851,7 @@ public class IndexPoiCreator extends AbstractIndexPartCreator {
 		int y;
 		int zoom;
 		PoiCreatorCategories categories = new PoiCreatorCategories();
-		List<PoiData> poiData = null;
+		PoiTileData poiData = null;
 
 		public int getX() {
 			return x;
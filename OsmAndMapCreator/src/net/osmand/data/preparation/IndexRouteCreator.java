@@ -478,7 +478,7 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 		} catch (RTreeException e) {
 			throw new IOException(e);
 		}
-		pStatements.put(mapRouteInsertStat, 0);
+		registerStatement(mapRouteInsertStat, TABLE_ROUTE);
 		if (generateLowLevel) {
 			basemapRouteInsertStat = createStatementRouteObjInsert(mapConnection, true);
 			try {
@@ -486,7 +486,7 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 			} catch (RTreeException e) {
 				throw new IOException(e);
 			}
-			pStatements.put(basemapRouteInsertStat, 0);
+			registerStatement(basemapRouteInsertStat, TABLE_BASEROUTE);
 		}
 	}
 
@@ -509,8 +509,7 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 	private void deleteRouteTreeFiles(String rTreeMapIndexNonPackFileName, String rTreeMapIndexPackFileName, boolean deleteDatabaseIndexes,
 			RTree rte) throws IOException {
 		if (rte != null) {
-			RandomAccessFile file = rte.getFileHdr().getFile();
-			file.close();
+			rte.close();
 		}
 		if (rTreeMapIndexNonPackFileName != null) {
 			File f = new File(rTreeMapIndexNonPackFileName);
@@ -612,7 +611,7 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 
 				// use file to recalulate tree
 				raf.seek(0);
-				appendMissingRoadsForBaseMap(mapConnection, new BinaryMapIndexReader(raf, fl));
+				appendMissingRoadsForBaseMap(mapConnection, new BinaryMapIndexReader(raf, fl), fl);
 				// repack
 				fname = baserouteTree.getFileName();
 				baserouteTree = packRtreeFile(baserouteTree, fname, fname + "p");
@@ -648,8 +647,10 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 		return base;
 	}
 
-	private void appendMissingRoadsForBaseMap(Connection conn, BinaryMapIndexReader reader) throws IOException, SQLException {
-		TLongObjectHashMap<RouteDataObject> map = new CheckRoadConnectivity().collectDisconnectedRoads(reader);
+	private void appendMissingRoadsForBaseMap(Connection conn, BinaryMapIndexReader reader, File fl) throws IOException, SQLException {
+		CheckRoadConnectivity crc = new CheckRoadConnectivity();
+		crc.setThreads(Runtime.getRuntime().availableProcessors());
+		TLongObjectHashMap<RouteDataObject> map = crc.collectDisconnectedRoads(reader, fl);
 		// to add
 		PreparedStatement ps = conn.prepareStatement(COPY_BASE);
 		for(RouteDataObject rdo : map.valueCollection()) {
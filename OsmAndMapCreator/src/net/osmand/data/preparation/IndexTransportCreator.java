@@ -1,5 +1,11 @@
 package net.osmand.data.preparation;
 
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -88,57 +94,10 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 		transportStopsTree = new RTree(rtreeTransportStopFile);
 	}
 
-	public void writeBinaryTransportTree(rtree.Node parent, RTree r, BinaryMapIndexWriter writer,
-			PreparedStatement selectTransportStop, PreparedStatement selectTransportRouteStop,
-			Map<Long, Long> transportRoutes, Map<String, Integer> stringTable) throws IOException, RTreeException, SQLException {
-		Element[] e = parent.getAllElements();
-		List<Long> routes = null;
-		for (int i = 0; i < parent.getTotalElements(); i++) {
-			Rect re = e[i].getRect();
-			if (e[i].getElementType() == rtree.Node.LEAF_NODE) {
-				long id = e[i].getPtr();
-				selectTransportStop.setLong(1, id);
-				selectTransportRouteStop.setLong(1, id);
-				ResultSet rs = selectTransportStop.executeQuery();
-				if (rs.next()) {
-					int x24 = (int) MapUtils.getTileNumberX(24, rs.getDouble(3));
-					int y24 = (int) MapUtils.getTileNumberY(24, rs.getDouble(2));
-					String name = rs.getString(4);
-					String nameEn = rs.getString(5);
-					if (nameEn != null && nameEn.equals(Junidecode.unidecode(name))) {
-						nameEn = null;
-					}
-					ResultSet rset = selectTransportRouteStop.executeQuery();
-					if (routes == null) {
-						routes = new ArrayList<Long>();
-					} else {
-						routes.clear();
-					}
-					while (rset.next()) {
-						Long route = transportRoutes.get(rset.getLong(1));
-						if (route == null) {
-							log.error("Something goes wrong with transport route id = " + rset.getLong(1)); //$NON-NLS-1$
-						} else {
-							routes.add(route);
-						}
-					}
-					rset.close();
-					writer.writeTransportStop(id, x24, y24, name, nameEn, stringTable, routes);
-				} else {
-					log.error("Something goes wrong with transport id = " + id); //$NON-NLS-1$
-				}
-			} else {
-				long ptr = e[i].getPtr();
-				rtree.Node ns = r.getReadNode(ptr);
-
-				writer.startTransportTreeElement(re.getMinX(), re.getMaxX(), re.getMinY(), re.getMaxY());
-				writeBinaryTransportTree(ns, r, writer, selectTransportStop, selectTransportRouteStop, transportRoutes, stringTable);
-				writer.endWriteTransportTreeElement();
-			}
-		}
+	RTree getTransportStopsTree() {
+		return transportStopsTree;
 	}
 
-
 	public void packRTree(String rtreeTransportStopsFileName, String rtreeTransportStopsPackFileName) throws IOException {
 		transportStopsTree = packRtreeFile(transportStopsTree, rtreeTransportStopsFileName, rtreeTransportStopsPackFileName);
 	}
@@ -219,14 +178,14 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 		transRouteStopsStat = conn.prepareStatement("insert into transport_route_stop(route, stop, ord) values(?, ?, ?)");
 		transStopsStat = conn.prepareStatement("insert into transport_stop(id, latitude, longitude, name, name_en) values(?, ?, ?, ?, ?)");
 		transRouteGeometryStat = conn.prepareStatement("insert into transport_route_geometry(route, geometry) values(?, ?)");
-		pStatements.put(transRouteStat, 0);
-		pStatements.put(transRouteStopsStat, 0);
-		pStatements.put(transStopsStat, 0);
-		pStatements.put(transRouteGeometryStat, 0);
+		registerStatement(transRouteStat, "transport_route");
+		registerStatement(transRouteStopsStat, "transport_route_stop");
+		registerStatement(transStopsStat, "transport_stop");
+		registerStatement(transRouteGeometryStat, "transport_route_geometry");
 	}
 
 
-	private void insertTransportIntoIndex(TransportRoute route) throws SQLException {
+	void insertTransportIntoIndex(TransportRoute route) throws SQLException {
 		transRouteStat.setLong(1, route.getId());
 		transRouteStat.setString(2, route.getType());
 		transRouteStat.setString(3, route.getOperator());
@@ -298,21 +257,26 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 
 
 
+	void finishTransportDatabase(Connection mapConnection) throws SQLException, RTreeException {
+		closePreparedStatements(transRouteStat, transRouteStopsStat, transStopsStat, transRouteGeometryStat);
+		transRouteStat = transRouteStopsStat = transStopsStat = transRouteGeometryStat = null;
+		mapConnection.commit();
+		transportStopsTree.flush();
+		visitedStops = null; // allow gc to collect it
+	}
+
+	/**
+	 * Stops are read by one ordered scan, stops of routes and routes of stops are prepared in arrays
+	 * from ordered scans of transport_route_stop, geometries are merged with routes while they are written.
+	 */
 	public void writeBinaryTransportIndex(BinaryMapIndexWriter writer, String regionName,
 			Connection mapConnection) throws IOException, SQLException {
 		try {
-			closePreparedStatements(transRouteStat, transRouteStopsStat, transStopsStat, transRouteGeometryStat);
-			mapConnection.commit();
-			transportStopsTree.flush();
-
-			visitedStops = null; // allow gc to collect it
-			PreparedStatement selectTransportRouteData = mapConnection.prepareStatement(
-					"SELECT id, dist, name, name_en, ref, operator, type, color FROM transport_route"); //$NON-NLS-1$
-			PreparedStatement selectTransportData = mapConnection.prepareStatement("SELECT S.stop, " + //$NON-NLS-1$
-					"  A.latitude,  A.longitude, A.name, A.name_en " + //$NON-NLS-1$
-					"FROM transport_route_stop S INNER JOIN transport_stop A ON A.id = S.stop WHERE S.route = ? ORDER BY S.ord asc"); //$NON-NLS-1$
-			PreparedStatement selectTransportRouteGeometry = mapConnection.prepareStatement("SELECT S.geometry " + 
-					"FROM transport_route_geometry S WHERE S.route = ?"); //$NON-NLS-1$
+			finishTransportDatabase(mapConnection);
+			TransportIndexData data = new TransportIndexData();
+			data.loadStops(mapConnection);
+			data.loadRoutes(mapConnection);
+			data.loadRouteStops(mapConnection);
 
 			writer.startWriteTransportIndex(regionName);
 
@@ -321,74 +285,79 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 			// expect that memory would be enough
 			Map<String, Integer> stringTable = createStringTableForTransport();
 			Map<Long, Long> transportRoutes = new LinkedHashMap<Long, Long>();
-
-			ResultSet rs = selectTransportRouteData.executeQuery();
+			// geometries ordered by route could be merged only if routes are read in the same order
+			boolean mergeGeometry = data.routesSorted();
+			PreparedStatement selectTransportRouteGeometry;
+			ResultSet geometry;
+			if (mergeGeometry) {
+				selectTransportRouteGeometry = mapConnection.prepareStatement("SELECT S.route, S.geometry "
+						+ "FROM transport_route_geometry S ORDER BY S.route"); //$NON-NLS-1$
+				geometry = selectTransportRouteGeometry.executeQuery();
+				if (!geometry.next()) {
+					geometry.close();
+					geometry = null;
+				}
+			} else {
+				log.info("Transport routes are not ordered by id, geometry is selected per route"); //$NON-NLS-1$
+				selectTransportRouteGeometry = mapConnection.prepareStatement("SELECT S.geometry "
+						+ "FROM transport_route_geometry S WHERE S.route = ?"); //$NON-NLS-1$
+				geometry = null;
+			}
 			List<TransportStop> directStops = new ArrayList<>();
-			List<TransportStop> reverseStops = new ArrayList<>();
 			List<byte[]> directGeometry = new ArrayList<>();
-			while (rs.next()) {
-				long idRoute = rs.getLong(1);
-				int dist = rs.getInt(2);
-				String routeName = rs.getString(3);
-				String routeEnName = rs.getString(4);
+			for (int r = 0; r < data.routeIds.size(); r++) {
+				long idRoute = data.routeIds.get(r);
+				String routeName = data.routeNames.get(r);
+				String routeEnName = data.routeEnNames.get(r);
 				if (routeEnName != null && routeEnName.equals(Junidecode.unidecode(routeName))) {
 					routeEnName = null;
 				}
-				String ref = rs.getString(5);
-				String operator = rs.getString(6);
-				String type = rs.getString(7);
-				String color = rs.getString(8);
-
-				selectTransportData.setLong(1, idRoute);
-				ResultSet rset = selectTransportData.executeQuery();
-				reverseStops.clear();
 				directStops.clear();
 				directGeometry.clear();
-				while (rset.next()) {
-					long idStop = rset.getInt(1);
-					String stopName = rset.getString(4);
-					String stopEnName = rset.getString(5);
-					if (stopEnName != null && stopEnName.equals(Junidecode.unidecode(stopName))) {
-						stopEnName = null;
+				int rs = data.routeStopsIds.binarySearch(idRoute);
+				if (rs >= 0) {
+					for (int k = data.routeStopsStart.get(rs); k < data.routeStopsStart.get(rs + 1); k++) {
+						directStops.add(data.createStop(data.routeStops.get(k)));
 					}
-					TransportStop st = new TransportStop();
-					st.setId(idStop);
-					st.setName(stopName);
-					st.setLocation(rset.getDouble(2), rset.getDouble(3));
-					if (stopEnName != null) {
-						st.setEnName(stopEnName);
-					}
-					directStops.add(st);
 				}
-				selectTransportRouteGeometry.setLong(1, idRoute);
-				rset = selectTransportRouteGeometry.executeQuery();
-				while (rset.next()) {
-					byte[] bytes = rset.getBytes(1);
-					directGeometry.add(bytes);
+				if (mergeGeometry) {
+					while (geometry != null && geometry.getLong(1) <= idRoute) {
+						if (geometry.getLong(1) == idRoute) {
+							directGeometry.add(geometry.getBytes(2));
+						}
+						if (!geometry.next()) {
+							geometry.close();
+							geometry = null;
+						}
+					}
+				} else {
+					selectTransportRouteGeometry.setLong(1, idRoute);
+					ResultSet rset = selectTransportRouteGeometry.executeQuery();
+					while (rset.next()) {
+						directGeometry.add(rset.getBytes(1));
+					}
+					rset.close();
 				}
-				writer.writeTransportRoute(idRoute, routeName, routeEnName, ref, operator, type, dist, color, directStops, 
-						directGeometry, stringTable, transportRoutes);
+				writer.writeTransportRoute(idRoute, routeName, routeEnName, data.routeRefs.get(r),
+						data.routeOperators.get(r), data.routeTypes.get(r), data.routeDists.get(r),
+						data.routeColors.get(r), directStops, directGeometry, stringTable, transportRoutes);
 			}
-			rs.close();
-			selectTransportRouteData.close();
-			selectTransportData.close();
+			if (geometry != null) {
+				geometry.close();
+			}
+			selectTransportRouteGeometry.close();
 			writer.endWriteTransportRoutes();
 
-			PreparedStatement selectTransportStop = mapConnection.prepareStatement(
-					"SELECT A.id,  A.latitude,  A.longitude, A.name, A.name_en FROM transport_stop A where A.id = ?"); //$NON-NLS-1$
-			PreparedStatement selectTransportRouteStop = mapConnection.prepareStatement(
-					"SELECT DISTINCT S.route FROM transport_route_stop S join transport_route R  on R.id = S.route WHERE S.stop = ? ORDER BY R.type, R.ref "); //$NON-NLS-1$
+			data.loadStopRoutes(mapConnection);
 			long rootIndex = transportStopsTree.getFileHdr().getRootIndex();
 			rtree.Node root = transportStopsTree.getReadNode(rootIndex);
 			Rect rootBounds = calcBounds(root);
 			if (rootBounds != null) {
 				writer.startTransportTreeElement(rootBounds.getMinX(), rootBounds.getMaxX(), rootBounds.getMinY(), rootBounds.getMaxY());
-				writeBinaryTransportTree(root, transportStopsTree, writer, selectTransportStop, selectTransportRouteStop,
-						transportRoutes, stringTable);
+				writeBinaryTransportTree(root, transportStopsTree, writer, data, transportRoutes, stringTable,
+						new ArrayList<Long>());
 				writer.endWriteTransportTreeElement();
 			}
-			selectTransportStop.close();
-			selectTransportRouteStop.close();
 
 			writer.writeTransportStringTable(stringTable);
 
@@ -399,7 +368,229 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 		}
 	}
 
-	private Rect calcBounds(rtree.Node n) {
+	private void writeBinaryTransportTree(rtree.Node parent, RTree r, BinaryMapIndexWriter writer, TransportIndexData data,
+			Map<Long, Long> transportRoutes, Map<String, Integer> stringTable, List<Long> routes) throws IOException, RTreeException {
+		Element[] e = parent.getAllElements();
+		for (int i = 0; i < parent.getTotalElements(); i++) {
+			Rect re = e[i].getRect();
+			if (e[i].getElementType() == rtree.Node.LEAF_NODE) {
+				long id = e[i].getPtr();
+				int ind = data.stopIds.binarySearch(id);
+				if (ind >= 0) {
+					int x24 = (int) MapUtils.getTileNumberX(24, data.stopLons.get(ind));
+					int y24 = (int) MapUtils.getTileNumberY(24, data.stopLats.get(ind));
+					String name = data.stopNames.get(ind);
+					String nameEn = data.stopEnNames.get(ind);
+					if (nameEn != null && nameEn.equals(Junidecode.unidecode(name))) {
+						nameEn = null;
+					}
+					routes.clear();
+					for (int k = data.stopRoutesStart[ind]; k < data.stopRoutesStart[ind + 1]; k++) {
+						long routeId = data.routeIds.get(data.stopRoutes[k]);
+						Long route = transportRoutes.get(routeId);
+						if (route == null) {
+							log.error("Something goes wrong with transport route id = " + routeId); //$NON-NLS-1$
+						} else {
+							routes.add(route);
+						}
+					}
+					writer.writeTransportStop(id, x24, y24, name, nameEn, stringTable, routes);
+				} else {
+					log.error("Something goes wrong with transport id = " + id); //$NON-NLS-1$
+				}
+			} else {
+				long ptr = e[i].getPtr();
+				rtree.Node ns = r.getReadNode(ptr);
+
+				writer.startTransportTreeElement(re.getMinX(), re.getMaxX(), re.getMinY(), re.getMaxY());
+				writeBinaryTransportTree(ns, r, writer, data, transportRoutes, stringTable, routes);
+				writer.endWriteTransportTreeElement();
+			}
+		}
+	}
+
+	/**
+	 * Content of transport tables needed to write index: stops sorted by id, routes in table order,
+	 * stops of routes (sorted by route id) and routes of stops (indexes of routes in order of type, ref).
+	 */
+	private static class TransportIndexData {
+		final TLongArrayList stopIds = new TLongArrayList();
+		final TDoubleArrayList stopLats = new TDoubleArrayList();
+		final TDoubleArrayList stopLons = new TDoubleArrayList();
+		final List<String> stopNames = new ArrayList<String>();
+		final List<String> stopEnNames = new ArrayList<String>();
+
+		final TLongArrayList routeIds = new TLongArrayList();
+		final TIntArrayList routeDists = new TIntArrayList();
+		final List<String> routeNames = new ArrayList<String>();
+		final List<String> routeEnNames = new ArrayList<String>();
+		final List<String> routeRefs = new ArrayList<String>();
+		final List<String> routeOperators = new ArrayList<String>();
+		final List<String> routeTypes = new ArrayList<String>();
+		final List<String> routeColors = new ArrayList<String>();
+
+		final TLongArrayList routeStopsIds = new TLongArrayList();
+		final TIntArrayList routeStopsStart = new TIntArrayList();
+		final TLongArrayList routeStops = new TLongArrayList();
+
+		int[] stopRoutesStart;
+		int[] stopRoutes;
+
+		void loadStops(Connection conn) throws SQLException {
+			Statement stat = conn.createStatement();
+			ResultSet rs = stat.executeQuery(
+					"SELECT A.id, A.latitude, A.longitude, A.name, A.name_en FROM transport_stop A ORDER BY A.id"); //$NON-NLS-1$
+			while (rs.next()) {
+				stopIds.add(rs.getLong(1));
+				stopLats.add(rs.getDouble(2));
+				stopLons.add(rs.getDouble(3));
+				stopNames.add(rs.getString(4));
+				stopEnNames.add(rs.getString(5));
+			}
+			rs.close();
+			stat.close();
+		}
+
+		void loadRoutes(Connection conn) throws SQLException {
+			Statement stat = conn.createStatement();
+			ResultSet rs = stat.executeQuery(
+					"SELECT id, dist, name, name_en, ref, operator, type, color FROM transport_route"); //$NON-NLS-1$
+			while (rs.next()) {
+				routeIds.add(rs.getLong(1));
+				routeDists.add(rs.getInt(2));
+				routeNames.add(rs.getString(3));
+				routeEnNames.add(rs.getString(4));
+				routeRefs.add(rs.getString(5));
+				routeOperators.add(rs.getString(6));
+				routeTypes.add(rs.getString(7));
+				routeColors.add(rs.getString(8));
+			}
+			rs.close();
+			stat.close();
+		}
+
+		boolean routesSorted() {
+			for (int i = 1; i < routeIds.size(); i++) {
+				if (routeIds.get(i - 1) >= routeIds.get(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void loadRouteStops(Connection conn) throws SQLException {
+			Statement stat = conn.createStatement();
+			ResultSet rs = stat.executeQuery(
+					"SELECT S.route, S.stop FROM transport_route_stop S ORDER BY S.route, S.ord"); //$NON-NLS-1$
+			while (rs.next()) {
+				long route = rs.getLong(1);
+				long stop = rs.getLong(2);
+				// stops are joined with transport_stop table
+				if (stopIds.binarySearch(stop) < 0) {
+					continue;
+				}
+				if (routeStopsIds.isEmpty() || routeStopsIds.get(routeStopsIds.size() - 1) != route) {
+					routeStopsIds.add(route);
+					routeStopsStart.add(routeStops.size());
+				}
+				routeStops.add(stop);
+			}
+			routeStopsStart.add(routeStops.size());
+			rs.close();
+			stat.close();
+		}
+
+		TransportStop createStop(long id) {
+			int ind = stopIds.binarySearch(id);
+			String stopName = stopNames.get(ind);
+			String stopEnName = stopEnNames.get(ind);
+			if (stopEnName != null && stopEnName.equals(Junidecode.unidecode(stopName))) {
+				stopEnName = null;
+			}
+			TransportStop st = new TransportStop();
+			// stop id was read as int
+			st.setId((long) (int) id);
+			st.setName(stopName);
+			st.setLocation(stopLats.get(ind), stopLons.get(ind));
+			if (stopEnName != null) {
+				st.setEnName(stopEnName);
+			}
+			return st;
+		}
+
+		/**
+		 * Routes of every stop without duplicates ordered by type and ref (as sql with binary collation),
+		 * routes with same type and ref stay in table order.
+		 */
+		void loadStopRoutes(Connection conn) throws SQLException {
+			TLongIntHashMap routeIndexes = new TLongIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, 0, -1);
+			for (int i = 0; i < routeIds.size(); i++) {
+				routeIndexes.put(routeIds.get(i), i);
+			}
+			Comparator<Integer> order = new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					int c = compareSql(routeTypes.get(o1), routeTypes.get(o2));
+					if (c == 0) {
+						c = compareSql(routeRefs.get(o1), routeRefs.get(o2));
+					}
+					return c;
+				}
+			};
+			stopRoutesStart = new int[stopIds.size() + 1];
+			TIntArrayList result = new TIntArrayList();
+			List<Integer> routes = new ArrayList<Integer>();
+			Statement stat = conn.createStatement();
+			ResultSet rs = stat.executeQuery("SELECT S.stop, S.route FROM transport_route_stop S ORDER BY S.stop"); //$NON-NLS-1$
+			int stop = 0;
+			boolean hasNext = rs.next();
+			while (stop < stopIds.size()) {
+				long stopId = stopIds.get(stop);
+				routes.clear();
+				while (hasNext && rs.getLong(1) <= stopId) {
+					if (rs.getLong(1) == stopId) {
+						int route = routeIndexes.get(rs.getLong(2));
+						if (route != -1 && !routes.contains(route)) {
+							routes.add(route);
+						}
+					}
+					hasNext = rs.next();
+				}
+				Collections.sort(routes, order);
+				for (Integer route : routes) {
+					result.add(route);
+				}
+				stopRoutesStart[++stop] = result.size();
+			}
+			rs.close();
+			stat.close();
+			stopRoutes = result.toArray();
+		}
+
+		private static int compareSql(String s1, String s2) {
+			if (s1 == null || s2 == null) {
+				return s1 == s2 ? 0 : (s1 == null ? -1 : 1);
+			}
+			// compare code points that gives the same order as bytes of utf-8
+			int i1 = 0;
+			int i2 = 0;
+			while (i1 < s1.length() && i2 < s2.length()) {
+				int c1 = s1.codePointAt(i1);
+				int c2 = s2.codePointAt(i2);
+				if (c1 != c2) {
+					return c1 < c2 ? -1 : 1;
+				}
+				i1 += Character.charCount(c1);
+				i2 += Character.charCount(c2);
+			}
+			boolean end1 = i1 >= s1.length();
+			boolean end2 = i2 >= s2.length();
+			return end1 == end2 ? 0 : (end1 ? -1 : 1);
+		}
+	}
+
+	Rect calcBounds(rtree.Node n) {
 		Rect r = null;
 		Element[] e = n.getAllElements();
 		for (int i = 0; i < n.getTotalElements(); i++) {
@@ -425,7 +616,7 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 		return size;
 	}
 
-	private Map<String, Integer> createStringTableForTransport() {
+	Map<String, Integer> createStringTableForTransport() {
 		Map<String, Integer> stringTable = new LinkedHashMap<String, Integer>();
 		registerString(stringTable, "bus"); //$NON-NLS-1$
 		registerString(stringTable, "trolleybus"); //$NON-NLS-1$
@@ -442,7 +633,7 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 	public void commitAndCloseFiles(String rtreeStopsFileName, String rtreeStopsPackFileName, boolean deleteDatabaseIndexes) throws IOException, SQLException {
 		// delete transport rtree files
 		if (transportStopsTree != null) {
-			transportStopsTree.getFileHdr().getFile().close();
+			transportStopsTree.close();
 			File f = new File(rtreeStopsFileName);
 			if (f.exists() && deleteDatabaseIndexes) {
 				f.delete();
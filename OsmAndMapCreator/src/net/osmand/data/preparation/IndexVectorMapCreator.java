@@ -8,7 +8,6 @@ import gnu.trove.set.hash.TLongHashSet;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -150,8 +149,16 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 	}
 
 	public void indexMapRelationsAndMultiPolygons(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+		indexMapRelationsAndMultiPolygons(e, ctx, true);
+	}
+
+	/**
+	 * @param writeObjects false if multipolygon is written by another partition, its ways are only excluded
+	 */
+	public void indexMapRelationsAndMultiPolygons(Entity e, OsmDbAccessorContext ctx, boolean writeObjects)
+			throws SQLException {
 		if (e instanceof Relation) {
-			indexMultiPolygon((Relation) e, ctx);
+			indexMultiPolygon((Relation) e, ctx, writeObjects);
 			tagsTransformer.handleRelationPropogatedTags((Relation) e, renderingTypes, ctx, EntityConvertApplyType.MAP);
 		}
 	}
@@ -169,7 +176,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 	 * @param ctx the database context
 	 * @throws SQLException
 	 */
-	private void indexMultiPolygon(Relation e, OsmDbAccessorContext ctx) throws SQLException {
+	private void indexMultiPolygon(Relation e, OsmDbAccessorContext ctx, boolean writeObjects) throws SQLException {
 		// Don't handle things that aren't multipolygon, and nothing administrative
 		if ((!"multipolygon".equals(e.getTag(OSMTagKey.TYPE)) &&  !"protected_area".equals(e.getTag("boundary")))
 				|| e.getTag(OSMTagKey.ADMIN_LEVEL) != null)
@@ -188,6 +195,9 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 			return;
 		excludeFromMainIteration(original.getOuterWays());
 		excludeFromMainIteration(original.getInnerWays());
+		if (!writeObjects) {
+			return;
+		}
 
 
 		// Rings with different types (inner or outer) in one ring will be logged in the previous case
@@ -855,8 +865,8 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 		} catch (RTreeException e) {
 			throw new IOException(e);
 		}
-		pStatements.put(mapBinaryStat, 0);
-		pStatements.put(mapLowLevelBinaryStat, 0);
+		registerStatement(mapBinaryStat, "binary_map_objects");
+		registerStatement(mapLowLevelBinaryStat, "low_level_map_objects");
 	}
 
 	public void createMapIndexTableIndexes(Connection conn) throws SQLException {
@@ -1041,8 +1051,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 		if (mapTree != null) {
 			for (int i = 0; i < mapTree.length; i++) {
 				if (mapTree[i] != null) {
-					RandomAccessFile file = mapTree[i].getFileHdr().getFile();
-					file.close();
+					mapTree[i].close();
 				}
 
 			}
@@ -1,6 +1,8 @@
 package net.osmand.data.preparation;
 
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -11,17 +13,26 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLStreamException;
 
 import net.osmand.IProgress;
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Entity.EntityId;
 import net.osmand.osm.edit.Way;
+import net.osmand.osm.io.IOsmStorageFilter;
 import net.osmand.osm.io.OsmBaseStorage;
+import net.osmand.osm.io.OsmBaseStoragePbf;
 import net.osmand.osm.io.OsmStorageWriter;
 import net.osmand.util.MapUtils;
 
@@ -152,12 +163,209 @@ public class OceanTilesCreator {
                 ns += w.getNodeIds().size();
             }
         }
-        writeResult(map, result);
+        BitSet mixed = new BitSet(BITS_COUNT);
+        BitSet medianParity = new BitSet(BITS_COUNT);
+        for (long key : map.keys()) {
+            OceanTileInfo oc = map.get(key);
+            if (key < 0 || key >= BITS_COUNT) {
+                continue;
+            }
+            int ind = (int) key;
+            mixed.set(ind, oc.type != OceanTileInfo.UNDEFINED);
+            medianParity.set(ind, oc.linesIntersectMedian % 2 != 0);
+        }
+        writeResult(mixed, medianParity, result);
 
         System.out.println(c + " " + ns + " coastlines " + map.size());
     }
 
-    private static void writeResult(TLongObjectHashMap<OceanTileInfo> map, String result) throws IOException {
+    /**
+     * Tiles of one worker thread: mixed tiles and parity of coastline intersections with tile median
+     * (only parity is needed to switch sea / land), so grids are merged with or / xor.
+     */
+    private static class TilesGrid {
+        final BitSet mixed = new BitSet(BITS_COUNT);
+        final BitSet medianParity = new BitSet(BITS_COUNT);
+
+        void processSegment(double tx, double ty, double px, double py) {
+            double minX = Math.min(tx, px);
+            double maxX = Math.max(tx, px);
+            double minY = Math.min(ty, py);
+            double maxY = Math.max(ty, py);
+            // visit only tiles crossed by segment (supercover by columns), margin keeps tiles touched by edge
+            for (int x = (int) minX; x <= maxX; x++) {
+                double ylo = minY;
+                double yhi = maxY;
+                if (tx != px) {
+                    double xa = Math.max(x, minX);
+                    double xb = Math.min(x + 1, maxX);
+                    double ya = ty + (py - ty) * (xa - tx) / (px - tx);
+                    double yb = ty + (py - ty) * (xb - tx) / (px - tx);
+                    ylo = Math.min(ya, yb) - SUPERCOVER_MARGIN;
+                    yhi = Math.max(ya, yb) + SUPERCOVER_MARGIN;
+                }
+                for (int y = Math.max((int) minY, (int) Math.floor(ylo)); y <= maxY && y <= yhi; y++) {
+                    int ind = (x << TILE_ZOOMLEVEL) + y;
+                    if (ind < 0) {
+                        // not written to result
+                        continue;
+                    }
+                    if (intersect2Segments(tx, ty, px, py, x, y + 0.5d, x + 1, y + 0.5d)) {
+                        medianParity.flip(ind);
+                        mixed.set(ind);
+                    } else if (intersect2Segments(tx, ty, px, py, x, y, x + 1, y)
+                            || intersect2Segments(tx, ty, px, py, x, y + 1, x + 1, y + 1)
+                            || intersect2Segments(tx, ty, px, py, x, y, x, y + 1)
+                            || intersect2Segments(tx, ty, px, py, x + 1, y, x + 1, y + 1)) {
+                        mixed.set(ind);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps only tile coordinates of nodes and passes segments of ways to workers in batches
+     */
+    private static class SegmentsCollector implements IOsmStorageFilter {
+        final ExecutorService service;
+        final List<TilesGrid> grids = new ArrayList<TilesGrid>();
+        final List<Future<?>> tasks = new ArrayList<Future<?>>();
+        final ThreadLocal<TilesGrid> threadGrid = new ThreadLocal<TilesGrid>() {
+            @Override
+            protected TilesGrid initialValue() {
+                TilesGrid g = new TilesGrid();
+                synchronized (grids) {
+                    grids.add(g);
+                }
+                return g;
+            }
+        };
+        TLongIntHashMap nodeIndexes = new TLongIntHashMap();
+        TDoubleArrayList nodeX = new TDoubleArrayList();
+        TDoubleArrayList nodeY = new TDoubleArrayList();
+        double[] batch = new double[SEGMENTS_BATCH * 4];
+        int batchSize = 0;
+        int ways = 0;
+        long wayNodes = 0;
+
+        SegmentsCollector(ExecutorService service) {
+            this.service = service;
+        }
+
+        @Override
+        public boolean acceptEntityToLoad(OsmBaseStorage storage, EntityId entityId, Entity entity) {
+            if (entity instanceof Node) {
+                Node n = (Node) entity;
+                nodeIndexes.put(n.getId(), nodeX.size());
+                nodeX.add(MapUtils.getTileNumberX(TILE_ZOOMLEVEL, n.getLongitude()));
+                nodeY.add(MapUtils.getTileNumberY(TILE_ZOOMLEVEL, n.getLatitude()));
+            } else if (entity instanceof Way) {
+                Way w = (Way) entity;
+                int prev = -1;
+                for (int i = 0; i < w.getNodeIds().size(); i++) {
+                    long id = w.getNodeIds().get(i);
+                    int ind = nodeIndexes.containsKey(id) ? nodeIndexes.get(id) : -1;
+                    if (ind >= 0 && prev >= 0) {
+                        addSegment(nodeX.get(ind), nodeY.get(ind), nodeX.get(prev), nodeY.get(prev));
+                    }
+                    prev = ind;
+                }
+                ways++;
+                wayNodes += w.getNodeIds().size();
+            }
+            // nothing is stored
+            return false;
+        }
+
+        private void addSegment(double tx, double ty, double px, double py) {
+            batch[batchSize++] = tx;
+            batch[batchSize++] = ty;
+            batch[batchSize++] = px;
+            batch[batchSize++] = py;
+            if (batchSize == batch.length) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (batchSize == 0) {
+                return;
+            }
+            final double[] b = batch;
+            final int size = batchSize;
+            batch = new double[SEGMENTS_BATCH * 4];
+            batchSize = 0;
+            tasks.add(service.submit(new Runnable() {
+                @Override
+                public void run() {
+                    TilesGrid g = threadGrid.get();
+                    for (int i = 0; i < size; i += 4) {
+                        g.processSegment(b[i], b[i + 1], b[i + 2], b[i + 3]);
+                    }
+                }
+            }));
+        }
+    }
+
+    private static final double SUPERCOVER_MARGIN = 1e-6;
+    private static final int SEGMENTS_BATCH = 1 << 14;
+
+    /**
+     * Streaming version of {@link #createTilesFile(String, String)}: ways are not kept in memory but split into
+     * batches of segments which are rasterized by worker threads into own grids. Only tile coordinates of nodes
+     * are stored. Result is identical to {@link #createTilesFile(String, String)}.
+     */
+    public static void createTilesFileStreaming(String coastlinesInput, String result, int threads)
+            throws IOException, XmlPullParserException, InterruptedException {
+        if (result == null) {
+            result = "oceantiles_12.dat";
+        }
+        File readFile = new File(coastlinesInput);
+        InputStream stream = new BufferedInputStream(new FileInputStream(readFile), 8192 * 4);
+        long st = System.currentTimeMillis();
+        boolean pbf = false;
+        if (readFile.getName().endsWith(".bz2")) { //$NON-NLS-1$
+            if (stream.read() != 'B' || stream.read() != 'Z') {
+            } else {
+                stream = new CBZip2InputStream(stream);
+            }
+        } else if (readFile.getName().endsWith(".pbf")) { //$NON-NLS-1$
+            pbf = true;
+        }
+        ExecutorService service = Executors.newFixedThreadPool(Math.max(1, threads));
+        SegmentsCollector collector = new SegmentsCollector(service);
+        OsmBaseStorage bs = pbf ? new OsmBaseStoragePbf() : new OsmBaseStorage();
+        bs.getFilters().add(collector);
+        try {
+            if (pbf) {
+                ((OsmBaseStoragePbf) bs).parseOSMPbf(stream, IProgress.EMPTY_PROGRESS, false);
+            } else {
+                bs.parseOSM(stream, IProgress.EMPTY_PROGRESS);
+            }
+            collector.flush();
+            service.shutdown();
+            for (Future<?> f : collector.tasks) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            stream.close();
+            service.shutdownNow();
+        }
+        BitSet mixed = new BitSet(BITS_COUNT);
+        BitSet medianParity = new BitSet(BITS_COUNT);
+        for (TilesGrid g : collector.grids) {
+            mixed.or(g.mixed);
+            medianParity.xor(g.medianParity);
+        }
+        writeResult(mixed, medianParity, result);
+        System.out.println(collector.ways + " " + collector.wayNodes + " coastlines " + mixed.cardinality() + " in "
+                + (System.currentTimeMillis() - st) + " ms");
+    }
+
+    private static void writeResult(BitSet mixed, BitSet medianParity, String result) throws IOException {
         int currentByte = 0;
         FileOutputStream rf = new FileOutputStream(result);
 //        int[] cs = new int[4];
@@ -172,14 +380,13 @@ public class OceanTilesCreator {
                 previousSea = false;
             }
             for(int x = 0; x < maxT; x++ ) {
-                long key = ((long) x << TILE_ZOOMLEVEL) + (long)y;
-                OceanTileInfo oc = map.get(key);
+                int ind = (x << TILE_ZOOMLEVEL) + y;
                 int vl = 0;
-                if(oc == null || oc.type == OceanTileInfo.UNDEFINED) {
+                if(!mixed.get(ind)) {
                     vl = previousSea ? SEA : LAND;
                 } else {
                     vl = 3;
-                    boolean odd = oc.linesIntersectMedian % 2 == 0;
+                    boolean odd = !medianParity.get(ind);
                     if(!odd) {
                         previousSea = !previousSea;
                     }
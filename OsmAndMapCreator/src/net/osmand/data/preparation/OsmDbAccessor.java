@@ -7,10 +7,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -40,6 +38,7 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 	 
 	private Connection dbConn;
 	private DBDialect dialect;
+	private OsmDbTagsDictionary tagsDictionary;
 
 	private PreparedStatement iterateNodes;
 	private PreparedStatement iterateWays;
@@ -59,6 +58,9 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 			computeRealCounts(stmt);
 			stmt.close();
 		}
+		if (OsmDbTagsDictionary.exists(dbConn, dialect)) {
+			tagsDictionary = OsmDbTagsDictionary.load(dbConn);
+		}
 
 		pselectNode = dbConn.prepareStatement("select n.latitude, n.longitude, n.tags from node n where n.id = ?"); //$NON-NLS-1$
 		pselectWay = dbConn.prepareStatement("select w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
@@ -184,19 +186,27 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 	}
 
 	public void readTags(Entity e, byte[] tags){
-		if (tags != null) {
+		if (tags != null && tags.length > 0) {
+			if (tagsDictionary != null) {
+				tagsDictionary.decodeTags(e, tags);
+				return;
+			}
 			try {
+				// decode key/value pairs directly without intermediate list
 				int prev = 0;
-				List<String> vs = new ArrayList<String>();
+				String key = null;
 				for (int i = 0; i < tags.length; i++) {
 					if (tags[i] == 0) {
-						vs.add(new String(tags, prev, i - prev, "UTF-8"));
+						String s = new String(tags, prev, i - prev, "UTF-8");
+						if (key == null) {
+							key = s;
+						} else {
+							e.putTag(key, s);
+							key = null;
+						}
 						prev = i + 1;
 					}
 				}
-				for(int i=0; i<vs.size(); i+=2) {
-					e.putTag(vs.get(i), vs.get(i+1));
-				}
 			} catch (UnsupportedEncodingException e1) {
 				throw new RuntimeException(e1);
 			}
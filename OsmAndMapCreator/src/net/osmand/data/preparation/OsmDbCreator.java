@@ -78,6 +78,8 @@ public class OsmDbCreator implements IOsmStorageFilter {
 	private TLongObjectHashMap<Long> generatedIds = new TLongObjectHashMap<Long>();
 	private TLongObjectHashMap<Long> hashes = new TLongObjectHashMap<Long>();
 	private TLongSet idSet = new TLongHashSet();
+	// null for databases created before tags dictionary was introduced
+	private OsmDbTagsDictionary tagsDictionary;
 	
 
 
@@ -252,6 +254,10 @@ public class OsmDbCreator implements IOsmStorageFilter {
 			stat.executeUpdate("create table relations (id bigint, member bigint, type smallint, role varchar(1024), ord smallint, tags blob, del int, primary key (id, ord, del))"); //$NON-NLS-1$
 			stat.executeUpdate("create index IdRIndex ON relations (id)"); //$NON-NLS-1$
 			stat.close();
+			OsmDbTagsDictionary.createTable(dbConn, dialect);
+			tagsDictionary = new OsmDbTagsDictionary();
+		} else if (tagsDictionary == null && OsmDbTagsDictionary.exists(dbConn, dialect)) {
+			tagsDictionary = OsmDbTagsDictionary.load(dbConn);
 		}
 		initIds("node", nodeIds);
 		initIds("ways", wayIds);
@@ -285,6 +291,9 @@ public class OsmDbCreator implements IOsmStorageFilter {
 	}
 
 	public void finishLoading() throws SQLException {
+		if (tagsDictionary != null) {
+			tagsDictionary.save(dbConn);
+		}
 		if (currentCountNode > 0) {
 			prepNode.executeBatch();
 		}
@@ -359,18 +368,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 		}
 		try {
 			e.removeTags(tagsToIgnore);
-			ByteArrayOutputStream tags = new ByteArrayOutputStream();
-			try {
-				for (Entry<String, String> i : e.getTags().entrySet()) {
-					// UTF-8 default
-					tags.write(i.getKey().getBytes("UTF-8"));
-					tags.write(0);
-					tags.write(i.getValue().getBytes("UTF-8"));
-					tags.write(0);
-				}
-			} catch (IOException es) {
-				throw new RuntimeException(es);
-			}
+			byte[] tags = encodeTags(e);
 			long id = convertId(e);
 			boolean delete = AugmentedDiffsInspector.OSMAND_DELETE_VALUE.
 					equals(e.getTag(AugmentedDiffsInspector.OSMAND_DELETE_TAG));
@@ -390,7 +388,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 				prepNode.setLong(1, id);
 				prepNode.setDouble(2, ((Node) e).getLatitude());
 				prepNode.setDouble(3, ((Node) e).getLongitude());
-				prepNode.setBytes(4, tags.toByteArray());
+				prepNode.setBytes(4, tags);
 				prepNode.addBatch();
 				if (currentCountNode >= BATCH_SIZE_OSM) {
 					prepNode.executeBatch();
@@ -406,7 +404,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 				for (int j = 0; j < nodeIds.size(); j++) {
 					currentWaysCount++;
 					if (ord == 0) {
-						prepWays.setBytes(4, tags.toByteArray());
+						prepWays.setBytes(4, tags);
 					}
 					prepWays.setLong(1, id);
 					prepWays.setLong(2, nodeIds.get(j));
@@ -426,7 +424,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 				for (RelationMember i : ((Relation) e).getMembers()) {
 					currentRelationsCount++;
 					if (ord == 0) {
-						prepRelations.setBytes(6, tags.toByteArray());
+						prepRelations.setBytes(6, tags);
 					}
 					prepRelations.setLong(1, id);
 					prepRelations.setLong(2, i.getEntityId().getId());
@@ -453,6 +451,33 @@ public class OsmDbCreator implements IOsmStorageFilter {
 
 
 
+	private byte[] encodeTags(Entity e) {
+		if (tagsDictionary != null) {
+			return tagsDictionary.encodeTags(e.getTags());
+		}
+		ByteArrayOutputStream tags = new ByteArrayOutputStream();
+		try {
+			for (Entry<String, String> i : e.getTags().entrySet()) {
+				// UTF-8 default
+				tags.write(i.getKey().getBytes("UTF-8"));
+				tags.write(0);
+				tags.write(i.getValue().getBytes("UTF-8"));
+				tags.write(0);
+			}
+		} catch (IOException es) {
+			throw new RuntimeException(es);
+		}
+		return tags.toByteArray();
+	}
+
+	public OsmDbTagsDictionary getTagsDictionary() {
+		return tagsDictionary;
+	}
+
+	public void setTagsDictionary(OsmDbTagsDictionary tagsDictionary) {
+		this.tagsDictionary = tagsDictionary;
+	}
+
 	public int getAllNodes() {
 		return allNodes;
 	}
@@ -0,0 +1,197 @@
+package net.osmand.data.preparation;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.osmand.osm.edit.Entity;
+
+/**
+ * Global string table for tags stored in the temporary osm database (nodes.tmp.odb).
+ * Every tag is stored as key reference followed by value reference: (id << 1) for string from the dictionary
+ * or (length << 1) | 1 followed by UTF-8 bytes for free text values (names, refs, long values) and for new
+ * strings when dictionary is full.
+ * Decoded strings from the dictionary are canonical instances shared by all entities.
+ */
+public class OsmDbTagsDictionary {
+
+	public static final String TABLE = "tags_dictionary";
+	// values longer than that are usually free text and stored inline
+	private static final int MAX_DICTIONARY_VALUE_LENGTH = 32;
+	private static final int MAX_DICTIONARY_SIZE = 1 << 20;
+	private static final String[] FREE_TEXT_KEYS = { "name", "old_name", "alt_name", "official_name", "ref", "addr:",
+			"description", "note", "fixme", "website", "url", "phone", "email", "wikipedia", "wikidata", "opening_hours" };
+
+	private final TObjectIntHashMap<String> ids = new TObjectIntHashMap<String>();
+	private final List<String> strings = new ArrayList<String>();
+	private final int maxSize;
+	private int persisted = 0;
+
+	public OsmDbTagsDictionary() {
+		this(MAX_DICTIONARY_SIZE);
+	}
+
+	OsmDbTagsDictionary(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public int size() {
+		return strings.size();
+	}
+
+	public String getString(int id) {
+		return strings.get(id);
+	}
+
+	private int getOrCreateId(String s) {
+		if (ids.containsKey(s)) {
+			return ids.get(s);
+		}
+		if (strings.size() >= maxSize) {
+			return -1;
+		}
+		int id = strings.size();
+		strings.add(s);
+		ids.put(s, id);
+		return id;
+	}
+
+	private boolean isFreeText(String key, String value) {
+		if (value.length() > MAX_DICTIONARY_VALUE_LENGTH) {
+			return true;
+		}
+		if (ids.containsKey(value)) {
+			return false;
+		}
+		for (String k : FREE_TEXT_KEYS) {
+			if (key.startsWith(k)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public byte[] encodeTags(Map<String, String> tags) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			for (Entry<String, String> e : tags.entrySet()) {
+				writeString(out, e.getKey(), getOrCreateId(e.getKey()));
+				String value = e.getValue();
+				writeString(out, value, isFreeText(e.getKey(), value) ? -1 : getOrCreateId(value));
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		return out.toByteArray();
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String s, int id) throws UnsupportedEncodingException {
+		if (id >= 0) {
+			writeVarint(out, id << 1);
+		} else {
+			byte[] bytes = s.getBytes("UTF-8");
+			writeVarint(out, (bytes.length << 1) | 1);
+			out.write(bytes, 0, bytes.length);
+		}
+	}
+
+	public void decodeTags(Entity e, byte[] tags) {
+		int[] pos = new int[1];
+		try {
+			while (pos[0] < tags.length) {
+				String key = readString(tags, pos);
+				e.putTag(key, readString(tags, pos));
+			}
+		} catch (UnsupportedEncodingException e1) {
+			throw new RuntimeException(e1);
+		}
+	}
+
+	private String readString(byte[] tags, int[] pos) throws UnsupportedEncodingException {
+		int ref = readVarint(tags, pos);
+		if ((ref & 1) == 0) {
+			return strings.get(ref >> 1);
+		}
+		int len = ref >> 1;
+		String s = new String(tags, pos[0], len, "UTF-8");
+		pos[0] += len;
+		return s;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(byte[] b, int[] pos) {
+		int result = 0;
+		int shift = 0;
+		while (true) {
+			byte t = b[pos[0]++];
+			result |= (t & 0x7F) << shift;
+			if ((t & 0x80) == 0) {
+				return result;
+			}
+			shift += 7;
+		}
+	}
+
+	public static boolean exists(Connection conn, DBDialect dialect) throws SQLException {
+		Statement stat = conn.createStatement();
+		boolean exists = dialect.checkTableIfExists(TABLE, stat);
+		stat.close();
+		return exists;
+	}
+
+	public static void createTable(Connection conn, DBDialect dialect) throws SQLException {
+		Statement stat = conn.createStatement();
+		dialect.deleteTableIfExists(TABLE, stat);
+		stat.executeUpdate("create table " + TABLE + " (id int primary key, value varchar)"); //$NON-NLS-1$
+		stat.close();
+	}
+
+	public static OsmDbTagsDictionary load(Connection conn) throws SQLException {
+		OsmDbTagsDictionary dictionary = new OsmDbTagsDictionary();
+		Statement stat = conn.createStatement();
+		ResultSet rs = stat.executeQuery("select id, value from " + TABLE + " order by id"); //$NON-NLS-1$
+		while (rs.next()) {
+			if (rs.getInt(1) != dictionary.strings.size()) {
+				throw new IllegalStateException("Tags dictionary is corrupted at id " + rs.getInt(1));
+			}
+			// intern to share instances with strings used as constants in code
+			dictionary.getOrCreateId(rs.getString(2).intern());
+		}
+		rs.close();
+		stat.close();
+		dictionary.persisted = dictionary.strings.size();
+		return dictionary;
+	}
+
+	/**
+	 * Saves strings added since last save
+	 */
+	public void save(Connection conn) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement("insert into " + TABLE + " values (?, ?)"); //$NON-NLS-1$
+		for (int i = persisted; i < strings.size(); i++) {
+			ps.setInt(1, i);
+			ps.setString(2, strings.get(i));
+			ps.addBatch();
+		}
+		ps.executeBatch();
+		ps.close();
+		persisted = strings.size();
+	}
+}
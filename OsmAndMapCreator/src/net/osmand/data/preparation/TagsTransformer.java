@@ -25,8 +25,11 @@ public class TagsTransformer {
 	public void handleRelationPropogatedTags(Relation e, MapRenderingTypesEncoder renderingTypes, OsmDbAccessorContext ctx, 
 			EntityConvertApplyType at) throws SQLException {
 
-		Map<MapRulType, Map<MapRulType, String>> propogated =
-				renderingTypes.getRelationPropogatedTags((Relation)e, at);
+		Map<MapRulType, Map<MapRulType, String>> propogated;
+		// encoder could be shared with basemap processor threads, members are loaded outside of the lock
+		synchronized (renderingTypes) {
+			propogated = renderingTypes.getRelationPropogatedTags((Relation) e, at);
+		}
 		if(propogated != null && propogated.size() > 0) {
 			if(ctx != null) {
 				ctx.loadEntityRelation((Relation) e);
@@ -79,9 +79,9 @@ public class DBStreetDAO extends AbstractIndexPartCreator {
 	private PreparedStatement addressStreetNodeStat;
 	private PreparedStatement addressBuildingStat;
 	private PreparedStatement addressSearchStreetStat;
-	private PreparedStatement addressSearchBuildingStat;
+	protected PreparedStatement addressSearchBuildingStat;
 	private PreparedStatement addressRemoveBuildingStat;
-	private PreparedStatement addressSearchStreetNodeStat;
+	protected PreparedStatement addressSearchStreetNodeStat;
 	private PreparedStatement addressSearchStreetStatWithoutCityPart;
 
 	private Connection mapConnection;
@@ -105,9 +105,9 @@ public class DBStreetDAO extends AbstractIndexPartCreator {
         stat.close();
         createPrimaryIndexes(mapConnection);
 
-		addressStreetStat = createPrepareStatement(mapConnection,"insert into street (id, latitude, longitude, name, name_en, city, citypart, langs) values (?, ?, ?, ?, ?, ?, ?, ?)");
-		addressStreetNodeStat = createPrepareStatement(mapConnection,"insert into street_node (id, latitude, longitude, street, way) values (?, ?, ?, ?, ?)");
-		addressBuildingStat = createPrepareStatement(mapConnection,"insert into building (id, latitude, longitude, name, name_en, street, postcode, name2, name_en2, lat2, lon2, interval, interpolateType) values (?, ?, ?, ?, ?, ?, ?, ?, ? ,? ,? ,? ,?)");
+		addressStreetStat = createPrepareStatement(mapConnection, "street", "insert into street (id, latitude, longitude, name, name_en, city, citypart, langs) values (?, ?, ?, ?, ?, ?, ?, ?)");
+		addressStreetNodeStat = createPrepareStatement(mapConnection, "street_node", "insert into street_node (id, latitude, longitude, street, way) values (?, ?, ?, ?, ?)");
+		addressBuildingStat = createPrepareStatement(mapConnection, "building", "insert into building (id, latitude, longitude, name, name_en, street, postcode, name2, name_en2, lat2, lon2, interval, interpolateType) values (?, ?, ?, ?, ?, ?, ?, ?, ? ,? ,? ,? ,?)");
 		addressSearchStreetStat = createPrepareStatement(mapConnection,"SELECT id,latitude,longitude,langs,name_en FROM street WHERE ? = city AND ? = citypart AND ? = name");
 		addressSearchStreetStatWithoutCityPart = createPrepareStatement(mapConnection,"SELECT id,name,citypart,latitude,longitude,langs,name_en FROM street WHERE ? = city AND ? = name");
 		addressStreetUpdateCityPart = createPrepareStatement(mapConnection,"UPDATE street SET citypart = ? WHERE id = ?");
@@ -106,6 +106,13 @@ public class IndexAddressCreator extends AbstractIndexPartCreator {
 		streetDAO = loadInMemory ? new CachedDBStreetDAO() : new DBStreetDAO();
 	}
 
+	/**
+	 * Limits number of streets kept in memory (cities are evicted as a whole), should be called before db is created
+	 */
+	public void setMaxCachedStreets(int maxCachedStreets) {
+		streetDAO = new PartitionedDBStreetDAO(maxCachedStreets);
+	}
+
 
 	public void initSettings(String cityAdminLevel) {
 		cities.clear();
@@ -1023,12 +1030,9 @@ public class IndexAddressCreator extends AbstractIndexPartCreator {
 
 	public void processPostcodes() throws SQLException {
 		streetDAO.commit();
-		pStatements.put(postcodeSetStat, 0);
+		registerStatement(postcodeSetStat, "building");
 		processPostcodeRelations();
-		if (pStatements.get(postcodeSetStat) > 0) {
-			postcodeSetStat.executeBatch();
-		}
-		pStatements.remove(postcodeSetStat);
+		closePreparedStatements(postcodeSetStat);
 	}
 
 
@@ -1365,7 +1369,7 @@ public class IndexAddressCreator extends AbstractIndexPartCreator {
 		addressCityStat = mapConnection.prepareStatement("insert into city (id, latitude, longitude, name, name_en, city_type) values (?, ?, ?, ?, ?, ?)");
 		postcodeSetStat = mapConnection.prepareStatement("UPDATE building SET postcode = ? WHERE id = ?");
 
-		pStatements.put(addressCityStat, 0);
+		registerStatement(addressCityStat, "city");
 	}
 
 	private List<Street> readStreetsBuildings(PreparedStatement streetBuildingsStat, City city, PreparedStatement waynodesStat,
@@ -0,0 +1,395 @@
+package net.osmand.data.preparation.address;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import net.osmand.data.Building;
+import net.osmand.data.City;
+import net.osmand.data.LatLon;
+import net.osmand.data.preparation.DBDialect;
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Way;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Street cache with limited size which could be used instead of {@link CachedDBStreetDAO} for big countries.
+ * Streets are cached by cities, when number of cached streets is over limit least recently used cities are evicted
+ * as a whole and loaded back from db when they are needed again. Inside of city streets are found by
+ * interned ids of name and city part. Buildings and street ways are checked with bloom filters first,
+ * so db is searched only for possibly registered ones.
+ */
+public class PartitionedDBStreetDAO extends DBStreetDAO {
+	private static final Log log = LogFactory.getLog(PartitionedDBStreetDAO.class);
+
+	public static final int DEFAULT_MAX_CACHED_STREETS = 1 << 19;
+	private static final int NULL_STRING_ID = 0;
+	private static final int NO_STRING_ID = -1;
+
+	private final int maxCachedStreets;
+	private int cachedStreets;
+	private final LinkedHashMap<Long, CityStreets> cities = new LinkedHashMap<Long, CityStreets>(256, 0.75f, true);
+	private final TLongHashSet evictedCities = new TLongHashSet();
+	private final TObjectIntHashMap<String> strings = new TObjectIntHashMap<String>(1024, 0.5f, NO_STRING_ID);
+
+	private final LongBloomFilter buildings = new LongBloomFilter();
+	private final LongBloomFilter streetWays = new LongBloomFilter();
+
+	private PreparedStatement loadCityStreetsStat;
+
+	private long streetLookups;
+	private long cityLoads;
+	private long loadedStreets;
+	private long cityEvictions;
+	private long buildingChecks;
+	private long buildingDbChecks;
+	private long buildingFalsePositives;
+	private long streetWayChecks;
+	private long streetWayDbChecks;
+	private long streetWayFalsePositives;
+
+	private static class CityStreets {
+		// (name id << 32 | city part id) -> street
+		final TLongObjectHashMap<SimpleStreet> byNameAndPart = new TLongObjectHashMap<SimpleStreet>();
+		final TIntObjectHashMap<SimpleStreet> byName = new TIntObjectHashMap<SimpleStreet>();
+	}
+
+	public PartitionedDBStreetDAO() {
+		this(DEFAULT_MAX_CACHED_STREETS);
+	}
+
+	public PartitionedDBStreetDAO(int maxCachedStreets) {
+		this.maxCachedStreets = maxCachedStreets;
+	}
+
+	@Override
+	public void createDatabaseStructure(Connection mapConnection, DBDialect dialect) throws SQLException {
+		super.createDatabaseStructure(mapConnection, dialect);
+		loadCityStreetsStat = createPrepareStatement(mapConnection,
+				"SELECT id,name,citypart,latitude,longitude,langs,name_en FROM street WHERE ? = city ORDER BY id");
+	}
+
+	private int getStringId(String s, boolean create) {
+		if (s == null) {
+			return NULL_STRING_ID;
+		}
+		int id = strings.get(s);
+		if (id == NO_STRING_ID && create) {
+			id = strings.size() + 1;
+			strings.put(s, id);
+		}
+		return id;
+	}
+
+	private static long getKey(int nameId, int cityPartId) {
+		return (((long) nameId) << 32) | (cityPartId & 0xffffffffl);
+	}
+
+	private CityStreets getCityStreets(long cityId) throws SQLException {
+		CityStreets cs = cities.get(cityId);
+		if (cs == null) {
+			cs = new CityStreets();
+			if (evictedCities.remove(cityId)) {
+				loadCityStreets(cityId, cs);
+			}
+			cities.put(cityId, cs);
+			evictCities();
+		}
+		return cs;
+	}
+
+	private void loadCityStreets(long cityId, CityStreets cs) throws SQLException {
+		// inserted streets are batched
+		executePendingPreparedStatements();
+		cityLoads++;
+		loadCityStreetsStat.setLong(1, cityId);
+		ResultSet rs = loadCityStreetsStat.executeQuery();
+		while (rs.next()) {
+			SimpleStreet s = new SimpleStreet(rs.getLong(1), rs.getString(2), cityId, rs.getString(3), rs.getDouble(4),
+					rs.getDouble(5), rs.getString(6), rs.getString(7));
+			putStreet(cs, s);
+			loadedStreets++;
+		}
+		rs.close();
+	}
+
+	private void evictCities() {
+		Iterator<Entry<Long, CityStreets>> it = cities.entrySet().iterator();
+		// last accessed city is never evicted
+		while (cachedStreets > maxCachedStreets && cities.size() > 1) {
+			Entry<Long, CityStreets> e = it.next();
+			cachedStreets -= e.getValue().byNameAndPart.size();
+			evictedCities.add(e.getKey());
+			it.remove();
+			cityEvictions++;
+		}
+	}
+
+	private void putStreet(CityStreets cs, SimpleStreet s) {
+		int nameId = getStringId(s.getName(), true);
+		if (cs.byNameAndPart.put(getKey(nameId, getStringId(s.getCityPart(), true)), s) == null) {
+			cachedStreets++;
+		}
+		cs.byName.put(nameId, s);
+	}
+
+	/**
+	 * Replaces updated street, so cached city stays the same as loaded from db after update:
+	 * street is not found by previous city part anymore and by name the last inserted street is found
+	 */
+	private void replaceStreet(CityStreets cs, SimpleStreet old, SimpleStreet updated) {
+		int nameId = getStringId(old.getName(), true);
+		long oldKey = getKey(nameId, getStringId(old.getCityPart(), true));
+		SimpleStreet prev = cs.byNameAndPart.get(oldKey);
+		if (prev != null && prev.getId() == old.getId()) {
+			cs.byNameAndPart.remove(oldKey);
+			cachedStreets--;
+		}
+		if (cs.byNameAndPart.put(getKey(nameId, getStringId(updated.getCityPart(), true)), updated) == null) {
+			cachedStreets++;
+		}
+		SimpleStreet byName = cs.byName.get(nameId);
+		if (byName == null || byName.getId() == updated.getId()) {
+			cs.byName.put(nameId, updated);
+		}
+	}
+
+	@Override
+	public SimpleStreet findStreet(String name, City city, String cityPart) throws SQLException {
+		streetLookups++;
+		CityStreets cs = getCityStreets(city.getId());
+		int nameId = getStringId(name, false);
+		int cityPartId = getStringId(cityPart, false);
+		if (nameId == NO_STRING_ID || cityPartId == NO_STRING_ID) {
+			return null;
+		}
+		return cs.byNameAndPart.get(getKey(nameId, cityPartId));
+	}
+
+	@Override
+	public SimpleStreet findStreet(String name, City city) throws SQLException {
+		streetLookups++;
+		CityStreets cs = getCityStreets(city.getId());
+		int nameId = getStringId(name, false);
+		if (nameId == NO_STRING_ID) {
+			return null;
+		}
+		return cs.byName.get(nameId);
+	}
+
+	@Override
+	public long insertStreet(String name, Map<String, String> names, LatLon location, City city, String cityPart)
+			throws SQLException {
+		CityStreets cs = getCityStreets(city.getId());
+		String langs = constructLangs(names);
+		long streetId = fillInsertStreetStatement(name, names, location, city, cityPart, langs);
+		addBatch(addressStreetStat);
+		putStreet(cs, new SimpleStreet(streetId, name, city.getId(), cityPart, location, langs,
+				Algorithms.encodeMap(names)));
+		evictCities();
+		return streetId;
+	}
+
+	@Override
+	public SimpleStreet updateStreetCityPart(SimpleStreet street, String cityPart) throws SQLException {
+		commit();
+		SimpleStreet updated = super.updateStreetCityPart(street, cityPart);
+		replaceStreet(getCityStreets(street.getCityId()), street, updated);
+		return updated;
+	}
+
+	@Override
+	public SimpleStreet updateStreetLangs(SimpleStreet street, Map<String, String> newNames) throws SQLException {
+		commit();
+		SimpleStreet updated = super.updateStreetLangs(street, newNames);
+		replaceStreet(getCityStreets(street.getCityId()), street, updated);
+		return updated;
+	}
+
+	@Override
+	protected void writeBuilding(Set<Long> streetIds, Building building) throws SQLException {
+		super.writeBuilding(streetIds, building);
+		buildings.add(building.getId());
+	}
+
+	@Override
+	protected void writeStreetWayNodes(Set<Long> streetIds, Way way) throws SQLException {
+		super.writeStreetWayNodes(streetIds, way);
+		streetWays.add(way.getId());
+	}
+
+	@Override
+	public boolean findBuilding(Entity e) throws SQLException {
+		buildingChecks++;
+		if (!buildings.mightContain(e.getId())) {
+			return false;
+		}
+		buildingDbChecks++;
+		boolean exist = exists(addressSearchBuildingStat, e.getId());
+		if (!exist) {
+			buildingFalsePositives++;
+		}
+		return exist;
+	}
+
+	@Override
+	public boolean findStreetNode(Entity e) throws SQLException {
+		streetWayChecks++;
+		if (!streetWays.mightContain(e.getId())) {
+			return false;
+		}
+		streetWayDbChecks++;
+		boolean exist = exists(addressSearchStreetNodeStat, e.getId());
+		if (!exist) {
+			streetWayFalsePositives++;
+		}
+		return exist;
+	}
+
+	private boolean exists(PreparedStatement search, long id) throws SQLException {
+		// batched rows are visible for the same connection without commit
+		executePendingPreparedStatements();
+		search.setLong(1, id);
+		ResultSet rs = search.executeQuery();
+		boolean exist = rs.next();
+		rs.close();
+		return exist;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		super.close();
+		log.info(getStatistics());
+		pStatements.remove(loadCityStreetsStat);
+		loadCityStreetsStat.close();
+		cities.clear();
+		evictedCities.clear();
+		cachedStreets = 0;
+	}
+
+	/**
+	 * @return part of street lookups which didn't need to load city from db
+	 */
+	public double getStreetHitRate() {
+		return streetLookups == 0 ? 1 : 1 - cityLoads / (double) streetLookups;
+	}
+
+	/**
+	 * @return part of building and street way checks answered by bloom filters
+	 */
+	public double getFilterHitRate() {
+		long checks = buildingChecks + streetWayChecks;
+		return checks == 0 ? 1 : 1 - (buildingDbChecks + streetWayDbChecks) / (double) checks;
+	}
+
+	public int getCachedStreets() {
+		return cachedStreets;
+	}
+
+	public String getStatistics() {
+		return String.format("Streets: %d lookups, hit rate %.4f, %d cached in %d cities (limit %d), "
+				+ "%d city loads (%d streets), %d evictions. Buildings: %d checks, %d in db, %d false positives. "
+				+ "Street ways: %d checks, %d in db, %d false positives. Filters %d Kb, %d strings",
+				streetLookups, getStreetHitRate(), cachedStreets, cities.size(), maxCachedStreets, cityLoads,
+				loadedStreets, cityEvictions, buildingChecks, buildingDbChecks, buildingFalsePositives, streetWayChecks,
+				streetWayDbChecks, streetWayFalsePositives, (buildings.getSizeInBytes() + streetWays.getSizeInBytes()) >> 10,
+				strings.size());
+	}
+
+	/**
+	 * Bloom filter of ids which grows by filters of double capacity, so number of ids is not needed in advance.
+	 * 10 bits and 7 hashes per id give ~1% false positives for every filter.
+	 */
+	static class LongBloomFilter {
+		private static final int BITS_PER_ID = 10;
+		private static final int HASHES = 7;
+		private static final int INITIAL_CAPACITY = 1 << 16;
+
+		private final List<long[]> filters = new ArrayList<long[]>();
+		private int capacity;
+		private int count;
+
+		public LongBloomFilter() {
+			addFilter(INITIAL_CAPACITY);
+		}
+
+		private void addFilter(int capacity) {
+			this.capacity = capacity;
+			this.count = 0;
+			// power of 2 bits
+			int bits = Integer.highestOneBit(capacity * BITS_PER_ID - 1) << 1;
+			filters.add(new long[bits >> 6]);
+		}
+
+		private static long mix(long id) {
+			id ^= id >>> 33;
+			id *= 0xff51afd7ed558ccdl;
+			id ^= id >>> 33;
+			id *= 0xc4ceb9fe1a85ec53l;
+			id ^= id >>> 33;
+			return id;
+		}
+
+		public void add(long id) {
+			if (mightContain(id)) {
+				return;
+			}
+			if (count >= capacity) {
+				addFilter(capacity * 2);
+			}
+			long[] f = filters.get(filters.size() - 1);
+			long h = mix(id);
+			int h1 = (int) h;
+			int h2 = (int) (h >>> 32);
+			int mask = (f.length << 6) - 1;
+			for (int i = 0; i < HASHES; i++) {
+				int b = (h1 + i * h2) & mask;
+				f[b >>> 6] |= 1l << b;
+			}
+			count++;
+		}
+
+		public boolean mightContain(long id) {
+			long h = mix(id);
+			int h1 = (int) h;
+			int h2 = (int) (h >>> 32);
+			for (int k = 0; k < filters.size(); k++) {
+				long[] f = filters.get(k);
+				int mask = (f.length << 6) - 1;
+				boolean all = true;
+				for (int i = 0; i < HASHES && all; i++) {
+					int b = (h1 + i * h2) & mask;
+					all = (f[b >>> 6] & (1l << b)) != 0;
+				}
+				if (all) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public long getSizeInBytes() {
+			long sz = 0;
+			for (long[] f : filters) {
+				sz += f.length * 8l;
+			}
+			return sz;
+		}
+	}
+}
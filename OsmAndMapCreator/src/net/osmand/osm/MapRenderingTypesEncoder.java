@@ -37,6 +37,15 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 	// stored information to convert from osm tags to int type
 	private List<MapRouteTag> routeTags = new ArrayList<MapRouteTag>();
 	private Map<String, List<EntityConvert>> convertTags = new HashMap<String, List<EntityConvert>>();
+	// converts indexed by from tag and lower case from value, built on first use (published after condition tags)
+	private volatile Map<String, ConvertIndex> convertIndex;
+	// tags used by any convert condition, only them define applicable converts
+	private Set<String> convertConditionTags;
+	// access ordered, so even lookups are done under the lock of the synchronized map
+	private Map<List<Object>, List<EntityConvert>> convertsCache;
+	private int convertsCacheSize = DEFAULT_CONVERTS_CACHE_SIZE;
+	private boolean compiledConverts = true;
+	public static final int DEFAULT_CONVERTS_CACHE_SIZE = 5000;
 	private MapRulType coastlineRuleType;
 	private String regionName;
 	public static final String OSMAND_REGION_NAME_TAG = "osmand_region_name";
@@ -53,6 +62,21 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 		this.regionName = "$" + regionName.toLowerCase() + "^";
 	}
 	
+	/**
+	 * Size of the cache of applicable converts by relevant tags (0 - disabled)
+	 */
+	public synchronized void setConvertsCacheSize(int convertsCacheSize) {
+		this.convertsCacheSize = convertsCacheSize;
+		this.convertsCache = null;
+	}
+
+	/**
+	 * Switches between indexed converts and evaluation of every convert (used to verify equivalence)
+	 */
+	public void setCompiledConverts(boolean compiledConverts) {
+		this.compiledConverts = compiledConverts;
+	}
+
 	private void initSocketTypes() {
 		Map<String, TIntArrayList> m = new HashMap<>();
 		m.put("socket:type2:output", new TIntArrayList(new int[] {20, 35}));
@@ -198,6 +222,8 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 					convertTags.put(ec.fromTag.tag, new ArrayList<MapRenderingTypesEncoder.EntityConvert>());
 				}
 				convertTags.get(ec.fromTag.tag).add(ec);
+				ec.order = convertTags.get(ec.fromTag.tag).size();
+				convertIndex = null;
 			}
 			String appTo = mp.get("apply_to"); //$NON-NLS-1$
 			if (appTo != null) {
@@ -688,16 +714,168 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 
 	protected List<EntityConvert> getApplicableConverts(Map<String, String> tags, EntityType entity,
 			EntityConvertType filter, EntityConvertApplyType appFilter) {
+		if (!compiledConverts) {
+			return getApplicableConvertsInterpreted(tags, entity, filter, appFilter);
+		}
+		Map<String, ConvertIndex> index = getConvertIndex();
+		List<Object> key = null;
+		Map<List<Object>, List<EntityConvert>> cache = null;
+		if (convertsCacheSize > 0) {
+			for (Map.Entry<String, String> e : tags.entrySet()) {
+				if (convertConditionTags.contains(e.getKey())) {
+					if (key == null) {
+						key = new ArrayList<Object>();
+						key.add(entity);
+						key.add(filter);
+						key.add(appFilter);
+					}
+					key.add(e.getKey());
+					key.add(e.getValue());
+				}
+			}
+			if (key == null) {
+				// no tag is used by converts
+				return null;
+			}
+			cache = getConvertsCache();
+			synchronized (cache) {
+				if (cache.containsKey(key)) {
+					return cache.get(key);
+				}
+			}
+		}
+		List<EntityConvert> listToConvert = null;
+		boolean verbose = false;
+		for (Map.Entry<String, String> e : tags.entrySet()) {
+			ConvertIndex ci = index.get(e.getKey());
+			if (ci == null || e.getValue() == null) {
+				continue;
+			}
+			List<EntityConvert> byValue = ci.byValue.get(e.getValue().toLowerCase());
+			List<EntityConvert> anyValue = ci.anyValue;
+			// merge both lists in order of declaration
+			int i = 0;
+			int j = 0;
+			int si = byValue == null ? 0 : byValue.size();
+			while (i < si || j < anyValue.size()) {
+				EntityConvert ec;
+				if (j >= anyValue.size() || (i < si && byValue.get(i).order < anyValue.get(j).order)) {
+					ec = byValue.get(i++);
+				} else {
+					ec = anyValue.get(j++);
+				}
+				if (ec.verbose) {
+					verbose = true;
+					logVerboseConvert(tags, entity, filter, appFilter, ec);
+				}
+				if (ec.type == filter && ec.applyToType.contains(appFilter) && checkConvert(tags, ec, entity)) {
+					if (listToConvert == null) {
+						listToConvert = new ArrayList<EntityConvert>();
+					}
+					listToConvert.add(ec);
+				}
+			}
+		}
+		// verbose converts are logged every time
+		if (key != null && !verbose) {
+			cache.put(key, listToConvert);
+		}
+		return listToConvert;
+	}
+
+	private synchronized Map<List<Object>, List<EntityConvert>> getConvertsCache() {
+		if (convertsCache == null) {
+			final int size = convertsCacheSize;
+			convertsCache = Collections.synchronizedMap(new LinkedHashMap<List<Object>, List<EntityConvert>>(size,
+					0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<Object>, List<EntityConvert>> eldest) {
+					return size() > size;
+				}
+			});
+		}
+		return convertsCache;
+	}
+
+	private Map<String, ConvertIndex> getConvertIndex() {
+		Map<String, ConvertIndex> ind = convertIndex;
+		if (ind != null) {
+			return ind;
+		}
+		synchronized (this) {
+			if (convertIndex == null) {
+				Map<String, ConvertIndex> index = new HashMap<String, ConvertIndex>();
+				Set<String> conditionTags = new HashSet<String>();
+				conditionTags.add(OSMAND_REGION_NAME_TAG);
+				for (Map.Entry<String, List<EntityConvert>> e : convertTags.entrySet()) {
+					ConvertIndex ci = new ConvertIndex();
+					for (EntityConvert ec : e.getValue()) {
+						if (ec.fromTag.value == null) {
+							ci.anyValue.add(ec);
+						} else {
+							String vl = ec.fromTag.value.toLowerCase();
+							if (!ci.byValue.containsKey(vl)) {
+								ci.byValue.put(vl, new ArrayList<EntityConvert>());
+							}
+							ci.byValue.get(vl).add(ec);
+						}
+						addConditionTags(conditionTags, ec);
+					}
+					index.put(e.getKey(), ci);
+					conditionTags.add(e.getKey());
+				}
+				convertConditionTags = conditionTags;
+				convertsCache = null;
+				convertIndex = index;
+			}
+			return convertIndex;
+		}
+	}
+
+	private void addConditionTags(Set<String> conditionTags, EntityConvert ec) {
+		List<List<TagValuePattern>> cols = Arrays.asList(ec.ifTags, ec.ifNotTags, ec.ifStartsTags, ec.ifNotStartsTags,
+				ec.ifEndsTags, ec.ifNotEndsTags, ec.ifContainsTags, ec.ifNotContainsTags, ec.ifTagsLess,
+				ec.ifTagsNotLess);
+		for (List<TagValuePattern> col : cols) {
+			for (TagValuePattern p : col) {
+				conditionTags.add(p.tag);
+			}
+		}
+	}
+
+	private void logVerboseConvert(Map<String, String> tags, EntityType entity, EntityConvertType filter,
+			EntityConvertApplyType appFilter, EntityConvert ec) {
+		String verbose = "Apply entity convert from '" + ec.fromTag + "' to " + tags + " in " + appFilter;
+		boolean check = checkConvert(tags, ec, entity);
+		if (check && ec.type == filter && ec.applyToType.contains(appFilter)) {
+			verbose += " - has succeeded";
+		} else {
+			verbose += " - has failed due to ";
+			if (!check) {
+				verbose += "if conditions;";
+			}
+			if (ec.type != filter) {
+				verbose += " transform " + filter + "!= " + ec.type + ";";
+			}
+			if (!ec.applyToType.contains(appFilter)) {
+				verbose += " appFilter " + appFilter + ";";
+			}
+		}
+		log.info(verbose);
+	}
+
+	private List<EntityConvert> getApplicableConvertsInterpreted(Map<String, String> tags, EntityType entity,
+			EntityConvertType filter, EntityConvertApplyType appFilter) {
 		List<EntityConvert> listToConvert = null;
 		for(Map.Entry<String, String> e : tags.entrySet()) {
 			List<EntityConvert> list = convertTags.get(e.getKey());
 			if (list != null) {
 				for (EntityConvert ec : list) {
 					if (checkConvertValue(ec.fromTag, e.getValue())) {
-						String verbose = null;
-						if(ec.verbose) {
-							verbose = "Apply entity convert from '"+ec.fromTag+"' to " + tags + " in " +
-									appFilter;
+						if (ec.verbose) {
+							logVerboseConvert(tags, entity, filter, appFilter, ec);
 						}
 						if (checkConvert(tags, ec, entity) && ec.type == filter &&
 								ec.applyToType.contains(appFilter)) {
@@ -705,26 +883,6 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 								listToConvert = new ArrayList<EntityConvert>();
 							}
 							listToConvert.add(ec);
-							if (verbose != null) {
-								verbose += " - has succeeded";
-							}
-						} else {
-							if (verbose != null) {
-								verbose += " - has failed due to ";
-								if(!checkConvert(tags, ec, entity)) {
-									verbose += "if conditions;";
-								}
-								if(ec.type != filter ) {
-									verbose += " transform " + filter + "!= " + ec.type + ";";
-								}
-								if(!ec.applyToType.contains(appFilter)) {
-									verbose += " appFilter "+appFilter+";";
-								}
-
-							}
-						}
-						if(verbose != null) {
-							log.info(verbose);
 						}
 					}
 				}
@@ -1504,8 +1662,15 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 		TAG_TRANSFORM,
 		SPLIT
 	}
+	private static class ConvertIndex {
+		final Map<String, List<EntityConvert>> byValue = new HashMap<String, List<EntityConvert>>();
+		final List<EntityConvert> anyValue = new ArrayList<EntityConvert>();
+	}
+
 	public static class EntityConvert {
 		public boolean verbose;
+		// position in the list of converts with the same from tag
+		int order;
 		public TagValuePattern fromTag ;
 		public EntityConvertType type;
 		public EnumSet<EntityConvertApplyType> applyToType;
@@ -5,6 +5,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -37,9 +38,22 @@ public class MapRoutingTypes {
 	private static Set<String> BASE_TAGS_TO_SAVE = new HashSet<String>();
 	private static Map<String, String> BASE_TAGS_TO_REPLACE = new HashMap<String, String>();
 	private static char TAG_DELIMETER = '/'; //$NON-NLS-1$
+	public static final int DEFAULT_TYPES_CACHE_SIZE = 20000;
+
+	private static final int ACCEPT = 1;
+	private static final int SAVE = 2;
+	private static final int TEXT = 4;
+	private static final int BASE_SAVE = 8;
+	private static final int BASE_TEXT = 16;
 
-	private Map<String, MapRouteType> types = new LinkedHashMap<String, MapRoutingTypes.MapRouteType>();
 	private List<MapRouteType> listTypes = new ArrayList<MapRoutingTypes.MapRouteType>();
+	// rules and registered types by tag, built on first use
+	private Map<String, TagRules> tagRules = new HashMap<String, TagRules>();
+	private Map<String, List<String>> ruleKeysByTag;
+	private Map<TagsSignature, EncodedTypes> typesCache;
+	private TagsSignature signature = new TagsSignature();
+	private int typesCacheSize = DEFAULT_TYPES_CACHE_SIZE;
+	private boolean compiledRules = true;
 	private MapRouteType refRuleType;
 	private MapRouteType nameRuleType;
 	private MapRenderingTypesEncoder encoder;
@@ -82,6 +96,22 @@ public class MapRoutingTypes {
 		}
 	}
 
+	/**
+	 * Size of the cache of encoded types by tags signature, it is cleared when full (0 - disabled)
+	 */
+	public void setTypesCacheSize(int typesCacheSize) {
+		this.typesCacheSize = typesCacheSize;
+		this.typesCache = null;
+	}
+
+	/**
+	 * Switches between rules looked up by tag and value and lookups of "tag/value" strings (used to verify
+	 * equivalence)
+	 */
+	public void setCompiledRules(boolean compiledRules) {
+		this.compiledRules = compiledRules;
+	}
+
 	public static String constructRuleKey(String tag, String val) {
 		if(val == null || val.length() == 0){
 			return tag;
@@ -209,7 +239,129 @@ public class MapRoutingTypes {
 	}
 
 
-	public boolean encodeEntity(Map<String, String> tags, TIntArrayList outTypes, Map<MapRouteType, String> names){
+	public boolean encodeEntity(Map<String, String> tags, TIntArrayList outTypes, Map<MapRouteType, String> names) {
+		if (!compiledRules) {
+			return encodeEntityInterpreted(tags, outTypes, names);
+		}
+		return encodeEntity(tags, outTypes, names, false);
+	}
+
+	public boolean encodeBaseEntity(Map<String, String> tags, TIntArrayList outTypes, Map<MapRouteType, String> names) {
+		if (!compiledRules) {
+			return encodeBaseEntityInterpreted(tags, outTypes, names);
+		}
+		return encodeEntity(tags, outTypes, names, true);
+	}
+
+	private boolean encodeEntity(Map<String, String> tags, TIntArrayList outTypes, Map<MapRouteType, String> names,
+			boolean base) {
+		TagsSignature key = signature;
+		key.clear(base);
+		for (Entry<String, String> es : tags.entrySet()) {
+			TagRules r = getTagRules(es.getKey());
+			if (!r.skip) {
+				key.add(r, r.valueFree ? null : es.getValue(), es.getValue());
+			}
+		}
+		EncodedTypes enc = null;
+		if (typesCacheSize > 0) {
+			if (typesCache == null) {
+				typesCache = new HashMap<TagsSignature, EncodedTypes>();
+			} else {
+				enc = typesCache.get(key);
+			}
+		}
+		if (enc == null) {
+			enc = encodeTypes(key);
+			if (typesCacheSize > 0) {
+				if (typesCache.size() >= typesCacheSize) {
+					typesCache.clear();
+				}
+				typesCache.put(key.copy(), enc);
+			}
+		}
+		if (!enc.accepted) {
+			return false;
+		}
+		outTypes.clear();
+		names.clear();
+		for (int k = 0; k < key.size; k++) {
+			MapRouteType nameType = enc.nameTypes[k];
+			if (nameType != null) {
+				nameType.freq++;
+				String name = enc.names[k];
+				names.put(nameType, name != null ? name : converBooleanValue(key.tagValues[k]));
+			}
+			MapRouteType type = enc.types[k];
+			if (type != null) {
+				type.freq++;
+				outTypes.add(type.id);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Types of every tag of signature, names of tags with value free rules are taken from the entity
+	 */
+	private EncodedTypes encodeTypes(TagsSignature key) {
+		EncodedTypes enc = new EncodedTypes(key.size);
+		for (int k = 0; k < key.size && !enc.accepted; k++) {
+			TagRules r = key.rules[k];
+			String value = key.tagValues[k];
+			if (key.base) {
+				enc.accepted = r.contains(ACCEPT, value)
+						&& (value.startsWith("trunk") || value.startsWith("motorway")
+								|| value.startsWith("primary") || value.startsWith("secondary")
+								|| value.startsWith("tertiary") || value.startsWith("ferry"));
+			} else {
+				enc.accepted = testNonParseableRules(r.tag, value) && r.contains(ACCEPT, value);
+			}
+		}
+		if (!enc.accepted) {
+			return enc;
+		}
+		for (int k = 0; k < key.size; k++) {
+			TagRules r = key.rules[k];
+			String value = converBooleanValue(key.tagValues[k]);
+			if (!testNonParseableRules(r.tag, value)) {
+				continue;
+			}
+			boolean valueFree = r.valueFree;
+			String[] tvl;
+			if (key.base) {
+				tvl = r.getReplace(true, value);
+			} else {
+				TagRules lr = r.lowerCase;
+				tvl = lr.getReplace(false, lr.values == null ? value : value.toLowerCase());
+			}
+			if (tvl != null) {
+				r = getTagRules(tvl[0]);
+				value = tvl[1];
+			}
+			if (key.base) {
+				if ((r.flags & BASE_TEXT) != 0 && r.validateType(value)) {
+					enc.nameTypes[k] = getRule(r, null);
+					enc.names[k] = valueFree ? null : value;
+				}
+				if ((r.contains(ACCEPT, value) || r.startsWith(BASE_SAVE, value)) && r.validateType(value)) {
+					enc.types[k] = getRule(r, value);
+				}
+			} else if (r.startsWith(TEXT, value)) {
+				if (r.validateType(value)) {
+					enc.nameTypes[k] = getRule(r, null);
+					enc.names[k] = valueFree ? null : value;
+				}
+			} else if (r.contains(ACCEPT, value) || r.startsWith(SAVE, value) || r.getReplace(false, value) != null) {
+				if (r.validateType(value)) {
+					enc.types[k] = getRule(r, value);
+				}
+			}
+		}
+		return enc;
+	}
+
+	private boolean encodeEntityInterpreted(Map<String, String> tags, TIntArrayList outTypes, Map<MapRouteType, String> names){
 		boolean init = false;
 		for(Entry<String, String> es : tags.entrySet()) {
 			String tag = es.getKey();
@@ -252,7 +404,7 @@ public class MapRoutingTypes {
 		return true;
 	}
 
-	public boolean encodeBaseEntity(Map<String, String> tags, TIntArrayList outTypes, Map<MapRouteType, String> names){
+	private boolean encodeBaseEntityInterpreted(Map<String, String> tags, TIntArrayList outTypes, Map<MapRouteType, String> names){
 		boolean init = false;
 		for(Entry<String, String> es : tags.entrySet()) {
 			String tag = es.getKey();
@@ -355,27 +507,286 @@ public class MapRoutingTypes {
 	}
 
 	private MapRouteType registerRule(String tag, String val) {
-		String id = constructRuleKey(tag, val);
-		if(!types.containsKey(id)) {
-			MapRouteType rt = new MapRouteType();
+		MapRouteType type = getRule(getTagRules(tag), val);
+		type.freq ++;
+		return type;
+	}
+
+	private MapRouteType getRule(TagRules r, String val) {
+		String tag = r.tag;
+		TagRules owner = r;
+		String key = val == null || val.length() == 0 ? null : val;
+		if (r.delimited) {
+			// same key as "tag/value" string
+			String id = constructRuleKey(tag, val);
+			int i = id.indexOf(TAG_DELIMETER);
+			owner = getTagRules(id.substring(0, i));
+			key = id.substring(i + 1);
+		}
+		MapRouteType type = key == null ? owner.textType : owner.types == null ? null : owner.types.get(key);
+		if (type == null) {
+			type = new MapRouteType();
 			// first one is always 1
-			rt.id = types.size() + 1;
-			rt.tag = tag;
-			rt.value = val;
-			types.put(id, rt);
-			listTypes.add(rt);
+			type.id = listTypes.size() + 1;
+			type.tag = tag;
+			type.value = val;
+			listTypes.add(type);
+			if (key == null) {
+				owner.textType = type;
+			} else {
+				if (owner.types == null) {
+					owner.types = new HashMap<String, MapRouteType>();
+				}
+				owner.types.put(key, type);
+			}
 			if(tag.equals("ref")){
-				refRuleType = rt;
+				refRuleType = type;
 			}
 			if(tag.equals("name")){
-				nameRuleType = rt;
+				nameRuleType = type;
 			}
 		}
-		MapRouteType type = types.get(id);
-		type.freq ++;
 		return type;
 	}
 
+	private TagRules getTagRules(String tag) {
+		TagRules r = tagRules.get(tag);
+		if (r != null) {
+			return r;
+		}
+		if (ruleKeysByTag == null) {
+			ruleKeysByTag = new HashMap<String, List<String>>();
+			Set<String> keys = new HashSet<String>();
+			keys.addAll(TAGS_TO_ACCEPT);
+			keys.addAll(TAGS_TO_SAVE);
+			keys.addAll(TAGS_TEXT);
+			keys.addAll(TAGS_TO_REPLACE.keySet());
+			keys.addAll(BASE_TAGS_TO_SAVE);
+			keys.addAll(BASE_TAGS_TEXT);
+			keys.addAll(BASE_TAGS_TO_REPLACE.keySet());
+			for (String k : keys) {
+				for (int i = k.indexOf(TAG_DELIMETER); i >= 0; i = k.indexOf(TAG_DELIMETER, i + 1)) {
+					String t = k.substring(0, i);
+					if (!ruleKeysByTag.containsKey(t)) {
+						ruleKeysByTag.put(t, new ArrayList<String>());
+					}
+					ruleKeysByTag.get(t).add(k);
+				}
+			}
+		}
+		r = new TagRules(tag);
+		r.flags = getFlags(tag);
+		r.prefixFlags = (startsWithPrefix(TAGS_TO_SAVE, tag) ? SAVE : 0)
+				| (startsWithPrefix(BASE_TAGS_TO_SAVE, tag) ? BASE_SAVE : 0)
+				| (startsWithPrefix(TAGS_TEXT, tag) ? TEXT : 0);
+		r.type = TAGS_TYPE.get(tag);
+		r.replace = splitRuleKey(TAGS_TO_REPLACE.get(tag));
+		r.baseReplace = splitRuleKey(BASE_TAGS_TO_REPLACE.get(tag));
+		List<String> keys = ruleKeysByTag.get(tag);
+		if (keys != null) {
+			r.values = new HashMap<String, ValueRules>();
+			for (String k : keys) {
+				ValueRules vr = new ValueRules();
+				vr.flags = getFlags(k);
+				vr.replace = splitRuleKey(TAGS_TO_REPLACE.get(k));
+				vr.baseReplace = splitRuleKey(BASE_TAGS_TO_REPLACE.get(k));
+				r.values.put(k.substring(tag.length() + 1), vr);
+			}
+		}
+		tagRules.put(tag, r);
+		String lower = tag.toLowerCase();
+		r.lowerCase = lower.equals(tag) ? r : getTagRules(lower);
+		boolean noReplace = r.replace == null && r.baseReplace == null && r.lowerCase.replace == null
+				&& r.lowerCase.values == null;
+		r.valueFree = noReplace && r.values == null && r.type == null && !tag.equals("maxspeed")
+				&& ((r.flags | r.prefixFlags) & (ACCEPT | SAVE | BASE_SAVE)) == 0;
+		r.skip = r.valueFree && ((r.flags | r.prefixFlags) & (TEXT | BASE_TEXT)) == 0;
+		return r;
+	}
+
+	private static int getFlags(String key) {
+		return (TAGS_TO_ACCEPT.contains(key) ? ACCEPT : 0) | (TAGS_TO_SAVE.contains(key) ? SAVE : 0)
+				| (TAGS_TEXT.contains(key) ? TEXT : 0) | (BASE_TAGS_TO_SAVE.contains(key) ? BASE_SAVE : 0)
+				| (BASE_TAGS_TEXT.contains(key) ? BASE_TEXT : 0);
+	}
+
+	private static boolean startsWithPrefix(Set<String> s, String tag) {
+		for (String st : s) {
+			if (tag.startsWith(st + ":")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String[] splitRuleKey(String tvl) {
+		if (tvl == null) {
+			return null;
+		}
+		int i = tvl.indexOf(TAG_DELIMETER);
+		if (i < 0) {
+			return new String[] { tvl, null };
+		}
+		return new String[] { tvl.substring(0, i), tvl.substring(i + 1) };
+	}
+
+	/**
+	 * Rules of tag (as it would be found in rule sets by "tag" and "tag/value") and types registered for it
+	 */
+	private static class TagRules {
+		final String tag;
+		final boolean delimited;
+		int flags;
+		// tag starts with "rule:"
+		int prefixFlags;
+		String type;
+		String[] replace;
+		String[] baseReplace;
+		Map<String, ValueRules> values;
+		// rules used to replace tag in lower case
+		TagRules lowerCase;
+		// value only goes to names
+		boolean valueFree;
+		// tag is never encoded
+		boolean skip;
+		MapRouteType textType;
+		Map<String, MapRouteType> types;
+
+		TagRules(String tag) {
+			this.tag = tag;
+			this.delimited = tag.indexOf(TAG_DELIMETER) >= 0;
+		}
+
+		boolean contains(int flag, String value) {
+			if ((flags & flag) != 0) {
+				return true;
+			}
+			ValueRules vr = values == null ? null : values.get(value);
+			return vr != null && (vr.flags & flag) != 0;
+		}
+
+		boolean startsWith(int flag, String value) {
+			return (prefixFlags & flag) != 0 || contains(flag, value);
+		}
+
+		String[] getReplace(boolean base, String value) {
+			String[] r = base ? baseReplace : replace;
+			if (r == null && values != null) {
+				ValueRules vr = values.get(value);
+				if (vr != null) {
+					r = base ? vr.baseReplace : vr.replace;
+				}
+			}
+			return r;
+		}
+
+		boolean validateType(String value) {
+			if (type != null) {
+				try {
+					if (type.equals("length")) {
+						return RouteDataObject.parseLength(value, -1) != -1;
+					}
+					if (type.equals("weight")) {
+						return RouteDataObject.parseWeightInTon(value, -1) != -1;
+					}
+					if (type.equals("speed")) {
+						return RouteDataObject.parseSpeed(value, -1) != -1;
+					}
+				} catch (Exception e) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class ValueRules {
+		int flags;
+		String[] replace;
+		String[] baseReplace;
+	}
+
+	/**
+	 * Rules of entity tags in order with values which could change encoding
+	 */
+	private static class TagsSignature {
+		boolean base;
+		int size;
+		TagRules[] rules = new TagRules[16];
+		String[] values = new String[16];
+		// values of the entity (not a part of signature)
+		String[] tagValues = new String[16];
+		int hash;
+
+		void clear(boolean base) {
+			this.base = base;
+			this.size = 0;
+			this.hash = base ? 1 : 0;
+		}
+
+		void add(TagRules r, String value, String tagValue) {
+			if (size == rules.length) {
+				rules = Arrays.copyOf(rules, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+				tagValues = Arrays.copyOf(tagValues, size * 2);
+			}
+			rules[size] = r;
+			values[size] = value;
+			tagValues[size] = tagValue;
+			size++;
+			hash = (hash * 31 + r.hashCode()) * 31 + (value == null ? 0 : value.hashCode());
+		}
+
+		TagsSignature copy() {
+			TagsSignature s = new TagsSignature();
+			s.base = base;
+			s.size = size;
+			s.rules = Arrays.copyOf(rules, size);
+			s.values = Arrays.copyOf(values, size);
+			s.tagValues = null;
+			s.hash = hash;
+			return s;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TagsSignature)) {
+				return false;
+			}
+			TagsSignature s = (TagsSignature) obj;
+			if (s.hash != hash || s.size != size || s.base != base) {
+				return false;
+			}
+			for (int i = 0; i < size; i++) {
+				if (s.rules[i] != rules[i] || !Algorithms.objectEquals(s.values[i], values[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Types (and names of replaced or value dependent tags) by index of tag in signature
+	 */
+	private static class EncodedTypes {
+		boolean accepted;
+		final MapRouteType[] types;
+		final MapRouteType[] nameTypes;
+		final String[] names;
+
+		EncodedTypes(int size) {
+			types = new MapRouteType[size];
+			nameTypes = new MapRouteType[size];
+			names = new String[size];
+		}
+	}
+
 	public static class MapRouteType {
 		int freq = 0;
 		int id;
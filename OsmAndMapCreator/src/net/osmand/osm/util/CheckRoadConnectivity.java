@@ -1,6 +1,8 @@
 package net.osmand.osm.util;
 
 import gnu.trove.iterator.TLongIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -14,7 +16,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.PlatformUtil;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
@@ -29,16 +38,41 @@ import net.osmand.router.RoutingContext.RoutingSubregionTile;
 import net.osmand.router.VehicleRouter;
 import net.osmand.util.MapUtils;
 
+import org.apache.commons.logging.Log;
+
 public class CheckRoadConnectivity {
+	private static final Log log = PlatformUtil.getLog(CheckRoadConnectivity.class);
 	public static boolean TRACE = false;
 
+	// isolated fragments of base roads are small, bigger components are the main network of the region
+	private static final int DEFAULT_MAX_COMPONENT_ROADS = 1000;
+
+	private int threads = 1;
+	private int maxComponentRoads = DEFAULT_MAX_COMPONENT_ROADS;
+
+	/**
+	 * Searches of connecting roads run on the pool of threads, every thread reads the file with its own reader
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Dead ends of base road components with more roads than limit are considered connected and are not searched.
+	 * It is an approximation, with 0 all dead ends are searched.
+	 */
+	public void setMaxComponentRoads(int maxComponentRoads) {
+		this.maxComponentRoads = maxComponentRoads;
+	}
+
 	public static void main(String[] args) throws IOException {
 
 		CheckRoadConnectivity crc = new CheckRoadConnectivity();
 		File fl = new File("/home/victor/projects/osmand/osm-gen/Brazil_southamerica_2.obf");
 		RandomAccessFile raf = new RandomAccessFile(fl, "r"); //$NON-NLS-1$ //$NON-NLS-2$
 
-		crc.collectDisconnectedRoads(new BinaryMapIndexReader(raf, fl));
+		crc.setThreads(Runtime.getRuntime().availableProcessors());
+		crc.collectDisconnectedRoads(new BinaryMapIndexReader(raf, fl), fl);
 //		ClusteringContext ctx = new ClusteringContext();
 //		crc.clustering(ctx, new BinaryMapIndexReader(raf));
 	}
@@ -74,16 +108,105 @@ public class CheckRoadConnectivity {
 	}
 
 	public TLongObjectHashMap<RouteDataObject> collectDisconnectedRoads(BinaryMapIndexReader reader) throws IOException {
+		return collectDisconnectedRoads(reader, null);
+	}
+
+	/**
+	 * @param file file of the reader, it is opened once per thread if more than 1 thread is used
+	 */
+	public TLongObjectHashMap<RouteDataObject> collectDisconnectedRoads(BinaryMapIndexReader reader, File file)
+			throws IOException {
+		return collectDisconnectedRoads(reader, file, null);
+	}
+
+	/**
+	 * @param setToRemove ids of base roads isolated from both ends are added to it (could be null)
+	 */
+	TLongObjectHashMap<RouteDataObject> collectDisconnectedRoads(BinaryMapIndexReader reader, File file,
+			TLongHashSet setToRemove) throws IOException {
 		TLongObjectHashMap<List<RouteDataObject>> all = new TLongObjectHashMap<List<RouteDataObject>>();
 		TLongObjectHashMap<List<RouteDataObject>> onlyRoads = new TLongObjectHashMap<List<RouteDataObject>>();
 		TLongHashSet registeredRoadIds = new TLongHashSet();
-		findAllBaseRoadIntersections(reader, all, onlyRoads, registeredRoadIds);
-		return calculateDisconnectedRoadsToAddAndDelete(onlyRoads, all, reader, null, registeredRoadIds);
+		PointComponents components = new PointComponents();
+		findAllBaseRoadIntersections(reader, all, onlyRoads, registeredRoadIds, components);
+		return calculateDisconnectedRoadsToAddAndDelete(onlyRoads, all, reader, file, setToRemove, registeredRoadIds,
+				components);
+	}
+
+	/**
+	 * Union-find of base road points, roads connect all their points
+	 */
+	private static class PointComponents {
+		private final TLongIntHashMap ids = new TLongIntHashMap();
+		private final TIntArrayList parent = new TIntArrayList();
+		private final TIntArrayList roads = new TIntArrayList();
+
+		private int getId(long pointId) {
+			if (ids.containsKey(pointId)) {
+				return ids.get(pointId);
+			}
+			int id = parent.size();
+			ids.put(pointId, id);
+			parent.add(id);
+			roads.add(0);
+			return id;
+		}
+
+		private int find(int id) {
+			while (parent.get(id) != id) {
+				int p = parent.get(parent.get(id));
+				parent.set(id, p);
+				id = p;
+			}
+			return id;
+		}
+
+		private int union(int a, int b) {
+			int ra = find(a);
+			int rb = find(b);
+			if (ra == rb) {
+				return ra;
+			}
+			if (roads.get(ra) < roads.get(rb)) {
+				int t = ra;
+				ra = rb;
+				rb = t;
+			}
+			parent.set(rb, ra);
+			roads.set(ra, roads.get(ra) + roads.get(rb));
+			return ra;
+		}
+
+		public void addRoad(long[] points) {
+			int root = getId(points[0]);
+			for (int i = 1; i < points.length; i++) {
+				root = union(root, getId(points[i]));
+			}
+			root = find(root);
+			roads.set(root, roads.get(root) + 1);
+		}
+
+		public int getComponentRoads(long pointId) {
+			if (!ids.containsKey(pointId)) {
+				return 0;
+			}
+			return roads.get(find(ids.get(pointId)));
+		}
+
+		public int getComponentsCount() {
+			int cnt = 0;
+			for (int i = 0; i < parent.size(); i++) {
+				if (parent.get(i) == i) {
+					cnt++;
+				}
+			}
+			return cnt;
+		}
 	}
 
 	private void findAllBaseRoadIntersections(BinaryMapIndexReader reader,
 			TLongObjectHashMap<List<RouteDataObject>> all, TLongObjectHashMap<List<RouteDataObject>> onlyRoads,
-			TLongHashSet registeredRoadIds)
+			TLongHashSet registeredRoadIds, PointComponents components)
 			throws IOException {
 		RoutePlannerFrontEnd router = new RoutePlannerFrontEnd(false);
 		Builder builder = RoutingConfiguration.getDefault();
@@ -122,9 +245,12 @@ public class CheckRoadConnectivity {
 					addPoint(onlyRoads, o, b);
 					addPoint(onlyRoads, o, e);
 				}
+				long[] points = new long[o.getPointsLength()];
 				for(int i = 0; i < o.getPointsLength(); i++) {
-					addPoint(all, o, calcPointId(o, i));
+					points[i] = calcPointId(o, i);
+					addPoint(all, o, points[i]);
 				}
+				components.addRoad(points);
 			}
 		}
 	}
@@ -137,32 +263,57 @@ public class CheckRoadConnectivity {
 	}
 
 	private TLongObjectHashMap<RouteDataObject> calculateDisconnectedRoadsToAddAndDelete(TLongObjectHashMap<List<RouteDataObject>> mapOfObjectToCheck,
-			TLongObjectHashMap<List<RouteDataObject>> all, BinaryMapIndexReader reader, TLongHashSet setToRemove, TLongHashSet registeredIds) {
+			final TLongObjectHashMap<List<RouteDataObject>> all, final BinaryMapIndexReader reader, final File file,
+			TLongHashSet setToRemove, TLongHashSet registeredIds, PointComponents components) throws IOException {
 		RoutePlannerFrontEnd frontEnd = new RoutePlannerFrontEnd(false);
-		RoutingConfiguration config = RoutingConfiguration.getDefault().build("car", 1000);
 
 		long[] keys = mapOfObjectToCheck.keys();
-		TLongObjectHashMap<RouteDataObject> toAdd = new TLongObjectHashMap<RouteDataObject>();
-		TLongHashSet beginIsolated = new TLongHashSet();
-		TLongHashSet endIsolated = new TLongHashSet();
+		List<RouteDataObject> candidates = new ArrayList<RouteDataObject>();
+		List<Boolean> candidatesBegin = new ArrayList<Boolean>();
+		int skipped = 0;
 		for(int k = 0; k < keys.length; k++) {
 			long point = keys[k];
 			if(all.get(point).size() == 1) {
+				if (maxComponentRoads > 0 && components.getComponentRoads(point) > maxComponentRoads) {
+					skipped++;
+					continue;
+				}
 				RouteDataObject rdo = all.get(keys[k]).get(0);
-				boolean begin = calcPointId(rdo, 0) == point;
+				candidates.add(rdo);
+				candidatesBegin.add(calcPointId(rdo, 0) == point);
+			}
+		}
+		log.info("Base road components " + components.getComponentsCount() + ", dead ends to check "
+				+ candidates.size() + ", skipped in big components " + skipped);
+
+		List<List<RouteDataObject>> results;
+		if (threads <= 1 || file == null) {
+			results = new ArrayList<List<RouteDataObject>>();
+			RoutingConfiguration config = RoutingConfiguration.getDefault().build("car", 1000);
+			for (int k = 0; k < candidates.size(); k++) {
 				RoutingContext ctx = frontEnd.buildRoutingContext(config, null, new BinaryMapIndexReader[] {reader}, RouteCalculationMode.NORMAL);
-				List<RouteDataObject> result = findConnectedRoads(ctx, rdo, begin, all);
-				if(result == null) {
-					if(begin) {
-						beginIsolated.add(rdo.getId());
-					} else {
-						endIsolated.add(rdo.getId());
-					}
+				results.add(findConnectedRoads(ctx, candidates.get(k), candidatesBegin.get(k), all));
+			}
+		} else {
+			results = findConnectedRoadsParallel(candidates, candidatesBegin, all, frontEnd, file);
+		}
+
+		TLongObjectHashMap<RouteDataObject> toAdd = new TLongObjectHashMap<RouteDataObject>();
+		TLongHashSet beginIsolated = new TLongHashSet();
+		TLongHashSet endIsolated = new TLongHashSet();
+		for (int k = 0; k < candidates.size(); k++) {
+			RouteDataObject rdo = candidates.get(k);
+			List<RouteDataObject> result = results.get(k);
+			if(result == null) {
+				if(candidatesBegin.get(k)) {
+					beginIsolated.add(rdo.getId());
 				} else {
-					for(RouteDataObject obj : result) {
-						if(!registeredIds.contains(obj.id)) {
-							toAdd.put(obj.id, obj);
-						}
+					endIsolated.add(rdo.getId());
+				}
+			} else {
+				for(RouteDataObject obj : result) {
+					if(!registeredIds.contains(obj.id)) {
+						toAdd.put(obj.id, obj);
 					}
 				}
 			}
@@ -179,6 +330,72 @@ public class CheckRoadConnectivity {
 		return toAdd;
 	}
 
+	private List<List<RouteDataObject>> findConnectedRoadsParallel(final List<RouteDataObject> candidates,
+			final List<Boolean> candidatesBegin, final TLongObjectHashMap<List<RouteDataObject>> all,
+			final RoutePlannerFrontEnd frontEnd, final File file) throws IOException {
+		// reader is not thread safe, so every thread opens file separately
+		final List<BinaryMapIndexReader> readers = new ArrayList<BinaryMapIndexReader>();
+		final ThreadLocal<BinaryMapIndexReader> threadReader = new ThreadLocal<BinaryMapIndexReader>() {
+			@Override
+			protected BinaryMapIndexReader initialValue() {
+				try {
+					BinaryMapIndexReader r = new BinaryMapIndexReader(new RandomAccessFile(file, "r"), file); //$NON-NLS-1$
+					synchronized (readers) {
+						readers.add(r);
+					}
+					return r;
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		// router of configuration lazily caches rules of route regions, so it is not shared between threads
+		final ThreadLocal<RoutingConfiguration> threadConfig = new ThreadLocal<RoutingConfiguration>() {
+			@Override
+			protected RoutingConfiguration initialValue() {
+				return RoutingConfiguration.getDefault().build("car", 1000);
+			}
+		};
+		ExecutorService service = Executors.newFixedThreadPool(threads);
+		List<Future<List<RouteDataObject>>> futures = new ArrayList<Future<List<RouteDataObject>>>();
+		for (int k = 0; k < candidates.size(); k++) {
+			final int ind = k;
+			futures.add(service.submit(new Callable<List<RouteDataObject>>() {
+				@Override
+				public List<RouteDataObject> call() throws Exception {
+					RoutingContext ctx = frontEnd.buildRoutingContext(threadConfig.get(), null,
+							new BinaryMapIndexReader[] { threadReader.get() }, RouteCalculationMode.NORMAL);
+					return findConnectedRoads(ctx, candidates.get(ind), candidatesBegin.get(ind), all);
+				}
+			}));
+		}
+		service.shutdown();
+		List<List<RouteDataObject>> results = new ArrayList<List<RouteDataObject>>();
+		try {
+			for (Future<List<RouteDataObject>> f : futures) {
+				results.add(f.get());
+			}
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} finally {
+			// running searches should stop using readers before they are closed
+			service.shutdownNow();
+			try {
+				service.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (readers) {
+				for (BinaryMapIndexReader r : readers) {
+					r.close();
+				}
+			}
+		}
+		return results;
+	}
+
 	private List<RouteDataObject> findConnectedRoads(RoutingContext ctx, RouteDataObject initial, boolean begin,
 			TLongObjectHashMap<List<RouteDataObject>> all) {
 		PriorityQueue<RouteSegment> queue = new PriorityQueue<RouteSegment>(10, new Comparator<RouteSegment>() {
@@ -1,15 +1,29 @@
 package net.osmand.osm.util;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import net.osmand.IndexConstants;
 import net.osmand.PlatformUtil;
@@ -29,6 +43,7 @@ import net.osmand.map.OsmandRegions;
 import net.osmand.osm.MapRenderingTypesEncoder;
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.Way;
+import net.osmand.osm.util.SRTMContourTile.ContourVisitor;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapAlgorithms;
 import net.osmand.util.MapUtils;
@@ -40,18 +55,46 @@ import rtree.RTree;
 
 public class CombineSRTMIntoFile {
 	private static final Log log = PlatformUtil.getLog(CombineSRTMIntoFile.class);
+	// memory used by in memory sqlite and map index creator per byte of converted contours
+	private static final int IN_MEMORY_FACTOR = 40;
+	private static final int MAX_IN_MEMORY_TILES = 100;
+	// memory used by conversion of srtm tile (node index and coordinates) per byte of osm.bz2
+	private static final int CONVERT_MEMORY_FACTOR = 10;
+	// memory used by map index creator with databases on disk (rtree node caches, batches, map objects of one tile)
+	private static final int ON_DISK_MEMORY_MB = 256;
 
-	public static void main(String[] args) throws IOException {
+	static class CountryTask {
+		String name;
+		File targetFile;
+		Multipolygon polygon;
+		List<String> tiles = new ArrayList<String>();
+		// tiles which don't intersect border, all contours of them are inside
+		Set<String> insideTiles = new HashSet<String>();
+		List<File> contourFiles = new ArrayList<File>();
+		long size;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
 		File directoryWithSRTMFiles = new File(args[0]);
 		File directoryWithTargetFiles = new File(args[1]);
 		String ocbfFile = args[2];
 		boolean dryRun = true;
 		String filter = null; // mauritius
+		int threads = Runtime.getRuntime().availableProcessors();
+		long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+		File contoursDir = new File(directoryWithTargetFiles, "contours");
 		for(int i = 3; i < args.length; i++ ){
 			if("--dry-run".equals(args[i])) {
 				dryRun = true;
 			} else if(args[i].startsWith("--filter")) {
 				filter = args[i].substring("--filter".length());
+			} else if(args[i].startsWith("--threads=")) {
+				threads = Integer.parseInt(args[i].substring("--threads=".length()));
+			} else if(args[i].startsWith("--memory=")) {
+				// Mb
+				memoryBudget = Long.parseLong(args[i].substring("--memory=".length())) << 20;
+			} else if(args[i].startsWith("--contours=")) {
+				contoursDir = new File(args[i].substring("--contours=".length()));
 			}
 		}
 		OsmandRegions or = new OsmandRegions();
@@ -62,7 +105,8 @@ public class CombineSRTMIntoFile {
 		int downloadName = mapIndex.getRule("download_name", null);
 		int boundary = mapIndex.getRule("osmand_region", "boundary");
 		int cnt = 1;
-		Set<String> failedCountries = new HashSet<String>();
+		Set<String> failedCountries = Collections.synchronizedSet(new TreeSet<String>());
+		List<CountryTask> tasks = new ArrayList<CountryTask>();
 		for(String fullName : allCountries.keySet()) {
 			LinkedList<BinaryMapDataObject> lst = allCountries.get(fullName);
 			if (fullName == null || (filter != null && !fullName.contains(filter))) {
@@ -80,28 +124,37 @@ public class CombineSRTMIntoFile {
 				String dw = rc.getNameByType(downloadName);
 				System.out.println("Region " + fullName +" " + cnt++ + " out of " + lst.size());
 				try {
-					process(rc, lst.subList(1, lst.size()), dw, directoryWithSRTMFiles, directoryWithTargetFiles, dryRun);
+					CountryTask task = prepareCountry(rc, lst.subList(1, lst.size()), dw, directoryWithTargetFiles);
+					if (task != null) {
+						tasks.add(task);
+					}
 				} catch(Exception e) {
 					failedCountries.add(fullName);
 					e.printStackTrace();
 				}
 			}
 		}
+		if (!dryRun) {
+			processCountries(tasks, directoryWithSRTMFiles, contoursDir, threads, memoryBudget, failedCountries);
+		}
 		if(!failedCountries.isEmpty()) {
 			throw new IllegalStateException("Failed countries " + failedCountries);
 		}
 	}
 
-	private static void process(BinaryMapDataObject country, List<BinaryMapDataObject> boundaries,
-			String downloadName, File directoryWithSRTMFiles, File directoryWithTargetFiles, boolean dryRun) throws IOException, SQLException, InterruptedException, IllegalArgumentException, XmlPullParserException {
+	private static CountryTask prepareCountry(BinaryMapDataObject country, List<BinaryMapDataObject> boundaries,
+			String downloadName, File directoryWithTargetFiles) throws IOException {
 		final String suffix = "_" + IndexConstants.BINARY_MAP_VERSION + IndexConstants.BINARY_SRTM_MAP_INDEX_EXT;
 		String name = country.getName();
 		final File targetFile = new File(directoryWithTargetFiles, Algorithms.capitalizeFirstLetterAndLowercase(downloadName+suffix));
 		if(targetFile.exists()) {
 			System.out.println("Already processed "+ name);
-			return;
+			return null;
 		}
 
+		CountryTask task = new CountryTask();
+		task.name = name;
+		task.targetFile = targetFile;
 		Set<String> srtmFileNames = new TreeSet<String>();
 		QuadRect qr = new QuadRect(180, -90, -180, 90);
 		MultipolygonBuilder bld = new MultipolygonBuilder();
@@ -114,6 +167,7 @@ public class CombineSRTMIntoFile {
 			}
 		}
 		Multipolygon polygon  = bld.build();
+		task.polygon = polygon;
 		System.out.println("RINGS OF MULTIPOLYGON ARE " + polygon.areRingsComplete());
 		int rightLon = (int) Math.floor(qr.right);
 		int leftLon = (int) Math.floor(qr.left);
@@ -122,86 +176,303 @@ public class CombineSRTMIntoFile {
 		boolean onetile = leftLon == rightLon && bottomLat == topLat;
 		for(int lon = leftLon; lon <= rightLon; lon++) {
 			for(int lat = bottomLat; lat <= topLat; lat++) {
-				boolean isOut = !polygon.containsPoint(lat + 0.5, lon + 0.5) && !onetile;
-				if (isOut) {
-					LatLon bl = new LatLon(lat, lon);
-					LatLon br = new LatLon(lat, lon + 1);
-					LatLon tr = new LatLon(lat + 1, lon + 1);
-					LatLon tl = new LatLon(lat + 1, lon);
-					for (Ring r : polygon.getOuterRings()) {
-						List<Node> border = r.getBorder();
-						Node prev = border.get(border.size() - 1);
-						for (int i = 0; i < border.size() && isOut; i++) {
-							Node n = border.get(i);
-							if(MapAlgorithms.linesIntersect(prev.getLatLon(), n.getLatLon(), tr, tl)) {
-								isOut = false;
-							} else if(MapAlgorithms.linesIntersect(prev.getLatLon(), n.getLatLon(), tr, br)) {
-								isOut = false;
-							} else if(MapAlgorithms.linesIntersect(prev.getLatLon(), n.getLatLon(), bl, tl)) {
-								isOut = false;
-							} else if(MapAlgorithms.linesIntersect(prev.getLatLon(), n.getLatLon(), br, bl)) {
-								isOut = false;
-							}
-							prev = n;
-						}
-						if(!isOut) {
-							break;
-						}
-					}
-				}
+				boolean center = polygon.containsPoint(lat + 0.5, lon + 0.5);
+				boolean crosses = crossesBorder(polygon, lat, lon);
+				boolean isOut = !center && !crosses && !onetile;
 				if(!isOut) {
 					final String filename = getFileName(lon, lat);
 					srtmFileNames.add(filename);
+					if (center && !crosses) {
+						task.insideTiles.add(filename);
+					}
 				}
 			}
 		}
+		task.tiles.addAll(srtmFileNames);
 		System.out.println();
 		System.out.println("PROCESSING "+name + " lon [" + leftLon + " - " + rightLon + "] lat [" + bottomLat + " - " + topLat
-				+ "] TOTAL " + srtmFileNames.size() + " files " + srtmFileNames);
+				+ "] TOTAL " + srtmFileNames.size() + " files (" + task.insideTiles.size() + " inside) " + srtmFileNames);
 		System.out.println("-----------------------------");
-		if(dryRun) {
-			return;
-		}
-//		final File work = new File(directoryWithTargetFiles, "work");
-//		Map<File, String> mp = new HashMap<File, String>();
-//		long length = 0;
-		List<File> files = new ArrayList<File>();
-		for(String file : srtmFileNames) {
-			final File fl = new File(directoryWithSRTMFiles, file + ".osm.bz2");
-			if(!fl.exists()) {
-				System.err.println("!! Missing " + name + " because " + file + " doesn't exist");
-			} else {
-				files.add(fl);
-//				File ttf = new File(fl.getParentFile(), Algorithms.capitalizeFirstLetterAndLowercase(file) + "_"+ name + ".obf");
-//				mp.put(ttf, null);
-			}
-		}
-		// be independent of previous results
-		new File(targetFile.getParentFile(), IndexCreator.TEMP_NODES_DB).delete();
-		RTree.clearCache();
-		IndexCreator ic = new IndexCreator(targetFile.getParentFile());
-		if(srtmFileNames.size() > 100) {
-			ic.setDialects(DBDialect.SQLITE, DBDialect.SQLITE);
-		} else {
+		return task;
+	}
+
+	private static boolean crossesBorder(Multipolygon polygon, int lat, int lon) {
+		LatLon bl = new LatLon(lat, lon);
+		LatLon br = new LatLon(lat, lon + 1);
+		LatLon tr = new LatLon(lat + 1, lon + 1);
+		LatLon tl = new LatLon(lat + 1, lon);
+		// inner rings are tested too, otherwise tile crossing enclave would be taken without clipping
+		List<Ring> rings = new ArrayList<Ring>(polygon.getOuterRings());
+		rings.addAll(polygon.getInnerRings());
+		for (Ring r : rings) {
+			List<Node> border = r.getBorder();
+			Node prev = border.get(border.size() - 1);
+			for (int i = 0; i < border.size(); i++) {
+				Node n = border.get(i);
+				if (MapAlgorithms.linesIntersect(prev.getLatLon(), n.getLatLon(), tr, tl)
+						|| MapAlgorithms.linesIntersect(prev.getLatLon(), n.getLatLon(), tr, br)
+						|| MapAlgorithms.linesIntersect(prev.getLatLon(), n.getLatLon(), bl, tl)
+						|| MapAlgorithms.linesIntersect(prev.getLatLon(), n.getLatLon(), br, bl)) {
+					return true;
+				}
+				prev = n;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Every srtm tile is converted once for all countries by a pool of threads, tile waits until its estimated
+	 * memory fits into the budget. Then contours of countries are merged and indexed in parallel, every country
+	 * waits until memory of its index creator fits into the same budget.
+	 */
+	private static void processCountries(List<CountryTask> tasks, File directoryWithSRTMFiles, final File contoursDir,
+			int threads, long memoryBudget, final Set<String> failedCountries) throws IOException,
+			InterruptedException {
+		long time = System.currentTimeMillis();
+		Map<String, File> tiles = new TreeMap<String, File>();
+		for (CountryTask task : tasks) {
+			for (String file : task.tiles) {
+				File fl = new File(directoryWithSRTMFiles, file + ".osm.bz2");
+				if (!fl.exists()) {
+					System.err.println("!! Missing " + task.name + " because " + file + " doesn't exist");
+				} else {
+					tiles.put(file, fl);
+				}
+			}
+		}
+		ExecutorService service = Executors.newFixedThreadPool(Math.max(1, threads));
+		final int budgetMb = (int) Math.max(1, memoryBudget >> 20);
+		final Semaphore memory = new Semaphore(budgetMb, true);
+		try {
+			// 1. convert tiles
+			final Map<String, Future<File>> contours = new TreeMap<String, Future<File>>();
+			for (final Map.Entry<String, File> e : tiles.entrySet()) {
+				contours.put(e.getKey(), service.submit(new Callable<File>() {
+					@Override
+					public File call() throws Exception {
+						long estimate = e.getValue().length() * CONVERT_MEMORY_FACTOR;
+						int permits = (int) Math.min(budgetMb, Math.max(1, estimate >> 20));
+						memory.acquire(permits);
+						try {
+							return SRTMContourTile.prepare(e.getValue(), contoursDir);
+						} finally {
+							memory.release(permits);
+						}
+					}
+				}));
+			}
+			for (CountryTask task : tasks) {
+				for (String file : task.tiles) {
+					Future<File> f = contours.get(file);
+					if (f != null) {
+						try {
+							File c = f.get();
+							task.contourFiles.add(c);
+							task.size += c.length();
+						} catch (ExecutionException e) {
+							log.error("Error converting " + file, e.getCause());
+							failedCountries.add(task.name);
+						}
+					}
+				}
+			}
+			log.info(tiles.size() + " srtm tiles are converted in " + (System.currentTimeMillis() - time) + " ms");
+
+			// 2. index countries, biggest first to balance threads
+			List<CountryTask> sorted = new ArrayList<CountryTask>(tasks);
+			Collections.sort(sorted, new java.util.Comparator<CountryTask>() {
+				@Override
+				public int compare(CountryTask o1, CountryTask o2) {
+					return Long.compare(o2.size, o1.size);
+				}
+			});
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (final CountryTask task : sorted) {
+				if (failedCountries.contains(task.name)) {
+					continue;
+				}
+				results.add(service.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						long estimate = (task.size * IN_MEMORY_FACTOR) >> 20;
+						boolean inMemory = task.tiles.size() <= MAX_IN_MEMORY_TILES && estimate < budgetMb / 2;
+						if (!inMemory) {
+							estimate = ON_DISK_MEMORY_MB;
+						}
+						int permits = (int) Math.min(budgetMb, Math.max(1, estimate));
+						memory.acquire(permits);
+						try {
+							process(task, inMemory);
+						} catch (Exception e) {
+							failedCountries.add(task.name);
+							log.error("Country " + task.name + " failed", e);
+						} finally {
+							memory.release(permits);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> f : results) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				}
+			}
+		} finally {
+			service.shutdownNow();
+			RTree.clearCache();
+		}
+		log.info(tasks.size() + " countries are processed in " + (System.currentTimeMillis() - time) + " ms");
+	}
+
+	private static void process(CountryTask task, boolean inMemory) throws IOException, SQLException,
+			InterruptedException, IllegalArgumentException, XmlPullParserException {
+		// contours of every country are merged in own directory in parallel
+		File work = new File(task.targetFile.getParentFile(), "work_" + task.targetFile.getName());
+		Algorithms.removeAllFiles(work);
+		work.mkdirs();
+		File osm = new File(work, "contours.osm.gz");
+		long time = System.currentTimeMillis();
+		int ways = writeCountryContours(task, osm);
+		log.info(task.name + " : " + ways + " contours of " + task.contourFiles.size() + " tiles are merged in "
+				+ (System.currentTimeMillis() - time) + " ms");
+
+		index(task, inMemory, work, osm);
+		Algorithms.removeAllFiles(work);
+	}
+
+	private static void index(CountryTask task, boolean inMemory, File work, File osm) throws IOException,
+			SQLException, InterruptedException, XmlPullParserException {
+		IndexCreator ic = new IndexCreator(work);
+		if (inMemory) {
 			ic.setDialects(DBDialect.SQLITE_IN_MEMORY, DBDialect.SQLITE_IN_MEMORY);
+		} else {
+			ic.setDialects(DBDialect.SQLITE, DBDialect.SQLITE);
 		}
 		ic.setIndexMap(true);
-		ic.setRegionName(name +" contour lines");
-		ic.setMapFileName(targetFile.getName());
-		ic.setBoundary(polygon);
+		ic.setRegionName(task.name +" contour lines");
+		ic.setMapFileName(task.targetFile.getName());
+		// contours are already clipped by boundary
 		ic.setZoomWaySmoothness(2);
-		ic.generateIndexes(files.toArray(new File[files.size()]), new ConsoleProgressImplementation(1), null, MapZooms.parseZooms("11-12;13-"),
-				new MapRenderingTypesEncoder(targetFile.getName()), log, true, false);
-//		if(length > Integer.MAX_VALUE) {
-//			System.err.println("!! Can't process " + name + " because too big");
-//		} else {
-//			BinaryInspector.combineParts(targetFile, mp);
-//		}
-//		for(String file : srtmFileNames) {
-//			final File fl = new File(work, file);
-//			fl.delete();
-//		}
+		ic.generateIndexes(new File[] { osm }, new ConsoleProgressImplementation(1), null, MapZooms.parseZooms("11-12;13-"),
+				new MapRenderingTypesEncoder(task.targetFile.getName()), log, true, false);
+		File res = new File(work, task.targetFile.getName());
+		if (!res.renameTo(task.targetFile)) {
+			throw new IOException("Can't move " + res.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Writes contours of all tiles of the country which have a point inside of it (same check as
+	 * {@link IndexCreator#setBoundary(Multipolygon)} does) into one osm file with new ids. Contours of tiles inside
+	 * of the country are taken without check if they don't go outside of their tile.
+	 */
+	static int writeCountryContours(final CountryTask task, File osm) throws IOException {
+		final Writer w = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(osm), 1 << 16) {
+			{
+				def.setLevel(Deflater.BEST_SPEED);
+			}
+		}, "UTF-8"), 1 << 16);
+		final int[] counts = new int[2];
+		try {
+			w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n");
+			for (File tile : task.contourFiles) {
+				String tileName = tile.getName().substring(0, tile.getName().length() - SRTMContourTile.EXT.length());
+				final boolean inside = task.insideTiles.contains(tileName);
+				final int[] bounds = inside ? getTileBounds31(tileName) : null;
+				SRTMContourTile.read(tile, new ContourVisitor() {
+					@Override
+					public void visitContour(Map<String, String> tags, int[] x31, int[] y31, int length, boolean closed)
+							throws IOException {
+						if (!inside || !withinTile(bounds, x31, y31, length)) {
+							boolean in = false;
+							for (int i = 0; i < length && !in; i++) {
+								in = task.polygon.containsPoint(MapUtils.get31LatitudeY(y31[i]),
+										MapUtils.get31LongitudeX(x31[i]));
+							}
+							if (!in) {
+								return;
+							}
+						}
+						writeWay(w, counts, tags, x31, y31, length, closed);
+					}
+				});
+			}
+			w.write("</osm>\n");
+		} finally {
+			w.close();
+		}
+		return counts[1];
+	}
+
+	/**
+	 * @return left, top, right, bottom of srtm tile (name as N45E010) in 31 tile coordinates
+	 */
+	static int[] getTileBounds31(String tileName) {
+		int lat = Integer.parseInt(tileName.substring(1, 3));
+		int lon = Integer.parseInt(tileName.substring(4, 7));
+		if (tileName.charAt(0) == 'S') {
+			lat = -lat;
+		}
+		if (tileName.charAt(3) == 'W') {
+			lon = -lon;
+		}
+		return new int[] { MapUtils.get31TileNumberX(lon), MapUtils.get31TileNumberY(lat + 1),
+				MapUtils.get31TileNumberX(lon + 1), MapUtils.get31TileNumberY(lat) };
+	}
 
+	static boolean withinTile(int[] bounds, int[] x31, int[] y31, int length) {
+		// contours of tile could go a bit outside of it
+		for (int i = 0; i < length; i++) {
+			if (x31[i] < bounds[0] || x31[i] > bounds[2] || y31[i] < bounds[1] || y31[i] > bounds[3]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeWay(Writer w, int[] counts, Map<String, String> tags, int[] x31, int[] y31, int length,
+			boolean closed) throws IOException {
+		// counts : nodes, ways
+		int firstNode = counts[0] + 1;
+		for (int i = 0; i < length; i++) {
+			w.write("<node id='" + (++counts[0]) + "' lat='" + MapUtils.get31LatitudeY(y31[i]) + "' lon='"
+					+ MapUtils.get31LongitudeX(x31[i]) + "'/>\n");
+		}
+		w.write("<way id='" + (++counts[1]) + "'>\n");
+		for (int i = 0; i < length; i++) {
+			w.write("<nd ref='" + (firstNode + i) + "'/>\n");
+		}
+		if (closed) {
+			w.write("<nd ref='" + firstNode + "'/>\n");
+		}
+		for (Map.Entry<String, String> e : tags.entrySet()) {
+			w.write("<tag k='" + escape(e.getKey()) + "' v='" + escape(e.getValue()) + "'/>\n");
+		}
+		w.write("</way>\n");
+	}
+
+	private static String escape(String s) {
+		StringBuilder b = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			String r = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '\'' ? "&apos;"
+					: c == '"' ? "&quot;" : null;
+			if (r != null && b == null) {
+				b = new StringBuilder(s.substring(0, i));
+			}
+			if (b != null) {
+				if (r != null) {
+					b.append(r);
+				} else {
+					b.append(c);
+				}
+			}
+		}
+		return b == null ? s : b.toString();
 	}
 
 	private static Way convertToWay(BinaryMapDataObject o) {
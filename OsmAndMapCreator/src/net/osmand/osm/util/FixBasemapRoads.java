@@ -1,5 +1,6 @@
 package net.osmand.osm.util;
 
+import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 
@@ -21,6 +22,11 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.stream.XMLStreamException;
@@ -43,6 +49,7 @@ import net.osmand.osm.edit.OsmMapUtils;
 import net.osmand.osm.edit.Relation;
 import net.osmand.osm.edit.Way;
 import net.osmand.osm.io.OsmBaseStorage;
+import net.osmand.osm.io.OsmBaseStoragePbf;
 import net.osmand.osm.io.OsmStorageWriter;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapUtils;
@@ -54,6 +61,8 @@ import org.xmlpull.v1.XmlPullParserException;
 public class FixBasemapRoads {
     private static float MINIMAL_DISTANCE = 500;
     private static float MAXIMAL_DISTANCE_CUT = 3000;
+    // points which differ more in latitude are farther than maximal cut (1 degree is at least 110 km)
+    private static double MAXIMAL_LATITUDE_CUT = MAXIMAL_DISTANCE_CUT / 100000d;
     private final static Log LOG = PlatformUtil.getLog(FixBasemapRoads.class);
 
 	public static void main(String[] args) throws Exception {
@@ -65,21 +74,30 @@ public class FixBasemapRoads {
 					
 			};
 		}
-		String fileToRead = args[0] ;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> files = new ArrayList<>();
+		for (String a : args) {
+			if (a.startsWith("--threads=")) {
+				threads = Integer.parseInt(a.substring("--threads=".length()));
+			} else {
+				files.add(a);
+			}
+		}
+		String fileToRead = files.get(0) ;
 		File read = new File(fileToRead);
-		String fileToWrite =  args[1];
+		String fileToWrite =  files.get(1);
 		List<File> relationFiles = new ArrayList<>();
-		if(args.length > 2) {
-			for(int i = 2; i < args.length; i++) {
-				relationFiles.add(new File(args[i]));
+		if(files.size() > 2) {
+			for(int i = 2; i < files.size(); i++) {
+				relationFiles.add(new File(files.get(i)));
 			}
 		}
 		File write = new File(fileToWrite);
 		write.createNewFile();
-        new FixBasemapRoads().process(read, write, relationFiles);
+        new FixBasemapRoads().process(read, write, relationFiles, threads);
 	}
 
-	private void process(File read, File write, List<File> relationFiles) throws  IOException, XMLStreamException, XmlPullParserException, SQLException {
+	private void process(File read, File write, List<File> relationFiles, int threads) throws  IOException, XMLStreamException, XmlPullParserException, SQLException {
 		MapRenderingTypesEncoder renderingTypes = new MapRenderingTypesEncoder("basemap");
 		OsmandRegions or = prepareRegions();
 		TagsTransformer transformer = new TagsTransformer();
@@ -122,7 +140,7 @@ public class FixBasemapRoads {
 		}
         List<EntityId> toWrite = new ArrayList<EntityId>();
 
-		processRegion(toWrite);
+		processRegion(toWrite, threads);
 		OsmStorageWriter writer = new OsmStorageWriter();
 		LOG.info("Writing file... ");
 		writer.saveStorage(new FileOutputStream(write), storage, toWrite, true);
@@ -144,7 +162,8 @@ public class FixBasemapRoads {
 	}
 
 	private OsmBaseStorage parseOsmFile(File read) throws FileNotFoundException, IOException, XmlPullParserException {
-		OsmBaseStorage storage = new OsmBaseStorage();
+		boolean pbf = read.getName().endsWith(".pbf");
+		OsmBaseStorage storage = pbf ? new OsmBaseStoragePbf() : new OsmBaseStorage();
         InputStream stream = new BufferedInputStream(new FileInputStream(read), 8192 * 4);
 		InputStream streamFile = stream;
         if (read.getName().endsWith(".bz2")) { //$NON-NLS-1$
@@ -156,7 +175,11 @@ public class FixBasemapRoads {
         } else if (read.getName().endsWith(".gz")) { //$NON-NLS-1$
         	stream = new GZIPInputStream(stream);
         }
-		storage.parseOSM(stream, new ConsoleProgressImplementation(), streamFile, true);
+		if (pbf) {
+			((OsmBaseStoragePbf) storage).parseOSMPbf(stream, new ConsoleProgressImplementation(), true);
+		} else {
+			storage.parseOSM(stream, new ConsoleProgressImplementation(), streamFile, true);
+		}
 		return storage;
 	}
 
@@ -174,10 +197,13 @@ public class FixBasemapRoads {
         long endPoint;
         double distance = 0;
 
+        // distances of segments of combined ways in order (0 if node is missing)
+        TDoubleArrayList segments = new TDoubleArrayList();
+
         public void updateData() {
-            distance = 0;
             first = null;
             last = null;
+            segments.clear();
             for(int j = 0; j < combinedWays.size(); j++) {
                 Way w = combinedWays.get(j);
                 List<Node> nodes = w.getNodes();
@@ -187,10 +213,25 @@ public class FixBasemapRoads {
                     }
                     last = nodes.get(i);
                     if(nodes.get(i - 1) != null && nodes.get(i) != null) {
-                        distance += OsmMapUtils.getDistance(nodes.get(i - 1), nodes.get(i));
+                        segments.add(OsmMapUtils.getDistance(nodes.get(i - 1), nodes.get(i)));
+                    } else {
+                        segments.add(0);
                     }
                 }
             }
+            updateDistance();
+            updatePoints();
+        }
+
+        private void updateDistance() {
+            // summed in the same order as segments
+            distance = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                distance += segments.get(i);
+            }
+        }
+
+        private void updatePoints() {
 //            beginPoint = combinedWays.get(0).getFirstNodeId();
 //            endPoint = combinedWays.get(combinedWays.size() - 1).getLastNodeId();
 	        beginPoint =  convertLatLon(combinedWays.get(0).getFirstNode().getLatLon());
@@ -265,7 +306,34 @@ public class FixBasemapRoads {
 
         void insertInBeginning(RoadLine toMerge) {
             combinedWays.addAll(0, toMerge.combinedWays);
-            updateData();
+            if (toMerge.first != null) {
+                first = toMerge.first;
+            }
+            if (segments.isEmpty()) {
+                last = toMerge.last;
+            }
+            segments.insert(0, toMerge.segments.toArray());
+            updateDistance();
+            updatePoints();
+        }
+
+        /**
+         * Adds node to the last way, end point stays registered till the line is merged
+         */
+        void addLastNode(Node n) {
+            Way w = getLastWay();
+            w.addNode(n);
+            List<Node> nodes = w.getNodes();
+            if (nodes.size() >= 2) {
+                Node prev = nodes.get(nodes.size() - 2);
+                if (first == null) {
+                    first = prev;
+                }
+                last = n;
+                double d = prev != null && n != null ? OsmMapUtils.getDistance(prev, n) : 0;
+                segments.add(d);
+                distance += d;
+            }
         }
 
         public void combineWaysIntoOneWay() {
@@ -377,23 +445,47 @@ public class FixBasemapRoads {
 
 
 
-	private void processRegion(List<EntityId> toWrite) throws IOException {
-		for (String ref : roadInfoMap.keySet()) {
-			RoadInfo ri = roadInfoMap.get(ref);
-			// combine unique roads
-			combineUniqueIdentifyRoads(ri);
-			reverseWrongPositionedRoads(ri);
-			combineUniqueIdentifyRoads(ri);
-			// last step not definite
-			combineIntoLongestRoad(ri);
-			combineRoadsWithCut(ri);
-			for (RoadLine ls : ri.roadLines) {
-				if (ls.distance > MINIMAL_DISTANCE) {
-					ls.combineWaysIntoOneWay();
-					toWrite.add(ls.getFirstWayId());
+	private void processRegion(List<EntityId> toWrite, int threads) throws IOException {
+		// roads of different refs are never merged
+		ExecutorService service = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<Future<List<EntityId>>> results = new ArrayList<Future<List<EntityId>>>();
+		for (final RoadInfo ri : roadInfoMap.values()) {
+			results.add(service.submit(new Callable<List<EntityId>>() {
+				@Override
+				public List<EntityId> call() throws Exception {
+					return processRoadInfo(ri);
 				}
+			}));
+		}
+		try {
+			for (Future<List<EntityId>> f : results) {
+				toWrite.addAll(f.get());
+			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			service.shutdownNow();
+		}
+	}
+
+	private List<EntityId> processRoadInfo(RoadInfo ri) {
+		List<EntityId> toWrite = new ArrayList<EntityId>();
+		// combine unique roads
+		combineUniqueIdentifyRoads(ri);
+		reverseWrongPositionedRoads(ri);
+		combineUniqueIdentifyRoads(ri);
+		// last step not definite
+		combineIntoLongestRoad(ri);
+		combineRoadsWithCut(ri);
+		for (RoadLine ls : ri.roadLines) {
+			if (ls.distance > MINIMAL_DISTANCE) {
+				ls.combineWaysIntoOneWay();
+				toWrite.add(ls.getFirstWayId());
 			}
 		}
+		return toWrite;
 	}
 
 	private void addRegionTag(OsmandRegions or, Way firstWay) throws IOException {
@@ -557,10 +649,11 @@ public class FixBasemapRoads {
                 Node last = ps.get(ps.size() - 1);
                 for (RoadLine rl : ri.roadLines) {
                     if (roadLine != rl && rl.distance > MAXIMAL_DISTANCE_CUT / 2
+                            && Math.abs(roadLine.last.getLatitude() - rl.first.getLatitude()) < MAXIMAL_LATITUDE_CUT
                             &&
                             OsmMapUtils.getDistance(roadLine.last, rl.first) < MAXIMAL_DISTANCE_CUT &&
                             continuation(roadLine, rl)) {
-                        roadLine.getLastWay().addNode(rl.first);
+                        roadLine.addLastNode(rl.first);
                         ri.mergeRoadInto(roadLine, rl);
                         break;
                     }
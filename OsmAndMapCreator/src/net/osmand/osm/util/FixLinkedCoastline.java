@@ -1,32 +1,237 @@
 package net.osmand.osm.util;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.*;
-
-import javax.xml.stream.XMLStreamException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
+import net.osmand.PlatformUtil;
 import net.osmand.data.LatLon;
-import net.osmand.impl.ConsoleProgressImplementation;
-import net.osmand.osm.edit.Entity;
-import net.osmand.osm.edit.Entity.EntityId;
-import net.osmand.osm.edit.Entity.EntityType;
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.OSMSettings.OSMTagKey;
 import net.osmand.osm.edit.OsmMapUtils;
 import net.osmand.osm.edit.Way;
-import net.osmand.osm.io.OsmBaseStorage;
-import net.osmand.osm.io.OsmStorageWriter;
 import net.osmand.util.MapUtils;
 
-import org.xml.sax.SAXException;
+import org.apache.commons.logging.Log;
+import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+/**
+ * Stitches coastline ways into closed rings. Ways are read in one pass, only ends of open chains are indexed and
+ * rings are given to {@link RingVisitor} as soon as they are closed (counterclockwise, with last node of every way
+ * equal to first node of the next one).
+ */
 public class FixLinkedCoastline {
+	private static final Log LOG = PlatformUtil.getLog(FixLinkedCoastline.class);
+	// open chains with closer ends are closed at the end
+	private static final double MAXIMAL_GAP_TO_CLOSE = 500000;
+	// way with closer ends is a ring
+	private static final double MINIMAL_RING_GAP = 20;
+	private static final double DUPLICATED_ISLAND_DISTANCE = 4000;
+	// latitude bands of islands index, duplicated island distance is less than 0.04 degree
+	private static final double ISLANDS_BAND = 0.05;
+
+	public interface RingVisitor {
+
+		public void visitRing(List<CoastlineWay> ring) throws IOException;
+	}
+
+	public static class CoastlineWay {
+		private final long id;
+		// key, value pairs
+		private final String[] tags;
+		private final long[] nodeIds;
+		private final double[] lats;
+		private final double[] lons;
+		private boolean reversed;
+		private CoastlineWay prev;
+		private CoastlineWay next;
+
+		public CoastlineWay(long id, String[] tags, long[] nodeIds, double[] lats, double[] lons) {
+			this.id = id;
+			this.tags = tags;
+			this.nodeIds = nodeIds;
+			this.lats = lats;
+			this.lons = lons;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public String[] getTags() {
+			return tags;
+		}
+
+		public String getTag(String key) {
+			for (int i = 0; i < tags.length; i += 2) {
+				if (tags[i].equals(key)) {
+					return tags[i + 1];
+				}
+			}
+			return null;
+		}
+
+		public int getNodesCount() {
+			return nodeIds.length;
+		}
+
+		private int index(int i) {
+			return reversed ? nodeIds.length - 1 - i : i;
+		}
+
+		public long getNodeId(int i) {
+			return nodeIds[index(i)];
+		}
+
+		public double getLatitude(int i) {
+			return lats[index(i)];
+		}
+
+		public double getLongitude(int i) {
+			return lons[index(i)];
+		}
 
-	public static void main(String[] args) throws IOException, XMLStreamException, XmlPullParserException {
+		private long firstPoint() {
+			return calcCoordinate(getLatitude(0), getLongitude(0));
+		}
+
+		private long lastPoint() {
+			int l = nodeIds.length - 1;
+			return calcCoordinate(getLatitude(l), getLongitude(l));
+		}
+
+		private void setLastNode(long nodeId, double lat, double lon) {
+			int l = index(nodeIds.length - 1);
+			nodeIds[l] = nodeId;
+			lats[l] = lat;
+			lons[l] = lon;
+		}
+
+		private Way toWay() {
+			Way w = new Way(id);
+			for (int i = 0; i < nodeIds.length; i++) {
+				w.addNode(new Node(getLatitude(i), getLongitude(i), getNodeId(i)));
+			}
+			return w;
+		}
+	}
+
+	/**
+	 * Ways linked in order of chain
+	 */
+	private static class Chain {
+		CoastlineWay first;
+		CoastlineWay last;
+		int size;
+
+		Chain(CoastlineWay w) {
+			first = w;
+			last = w;
+			size = 1;
+		}
+
+		long firstPoint() {
+			return first.firstPoint();
+		}
+
+		long lastPoint() {
+			return last.lastPoint();
+		}
+
+		void append(Chain c) {
+			last.next = c.first;
+			c.first.prev = last;
+			last = c.last;
+			size += c.size;
+		}
+
+		void reverse() {
+			CoastlineWay w = first;
+			while (w != null) {
+				CoastlineWay n = w.next;
+				w.next = w.prev;
+				w.prev = n;
+				w.reversed = !w.reversed;
+				w = n;
+			}
+			w = first;
+			first = last;
+			last = w;
+		}
+
+		List<CoastlineWay> toList() {
+			List<CoastlineWay> l = new ArrayList<CoastlineWay>(size);
+			for (CoastlineWay w = first; w != null; w = w.next) {
+				l.add(w);
+			}
+			return l;
+		}
+	}
+
+	public static class UnclosedChain {
+		public final int ways;
+		public final long firstWayId;
+		public final LatLon first;
+		public final LatLon last;
+		public final double gap;
+		public final boolean closed;
+
+		UnclosedChain(Chain c, double gap, boolean closed) {
+			this.ways = c.size;
+			this.firstWayId = c.first.id;
+			this.first = new LatLon(c.first.getLatitude(0), c.first.getLongitude(0));
+			int l = c.last.getNodesCount() - 1;
+			this.last = new LatLon(c.last.getLatitude(l), c.last.getLongitude(l));
+			this.gap = gap;
+			this.closed = closed;
+		}
+
+		@Override
+		public String toString() {
+			return "Ways in chain - " + ways + " - First " + first + " Last " + last + " id " + firstWayId + " dist "
+					+ (int) gap + " m" + (closed ? " (closed)" : "");
+		}
+	}
+
+	private final RingVisitor visitor;
+	// chain by coordinate of its first / last point
+	private TLongIntHashMap startChains = new TLongIntHashMap(100, 0.5f, Long.MIN_VALUE, -1);
+	private TLongIntHashMap endChains = new TLongIntHashMap(100, 0.5f, Long.MIN_VALUE, -1);
+	private List<Chain> chains = new ArrayList<Chain>();
+	// centers of simple islands by latitude band
+	private TIntObjectHashMap<TDoubleArrayList> islands = new TIntObjectHashMap<TDoubleArrayList>();
+	private List<UnclosedChain> unclosedChains = new ArrayList<UnclosedChain>();
+	private int reversed;
+	private int duplicatedIslands;
+	private int rings;
+
+	public FixLinkedCoastline(RingVisitor visitor) {
+		this.visitor = visitor;
+	}
+
+	public static void main(String[] args) throws IOException, XmlPullParserException {
 		String fileToRead = args != null && args.length > 0 ? args[0] : null;
 		if(fileToRead == null) {
 			fileToRead = "/home/victor/projects/osmand/data/basemap/ready/10m_coastline.osm";
@@ -49,198 +254,395 @@ public class FixLinkedCoastline {
 		process(read, write);
 	}
 
-	private static void process(File read, File write) throws  IOException, XMLStreamException, XmlPullParserException {
-		OsmBaseStorage storage = new OsmBaseStorage();
-		storage.parseOSM(new FileInputStream(read), new ConsoleProgressImplementation());
-
-		Map<EntityId, Entity> entities = new HashMap<EntityId, Entity>( storage.getRegisteredEntities());
-		List<EntityId> toWrite = new ArrayList<EntityId>();
-
-		for(EntityId e : entities.keySet()){
-			if(e.getType() == EntityType.WAY){
-				Entity oldWay = storage.getRegisteredEntities().remove(e);
-				List<Way> result = processWay((Way) oldWay);
-				alignAndAddtoStorage(storage, toWrite, result);
+	public static FixLinkedCoastline process(File read, File write) throws IOException, XmlPullParserException {
+		File waysFile = new File(write.getParentFile(), write.getName() + ".ways");
+		try (OutputStream out = new FileOutputStream(write);
+				OutputStream waysOut = new FileOutputStream(waysFile);
+				OsmRingWriter writer = new OsmRingWriter(out, waysOut)) {
+			FixLinkedCoastline fix = new FixLinkedCoastline(writer);
+			fix.parse(read, writer);
+			fix.finish();
+			for (UnclosedChain c : fix.getUnclosedChains()) {
+				if (!c.closed) {
+					LOG.error(c);
+				}
 			}
+			LOG.info("Rings : " + fix.getRings() + ", fixed errors : " + fix.getReversed() + ", duplicated islands : "
+					+ fix.getDuplicatedIslands() + ", errors not fixed : " + fix.getNotClosedChains());
+			writer.appendWays(waysFile);
+			return fix;
+		} finally {
+			waysFile.delete();
 		}
+	}
 
-		System.out.println("ERROR Ways : ");
-		int errors = 0;
-		for(List<Way> w : endWays.values()){
-			Way way = w.get(0);
-			Way lway = w.get(w.size() - 1);
-			LatLon first = way.getNodes().get(0).getLatLon();
-			LatLon last = lway.getNodes().get(lway.getNodes().size() - 1).getLatLon();
-			double dist = MapUtils.getDistance(first, last);
-			if(dist < 500000){
-				alignAndAddtoStorage(storage, toWrite, w);
-			} else {
-				errors++;
-				String val = "First " +  first+ "Last " +  last + " id " + way.getId() + " dist " + MapUtils.getDistance(first, last) + " m";
-				System.out.println("Ways in chain - " + w.size() + " - " + val);
-			}
-		}
-		System.out.println("Fixed errors : " + ERRORS +", errors not fixed : " + errors );
-		OsmStorageWriter writer = new OsmStorageWriter();
-        /*Set<Long> ls = new HashSet<Long>();
-        for(EntityId e : toWrite) {
-            if(!ls.add(e.getId())) {
-                System.out.println("!!" + e.getId());
-            }
-        }*/
-		writer.saveStorage(new FileOutputStream(write), storage, toWrite, true);
-	}
-
-	private static void alignAndAddtoStorage(OsmBaseStorage storage, List<EntityId> toWrite, List<Way> result) {
-		// align start/end node and add to strage
-		for (int i = 0; i < result.size(); i++) {
-			Node nextStart;
-			if (i < result.size() - 1) {
-				nextStart = result.get(i + 1).getNodes().get(0);
-			} else {
-				nextStart = result.get(0).getNodes().get(0);
-			}
+	/**
+	 * Reads nodes (they should go before ways as in osm files) and passes every way to stitching
+	 */
+	private void parse(File read, OsmRingWriter nodes) throws XmlPullParserException, IOException {
+		try (InputStream fis = new FileInputStream(read);
+				InputStream is = read.getName().endsWith(".gz") ? new GZIPInputStream(new BufferedInputStream(fis,
+						8192 * 4)) : new BufferedInputStream(fis, 8192 * 4)) {
+			parse(is, nodes);
+		}
+	}
 
-			Way w = result.get(i);
-			int sz = w.getNodes().size();
-			w.removeNodeByIndex(sz - 1);
-			w.addNode(nextStart);
-			if("land_coastline".equals(w.getTag(OSMTagKey.NATURAL))) {
-				w.putTag(OSMTagKey.NATURAL.getValue(), "coastline");
+	private void parse(InputStream is, OsmRingWriter nodes) throws XmlPullParserException, IOException {
+		XmlPullParser parser = PlatformUtil.newXMLPullParser();
+		parser.setInput(is, "UTF-8");
+		int next;
+		long id = 0;
+		boolean way = false;
+		TLongArrayList nodeIds = new TLongArrayList();
+		List<String> tags = new ArrayList<String>();
+		int missing = 0;
+		while ((next = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (next == XmlPullParser.START_TAG) {
+				String name = parser.getName();
+				if (name.equals("node")) {
+					id = Long.parseLong(parser.getAttributeValue("", "id"));
+					nodes.registerNode(id, Double.parseDouble(parser.getAttributeValue("", "lat")),
+							Double.parseDouble(parser.getAttributeValue("", "lon")));
+					way = false;
+					tags.clear();
+				} else if (name.equals("way")) {
+					id = Long.parseLong(parser.getAttributeValue("", "id"));
+					way = true;
+					tags.clear();
+					nodeIds.clear();
+				} else if (name.equals("relation")) {
+					way = false;
+					tags.clear();
+				} else if (name.equals("nd") && way) {
+					nodeIds.add(Long.parseLong(parser.getAttributeValue("", "ref")));
+				} else if (name.equals("tag")) {
+					tags.add(parser.getAttributeValue("", "k"));
+					tags.add(parser.getAttributeValue("", "v"));
+				}
+			} else if (next == XmlPullParser.END_TAG) {
+				String name = parser.getName();
+				if (name.equals("node") && !tags.isEmpty()) {
+					nodes.registerNodeTags(id, tags.toArray(new String[tags.size()]));
+				} else if (name.equals("way")) {
+					way = false;
+					TLongArrayList ids = new TLongArrayList(nodeIds.size());
+					TDoubleArrayList lats = new TDoubleArrayList(nodeIds.size());
+					TDoubleArrayList lons = new TDoubleArrayList(nodeIds.size());
+					for (int i = 0; i < nodeIds.size(); i++) {
+						if (nodes.hasNode(nodeIds.get(i))) {
+							ids.add(nodeIds.get(i));
+							lats.add(nodes.getLatitude(nodeIds.get(i)));
+							lons.add(nodes.getLongitude(nodeIds.get(i)));
+						} else {
+							missing++;
+						}
+					}
+					if (ids.size() < 2) {
+						LOG.warn("Way " + id + " has less than 2 nodes");
+						continue;
+					}
+					addWay(new CoastlineWay(id, tags.toArray(new String[tags.size()]), ids.toArray(),
+							lats.toArray(), lons.toArray()));
+				}
 			}
-
-			EntityId eId = EntityId.valueOf(w);
-			storage.getRegisteredEntities().put(eId, w);
-			toWrite.add(eId);
+		}
+		if (missing > 0) {
+			LOG.warn("Missing nodes : " + missing);
 		}
 	}
 
-	private static long calcCoordinate(net.osmand.osm.edit.Node node){
-		LatLon l = node.getLatLon();
-		double lon  =l.getLongitude();
-		if(180 - Math.abs(l.getLongitude()) < 0.0001){
-			if(l.getLongitude() < 0){
+	private static long calcCoordinate(double lat, double lon) {
+		if(180 - Math.abs(lon) < 0.0001){
+			if(lon < 0){
 				lon = -179.9999;
 			} else {
 				lon = 180;
 			}
 		}
-		return ((long)MapUtils.getTileNumberY(21, l.getLatitude()) << 32L) + ((long)MapUtils.getTileNumberX(21, lon));
+		return ((long)MapUtils.getTileNumberY(21, lat) << 32L) + ((long)MapUtils.getTileNumberX(21, lon));
 	}
 
-	private static Map<Long, List<Way>> startWays = new LinkedHashMap<Long, List<Way>>();
-	private static Map<Long, List<Way>> endWays = new LinkedHashMap<Long, List<Way>>();
-	private static Map<Way, LatLon> duplicatedSimpleIslands = new LinkedHashMap<Way, LatLon>();
-	private static int ERRORS = 0;
+	private boolean pointContains(long start, long end){
+		return startChains.containsKey(start) || endChains.containsKey(end) || startChains.containsKey(end)
+				|| endChains.containsKey(start);
+	}
+
+	private Chain removeChain(int ind) {
+		Chain c = chains.get(ind);
+		chains.set(ind, null);
+		return c;
+	}
 
-	private static Way revertWay(Way way){
-		ArrayList<net.osmand.osm.edit.Node> revNodes = new ArrayList<net.osmand.osm.edit.Node>(way.getNodes());
-		Collections.reverse(revNodes);
-		Way ws = new Way(way.getId());
-		for(String key : way.getTagKeySet()){
-			ws.putTag(key, way.getTag(key));
+	public void addWay(CoastlineWay way) throws IOException {
+		long start = way.firstPoint();
+		long end = way.lastPoint();
+		int l = way.getNodesCount() - 1;
+		if (start == end || MapUtils.getDistance(way.getLatitude(0), way.getLongitude(0), way.getLatitude(l),
+				way.getLongitude(l)) < MINIMAL_RING_GAP) {
+			LatLon c = way.toWay().getLatLon();
+			if (isDuplicatedIsland(c)) {
+				duplicatedIslands++;
+				return;
+			}
+			closeRing(new Chain(way));
+			return;
 		}
-		for(net.osmand.osm.edit.Node n : revNodes){
-			ws.addNode(n);
+		Chain list = new Chain(way);
+		while (pointContains(start, end)) {
+			if (startChains.containsKey(start) || endChains.containsKey(end)) {
+				reversed++;
+				list.reverse();
+				long t = start;
+				start = end;
+				end = t;
+			}
+			if (endChains.containsKey(start)) {
+				Chain tlist = removeChain(endChains.remove(start));
+				startChains.remove(tlist.firstPoint());
+				tlist.append(list);
+				list = tlist;
+			} else if (startChains.containsKey(end)) {
+				Chain tlist = removeChain(startChains.remove(end));
+				endChains.remove(tlist.lastPoint());
+				list.append(tlist);
+			}
+			start = list.firstPoint();
+			end = list.lastPoint();
+			if (start == end) {
+				closeRing(list);
+				return;
+			}
 		}
-		return ws;
+		startChains.put(start, chains.size());
+		endChains.put(end, chains.size());
+		chains.add(list);
 	}
 
-	private static boolean pointContains(long start, long end){
-		return startWays.containsKey(start) || endWays.containsKey(end) || startWays.containsKey(end) || endWays.containsKey(start);
+	private boolean isDuplicatedIsland(LatLon c) {
+		int band = (int) Math.floor(c.getLatitude() / ISLANDS_BAND);
+		for (int b = band - 1; b <= band + 1; b++) {
+			TDoubleArrayList centers = islands.get(b);
+			if (centers != null) {
+				for (int i = 0; i < centers.size(); i += 2) {
+					if (MapUtils.getDistance(centers.get(i), centers.get(i + 1), c.getLatitude(),
+							c.getLongitude()) < DUPLICATED_ISLAND_DISTANCE) {
+						return true;
+					}
+				}
+			}
+		}
+		TDoubleArrayList centers = islands.get(band);
+		if (centers == null) {
+			centers = new TDoubleArrayList();
+			islands.put(band, centers);
+		}
+		centers.add(c.getLatitude());
+		centers.add(c.getLongitude());
+		return false;
+	}
+
+	private void closeRing(Chain cycle) throws IOException {
+		List<Way> ways = new ArrayList<Way>(cycle.size);
+		for (CoastlineWay w = cycle.first; w != null; w = w.next) {
+			ways.add(w.toWay());
+		}
+		if (OsmMapUtils.isClockwiseWay(ways)) {
+			reversed++;
+			cycle.reverse();
+		}
+		rings++;
+		alignAndVisit(cycle);
 	}
 
-	private static long lastPoint(Way w){
-		return calcCoordinate(w.getNodes().get(w.getNodes().size() - 1));
+	/**
+	 * Closes chains with ends closer than {@link #MAXIMAL_GAP_TO_CLOSE}, others are only reported
+	 */
+	public void finish() throws IOException {
+		TIntArrayList ids = new TIntArrayList(endChains.values());
+		ids.sort();
+		for (int i = 0; i < ids.size(); i++) {
+			Chain c = chains.get(ids.get(i));
+			int l = c.last.getNodesCount() - 1;
+			double gap = MapUtils.getDistance(c.first.getLatitude(0), c.first.getLongitude(0),
+					c.last.getLatitude(l), c.last.getLongitude(l));
+			boolean close = gap < MAXIMAL_GAP_TO_CLOSE;
+			unclosedChains.add(new UnclosedChain(c, gap, close));
+			if (close) {
+				alignAndVisit(c);
+			}
+		}
+		startChains.clear();
+		endChains.clear();
+		chains.clear();
 	}
-	private static long lastPoint(List<Way> w){
-		return lastPoint(w.get(w.size() - 1));
+
+	private void alignAndVisit(Chain c) throws IOException {
+		// align start/end node
+		for (CoastlineWay w = c.first; w != null; w = w.next) {
+			CoastlineWay nextStart = w.next != null ? w.next : c.first;
+			w.setLastNode(nextStart.getNodeId(0), nextStart.getLatitude(0), nextStart.getLongitude(0));
+			for (int i = 0; i < w.tags.length; i += 2) {
+				if (w.tags[i].equals(OSMTagKey.NATURAL.getValue()) && "land_coastline".equals(w.tags[i + 1])) {
+					w.tags[i + 1] = "coastline";
+				}
+			}
+		}
+		visitor.visitRing(c.toList());
 	}
 
-	private static long firstPoint(List<Way> w){
-		return firstPoint(w.get(0));
+	/**
+	 * Reversed ways and rings (fixed errors)
+	 */
+	public int getReversed() {
+		return reversed;
 	}
 
-	private static long firstPoint(Way way) {
-		return calcCoordinate(way.getNodes().get(0));
+	public int getDuplicatedIslands() {
+		return duplicatedIslands;
 	}
 
-	private static List<Way> processWay(Way way) {
-		// F Lat 8.27039215702537 Lon 73.0661727222713L Lat 8.27039215702537 Lon 73.0661727222713 id -1211228
-		long start = firstPoint(way);
-		long end = lastPoint(way);
-		LatLon first = way.getNodes().get(0).getLatLon();
-		LatLon last = way.getNodes().get(way.getNodes().size() - 1).getLatLon();
-		String val = "F " + first + "L " +  last + " id " + way.getId();
-		List<Way> cycle = null;
-		if (start == end || MapUtils.getDistance(first, last) < 20) {
-			LatLon c = way.getLatLon();
-			cycle = Collections.singletonList(way);
-			for(Way w : duplicatedSimpleIslands.keySet()){
-				LatLon center = duplicatedSimpleIslands.get(w);
-				if(MapUtils.getDistance(center, c) < 4000){
-					//System.out.println("DUPLICATED " + first);
-					return Collections.emptyList();
-				}
+	public int getRings() {
+		return rings;
+	}
+
+	/**
+	 * Chains left open after {@link #finish()}, closed ones have small gap
+	 */
+	public List<UnclosedChain> getUnclosedChains() {
+		return Collections.unmodifiableList(unclosedChains);
+	}
+
+	public int getNotClosedChains() {
+		int cnt = 0;
+		for (UnclosedChain c : unclosedChains) {
+			if (!c.closed) {
+				cnt++;
 			}
-			duplicatedSimpleIslands.put(way, c);
-		} else {
-			List<Way> list = new ArrayList<Way>();
-			list.add(way);
+		}
+		return cnt;
+	}
+
+	/**
+	 * Keeps coordinates of all nodes and writes nodes of rings to output and ways to a separate file which is
+	 * appended to output at the end.
+	 */
+	private static class OsmRingWriter implements RingVisitor, Closeable {
+		private TLongIntHashMap nodeIndexes = new TLongIntHashMap(100, 0.5f, Long.MIN_VALUE, -1);
+		private TDoubleArrayList nodeLats = new TDoubleArrayList();
+		private TDoubleArrayList nodeLons = new TDoubleArrayList();
+		private TLongObjectHashMap<String[]> nodeTags = new TLongObjectHashMap<String[]>();
+		private TLongHashSet writtenNodes = new TLongHashSet();
+		private OutputStream out;
+		private Writer nodes;
+		private Writer ways;
 
-//			System.out.println(val);
+		OsmRingWriter(OutputStream out, OutputStream waysOut) throws IOException {
+			this.out = new BufferedOutputStream(out, 1 << 16);
+			this.nodes = new BufferedWriter(new OutputStreamWriter(this.out, "UTF-8"));
+			this.ways = new BufferedWriter(new OutputStreamWriter(waysOut, "UTF-8"), 1 << 16);
+			nodes.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\">\n");
+		}
 
-			while (pointContains(start, end)) {
-				if (startWays.containsKey(start) || endWays.containsKey(end)) {
-					ERRORS++;
-					Collections.reverse(list);
-					for (int i = 0; i < list.size(); i++) {
-						list.set(i, revertWay(list.get(i)));
+		void registerNode(long id, double lat, double lon) {
+			nodeIndexes.put(id, nodeLats.size());
+			nodeLats.add(lat);
+			nodeLons.add(lon);
+		}
+
+		void registerNodeTags(long id, String[] tags) {
+			nodeTags.put(id, tags);
+		}
+
+		boolean hasNode(long id) {
+			return nodeIndexes.containsKey(id);
+		}
+
+		double getLatitude(long id) {
+			return nodeLats.get(nodeIndexes.get(id));
+		}
+
+		double getLongitude(long id) {
+			return nodeLons.get(nodeIndexes.get(id));
+		}
+
+		@Override
+		public void visitRing(List<CoastlineWay> ring) throws IOException {
+			for (CoastlineWay w : ring) {
+				for (int i = 0; i < w.getNodesCount(); i++) {
+					long id = w.getNodeId(i);
+					if (writtenNodes.add(id)) {
+						nodes.write("\t<node id=\"" + id + "\" lat=\"" + w.getLatitude(i) + "\" lon=\""
+								+ w.getLongitude(i) + "\"");
+						writeNodeTags(nodes, nodeTags.get(id));
 					}
-					long t = start;
-					start = end;
-					end = t;
-				}
-				if (endWays.containsKey(start)) {
-					List<Way> tlist = endWays.remove(start);
-					startWays.remove(firstPoint(tlist));
-					tlist.addAll(list);
-					list = tlist;
-
-				} else if (startWays.containsKey(end)) {
-					List<Way> tlist = startWays.remove(end);
-					endWays.remove(lastPoint(tlist));
-					list.addAll(tlist);
 				}
-				start = firstPoint(list);
-				end = lastPoint(list);
-				if (start == end) {
-					cycle = list;
-					break;
+				ways.write("\t<way id=\"" + w.getId() + "\">\n");
+				for (int i = 0; i < w.getNodesCount(); i++) {
+					ways.write("\t\t<nd ref=\"" + w.getNodeId(i) + "\"/>\n");
 				}
+				writeTags(ways, w.getTags());
+				ways.write("\t</way>\n");
+			}
+		}
+
+		private void writeNodeTags(Writer w, String[] tags) throws IOException {
+			if (tags == null || tags.length == 0) {
+				w.write("/>\n");
+			} else {
+				w.write(">\n");
+				writeTags(w, tags);
+				w.write("\t</node>\n");
 			}
-			if (cycle == null) {
-				startWays.put(start, list);
-				endWays.put(end, list);
+		}
+
+		private void writeTags(Writer w, String[] tags) throws IOException {
+			for (int i = 0; i < tags.length; i += 2) {
+				w.write("\t\t<tag k=\"" + escape(tags[i]) + "\" v=\"" + escape(tags[i + 1]) + "\"/>\n");
 			}
 		}
 
-		if (cycle != null) {
-			boolean clockwiseWay = OsmMapUtils.isClockwiseWay(cycle);
-			if (clockwiseWay) {
-				List<Way> ways = new ArrayList<Way>();
-				ERRORS ++;
-				for (int i = cycle.size() - 1; i >= 0; i--) {
-					// System.out.println("Cycle error " + way.getId());
-					ways.add(revertWay(cycle.get(i)));
+		private static String escape(String s) {
+			StringBuilder b = null;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				String r = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '"' ? "&quot;" : null;
+				if (r != null && b == null) {
+					b = new StringBuilder(s.substring(0, i));
+				}
+				if (b != null) {
+					if (r != null) {
+						b.append(r);
+					} else {
+						b.append(c);
+					}
 				}
-				return ways;
 			}
-			return cycle;
+			return b == null ? s : b.toString();
+		}
 
+		/**
+		 * Appends written ways after nodes and closes osm document
+		 */
+		void appendWays(File waysFile) throws IOException {
+			ways.close();
+			nodes.flush();
+			try (InputStream is = new FileInputStream(waysFile)) {
+				byte[] buf = new byte[1 << 16];
+				int r;
+				while ((r = is.read(buf)) > 0) {
+					out.write(buf, 0, r);
+				}
+			}
+			nodes.write("</osm>\n");
 		}
-		return Collections.emptyList();
 
+		@Override
+		public void close() throws IOException {
+			try {
+				ways.close();
+			} finally {
+				nodes.close();
+			}
+		}
 	}
-
 }
@@ -1,6 +1,9 @@
 package net.osmand.osm.util;
 
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -8,6 +11,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -15,6 +19,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
@@ -33,6 +42,7 @@ import net.osmand.util.MapUtils;
 public class ManyToOneRoadCalculation {
 
 	private static final int THRESHOLD_DISCONNECTED = 200;
+	private static final float DISTANCE_THRESHOLD = 50000;
 
 
 	public class ManyToManySegment {
@@ -58,16 +68,20 @@ public class ManyToOneRoadCalculation {
 		double top = 53.2949;
 		double bottom = MapUtils.getLatitudeFromTile(zoom, (MapUtils.getTileNumberY(zoom, top) + 1));
 		System.out.println(top +" - " + bottom);
-		new ManyToOneRoadCalculation().manyToManyCalculation(reader, top, bottom/*, 51.48*/);
+		new ManyToOneRoadCalculation().manyToManyCalculation(reader, top, bottom/*, 51.48*/,
+				Runtime.getRuntime().availableProcessors());
 
 	}
 
-	private void manyToManyCalculation(BinaryMapIndexReader reader, double top, double bottom) throws IOException {
+	private RoutingContext buildBaseContext(BinaryMapIndexReader reader) {
 		RoutePlannerFrontEnd frontEnd = new RoutePlannerFrontEnd(false);
 		RoutingConfiguration config = RoutingConfiguration.getDefault().build("car", 1000);
 		RouteCalculationMode mode = RouteCalculationMode.BASE;
-		RoutingContext ctx = frontEnd.buildRoutingContext(config, null, new BinaryMapIndexReader[] {reader}, mode);
+		return frontEnd.buildRoutingContext(config, null, new BinaryMapIndexReader[] {reader}, mode);
+	}
 
+	private List<RouteDataObject> loadLayerRoads(RoutingContext ctx, BinaryMapIndexReader reader, int stop, int sbottom)
+			throws IOException {
 		RouteRegion reg = reader.getRoutingIndexes().get(0);
 		List<RouteSubregion> baseSubregions = reg.getBaseSubregions();
 		List<RoutingSubregionTile> tiles = new ArrayList<RoutingContext.RoutingSubregionTile>();
@@ -75,21 +89,60 @@ public class ManyToOneRoadCalculation {
 			List<RoutingSubregionTile> loadTiles = ctx.loadAllSubregionTiles(reader, s);
 			tiles.addAll(loadTiles);
 		}
+		List<RouteDataObject> startObjects = new ArrayList<RouteDataObject>();
+		for (RoutingSubregionTile st : tiles) {
+			if (st.subregion.top <= sbottom && st.subregion.bottom >= stop) {
+				ctx.loadSubregionTile(st, false, startObjects, null);
+			}
+		}
+		System.out.println("Roads in layer " + startObjects.size());
+		return startObjects;
+	}
+
+	/**
+	 * Original implementation with segment objects, kept to verify {@link RoadGraph} results.
+	 */
+	public List<TLongArrayList> manyToManyCalculation(BinaryMapIndexReader reader, double top, double bottom) throws IOException {
+		RoutingContext ctx = buildBaseContext(reader);
 		int st = MapUtils.get31TileNumberY(top);
 		int sb = MapUtils.get31TileNumberY(bottom);
+		List<RouteDataObject> startObjects = loadLayerRoads(ctx, reader, st, sb);
 
 		List<ManyToManySegment> topIntersects = new ArrayList<ManyToManySegment>();
 		List<ManyToManySegment> bottomIntersects = new ArrayList<ManyToManySegment>();
-		TLongObjectHashMap<ManyToManySegment> allSegments = initSegments(st, sb, ctx, tiles, topIntersects, bottomIntersects);
+		TLongObjectHashMap<ManyToManySegment> allSegments = initSegments(st, sb, startObjects, topIntersects, bottomIntersects);
 		filterDisconnected(ctx, allSegments, topIntersects);
 		filterDisconnected(ctx, allSegments, topIntersects);
 		System.out.println("TOP " + topIntersects.size());
 		System.out.println("BOTTOM " + bottomIntersects.size());
 
-		calculateManyToMany(ctx, allSegments, topIntersects, bottomIntersects, st, sb);
+		return calculateManyToMany(ctx, allSegments, topIntersects, bottomIntersects, st, sb);
 
 	}
 
+	/**
+	 * Same calculation on compressed road graph, sources (top intersections) are calculated by several threads
+	 * and combined in the original order.
+	 */
+	public List<TLongArrayList> manyToManyCalculation(BinaryMapIndexReader reader, double top, double bottom,
+			int threads) throws IOException, InterruptedException {
+		RoutingContext ctx = buildBaseContext(reader);
+		int st = MapUtils.get31TileNumberY(top);
+		int sb = MapUtils.get31TileNumberY(bottom);
+		List<RouteDataObject> startObjects = loadLayerRoads(ctx, reader, st, sb);
+		RoadGraph graph = new RoadGraph(startObjects, ctx.config.router);
+		TIntArrayList topIntersects = new TIntArrayList();
+		TIntArrayList bottomIntersects = new TIntArrayList();
+		graph.findIntersections(st, sb, topIntersects, bottomIntersects);
+		filterDisconnected(graph, topIntersects);
+		filterDisconnected(graph, topIntersects);
+		System.out.println("TOP " + topIntersects.size());
+		System.out.println("BOTTOM " + bottomIntersects.size());
+
+		float threshold = DISTANCE_THRESHOLD / ctx.config.router.getMaxDefaultSpeed();
+		return calculateManyToMany(graph, topIntersects, bottomIntersects, threshold, threads);
+	}
+
 	private void filterDisconnected(RoutingContext ctx, TLongObjectHashMap<ManyToManySegment> allSegments,
 			List<ManyToManySegment> initialSegments) {
 		Iterator<ManyToManySegment> it = initialSegments.iterator();
@@ -130,10 +183,9 @@ public class ManyToOneRoadCalculation {
 		return MapUtils.squareRootDist31(x1, y1, x2, y2);
 	}
 
-	private void calculateManyToMany(RoutingContext ctx, TLongObjectHashMap<ManyToManySegment> allSegments,
+	private List<TLongArrayList> calculateManyToMany(RoutingContext ctx, TLongObjectHashMap<ManyToManySegment> allSegments,
 			List<ManyToManySegment> topIntersects, List<ManyToManySegment> bottomIntersects, int stop, final int sbottom) {
 		final GeneralRouter router = ctx.config.router;
-		float DISTANCE_THRESHOLD = 50000;
 		// TODO depth search from one top intersect
 		List<TLongArrayList> sets = new ArrayList<TLongArrayList>();
 		for (int i = 0; i < topIntersects.size(); i++) {
@@ -154,7 +206,7 @@ public class ManyToOneRoadCalculation {
 		for(TLongArrayList s : sets) {
 			System.out.println(s);
 		}
-
+		return sets;
 	}
 
 	private void combineWithLocal(List<TLongArrayList> sets, TLongArrayList source) {
@@ -346,20 +398,219 @@ public class ManyToOneRoadCalculation {
 		}
 	}
 
+	private void filterDisconnected(RoadGraph graph, TIntArrayList initialSegments) {
+		int[] visitedRoads = new int[graph.roadIds];
+		int stamp = 0;
+		TIntArrayList mms = new TIntArrayList();
+		for (int k = 0; k < initialSegments.size(); ) {
+			int iterations = 0;
+			int threshold = THRESHOLD_DISCONNECTED;
+			stamp++;
+			mms.resetQuick();
+			mms.add(initialSegments.get(k));
+			while (iterations < threshold && !mms.isEmpty()) {
+				int o = mms.removeAt(mms.size() - 1);
+				int road = graph.nodeRoad[o];
+				if (visitedRoads[graph.roadId[road]] == stamp) {
+					continue;
+				}
+				visitedRoads[graph.roadId[road]] = stamp;
+				int ow = graph.oneway[road];
+				int segmentIndex = o - graph.roadStart[road];
+				int start = ow > 0 ? segmentIndex : 0;
+				int end = ow < 0 ? segmentIndex : graph.roadStart[road + 1] - graph.roadStart[road];
+				for (int i = start; i < end; i++) {
+					int loc = graph.nodeLocation[graph.roadStart[road] + i];
+					for (int l = graph.locationStart[loc]; l < graph.locationStart[loc + 1]; l++) {
+						int ind = graph.locationNodes[l];
+						if (visitedRoads[graph.roadId[graph.nodeRoad[ind]]] != stamp) {
+							mms.add(ind);
+						}
+					}
+				}
+				iterations++;
+			}
+			if (iterations < threshold) {
+				initialSegments.removeAt(k);
+			} else {
+				k++;
+			}
+		}
+	}
+
+	private List<TLongArrayList> calculateManyToMany(final RoadGraph graph, final TIntArrayList topIntersects,
+			final TIntArrayList bottomIntersects, final float threshold, int threads) throws InterruptedException {
+		final ThreadLocal<SearchState> states = new ThreadLocal<SearchState>() {
+			@Override
+			protected SearchState initialValue() {
+				return new SearchState(graph);
+			}
+		};
+		ExecutorService service = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<TLongArrayList> sets = new ArrayList<TLongArrayList>();
+		try {
+			List<Future<List<TLongArrayList>>> results = new ArrayList<Future<List<TLongArrayList>>>();
+			for (int i = 0; i < topIntersects.size(); i++) {
+				final int oneTop = topIntersects.get(i);
+				results.add(service.submit(new Callable<List<TLongArrayList>>() {
+					@Override
+					public List<TLongArrayList> call() throws Exception {
+						return calculateOneToMany(graph, states.get(), bottomIntersects, oneTop, threshold);
+					}
+				}));
+			}
+			for (int i = 0; i < topIntersects.size(); i++) {
+				List<TLongArrayList> res;
+				try {
+					res = results.get(i).get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+				for (TLongArrayList set : res) {
+					combineWithLocal(sets, set);
+				}
+				int oneTop = topIntersects.get(i);
+				RouteDataObject road = graph.roads[graph.nodeRoad[oneTop]];
+				System.out.println(road.getHighway() + " " + road.id + " " + (oneTop - graph.roadStart[graph.nodeRoad[oneTop]])
+						+ " common ways=" + sets.size());
+			}
+		} finally {
+			service.shutdownNow();
+		}
+		System.out.println(sets.size());
+		for (TLongArrayList s : sets) {
+			System.out.println(s);
+		}
+		return sets;
+	}
+
+	private List<TLongArrayList> calculateOneToMany(RoadGraph graph, SearchState state, TIntArrayList bottomIntersects,
+			int oneTop, float threshold) {
+		int topRoad = graph.nodeRoad[oneTop];
+		int topLength = graph.roadStart[topRoad + 1] - graph.roadStart[topRoad];
+		if (graph.oneway[topRoad] > 0 && oneTop - graph.roadStart[topRoad] == topLength - 1) {
+			oneTop = graph.find(oneTop - 1, graph.roads[topRoad].id);
+		} else if (graph.oneway[topRoad] < 0 && oneTop == graph.roadStart[topRoad]) {
+			oneTop = graph.find(oneTop + 1, graph.roads[topRoad].id);
+		}
+		int finalSegments = 0;
+		for (int i = 0; i < bottomIntersects.size(); i++) {
+			int rid = graph.roadId[graph.nodeRoad[bottomIntersects.get(i)]];
+			if (!state.finalRoads[rid]) {
+				state.finalRoads[rid] = true;
+				state.touchedFinals.add(rid);
+				finalSegments++;
+			}
+		}
+		state.setDistance(oneTop, 0);
+		state.queue.add(oneTop);
+		List<TLongArrayList> result = new ArrayList<TLongArrayList>();
+		while (!state.queue.isEmpty()) {
+			int seg = state.queue.poll();
+			int road = graph.nodeRoad[seg];
+			int rid = graph.roadId[road];
+			if (state.finalRoads[rid]) {
+				result.add(convertToRoadIds(graph, state, seg, threshold));
+				state.finalRoads[rid] = false;
+				finalSegments--;
+				if (finalSegments == 0) {
+					break;
+				} else {
+					continue;
+				}
+			}
+			int oneWay = graph.oneway[road];
+			if (oneWay >= 0) {
+				processRoadSegment(graph, state, seg, true);
+			}
+			if (oneWay <= 0) {
+				processRoadSegment(graph, state, seg, false);
+			}
+		}
+		state.clear();
+		return result;
+	}
+
+	private TLongArrayList convertToRoadIds(RoadGraph graph, SearchState state, int fnsResult, float distanceFromStart) {
+		TLongArrayList set = new TLongArrayList();
+		int ms = fnsResult;
+		while (ms != -1) {
+			set.add(graph.roads[graph.nodeRoad[ms]].id);
+			ms = state.parent[ms];
+			if (ms == -1 || state.distance[ms] < distanceFromStart) {
+				break;
+			}
+		}
+		return set;
+	}
+
+	private void processRoadSegment(RoadGraph graph, SearchState state, int seg, boolean direction) {
+		int road = graph.nodeRoad[seg];
+		int first = graph.roadStart[road];
+		int last = graph.roadStart[road + 1] - 1;
+		RouteDataObject ro = graph.roads[road];
+		double speed = graph.speed[road];
+		double dist = 0;
+		int p = seg;
+		boolean continueMovement = true;
+		while (continueMovement) {
+			int pp = p;
+			state.visitedSegments[graph.nodeSegmentId[seg]] = true;
+			state.touchedSegments.add(graph.nodeSegmentId[seg]);
+			p = direction ? p + 1 : p - 1;
+			if (p > last || p < first) {
+				break;
+			}
+			dist += direction ? graph.forwardDist[pp] : graph.backwardDist[pp];
+			double distFromStart = state.distance[seg] + dist / speed;
+			int loc = graph.nodeLocation[p];
+			for (int l = graph.locationStart[loc]; l < graph.locationStart[loc + 1]; l++) {
+				int sgs = graph.locationNodes[l];
+				boolean visited = state.visitedSegments[graph.nodeSegmentId[sgs]];
+				if (graph.roads[graph.nodeRoad[sgs]] != ro) {
+					boolean viewed = !Double.isInfinite(state.distance[sgs]);
+					if (!viewed || state.distance[sgs] > distFromStart) {
+						if (visited) {
+							if (state.distance[sgs] > distFromStart * 1.1) {
+								System.err.println("Prev " + state.distance[sgs] + " ? current " + distFromStart
+										+ " " + state.distance[seg] + " " + graph.roads[graph.nodeRoad[sgs]].id
+										+ " : prev " + graph.getRoadId(state.parent[sgs]) + " current " + ro.id);
+							}
+						} else {
+							if (viewed) {
+								state.queue.remove(sgs);
+							}
+							state.setDistance(sgs, distFromStart);
+							state.parent[sgs] = seg;
+							state.queue.add(sgs);
+						}
+					}
+				} else {
+					// same road id
+					if (state.distance[sgs] > distFromStart) {
+						if (visited) {
+							System.err.println("!Prev " + state.distance[sgs] + " ? current " + distFromStart
+									+ " " + state.distance[seg] + " " + graph.roads[graph.nodeRoad[sgs]].id
+									+ " : prev " + graph.getRoadId(state.parent[sgs]) + " current " + ro.id);
+						} else {
+							state.parent[sgs] = state.parent[seg];
+							state.setDistance(sgs, distFromStart);
+						}
+					} else {
+						continueMovement = false;
+					}
+				}
+			}
+		}
+	}
+
 	private long calcSegmentId(ManyToManySegment seg) {
 		return (seg.road.id << 10) + seg.segmentIndex;
 	}
 
-	private TLongObjectHashMap<ManyToManySegment> initSegments(int stop, int sbottom, RoutingContext ctx, List<RoutingSubregionTile> tiles,
+	private TLongObjectHashMap<ManyToManySegment> initSegments(int stop, int sbottom, List<RouteDataObject> startObjects,
 			List<ManyToManySegment> topIntersects, List<ManyToManySegment> bottomIntersects) {
 		TLongObjectHashMap<ManyToManySegment> res = new TLongObjectHashMap<ManyToManySegment>();
-		List<RouteDataObject> startObjects = new ArrayList<RouteDataObject>();
-		for (RoutingSubregionTile st : tiles) {
-			if (st.subregion.top <= sbottom && st.subregion.bottom >= stop) {
-				ctx.loadSubregionTile(st, false, startObjects, null);
-			}
-		}
-		System.out.println("Roads in layer " + startObjects.size());
 		for(RouteDataObject ro : startObjects ){
 			boolean topCheck = false, bottomCheck = false;
 			for(int i = 0; i < ro.getPointsLength(); i++) {
@@ -396,7 +647,7 @@ public class ManyToOneRoadCalculation {
 		return res;
 	}
 
-	private boolean checkIntersection(int prevx, int prevy, int px, int py, int l, int r, int t, int b) {
+	private static boolean checkIntersection(int prevx, int prevy, int px, int py, int l, int r, int t, int b) {
 		int pxin = prevx <= l ? -1 : (prevx >= r ? 1 : 0);
 		int pyin = prevy <= t ? -1 : (prevy >= b ? 1 : 0);
 		int xin = px <= l ? -1 : (px >= r ? 1 : 0);
@@ -411,7 +662,7 @@ public class ManyToOneRoadCalculation {
 		return false;
 	}
 
-	private long calcLong(int x31, int y31) {
+	private static long calcLong(int x31, int y31) {
 		return (((long) x31) << 31) + (long) y31;
 	}
 
@@ -550,4 +801,297 @@ public class ManyToOneRoadCalculation {
 
 
 
+
+	/**
+	 * Road points in flat arrays (compressed sparse rows). Points of one road have consecutive ids
+	 * (roadStart offsets), points with the same location are grouped by locationStart offsets
+	 * into locationNodes in order of creation.
+	 */
+	static class RoadGraph {
+		final RouteDataObject[] roads;
+		final int[] roadStart;
+		final int[] oneway;
+		final double[] speed;
+		// compact ids of road.id
+		final int[] roadId;
+		final int roadIds;
+
+		final int[] nodeRoad;
+		// distance to next and to previous point of road
+		final double[] forwardDist;
+		final double[] backwardDist;
+		final int[] nodeLocation;
+		// compact ids of (road.id, point index)
+		final int[] nodeSegmentId;
+		final int segmentIds;
+
+		final int[] locationStart;
+		final int[] locationNodes;
+
+		RoadGraph(List<RouteDataObject> list, GeneralRouter router) {
+			int r = list.size();
+			roads = list.toArray(new RouteDataObject[r]);
+			roadStart = new int[r + 1];
+			for (int i = 0; i < r; i++) {
+				roadStart[i + 1] = roadStart[i] + roads[i].getPointsLength();
+			}
+			int n = roadStart[r];
+			oneway = new int[r];
+			speed = new double[r];
+			roadId = new int[r];
+			nodeRoad = new int[n];
+			forwardDist = new double[n];
+			backwardDist = new double[n];
+			nodeLocation = new int[n];
+			nodeSegmentId = new int[n];
+			TLongIntHashMap roadIdsMap = newIdMap();
+			TLongIntHashMap locations = newIdMap();
+			TLongIntHashMap segments = newIdMap();
+			for (int i = 0; i < r; i++) {
+				RouteDataObject ro = roads[i];
+				oneway[i] = router.isOneWay(ro);
+				speed[i] = router.defineRoutingSpeed(ro);
+				roadId[i] = getId(roadIdsMap, ro.id);
+				int len = ro.getPointsLength();
+				for (int k = 0; k < len; k++) {
+					int node = roadStart[i] + k;
+					int px = ro.getPoint31XTile(k);
+					int py = ro.getPoint31YTile(k);
+					nodeRoad[node] = i;
+					if (k + 1 < len) {
+						forwardDist[node] = squareRootDist(px, py, ro.getPoint31XTile(k + 1), ro.getPoint31YTile(k + 1));
+					}
+					if (k > 0) {
+						backwardDist[node] = squareRootDist(px, py, ro.getPoint31XTile(k - 1), ro.getPoint31YTile(k - 1));
+					}
+					nodeLocation[node] = getId(locations, calcLong(px, py));
+					nodeSegmentId[node] = getId(segments, (ro.id << 10) + k);
+				}
+			}
+			roadIds = roadIdsMap.size();
+			segmentIds = segments.size();
+			int locs = locations.size();
+			locationStart = new int[locs + 1];
+			for (int node = 0; node < n; node++) {
+				locationStart[nodeLocation[node] + 1]++;
+			}
+			for (int l = 0; l < locs; l++) {
+				locationStart[l + 1] += locationStart[l];
+			}
+			locationNodes = new int[n];
+			int[] fill = Arrays.copyOf(locationStart, locs);
+			for (int node = 0; node < n; node++) {
+				locationNodes[fill[nodeLocation[node]]++] = node;
+			}
+		}
+
+		private static TLongIntHashMap newIdMap() {
+			return new TLongIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, 0, -1);
+		}
+
+		private static int getId(TLongIntHashMap map, long key) {
+			int id = map.get(key);
+			if (id == -1) {
+				id = map.size();
+				map.put(key, id);
+			}
+			return id;
+		}
+
+		long getRoadId(int node) {
+			return node == -1 ? 0 : roads[nodeRoad[node]].id;
+		}
+
+		/**
+		 * @return first node at location of given node which belongs to road with id
+		 */
+		int find(int node, long id) {
+			int loc = nodeLocation[node];
+			for (int l = locationStart[loc]; l < locationStart[loc + 1]; l++) {
+				if (roads[nodeRoad[locationNodes[l]]].id == id) {
+					return locationNodes[l];
+				}
+			}
+			return -1;
+		}
+
+		void findIntersections(int stop, int sbottom, TIntArrayList topIntersects, TIntArrayList bottomIntersects) {
+			for (int i = 0; i < roads.length; i++) {
+				RouteDataObject ro = roads[i];
+				boolean topCheck = false, bottomCheck = false;
+				for (int k = 1; k < ro.getPointsLength(); k++) {
+					int prevX = ro.getPoint31XTile(k - 1);
+					int prevY = ro.getPoint31YTile(k - 1);
+					int px = ro.getPoint31XTile(k);
+					int py = ro.getPoint31YTile(k);
+					if (checkIntersection(prevX, prevY, px, py, 0, Integer.MAX_VALUE, stop, stop) && !topCheck) {
+						topIntersects.add(roadStart[i] + k);
+						topCheck = true;
+					}
+					if (checkIntersection(prevX, prevY, px, py, 0, Integer.MAX_VALUE, sbottom, sbottom) && !bottomCheck) {
+						bottomIntersects.add(roadStart[i] + k);
+						bottomCheck = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Per thread arrays of one source calculation, only touched entries are reset after calculation.
+	 */
+	static class SearchState {
+		final double[] distance;
+		final int[] parent;
+		final boolean[] visitedSegments;
+		final boolean[] finalRoads;
+		final NodeHeap queue;
+		final TIntArrayList touched = new TIntArrayList();
+		final TIntArrayList touchedSegments = new TIntArrayList();
+		final TIntArrayList touchedFinals = new TIntArrayList();
+
+		SearchState(RoadGraph graph) {
+			int n = graph.nodeRoad.length;
+			distance = new double[n];
+			Arrays.fill(distance, Double.POSITIVE_INFINITY);
+			parent = new int[n];
+			Arrays.fill(parent, -1);
+			visitedSegments = new boolean[graph.segmentIds];
+			finalRoads = new boolean[graph.roadIds];
+			queue = new NodeHeap(distance);
+		}
+
+		void setDistance(int node, double d) {
+			if (Double.isInfinite(distance[node])) {
+				touched.add(node);
+			}
+			distance[node] = d;
+		}
+
+		void clear() {
+			queue.clear();
+			for (int i = 0; i < touched.size(); i++) {
+				distance[touched.get(i)] = Double.POSITIVE_INFINITY;
+				parent[touched.get(i)] = -1;
+			}
+			for (int i = 0; i < touchedSegments.size(); i++) {
+				visitedSegments[touchedSegments.get(i)] = false;
+			}
+			for (int i = 0; i < touchedFinals.size(); i++) {
+				finalRoads[touchedFinals.get(i)] = false;
+			}
+			touched.resetQuick();
+			touchedSegments.resetQuick();
+			touchedFinals.resetQuick();
+		}
+	}
+
+	/**
+	 * Binary heap of node ids ordered by key array. Sift operations are the same as in {@link PriorityQueue},
+	 * so nodes with equal keys are polled in the same order as segments were.
+	 */
+	static class NodeHeap {
+		private final double[] key;
+		private final int[] position;
+		private int[] queue = new int[64];
+		private int size;
+
+		NodeHeap(double[] key) {
+			this.key = key;
+			this.position = new int[key.length];
+			Arrays.fill(position, -1);
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void add(int node) {
+			if (size == queue.length) {
+				queue = Arrays.copyOf(queue, size * 2);
+			}
+			int i = size++;
+			if (i == 0) {
+				set(0, node);
+			} else {
+				siftUp(i, node);
+			}
+		}
+
+		int poll() {
+			int s = --size;
+			int result = queue[0];
+			int x = queue[s];
+			position[result] = -1;
+			if (s != 0) {
+				siftDown(0, x);
+			}
+			return result;
+		}
+
+		boolean remove(int node) {
+			int i = position[node];
+			if (i == -1) {
+				return false;
+			}
+			position[node] = -1;
+			int s = --size;
+			if (s != i) {
+				int moved = queue[s];
+				siftDown(i, moved);
+				if (queue[i] == moved) {
+					siftUp(i, moved);
+				}
+			}
+			return true;
+		}
+
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				position[queue[i]] = -1;
+			}
+			size = 0;
+		}
+
+		private void set(int i, int node) {
+			queue[i] = node;
+			position[node] = i;
+		}
+
+		private void siftUp(int k, int x) {
+			while (k > 0) {
+				int parent = (k - 1) >>> 1;
+				int e = queue[parent];
+				if (Double.compare(key[x], key[e]) >= 0) {
+					break;
+				}
+				set(k, e);
+				k = parent;
+			}
+			set(k, x);
+		}
+
+		private void siftDown(int k, int x) {
+			int half = size >>> 1;
+			while (k < half) {
+				int child = (k << 1) + 1;
+				int c = queue[child];
+				int right = child + 1;
+				if (right < size && Double.compare(key[c], key[queue[right]]) > 0) {
+					c = queue[child = right];
+				}
+				if (Double.compare(key[x], key[c]) <= 0) {
+					break;
+				}
+				set(k, c);
+				k = child;
+			}
+			set(k, x);
+		}
+	}
+
 }
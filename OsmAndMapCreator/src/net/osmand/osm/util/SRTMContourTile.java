@@ -0,0 +1,285 @@
+package net.osmand.osm.util;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.osmand.IProgress;
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Entity.EntityId;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+import net.osmand.osm.io.IOsmStorageFilter;
+import net.osmand.osm.io.OsmBaseStorage;
+import net.osmand.util.MapUtils;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Contour lines of one SRTM tile converted from osm once, so the tile could be used by every country which touches it
+ * without decompressing and parsing osm again. Ways keep 31 tile coordinates (zigzag varint deltas) and id of tag set,
+ * they are sorted by tile of way center.
+ */
+public class SRTMContourTile {
+
+	public static final String EXT = ".contours";
+	private static final int VERSION = 1;
+	private static final int SORT_ZOOM = 16;
+
+	public interface ContourVisitor {
+
+		/**
+		 * Arrays are reused for next contour, closed contour doesn't repeat first point
+		 */
+		public void visitContour(Map<String, String> tags, int[] x31, int[] y31, int length, boolean closed)
+				throws IOException;
+	}
+
+	/**
+	 * @return converted tile, file is converted only if it is missing or older than osm file
+	 */
+	public static File prepare(File osmFile, File cacheDir) throws IOException, XmlPullParserException {
+		String name = osmFile.getName();
+		if (name.indexOf('.') != -1) {
+			name = name.substring(0, name.indexOf('.'));
+		}
+		File res = new File(cacheDir, name + EXT);
+		if (res.exists() && res.lastModified() >= osmFile.lastModified()) {
+			return res;
+		}
+		cacheDir.mkdirs();
+		ContourCollector collector = new ContourCollector();
+		InputStream stream = new BufferedInputStream(new FileInputStream(osmFile), 8192 * 4);
+		try {
+			if (osmFile.getName().endsWith(".bz2")) { //$NON-NLS-1$
+				if (stream.read() == 'B' && stream.read() == 'Z') {
+					stream = new CBZip2InputStream(stream);
+				}
+			}
+			OsmBaseStorage bs = new OsmBaseStorage();
+			bs.getFilters().add(collector);
+			bs.parseOSM(stream, IProgress.EMPTY_PROGRESS);
+		} finally {
+			stream.close();
+		}
+		collector.write(res);
+		return res;
+	}
+
+	static class ContourCollector implements IOsmStorageFilter {
+		TLongIntHashMap nodeIndexes = new TLongIntHashMap();
+		TIntArrayList nodeX = new TIntArrayList();
+		TIntArrayList nodeY = new TIntArrayList();
+
+		Map<String, Integer> tagSetIds = new HashMap<String, Integer>();
+		List<Map<String, String>> tagSets = new ArrayList<Map<String, String>>();
+		TIntArrayList wayTags = new TIntArrayList();
+		TIntArrayList wayStart = new TIntArrayList();
+		List<Boolean> wayClosed = new ArrayList<Boolean>();
+		// x, y pairs
+		TIntArrayList points = new TIntArrayList();
+
+		@Override
+		public boolean acceptEntityToLoad(OsmBaseStorage storage, EntityId entityId, Entity entity) {
+			if (entity instanceof Node) {
+				Node n = (Node) entity;
+				nodeIndexes.put(n.getId(), nodeX.size());
+				nodeX.add(MapUtils.get31TileNumberX(n.getLongitude()));
+				nodeY.add(MapUtils.get31TileNumberY(n.getLatitude()));
+			} else if (entity instanceof Way) {
+				TLongArrayList ids = ((Way) entity).getNodeIds();
+				int sz = ids.size();
+				boolean closed = sz > 2 && ids.get(0) == ids.get(sz - 1);
+				if (closed) {
+					sz--;
+				}
+				int start = points.size();
+				for (int i = 0; i < sz; i++) {
+					if (nodeIndexes.containsKey(ids.get(i))) {
+						int ind = nodeIndexes.get(ids.get(i));
+						points.add(nodeX.get(ind));
+						points.add(nodeY.get(ind));
+					}
+				}
+				if (points.size() - start < 4) {
+					points.remove(start, points.size() - start);
+				} else {
+					wayStart.add(start);
+					wayClosed.add(closed);
+					wayTags.add(getTagSetId(entity.getTags()));
+				}
+			}
+			// nothing is stored
+			return false;
+		}
+
+		private int getTagSetId(Map<String, String> tags) {
+			TreeMap<String, String> sorted = new TreeMap<String, String>(tags);
+			String key = sorted.toString();
+			Integer id = tagSetIds.get(key);
+			if (id == null) {
+				id = tagSets.size();
+				tagSetIds.put(key, id);
+				tagSets.add(new LinkedHashMap<String, String>(sorted));
+			}
+			return id;
+		}
+
+		void write(File res) throws IOException {
+			// write to temporary file, so interrupted conversion is not taken next time
+			File tmp = new File(res.getParentFile(), res.getName() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 8192 * 4));
+			try {
+				write(out);
+			} finally {
+				out.close();
+			}
+			res.delete();
+			if (!tmp.renameTo(res)) {
+				throw new IOException("Can't rename " + tmp.getAbsolutePath());
+			}
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			int ways = wayStart.size();
+			wayStart.add(points.size());
+			// sort by tile of bbox center (morton order), index of way is in lower bits
+			long[] order = new long[ways];
+			for (int w = 0; w < ways; w++) {
+				int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+				for (int p = wayStart.get(w); p < wayStart.get(w + 1); p += 2) {
+					minX = Math.min(minX, points.get(p));
+					maxX = Math.max(maxX, points.get(p));
+					minY = Math.min(minY, points.get(p + 1));
+					maxY = Math.max(maxY, points.get(p + 1));
+				}
+				int tx = (int) ((((long) minX + maxX) >> 1) >> (31 - SORT_ZOOM));
+				int ty = (int) ((((long) minY + maxY) >> 1) >> (31 - SORT_ZOOM));
+				long key = 0;
+				for (int i = SORT_ZOOM - 1; i >= 0; i--) {
+					key = (key << 2) | (((ty >> i) & 1) << 1) | ((tx >> i) & 1);
+				}
+				order[w] = (key << 31) | w;
+			}
+			Arrays.sort(order);
+
+			out.writeInt(VERSION);
+			writeVarint(out, tagSets.size());
+			for (Map<String, String> tags : tagSets) {
+				writeVarint(out, tags.size());
+				for (Map.Entry<String, String> e : tags.entrySet()) {
+					out.writeUTF(e.getKey());
+					out.writeUTF(e.getValue());
+				}
+			}
+			writeVarint(out, ways);
+			for (int k = 0; k < ways; k++) {
+				int w = (int) (order[k] & Integer.MAX_VALUE);
+				int start = wayStart.get(w);
+				int len = (wayStart.get(w + 1) - start) / 2;
+				writeVarint(out, wayTags.get(w));
+				writeVarint(out, (len << 1) | (wayClosed.get(w) ? 1 : 0));
+				int px = 0;
+				int py = 0;
+				for (int p = start; p < start + len * 2; p += 2) {
+					writeVarint(out, zigzag(points.get(p) - px));
+					writeVarint(out, zigzag(points.get(p + 1) - py));
+					px = points.get(p);
+					py = points.get(p + 1);
+				}
+			}
+		}
+	}
+
+	public static void read(File tile, ContourVisitor visitor) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tile), 8192 * 4));
+		try {
+			if (in.readInt() != VERSION) {
+				throw new IOException("Unsupported version of " + tile.getName());
+			}
+			int tagSetsCount = readVarint(in);
+			List<Map<String, String>> tagSets = new ArrayList<Map<String, String>>(tagSetsCount);
+			for (int i = 0; i < tagSetsCount; i++) {
+				int sz = readVarint(in);
+				Map<String, String> tags = new LinkedHashMap<String, String>();
+				for (int j = 0; j < sz; j++) {
+					tags.put(in.readUTF(), in.readUTF());
+				}
+				tagSets.add(tags);
+			}
+			int ways = readVarint(in);
+			int[] x = new int[256];
+			int[] y = new int[256];
+			for (int w = 0; w < ways; w++) {
+				Map<String, String> tags = tagSets.get(readVarint(in));
+				int lenClosed = readVarint(in);
+				int len = lenClosed >>> 1;
+				if (x.length < len) {
+					x = new int[Integer.highestOneBit(len) << 1];
+					y = new int[x.length];
+				}
+				int px = 0;
+				int py = 0;
+				for (int i = 0; i < len; i++) {
+					px += unzigzag(readVarint(in));
+					py += unzigzag(readVarint(in));
+					x[i] = px;
+					y[i] = py;
+				}
+				visitor.visitContour(tags, x, y, len, (lenClosed & 1) == 1);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int zigzag(int v) {
+		return (v << 1) ^ (v >> 31);
+	}
+
+	private static int unzigzag(int v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static void writeVarint(DataOutputStream out, int v) throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			v |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+}
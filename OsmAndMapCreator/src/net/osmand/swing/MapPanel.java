@@ -31,11 +31,12 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -43,7 +44,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
 import javax.swing.Box;
@@ -144,7 +144,7 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 	private ITileSource map = TileSourceManager.getMapnikSource();
 
 	private NativeSwingRendering nativeLibRendering;
-	private NativeRendererRunnable lastAddedRunnable;
+	private volatile NativeRendererRunnable lastAddedRunnable;
 	private Image nativeRenderingImg;
 	private RenderingImageContext lastContext;
 	private Rect nativeRect;
@@ -177,8 +177,10 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 	private int xStartingImage = 0;
 	private int yStartingImage = 0;
 
+	private String[][] imageKeys;
+
 	private MapTileDownloader downloader = MapTileDownloader.getInstance(MapCreatorVersion.APP_MAP_CREATOR_VERSION); // FIXME no commit
-	Map<String, Image> cache = new HashMap<String, Image>();
+	private TileImageCache cache = new TileImageCache();
 
 	private JPopupMenu popupMenu;
 	private Point popupMenuPoint;
@@ -196,6 +198,17 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 		ImageIO.setUseCache(false);
 
 		tilesLocation = fileWithTiles;
+		cache.setListener(new TileImageCache.TileDecodeListener() {
+			@Override
+			public void tileDecoded(final String key) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						updateDecodedTile(key);
+					}
+				});
+			}
+		});
 		loadSettingsLocation();
 		if(map != null){
 			if(zoom > map.getMaximumZoomSupported()){
@@ -649,42 +662,25 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 		return map.getName() +"/"+zoom+"/"+(x) +"/"+y+ext+".tile"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 	}
 
+	public TileImageCache getTileCache() {
+		return cache;
+	}
+
+	/**
+	 * @return decoded image or null if it is not decoded yet (then it is decoded in background)
+	 */
 	public Image getImageFor(int x, int y, int zoom, boolean loadIfNeeded) throws IOException {
 		if (map == null) {
 			return null;
 		}
 		String file = getFileForImage(x, y, zoom, map.getTileFormat());
-		if (cache.get(file) == null) {
+		Image img = cache.getImage(file);
+		if (img == null) {
 			File en = new File(tilesLocation, file);
-			if (cache.size() > 100) {
-				ArrayList<String> list = new ArrayList<String>(cache.keySet());
-				for (int i = 0; i < list.size(); i += 2) {
-					Image remove = cache.remove(list.get(i));
-					remove.flush();
-				}
-				if (log.isInfoEnabled()) {
-					log.info("Before running gc on map tiles. Total Memory : " + (Runtime.getRuntime().totalMemory() >> 20) + " Mb. Used memory : " //$NON-NLS-1$ //$NON-NLS-2$
-							+ ((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20) + " Mb"); //$NON-NLS-1$
-				}
-				System.gc();
-				if (log.isInfoEnabled()) {
-					log.info("After running gc on map tiles. Total Memory : " + (Runtime.getRuntime().totalMemory() >> 20) + " Mb. Used memory : " //$NON-NLS-1$ //$NON-NLS-2$
-							+ ((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20) + " Mb"); //$NON-NLS-1$
-				}
-			}
 			if (!downloader.isFileCurrentlyDownloaded(en)) {
 				if (en.exists()) {
-					// long time = System.currentTimeMillis();
-					try {
-						cache.put(file, ImageIO.read(en));
-						// if (log.isDebugEnabled()) {
-						// log.debug("Loaded file : " + file + " " + (System.currentTimeMillis() - time) + " ms");
-						// }
-					} catch (IIOException e) {
-						log.error("Eror reading png " + x + " " + y + " zoom : " + zoom, e); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-					}
-				}
-				if (loadIfNeeded && cache.get(file) == null) {
+					cache.prefetch(file, en);
+				} else if (loadIfNeeded) {
 					String urlToLoad = map.getUrlToLoad(x, y, zoom);
 					if (urlToLoad != null) {
 						downloader.requestToDownload(new DownloadRequest(urlToLoad, en, x, y, zoom));
@@ -692,8 +688,29 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 				}
 			}
 		}
+		return img;
+	}
 
-		return cache.get(file);
+	private void prefetchImage(int x, int y, int zoom) {
+		File en = new File(tilesLocation, getFileForImage(x, y, zoom, map.getTileFormat()));
+		if (!downloader.isFileCurrentlyDownloaded(en)) {
+			cache.prefetch(getFileForImage(x, y, zoom, map.getTileFormat()), en);
+		}
+	}
+
+	private void updateDecodedTile(String key) {
+		if (images == null || imageKeys == null) {
+			return;
+		}
+		for (int i = 0; i < imageKeys.length && i < images.length; i++) {
+			for (int j = 0; j < imageKeys[i].length; j++) {
+				if (key.equals(imageKeys[i][j])) {
+					images[i][j] = cache.peekImage(key);
+					repaint();
+					return;
+				}
+			}
+		}
 	}
 
 	@Override
@@ -743,13 +760,6 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 	private void prepareRasterImage(boolean loadNecessaryImages){
 		try {
 			double tileSize = getTileSize();
-			if (images != null) {
-				for (int i = 0; i < images.length; i++) {
-					for (int j = 0; j < images[i].length; j++) {
-						// dispose
-					}
-				}
-			}
 			double xTileLeft = getXTile() - getCenterPointX() / tileSize;
 			double xTileRight = getXTile() + getCenterPointX() / tileSize;
 			double yTileUp = getYTile() - getCenterPointY() / tileSize;
@@ -763,12 +773,50 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 			}
 			int tileXCount = ((int) xTileRight - (int) xTileLeft + 1);
 			int tileYCount = ((int) yTileDown - (int) yTileUp + 1);
+			// ring of tiles around viewport and viewport of next zoom are decoded in advance
+			int nextZoom = zoom + 1 <= getMaximumZoomSupported() ? zoom + 1 : -1;
+			int nxLeft = (int) (2 * getXTile() - getCenterPointX() / tileSize);
+			int nxRight = (int) (2 * getXTile() + getCenterPointX() / tileSize);
+			int nyUp = (int) (2 * getYTile() - getCenterPointY() / tileSize);
+			int nyDown = (int) (2 * getYTile() + getCenterPointY() / tileSize);
+			Set<String> requested = new HashSet<String>();
+			if (map != null) {
+				for (int x = (int) xTileLeft - 1; x <= (int) xTileRight + 1; x++) {
+					for (int y = (int) yTileUp - 1; y <= (int) yTileDown + 1; y++) {
+						requested.add(getFileForImage(x, y, zoom, map.getTileFormat()));
+					}
+				}
+				for (int x = nxLeft; nextZoom != -1 && x <= nxRight; x++) {
+					for (int y = nyUp; y <= nyDown; y++) {
+						requested.add(getFileForImage(x, y, nextZoom, map.getTileFormat()));
+					}
+				}
+			}
+			cache.retainRequests(requested);
+
 			images = new BufferedImage[tileXCount][tileYCount];
+			imageKeys = new String[tileXCount][tileYCount];
 			for (int i = 0; i < images.length; i++) {
 				for (int j = 0; j < images[i].length; j++) {
 					int x = (int) xTileLeft + i;
 					int y = (int) yTileUp + j;
 					images[i][j] = getImageFor(x, y, zoom, loadNecessaryImages);
+					imageKeys[i][j] = map == null ? null : getFileForImage(x, y, zoom, map.getTileFormat());
+				}
+			}
+			if (map != null) {
+				for (int x = (int) xTileLeft - 1; x <= (int) xTileRight + 1; x++) {
+					prefetchImage(x, (int) yTileUp - 1, zoom);
+					prefetchImage(x, (int) yTileDown + 1, zoom);
+				}
+				for (int y = (int) yTileUp; y <= (int) yTileDown; y++) {
+					prefetchImage((int) xTileLeft - 1, y, zoom);
+					prefetchImage((int) xTileRight + 1, y, zoom);
+				}
+				for (int x = nxLeft; nextZoom != -1 && x <= nxRight; x++) {
+					for (int y = nyUp; y <= nyDown; y++) {
+						prefetchImage(x, y, nextZoom);
+					}
 				}
 			}
 
@@ -1199,7 +1247,8 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 
 		@Override
 		public void run() {
-			if (nativeRenderer.getQueue().isEmpty()) {
+			// skip stale request, map was moved or zoomed after it was added
+			if (nativeRenderer.getQueue().isEmpty() && lastAddedRunnable == this) {
 				try {
 					lastContext = new RenderingImageContext(sleft, sright, stop, sbottom, zoom, mapDensity);
 					nativeRenderingImg = nativeLibRendering.renderImage(lastContext);
@@ -0,0 +1,294 @@
+package net.osmand.swing;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Cache of decoded raster tiles limited by the memory size of images.
+ * Least recently used tiles are evicted to soft references, so they could be taken back until gc needs memory.
+ * Tiles are decoded by a small pool of threads, requests which are not needed anymore (after pan or zoom)
+ * are cancelled with {@link #retainRequests(Collection)}.
+ */
+public class TileImageCache {
+	private static final Log log = LogFactory.getLog(TileImageCache.class);
+
+	public static final long DEFAULT_BUDGET = 96l << 20;
+	public static final int DEFAULT_DECODE_THREADS = 2;
+
+	public interface TileDecodeListener {
+
+		/**
+		 * Called from decode thread
+		 */
+		public void tileDecoded(String key);
+	}
+
+	private final long budget;
+	private long size;
+	private final LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(64, 0.75f, true);
+	private final Map<String, SoftReference<Image>> evicted = new HashMap<String, SoftReference<Image>>();
+	private final Map<String, Future<?>> pending = new HashMap<String, Future<?>>();
+	private final ThreadPoolExecutor decoder;
+	private TileDecodeListener listener;
+
+	private long hits;
+	private long softHits;
+	private long misses;
+	private long evictions;
+	private long cancelled;
+	private long decoded;
+	private long decodeTime;
+
+	public TileImageCache() {
+		this(DEFAULT_BUDGET, DEFAULT_DECODE_THREADS);
+	}
+
+	public TileImageCache(long budget, int threads) {
+		this.budget = budget;
+		decoder = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Tile decoder");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		decoder.allowCoreThreadTimeOut(true);
+	}
+
+	public void setListener(TileDecodeListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return cached image or null, missing image is decoded asynchronously if file exists
+	 */
+	public Image getImage(String key, File file) {
+		Image img = getImage(key);
+		if (img == null && file != null) {
+			decode(key, file);
+		}
+		return img;
+	}
+
+	public synchronized Image getImage(String key) {
+		Image img = images.get(key);
+		if (img != null) {
+			hits++;
+			return img;
+		}
+		img = takeEvicted(key);
+		if (img != null) {
+			softHits++;
+			return img;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Same as {@link #getImage(String)} but doesn't count statistics
+	 */
+	public synchronized Image peekImage(String key) {
+		Image img = images.get(key);
+		if (img == null) {
+			img = takeEvicted(key);
+		}
+		return img;
+	}
+
+	/**
+	 * Decodes image in advance if it is not cached
+	 */
+	public void prefetch(String key, File file) {
+		synchronized (this) {
+			if (images.containsKey(key) || takeEvicted(key) != null) {
+				return;
+			}
+		}
+		decode(key, file);
+	}
+
+	private Image takeEvicted(String key) {
+		SoftReference<Image> ref = evicted.remove(key);
+		Image img = ref == null ? null : ref.get();
+		if (img != null) {
+			putImage(key, img);
+		}
+		return img;
+	}
+
+	public synchronized boolean isPending(String key) {
+		return pending.containsKey(key);
+	}
+
+	private synchronized void decode(String key, File file) {
+		if (pending.containsKey(key) || !file.exists()) {
+			return;
+		}
+		DecodeTask task = new DecodeTask(key, file);
+		task.future = decoder.submit(task);
+		pending.put(key, task.future);
+	}
+
+	private class DecodeTask implements Runnable {
+		private final String key;
+		private final File file;
+		// assigned under lock of cache before task could enter it
+		private Future<?> future;
+
+		public DecodeTask(String key, File file) {
+			this.key = key;
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			long time = System.nanoTime();
+			Image img = null;
+			try {
+				img = ImageIO.read(file);
+			} catch (IOException e) {
+				log.error("Eror reading png " + file.getName(), e); //$NON-NLS-1$
+			}
+			synchronized (TileImageCache.this) {
+				// request could be cancelled and submitted again by another task
+				if (pending.get(key) == future) {
+					pending.remove(key);
+				}
+				decodeTime += System.nanoTime() - time;
+				if (img == null) {
+					return;
+				}
+				decoded++;
+				putImage(key, img);
+			}
+			if (listener != null) {
+				listener.tileDecoded(key);
+			}
+		}
+	}
+
+	/**
+	 * Cancels decode requests which are not in the collection
+	 */
+	public synchronized void retainRequests(Collection<String> keys) {
+		Iterator<Entry<String, Future<?>>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<String, Future<?>> e = it.next();
+			if (!keys.contains(e.getKey())) {
+				e.getValue().cancel(false);
+				it.remove();
+				cancelled++;
+			}
+		}
+		decoder.purge();
+	}
+
+	public synchronized void putImage(String key, Image img) {
+		Image old = images.put(key, img);
+		if (old != null) {
+			size -= getImageSize(old);
+		}
+		size += getImageSize(img);
+		Iterator<Entry<String, Image>> it = images.entrySet().iterator();
+		while (size > budget && images.size() > 1 && it.hasNext()) {
+			Entry<String, Image> e = it.next();
+			if (e.getKey().equals(key)) {
+				continue;
+			}
+			size -= getImageSize(e.getValue());
+			evicted.put(e.getKey(), new SoftReference<Image>(e.getValue()));
+			it.remove();
+			evictions++;
+		}
+		if (evicted.size() > 64 && evicted.size() > images.size() * 4) {
+			Iterator<SoftReference<Image>> et = evicted.values().iterator();
+			while (et.hasNext()) {
+				if (et.next().get() == null) {
+					et.remove();
+				}
+			}
+		}
+	}
+
+	private static long getImageSize(Image img) {
+		if (img instanceof BufferedImage) {
+			BufferedImage b = (BufferedImage) img;
+			return (long) b.getWidth() * b.getHeight() * Math.max(1, b.getColorModel().getPixelSize() / 8);
+		}
+		return (long) Math.max(1, img.getWidth(null)) * Math.max(1, img.getHeight(null)) * 4;
+	}
+
+	public synchronized void clear() {
+		for (Future<?> f : pending.values()) {
+			f.cancel(false);
+		}
+		pending.clear();
+		decoder.purge();
+		for (Image img : images.values()) {
+			img.flush();
+		}
+		images.clear();
+		evicted.clear();
+		size = 0;
+	}
+
+	public void close() {
+		clear();
+		decoder.shutdownNow();
+	}
+
+	public synchronized int size() {
+		return images.size();
+	}
+
+	public synchronized long getSizeInBytes() {
+		return size;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public synchronized double getHitRate() {
+		long all = hits + softHits + misses;
+		return all == 0 ? 0 : (hits + softHits) / (double) all;
+	}
+
+	public synchronized List<String> getKeys() {
+		return new ArrayList<String>(images.keySet());
+	}
+
+	public synchronized void resetStatistics() {
+		hits = softHits = misses = evictions = cancelled = decoded = decodeTime = 0;
+	}
+
+	public synchronized String getStatistics() {
+		return "Tiles " + images.size() + " (" + (size >> 20) + " Mb of " + (budget >> 20) + " Mb), hits " + hits
+				+ ", soft hits " + softHits + ", misses " + misses + ", evictions " + evictions + ", cancelled "
+				+ cancelled + ", decoded " + decoded + " in " + (decodeTime / 1000000) + " ms";
+	}
+}
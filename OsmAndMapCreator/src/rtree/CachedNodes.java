@@ -20,9 +20,8 @@ import rtree.seeded.SdNode;
    If the requested node is in <tt>Hashtable</tt> of the class then the node would
    be returned from the <tt>Hashtable</tt>, else it would be read from the
    disk.
-   <br>This will be a static object in the class RTree. Therefore no matter how
-   many RTree objects you create they all would have one cache for all the files
-   the object handles.
+   <br>Every file has own cache in its <code>FileHdr</code>, so all RTree objects of one file share
+   the cache and trees of different files don't evict nodes of each other.
    TODO : keep a set that keeps all the nodes that are dirty. With each node registering themselves
    hara when thhey are dity, this is maageable.
    @author Prachuryya Barua
@@ -217,7 +216,8 @@ public class CachedNodes
   CachedNodes()
   {
     //System.out.println("CachedNodes : cache called");
-    cache = new Hashtable(Node.CACHE_SIZE+1,1);
+    //table grows with the cache, most of the files don't need all of it
+    cache = new Hashtable();
     buffHeader = new BufferHeader(Node.CACHE_SIZE,cache);
     size = Node.CACHE_SIZE;
   }
@@ -380,25 +380,11 @@ public class CachedNodes
     buffHeader.reset();
   }
 
-  static Map<String, Integer> fileNamesMap = new LinkedHashMap<String, Integer>();
-
-  static void clearFileNamesMap(){
-	  fileNamesMap.clear();
-  }
-
+  /**cache has nodes of one file only, so node index is the key*/
   int calKey(String fileName,int idx)
   {
     if(fileName != null) {
-    	Integer i = fileNamesMap.get(fileName);
-    	if(i == null){
-    		if(fileNamesMap.size() > 1023){
-    			throw new ArrayIndexOutOfBoundsException();
-    		}
-    		fileNamesMap.put(fileName, fileNamesMap.size());
-    		i = fileNamesMap.get(fileName);
-    	}
-//      System.out.println(idx + " " + fileName + " " + ((idx << 5)+ fileName.toLowerCase().hashCode() % 32));
-      return ((idx << 10)+ i);
+      return idx;
     } else{
       System.out.println("CachedNodes.calKey: fileName null");
       return 0;
@@ -49,6 +49,8 @@ public class FileHdr
   private boolean interested;
   /**The wait thread queue*/
   private Vector waiters;
+  /**Cached nodes of this file*/
+  private final CachedNodes cachedNodes = new CachedNodes();
   /**
      Although this 'stack' is part of the file header but it acts totally
      independently of the rest of the file header. All of the file reads and
@@ -103,6 +105,10 @@ public class FileHdr
       throw new RTreeException("FileHdr.FileHdr: " +e.getMessage());
     }
   }
+  CachedNodes getCachedNodes()
+  {
+    return cachedNodes;
+  }
   /**
      This method at the moment is only for Pack. This one has potential!
   */
@@ -317,7 +317,7 @@ public Object clone()
     if((index > (totalElements-1)))
       throw new IllegalValueException("Node.deleteElement: index out of bound");
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     int j = -1;
     try{
       nodeMBR = new Rect();//remove
@@ -408,7 +408,7 @@ public Object clone()
       if(((totalElements+1)*elementSize) > NODE_BODY_SIZE)//no space left
         throw new NodeWriteException("Node.insertElement: Node size is becoming more than allowed");
       if(fileHdr.isWriteThr())
-        RTree.chdNodes.remove(fileName,nodeIndex);
+        fileHdr.getCachedNodes().remove(fileName,nodeIndex);
       writeLastElement(elmt);
     }
     else{//else set the header values depending upon the new object header
@@ -420,10 +420,10 @@ public Object clone()
         Node child = null;
         if(fileHdr.isWriteThr()){
           child = new Node(file, fileName, elmt.getPtr(), fileHdr);
-          RTree.chdNodes.remove(fileName, child.getNodeIndex());
+          fileHdr.getCachedNodes().remove(fileName, child.getNodeIndex());
         }
         else{
-          child = RTree.chdNodes.getNode(file, fileName, elmt.getPtr(), fileHdr);
+          child = fileHdr.getCachedNodes().getNode(file, fileName, elmt.getPtr(), fileHdr);
         }
         child.setParent(nodeIndex);
       }
@@ -454,7 +454,7 @@ public Object clone()
     int oldTotalElements = totalElements;
     //boolean oldIsNodeEmpty = isNodeEmpty;
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     try{
       //setting local variables first
       if(elmt instanceof LeafElement){
@@ -529,7 +529,7 @@ public Object clone()
       if(((totalElements+elmts.length)*elementSize) > NODE_BODY_SIZE)//no space left
         throw new NodeWriteException("Node.insertElement: Node size is becoming more than allowed");
       if(fileHdr.isWriteThr())
-        RTree.chdNodes.remove(fileName,nodeIndex);
+        fileHdr.getCachedNodes().remove(fileName,nodeIndex);
       writeLastElements(elmts);
     }
     else{//else set the header values depending upon the new object header
@@ -546,9 +546,9 @@ public Object clone()
           Node child = null;
           if(fileHdr.isWriteThr()){
             child = new Node(file, fileName, elmts[i].getPtr(), fileHdr);
-            RTree.chdNodes.remove(fileName, child.getNodeIndex());
+            fileHdr.getCachedNodes().remove(fileName, child.getNodeIndex());
           }else
-            child = RTree.chdNodes.getNode(file, fileName, elmts[i].getPtr(), fileHdr);
+            child = fileHdr.getCachedNodes().getNode(file, fileName, elmts[i].getPtr(), fileHdr);
           //child = new Node(file, fileName, elmts[i].getPtr(), fileHdr);
           child.setParent(nodeIndex);
         }
@@ -582,7 +582,7 @@ public Object clone()
     int oldTotalElements = totalElements;
     //boolean oldIsNodeEmpty = isNodeEmpty;
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     try{
       //setting local variables first
       if(elmts[0] instanceof LeafElement){
@@ -697,7 +697,7 @@ public Object clone()
     throws IOException, NodeWriteException
   {
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
       ByteArrayOutputStream bs = new ByteArrayOutputStream(FILE_HDR_SIZE);
       DataOutputStream ds =  new DataOutputStream(bs);
@@ -729,7 +729,7 @@ public Object clone()
     throws IOException, NodeWriteException
   {
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
       ds.writeInt(totElmt);//total elements
       ds.writeLong(prnt);//parent
@@ -825,7 +825,7 @@ public Object clone()
       throw new NodeEmptyException("Node.getBestFitElement : Node does not have any elements");
     }
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     Element retElmt;//initialize with first element
     int area;
 
@@ -889,7 +889,7 @@ public Object clone()
     if((totalElements < MAX) || (elmtM1.getElementType() != elementType))
       throw new RTreeException("Node.splitNode: Node is not full or new element is of wrong type");
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     try{
       int rem = totalElements+1;//no. of elements remaining + the new element
       Element[] elmtPlusOne = new Element[rem];
@@ -914,8 +914,8 @@ public Object clone()
         nodeA = new Node(file,fileName,parent,elmtType,fileHdr);
         nodeB = new Node(file,fileName,parent,elmtType,fileHdr);
       }else{
-        nodeA = RTree.chdNodes.getNode(file,fileName,parent,elmtType,fileHdr);
-        nodeB = RTree.chdNodes.getNode(file,fileName,parent,elmtType,fileHdr);
+        nodeA = fileHdr.getCachedNodes().getNode(file,fileName,parent,elmtType,fileHdr);
+        nodeB = fileHdr.getCachedNodes().getNode(file,fileName,parent,elmtType,fileHdr);
       }
       nodeA.insertElement(elmtPlusOne[seeds[0]]);
       nodeB.insertElement(elmtPlusOne[seeds[1]]);
@@ -1053,9 +1053,9 @@ public Object clone()
         if(fileHdr.isWriteThr())
           parentN = new Node(file,fileName,parent,fileHdr);
         else
-          parentN = RTree.chdNodes.getNode(file,fileName,parent,fileHdr);
+          parentN = fileHdr.getCachedNodes().getNode(file,fileName,parent,fileHdr);
         if(fileHdr.isWriteThr())
-          RTree.chdNodes.remove(fileName,parent);
+          fileHdr.getCachedNodes().remove(fileName,parent);
         //get the parent element of nodes[0]
         int parentElmtIndex = parentN.getElementIndex(nodeIndex);
         parentN.modifyElement(parentElmtIndex, nodeA.getNodeIndex());
@@ -1233,7 +1233,7 @@ public Object clone()
     if(elmt.getElementType() != elementType)
       throw new  IllegalValueException("Node.modifyElmtMBR : Element of wrong type");
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
       ByteArrayOutputStream bs = new ByteArrayOutputStream(elementSize);
       DataOutputStream ds =  new DataOutputStream(bs);
@@ -1274,7 +1274,7 @@ public Object clone()
       }
     }
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
       ByteArrayOutputStream bs = new ByteArrayOutputStream(LONG_SIZE);
       DataOutputStream ds =  new DataOutputStream(bs);
@@ -1300,7 +1300,7 @@ public Object clone()
     if((index > totalElements) || (index < 0))
       throw new IllegalValueException("Node.modifyElmtMBR : index out of bound or MBR is null");
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     if(fileHdr.isWriteThr()){
       ByteArrayOutputStream bs = new ByteArrayOutputStream(Rect.sizeInBytes());
       DataOutputStream ds =  new DataOutputStream(bs);
@@ -1365,7 +1365,7 @@ public Object clone()
     if(prnt == NOT_DEFINED)//if this is the new root then update the file hdr
       fileHdr.writeFileHeader(fileHdr.totalNodes,nodeIndex);
     if(fileHdr.isWriteThr())
-      RTree.chdNodes.remove(fileName,nodeIndex);
+      fileHdr.getCachedNodes().remove(fileName,nodeIndex);
     writeNodeHeader(nodeIndex,totalElements,prnt,elementSize,elementType);
   }
   /**
@@ -1430,7 +1430,7 @@ public String toString()
     throws NodeWriteException
   {
     setDirty(false);//this is intentional
-    RTree.chdNodes.remove(fileName,nodeIndex);//we do not check for writeThr here
+    fileHdr.getCachedNodes().remove(fileName,nodeIndex);//we do not check for writeThr here
     try{
       fileHdr.push(nodeIndex);
     }catch(StackOverflowException e){
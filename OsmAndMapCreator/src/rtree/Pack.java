@@ -94,9 +94,12 @@ public class Pack
       if(newFile.equalsIgnoreCase(rtree.getFileName())){//we need a write lock
         rtree.getFileHdr().lockWrite();
       }
-      /*the following is required as we may pack an existing tree.. until we find a way to remove nodes of
-        a particular rtree*/
-      RTree.chdNodes.removeAll();
+      /*the following is required as we may pack an existing tree, nodes of the packed tree and of the
+        overwritten file are removed from their caches*/
+      rtree.getFileHdr().getCachedNodes().removeAll();
+      FileHdr newHdr = RTree.getOpenedFileHdr(newFile);
+      if(newHdr != null && newHdr != rtree.getFileHdr())
+        newHdr.getCachedNodes().removeAll();
       //rtree.getFileHdr().getFile().getFD().sync();
       if(elmts.length <= Node.MAX)//change this for the first method
         return(1);
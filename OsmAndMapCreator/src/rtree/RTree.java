@@ -53,10 +53,13 @@ public class RTree //the tree that would be made
      of the fact that this package was developed on a Linux(RH7.0) platform.
   */
   protected String fileName;
-  static Map fileList;//the no. of files open
+  static final Map fileList = new HashMap();//the no. of files open
   // static for the other way
   protected FileHdr fileHdr;
-  public static CachedNodes chdNodes;
+  /**Cache of nodes of the file, every file has own cache, so trees of different files could be
+     modified in parallel.
+  */
+  protected CachedNodes chdNodes;
   /**Inner class for the fileList vector - A List of files*/
   class Header
   {
@@ -68,10 +71,24 @@ public class RTree //the tree that would be made
       flHdr = flH;
     }
   }
+  /**
+     Forgets all opened files with their cached nodes, trees which are already created keep working
+     with their files.
+  */
   public static void clearCache(){
-	  chdNodes = new CachedNodes();
-	  fileList = new HashMap();
-	  CachedNodes.clearFileNamesMap();
+    synchronized(fileList){
+      fileList.clear();
+    }
+  }
+
+  /**
+     Returns header of the opened file or null.
+  */
+  static FileHdr getOpenedFileHdr(String fileName){
+    synchronized(fileList){
+      Header h = (Header)fileList.get(fileName);
+      return h == null ? null : h.flHdr;
+    }
   }
 
   public RTree(String fileName)
@@ -79,19 +96,14 @@ public class RTree //the tree that would be made
   {
     try{
       this.fileName = fileName;
-      if(fileList == null)
-        fileList = new HashMap();
       synchronized(fileList){//this may give problem
-        if(fileList.get(fileName) != null){
-          fileHdr = ((Header)fileList.get(fileName)).flHdr;
-          return;
+        if(fileList.get(fileName) == null){
+          //a new file
+          fileList.put(fileName, new Header(new FileHdr(Node.FREE_LIST_LIMIT, fileName),fileName));
         }
-        //a new file
-        fileList.put(fileName, new Header(new FileHdr(Node.FREE_LIST_LIMIT, fileName),fileName));
         fileHdr = ((Header)fileList.get(fileName)).flHdr;
-        //the cache of nodes - one cache for all the tree files.
-        if(chdNodes == null)
-          chdNodes = new CachedNodes();
+        //the cache of nodes - one cache for every file.
+        chdNodes = fileHdr.getCachedNodes();
       }
     }
     catch(Exception e){
@@ -105,11 +117,8 @@ public class RTree //the tree that would be made
   void updateHdr()
     throws RTreeException, IOException, FileNotFoundException, NodeWriteException
   {
-    Header tmp = (Header)fileList.get(fileName);
-    if(tmp != null){
-      //chdNodes.removeAll();//XXX check this out
-      fileHdr.update(fileName);
-    }
+    //chdNodes.removeAll();//XXX check this out
+    fileHdr.update(fileName);
   }
 
   public Node getReadNode(long index) throws RTreeException
@@ -145,6 +154,28 @@ public class RTree //the tree that would be made
       fileHdr.unlock();
     }
   }
+  /**
+     Writes cached nodes, closes the file and forgets it with its cache. The tree should not be used after.
+  */
+  public void close()
+    throws IOException
+  {
+    synchronized(fileList){
+      Header h = (Header)fileList.get(fileName);
+      if(h != null && h.flHdr == fileHdr)
+        fileList.remove(fileName);
+    }
+    fileHdr.lockWrite();
+    try{
+      fileHdr.flush();
+      chdNodes.removeAll();
+    }catch(NodeWriteException e){
+      throw new IOException(e.getMessage(), e);
+    }finally{
+      fileHdr.unlock();
+      fileHdr.getFile().close();
+    }
+  }
   /**
    * Adjust Tree from <b>Guttman the Great</b>.
    * @param Node[] The nodes that was has the new element and also the element
@@ -164,10 +195,10 @@ public class RTree //the tree that would be made
           Node newRoot;
           if(fileHdr.isWriteThr())
             newRoot = new Node(fileHdr.getFile(),fileName, slotIndex, Node.NONLEAF_NODE,
-                               ((Header)fileList.get(fileName)).flHdr);
+                               fileHdr);
           else
             newRoot = chdNodes.getNode(fileHdr.getFile(),fileName, slotIndex, Node.NONLEAF_NODE,
-                                       ((Header)fileList.get(fileName)).flHdr, nodes[0]);
+                                       fileHdr, nodes[0]);
           NonLeafElement branchA = new NonLeafElement(nodes[0].getNodeMBR(),nodes[0].getNodeIndex());
           NonLeafElement branchB = new NonLeafElement(nodes[1].getNodeMBR(),nodes[1].getNodeIndex());
           newRoot.insertElement(branchB);
@@ -0,0 +1,139 @@
+//TreeScanner.java
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Lesser General Public
+//License as published by the Free Software Foundation; either
+//version 2.1 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Lesser General Public License for more details.
+package rtree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+   Reads the elements of a tree directly from its file, page by page. Nodes are not put in
+   node cache of the tree and no <code>Element</code> objects are created, every node is read once.
+   <br><b>The tree should be flushed (or packed) before scanning.</b>
+   <br>One scanner should be used by one thread only.
+*/
+public class TreeScanner
+{
+  public interface ElementVisitor
+  {
+    /**
+       @param ptr record pointer for leaf elements, node index for non leaf elements.
+    */
+    public void visit(long ptr, int minX, int minY, int maxX, int maxY) throws IOException;
+  }
+
+  private RandomAccessFile file;
+  private long root;
+  private byte[][] pages = new byte[0][];
+
+  public TreeScanner(RTree tree) throws IOException
+  {
+    file = new RandomAccessFile(tree.getFileName(), "r");
+    root = tree.getFileHdr().getRootIndex();
+  }
+
+  /**
+     @return depth of the leaf nodes (0 if root is a leaf) or -1 if the tree is empty.
+  */
+  public int getLeafDepth() throws IOException
+  {
+    if(root == Node.NOT_DEFINED)
+      return -1;
+    int depth = 0;
+    long nd = root;
+    byte[] page = getPage(0);
+    while(true){
+      readPage(nd, page);
+      if(getInt(page, 16) != Node.NONLEAF_NODE || getInt(page, 0) <= 0)
+        return depth;
+      nd = getLong(page, Node.NODE_HDR_SIZE + 16);
+      depth++;
+    }
+  }
+
+  /**
+     Visits all leaf elements.
+  */
+  public void scanLeaves(ElementVisitor visitor) throws IOException
+  {
+    scan(visitor, Integer.MAX_VALUE);
+  }
+
+  /**
+     Visits elements of the nodes at <code>depth</code> (0 for elements of the root). Elements at
+     <code>getLeafDepth() - 1</code> are the MBRs of the leaf nodes. Leaf elements are visited if the tree
+     is lower.
+  */
+  public void scan(ElementVisitor visitor, int depth) throws IOException
+  {
+    if(root != Node.NOT_DEFINED)
+      scanRec(root, 0, depth, visitor);
+  }
+
+  public void close() throws IOException
+  {
+    file.close();
+  }
+
+  private void scanRec(long nd, int d, int depth, ElementVisitor visitor) throws IOException
+  {
+    byte[] page = getPage(d);
+    readPage(nd, page);
+    int total = getInt(page, 0);
+    int elementSize = getInt(page, 12);
+    int elementType = getInt(page, 16);
+    for(int i=0; i<total; i++){
+      int off = Node.NODE_HDR_SIZE + i * elementSize;
+      long ptr = getLong(page, off + 16);
+      if(elementType == Node.NONLEAF_NODE && d < depth)
+        scanRec(ptr, d + 1, depth, visitor);
+      else
+        visitor.visit(ptr, getInt(page, off), getInt(page, off + 4), getInt(page, off + 8), getInt(page, off + 12));
+    }
+  }
+
+  /** One buffer per level of the tree, so the recursion doesn't allocate */
+  private byte[] getPage(int d)
+  {
+    if(d >= pages.length){
+      byte[][] n = new byte[d + 1][];
+      System.arraycopy(pages, 0, n, 0, pages.length);
+      pages = n;
+    }
+    if(pages[d] == null)
+      pages[d] = new byte[Node.NODE_SIZE];
+    return pages[d];
+  }
+
+  private void readPage(long nd, byte[] page) throws IOException
+  {
+    file.seek(Node.FILE_HDR_SIZE + (nd * Node.NODE_SIZE));
+    int read = 0;
+    while(read < page.length){
+      int r = file.read(page, read, page.length - read);
+      if(r < 0)
+        break;
+      read += r;
+    }
+    if(read < Node.NODE_HDR_SIZE)
+      throw new IOException("TreeScanner.readPage : node " + nd + " is out of file");
+  }
+
+  private static int getInt(byte[] b, int off)
+  {
+    return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+  }
+
+  private static long getLong(byte[] b, int off)
+  {
+    return ((long)getInt(b, off) << 32) | (getInt(b, off + 4) & 0xffffffffL);
+  }
+}
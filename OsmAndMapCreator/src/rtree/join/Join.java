@@ -22,7 +22,7 @@ import java.util.List;
    Make another buffer just for this algorithm of 512 bytes (or should you?).
    It is best to have this method's own cache. Read the document well before deciding on it.
    FIXME:
-   1) This thing goes out of memory for large randomly generated trees.
+   1) This thing goes out of memory for large randomly generated trees (see <code>PartitionedJoin</code>).
    2) The result for point objects are not correct. The extra check done at Rect class is not done at sweep line algorithm.
    3) Better documentation
 
@@ -0,0 +1,640 @@
+//PartitionedJoin.java
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Lesser General Public
+//License as published by the Free Software Foundation; either
+//version 2.1 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Lesser General Public License for more details.
+package rtree.join;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rtree.Node;
+import rtree.RTree;
+import rtree.TreeScanner;
+
+/**
+   Join of two big trees within a memory limit (<code>Join</code> keeps all the pairs and nodes in memory).
+   <p>Leaf elements of both trees are read once with <code>TreeScanner</code> and distributed to the cells
+   which cover the intersection of the trees: a uniform grid (<code>GRID</code>) or tiles made like STR
+   packing from the MBRs of leaf nodes (<code>STR</code>, better for skewed data). Cells are buffered
+   and spilled to temporary files. Every cell is joined with a plane sweep over primitive arrays, a cell that
+   doesn't fit in memory is joined chunk by chunk. An element is copied to every cell it overlaps, a pair is
+   reported only by the cell which contains the lower left corner of the pair intersection.
+   <p>Pairs are the ones <code>Rect.overlaps</code> gives (unlike the sweep of <code>Join</code> point
+   objects are correct). Results are not kept, they are passed to <code>JoinCallback</code>.
+*/
+public class PartitionedJoin
+{
+  public static final int GRID = 0;
+  public static final int STR = 1;
+  /** ptr, minX, minY, maxX, maxY */
+  private static final int RECORD_SIZE = 24;
+  private static final int MAX_BUFFER_RECORDS = 4096;
+  private static final int MAX_SAMPLES = 1 << 20;
+
+  public interface JoinCallback
+  {
+    /**
+       Called from several threads if the join runs with more than one thread.
+    */
+    public void joined(long ltPtr, long rtPtr) throws IOException;
+  }
+
+  private RTree ltTree;
+  private RTree rtTree;
+  private int partitioning = STR;
+  private int threads = 1;
+  private long memoryLimit = Runtime.getRuntime().maxMemory() / 4;
+  private int cellsLimit = 0;
+  private File tmpDir = null;
+
+  private int cells;
+  private long spilledBytes;
+
+  public PartitionedJoin(RTree left, RTree right)
+  {
+    if(left == null || right == null)
+      throw new IllegalArgumentException("PartitionedJoin : Argument null");
+    this.ltTree = left;
+    this.rtTree = right;
+  }
+
+  /** <code>GRID</code> or <code>STR</code> */
+  public void setPartitioning(int partitioning)
+  {
+    this.partitioning = partitioning;
+  }
+
+  /** Cells are joined in parallel if more than 1 */
+  public void setThreads(int threads)
+  {
+    this.threads = Math.max(1, threads);
+  }
+
+  /** Memory for spill buffers and for the cells joined at once (by all threads) */
+  public void setMemoryLimit(long bytes)
+  {
+    this.memoryLimit = bytes;
+  }
+
+  /** Number of cells, by default it is calculated from the size of the trees and the memory limit */
+  public void setCells(int cells)
+  {
+    this.cellsLimit = cells;
+  }
+
+  public void setTempDir(File tmpDir)
+  {
+    this.tmpDir = tmpDir;
+  }
+
+  /** @return number of cells of the last join */
+  public int getCells()
+  {
+    return cells;
+  }
+
+  /** @return bytes written to the temporary files by the last join */
+  public long getSpilledBytes()
+  {
+    return spilledBytes;
+  }
+
+  /**
+     Both trees should be flushed (or packed).
+     @return number of the pairs passed to <code>callback</code>
+  */
+  public long relate(JoinCallback callback)
+    throws JoinException
+  {
+    SpillFile lt = null;
+    SpillFile rt = null;
+    TreeScanner ltScan = null;
+    TreeScanner rtScan = null;
+    ltTree.getFileHdr().lockRead();
+    rtTree.getFileHdr().lockRead();
+    try{
+      ltScan = new TreeScanner(ltTree);
+      rtScan = new TreeScanner(rtTree);
+      int ltDepth = ltScan.getLeafDepth();
+      int rtDepth = rtScan.getLeafDepth();
+      if(ltDepth < 0 || rtDepth < 0)
+        return 0;
+      int[] space = getMBR(ltScan);
+      int[] rtMBR = getMBR(rtScan);
+      space[0] = Math.max(space[0], rtMBR[0]);
+      space[1] = Math.max(space[1], rtMBR[1]);
+      space[2] = Math.min(space[2], rtMBR[2]);
+      space[3] = Math.min(space[3], rtMBR[3]);
+      if(space[0] > space[2] || space[1] > space[3])
+        return 0;
+
+      // MBRs of leaf nodes give the size of the trees and the sample for STR
+      Sample sample = new Sample(space);
+      ltScan.scan(sample, ltDepth - 1);
+      long ltCount = ltDepth == 0 ? sample.count : (long)sample.count * Node.MAX;
+      int ltSamples = sample.count;
+      rtScan.scan(sample, rtDepth - 1);
+      long rtCount = rtDepth == 0 ? sample.count - ltSamples : (long)(sample.count - ltSamples) * Node.MAX;
+
+      int maxRecords = getMaxRecords();
+      int cellsCount = cellsLimit;
+      if(cellsCount <= 0){
+        // twice more cells for copies and skew
+        cellsCount = (int)Math.min(1 << 16, 2 * ((ltCount + rtCount) / (2 * maxRecords) + 1));
+      }
+      int slabs = (int)Math.ceil(Math.sqrt(cellsCount));
+      Cells grid = partitioning == GRID ? Cells.grid(space, slabs) : Cells.str(space, slabs, sample);
+      sample = null;
+      this.cells = grid.size();
+      int bufferRecords = (int)Math.max(Node.MAX, Math.min(MAX_BUFFER_RECORDS,
+                                                           memoryLimit / 4 / RECORD_SIZE / (2 * grid.size())));
+      lt = new SpillFile(tmpDir, grid.size(), bufferRecords);
+      rt = new SpillFile(tmpDir, grid.size(), bufferRecords);
+      ltScan.scanLeaves(new Distributor(space, grid, lt));
+      rtScan.scanLeaves(new Distributor(space, grid, rt));
+      lt.finish();
+      rt.finish();
+      spilledBytes = lt.length() + rt.length();
+
+      return joinCells(grid, lt, rt, maxRecords, bufferRecords, callback);
+    }catch(JoinException e){
+      throw e;
+    }catch(Exception e){
+      JoinException ex = new JoinException("PartitionedJoin.relate : " + e.getMessage());
+      ex.initCause(e);
+      throw ex;
+    }finally{
+      close(ltScan, rtScan, lt, rt);
+      ltTree.getFileHdr().unlock();
+      rtTree.getFileHdr().unlock();
+    }
+  }
+
+  /** Records of one side of a cell joined at once by one thread */
+  private int getMaxRecords()
+  {
+    long mem = memoryLimit / 2 / threads;
+    return (int)Math.max(Node.MAX, Math.min(Integer.MAX_VALUE / 2, mem / 2 / RectArray.MEMORY_PER_RECT));
+  }
+
+  private long joinCells(final Cells grid, final SpillFile lt, final SpillFile rt, final int maxRecords,
+                         final int bufferRecords, final JoinCallback callback)
+    throws Exception
+  {
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicLong pairs = new AtomicLong();
+    Callable<Void> worker = new Callable<Void>(){
+      @Override
+      public Void call() throws Exception
+      {
+        CellJoin join = new CellJoin(grid, lt, rt, maxRecords, bufferRecords, callback);
+        int cell;
+        while((cell = next.getAndIncrement()) < grid.size()){
+          pairs.addAndGet(join.join(cell));
+        }
+        return null;
+      }
+    };
+    if(threads == 1){
+      worker.call();
+      return pairs.get();
+    }
+    ExecutorService service = Executors.newFixedThreadPool(threads);
+    try{
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for(int i=0; i<threads; i++)
+        futures.add(service.submit(worker));
+      for(Future<Void> f : futures){
+        try{
+          f.get();
+        }catch(ExecutionException e){
+          // stop other threads
+          next.set(grid.size());
+          throw new IOException(e.getCause());
+        }
+      }
+    }finally{
+      service.shutdownNow();
+    }
+    return pairs.get();
+  }
+
+  private static int[] getMBR(TreeScanner scan) throws IOException
+  {
+    final int[] mbr = new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+    scan.scan(new TreeScanner.ElementVisitor(){
+        @Override
+        public void visit(long ptr, int minX, int minY, int maxX, int maxY)
+        {
+          mbr[0] = Math.min(mbr[0], minX);
+          mbr[1] = Math.min(mbr[1], minY);
+          mbr[2] = Math.max(mbr[2], maxX);
+          mbr[3] = Math.max(mbr[3], maxY);
+        }
+      }, 0);
+    return mbr;
+  }
+
+  private static void close(TreeScanner ltScan, TreeScanner rtScan, SpillFile lt, SpillFile rt)
+  {
+    try{
+      if(ltScan != null)
+        ltScan.close();
+      if(rtScan != null)
+        rtScan.close();
+    }catch(IOException e){
+      e.printStackTrace();
+    }
+    if(lt != null)
+      lt.delete();
+    if(rt != null)
+      rt.delete();
+  }
+
+  private static boolean inside(int[] space, int minX, int minY, int maxX, int maxY)
+  {
+    return minX <= space[2] && maxX >= space[0] && minY <= space[3] && maxY >= space[1];
+  }
+
+  /**
+     Centers of leaf node MBRs which are inside of the join space.
+  */
+  private static class Sample implements TreeScanner.ElementVisitor
+  {
+    int[] space;
+    int count;
+    int[] x = new int[1024];
+    int[] y = new int[1024];
+    int size;
+
+    Sample(int[] space)
+    {
+      this.space = space;
+    }
+
+    @Override
+    public void visit(long ptr, int minX, int minY, int maxX, int maxY)
+    {
+      count++;
+      if(!inside(space, minX, minY, maxX, maxY))
+        return;
+      if(size == x.length){
+        if(size >= MAX_SAMPLES){
+          // keep every second
+          for(int i=0; i<size/2; i++){
+            x[i] = x[i * 2];
+            y[i] = y[i * 2];
+          }
+          size /= 2;
+        }else{
+          x = Arrays.copyOf(x, size * 2);
+          y = Arrays.copyOf(y, size * 2);
+        }
+      }
+      x[size] = (int)(((long)minX + maxX) / 2);
+      y[size] = (int)(((long)minY + maxY) / 2);
+      size++;
+    }
+  }
+
+  /**
+     Cells are vertical slabs divided in tiles, for a grid tiles of all the slabs are the same.
+     Bounds are the lowest coordinate of a slab or tile, the first bound is <code>Integer.MIN_VALUE</code>.
+  */
+  static class Cells
+  {
+    int[] xBounds;
+    int[][] yBounds;
+    int[] firstCell;
+    int size;
+
+    static Cells grid(int[] space, int slabs)
+    {
+      Cells c = new Cells();
+      int[] y = split(space[1], space[3], slabs);
+      c.init(split(space[0], space[2], slabs));
+      for(int i=0; i<slabs; i++)
+        c.setSlab(i, y);
+      return c;
+    }
+
+    static Cells str(int[] space, int slabs, Sample sample)
+    {
+      if(sample.size < slabs * slabs)
+        return grid(space, slabs);
+      int[] xs = Arrays.copyOf(sample.x, sample.size);
+      Arrays.sort(xs);
+      int[] x = new int[slabs];
+      x[0] = Integer.MIN_VALUE;
+      for(int i=1; i<slabs; i++)
+        x[i] = xs[(int)((long)i * xs.length / slabs)];
+      Cells c = new Cells();
+      c.init(x);
+      int[][] ys = new int[slabs][];
+      int[] counts = new int[slabs];
+      for(int i=0; i<sample.size; i++)
+        counts[c.slab(sample.x[i])]++;
+      for(int i=0; i<slabs; i++)
+        ys[i] = new int[counts[i]];
+      Arrays.fill(counts, 0);
+      for(int i=0; i<sample.size; i++){
+        int s = c.slab(sample.x[i]);
+        ys[s][counts[s]++] = sample.y[i];
+      }
+      for(int i=0; i<slabs; i++){
+        if(ys[i].length < slabs){
+          c.setSlab(i, split(space[1], space[3], slabs));
+        }else{
+          Arrays.sort(ys[i]);
+          int[] y = new int[slabs];
+          y[0] = Integer.MIN_VALUE;
+          for(int k=1; k<slabs; k++)
+            y[k] = ys[i][(int)((long)k * ys[i].length / slabs)];
+          c.setSlab(i, y);
+        }
+      }
+      return c;
+    }
+
+    private static int[] split(int min, int max, int parts)
+    {
+      int[] b = new int[parts];
+      b[0] = Integer.MIN_VALUE;
+      for(int i=1; i<parts; i++)
+        b[i] = (int)(min + ((long)max - min) * i / parts);
+      return b;
+    }
+
+    private void init(int[] x)
+    {
+      xBounds = x;
+      yBounds = new int[x.length][];
+      firstCell = new int[x.length];
+    }
+
+    private void setSlab(int i, int[] y)
+    {
+      yBounds[i] = y;
+      firstCell[i] = size;
+      size += y.length;
+    }
+
+    int size()
+    {
+      return size;
+    }
+
+    int slab(int x)
+    {
+      return bound(xBounds, x);
+    }
+
+    int cell(int x, int y)
+    {
+      int s = slab(x);
+      return firstCell[s] + bound(yBounds[s], y);
+    }
+
+    /** @return last index with bound not greater than v */
+    private static int bound(int[] bounds, int v)
+    {
+      int i = Arrays.binarySearch(bounds, v);
+      if(i < 0)
+        return -i - 2;
+      // equal bounds (empty tiles of STR)
+      while(i + 1 < bounds.length && bounds[i + 1] == v)
+        i++;
+      return i;
+    }
+  }
+
+  /**
+     Writes leaf elements to all the cells they overlap.
+  */
+  private static class Distributor implements TreeScanner.ElementVisitor
+  {
+    int[] space;
+    Cells grid;
+    SpillFile file;
+
+    Distributor(int[] space, Cells grid, SpillFile file)
+    {
+      this.space = space;
+      this.grid = grid;
+      this.file = file;
+    }
+
+    @Override
+    public void visit(long ptr, int minX, int minY, int maxX, int maxY) throws IOException
+    {
+      if(!inside(space, minX, minY, maxX, maxY))
+        return;
+      int last = grid.slab(maxX);
+      for(int s=grid.slab(minX); s<=last; s++){
+        int[] y = grid.yBounds[s];
+        int lastTile = Cells.bound(y, maxY);
+        for(int t=Cells.bound(y, minY); t<=lastTile; t++)
+          file.add(grid.firstCell[s] + t, ptr, minX, minY, maxX, maxY);
+      }
+    }
+  }
+
+  /**
+     Records of all the cells of one tree. Each cell is buffered and written by full blocks, so a cell is a list
+     of blocks in the file.
+  */
+  private static class SpillFile
+  {
+    File file;
+    RandomAccessFile raf;
+    FileChannel channel;
+    int bufferRecords;
+    ByteBuffer[] buffers;
+    long[] counts;
+    long[][] blocks;
+    int[] blocksCount;
+
+    SpillFile(File tmpDir, int cells, int bufferRecords) throws IOException
+    {
+      file = File.createTempFile("join", ".tmp", tmpDir);
+      raf = new RandomAccessFile(file, "rw");
+      channel = raf.getChannel();
+      this.bufferRecords = bufferRecords;
+      buffers = new ByteBuffer[cells];
+      counts = new long[cells];
+      blocks = new long[cells][];
+      blocksCount = new int[cells];
+    }
+
+    void add(int cell, long ptr, int minX, int minY, int maxX, int maxY) throws IOException
+    {
+      ByteBuffer b = buffers[cell];
+      if(b == null){
+        b = ByteBuffer.allocate(bufferRecords * RECORD_SIZE);
+        buffers[cell] = b;
+      }
+      b.putLong(ptr).putInt(minX).putInt(minY).putInt(maxX).putInt(maxY);
+      counts[cell]++;
+      if(!b.hasRemaining())
+        writeBlock(cell);
+    }
+
+    private void writeBlock(int cell) throws IOException
+    {
+      ByteBuffer b = buffers[cell];
+      b.flip();
+      long pos = channel.size();
+      while(b.hasRemaining())
+        pos += channel.write(b, pos);
+      b.clear();
+      if(blocks[cell] == null)
+        blocks[cell] = new long[4];
+      else if(blocksCount[cell] == blocks[cell].length)
+        blocks[cell] = Arrays.copyOf(blocks[cell], blocksCount[cell] * 2);
+      blocks[cell][blocksCount[cell]++] = pos - (long)bufferRecords * RECORD_SIZE;
+    }
+
+    void finish() throws IOException
+    {
+      for(int i=0; i<buffers.length; i++){
+        if(buffers[i] != null && buffers[i].position() > 0){
+          // last block is written full size
+          buffers[i].position(buffers[i].capacity());
+          writeBlock(i);
+        }
+        buffers[i] = null;
+      }
+    }
+
+    long length() throws IOException
+    {
+      return channel.size();
+    }
+
+    /**
+       Reads records <code>from</code> ... <code>from + max</code> of the cell into <code>arr</code>.
+    */
+    void read(int cell, long from, int max, RectArray arr, ByteBuffer buf) throws IOException
+    {
+      arr.clear();
+      long to = Math.min(counts[cell], from + max);
+      int block = (int)(from / bufferRecords);
+      int skip = (int)(from % bufferRecords);
+      long record = from;
+      while(record < to){
+        buf.clear();
+        long pos = blocks[cell][block++];
+        while(buf.hasRemaining()){
+          int r = channel.read(buf, pos);
+          if(r < 0)
+            break;
+          pos += r;
+        }
+        buf.flip();
+        buf.position(skip * RECORD_SIZE);
+        skip = 0;
+        while(buf.remaining() >= RECORD_SIZE && record < to){
+          arr.add(buf.getLong(), buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt());
+          record++;
+        }
+      }
+    }
+
+    void delete()
+    {
+      try{
+        raf.close();
+      }catch(IOException e){
+        e.printStackTrace();
+      }
+      file.delete();
+    }
+  }
+
+  /**
+     Joins cells one by one, arrays are reused by the cells.
+  */
+  private static class CellJoin implements RectArray.PairVisitor
+  {
+    Cells grid;
+    SpillFile ltFile;
+    SpillFile rtFile;
+    int maxRecords;
+    JoinCallback callback;
+    RectArray lt = new RectArray(1024);
+    RectArray rt = new RectArray(1024);
+    ByteBuffer buf;
+    int cell;
+    long pairs;
+
+    CellJoin(Cells grid, SpillFile ltFile, SpillFile rtFile, int maxRecords, int bufferRecords,
+             JoinCallback callback)
+    {
+      this.grid = grid;
+      this.ltFile = ltFile;
+      this.rtFile = rtFile;
+      this.maxRecords = maxRecords;
+      this.callback = callback;
+      buf = ByteBuffer.allocate(bufferRecords * RECORD_SIZE);
+    }
+
+    long join(int cell) throws IOException
+    {
+      this.cell = cell;
+      pairs = 0;
+      long ltCount = ltFile.counts[cell];
+      long rtCount = rtFile.counts[cell];
+      if(ltCount == 0 || rtCount == 0)
+        return 0;
+      // block nested loop if cell doesn't fit in memory
+      boolean rtLoaded = rtCount <= maxRecords;
+      if(rtLoaded){
+        rtFile.read(cell, 0, maxRecords, rt, buf);
+        rt.sortByMinX();
+      }
+      for(long l=0; l<ltCount; l+=maxRecords){
+        ltFile.read(cell, l, maxRecords, lt, buf);
+        lt.sortByMinX();
+        for(long r=0; r<rtCount; r+=maxRecords){
+          if(!rtLoaded){
+            rtFile.read(cell, r, maxRecords, rt, buf);
+            rt.sortByMinX();
+          }
+          SweepLine.sortedIntersectionTest(lt, rt, this);
+        }
+      }
+      return pairs;
+    }
+
+    @Override
+    public void visit(RectArray l, int i, RectArray r, int j) throws IOException
+    {
+      int x = Math.max(l.minX[i], r.minX[j]);
+      int y = Math.max(l.minY[i], r.minY[j]);
+      if(grid.cell(x, y) == cell){
+        callback.joined(l.ptr[i], r.ptr[j]);
+        pairs++;
+      }
+    }
+  }
+}
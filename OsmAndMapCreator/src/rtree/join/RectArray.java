@@ -0,0 +1,128 @@
+//RectArray.java
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Lesser General Public
+//License as published by the Free Software Foundation; either
+//version 2.1 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Lesser General Public License for more details.
+package rtree.join;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+   Rectangles with their pointers kept in primitive arrays, so the plane sweep of big partitions
+   doesn't create an object per element. Arrays are reused after <code>clear</code>.
+*/
+public class RectArray
+{
+  /** Bytes of memory used by one rectangle (arrays and sort buffers) */
+  public static final int MEMORY_PER_RECT = 48;
+
+  public interface PairVisitor
+  {
+    public void visit(RectArray lt, int i, RectArray rt, int j) throws IOException;
+  }
+
+  int size;
+  long[] ptr;
+  int[] minX;
+  int[] minY;
+  int[] maxX;
+  int[] maxY;
+  // sort buffers
+  private long[] keys;
+  private long[] tmpPtr;
+  private int[] tmp;
+
+  public RectArray(int capacity)
+  {
+    capacity = Math.max(capacity, 16);
+    ptr = new long[capacity];
+    minX = new int[capacity];
+    minY = new int[capacity];
+    maxX = new int[capacity];
+    maxY = new int[capacity];
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public void clear()
+  {
+    size = 0;
+  }
+
+  public void add(long p, int x1, int y1, int x2, int y2)
+  {
+    if(size == ptr.length){
+      int n = size + (size >> 1);
+      ptr = Arrays.copyOf(ptr, n);
+      minX = Arrays.copyOf(minX, n);
+      minY = Arrays.copyOf(minY, n);
+      maxX = Arrays.copyOf(maxX, n);
+      maxY = Arrays.copyOf(maxY, n);
+    }
+    ptr[size] = p;
+    minX[size] = x1;
+    minY[size] = y1;
+    maxX[size] = x2;
+    maxY[size] = y2;
+    size++;
+  }
+
+  public long getPtr(int i)
+  {
+    return ptr[i];
+  }
+
+  /**
+     Sorts by <code>minX</code> (as <code>CompElmtX</code> does for elements).
+  */
+  public void sortByMinX()
+  {
+    if(keys == null || keys.length < ptr.length){
+      keys = new long[ptr.length];
+      tmpPtr = new long[ptr.length];
+      tmp = new int[ptr.length];
+    }
+    for(int i=0; i<size; i++)
+      keys[i] = ((long)minX[i] << 32) | i;
+    Arrays.sort(keys, 0, size);
+    for(int i=0; i<size; i++)
+      tmpPtr[i] = ptr[(int)keys[i]];
+    long[] l = ptr;
+    ptr = tmpPtr;
+    tmpPtr = l;
+    minX = permute(minX);
+    minY = permute(minY);
+    maxX = permute(maxX);
+    maxY = permute(maxY);
+  }
+
+  /** @return sorted array, <code>a</code> becomes the buffer */
+  private int[] permute(int[] a)
+  {
+    int[] res = tmp;
+    for(int i=0; i<size; i++)
+      res[i] = a[(int)keys[i]];
+    tmp = a;
+    return res;
+  }
+
+  /**
+     Same check as <code>Rect.overlaps</code>: interiors intersect or rectangles are equal (points).
+  */
+  public static boolean overlaps(RectArray a, int i, RectArray b, int j)
+  {
+    if(a.minX[i] == b.minX[j] && a.minY[i] == b.minY[j] && a.maxX[i] == b.maxX[j] && a.maxY[i] == b.maxY[j])
+      return true;
+    return a.minX[i] < b.maxX[j] && a.maxX[i] > b.minX[j] && a.minY[i] < b.maxY[j] && a.maxY[i] > b.minY[j];
+  }
+}
@@ -11,6 +11,7 @@
 //Lesser General Public License for more details.
 package rtree.join;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -117,6 +118,36 @@ public class SweepLine
     return pairs;
   }
 
+  /**
+     The same sweep over rectangles kept in primitive arrays, no pairs are collected.
+     @param lt rectangles of the left tree sorted by minX (<code>RectArray.sortByMinX</code>).
+     @param rt rectangles of the right tree sorted by minX.
+     @param visitor gets every pair which overlaps (as <code>Rect.overlaps</code>, so points work as well).
+  */
+  public static void sortedIntersectionTest(RectArray lt, RectArray rt, RectArray.PairVisitor visitor)
+    throws IOException
+  {
+    int i = 0;//loop cntr for left
+    int j = 0;//loop cntr for right
+    int ltSize = lt.size();
+    int rtSize = rt.size();
+    while(i < ltSize && j < rtSize){
+      if(lt.minX[i] < rt.minX[j]){//event at left
+        int maxX = lt.maxX[i];
+        for(int k=j; k<rtSize && rt.minX[k] <= maxX; k++)
+          if(RectArray.overlaps(lt, i, rt, k))
+            visitor.visit(lt, i, rt, k);
+        i++;
+      }else{
+        int maxX = rt.maxX[j];
+        for(int k=i; k<ltSize && lt.minX[k] <= maxX; k++)
+          if(RectArray.overlaps(lt, k, rt, j))
+            visitor.visit(lt, k, rt, j);
+        j++;
+      }
+    }
+  }
+
   /**
      @param evtSide tells whether <code>event</code> is from left tree or right tree.
 
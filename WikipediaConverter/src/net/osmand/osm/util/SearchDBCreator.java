@@ -10,6 +10,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -32,42 +33,66 @@ public class SearchDBCreator {
 
 	public static void main(String[] args) throws SQLException, IOException {
 		boolean uncompressed = false;
+		boolean bulk = false;
 		String workingDir = "/home/user/osmand/wikivoyage/";
 		if (args.length > 1) {
 			workingDir = args[0];
 			uncompressed = Boolean.parseBoolean(args[1]);
 		}
+		for (int i = 2; i < args.length; i++) {
+			if ("--bulk".equals(args[i])) {
+				bulk = true;
+			}
+		}
 		File pathTodb = new File(workingDir, (uncompressed ? "full_wikivoyage.sqlite" : "wikivoyage.sqlite"));
+		generateSearchDB(pathTodb, new File(workingDir), bulk);
+	}
+
+	/**
+	 * @param bulk trip ids and aggregated part of are calculated in memory and travel_articles is rewritten once
+	 * instead of update per article, indexes are created after tables are filled
+	 */
+	public static void generateSearchDB(File pathTodb, File workingDir, boolean bulk) throws SQLException, IOException {
 		final File langlinkFolder = new File(workingDir, "langlinks");
 		final File langlinkFile = new File(workingDir, "langlink.sqlite");
 		DBDialect dialect = DBDialect.SQLITE;
 		Connection conn = (Connection) dialect.getDatabaseConnection(pathTodb.getAbsolutePath(), log);
 		
 		conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_orig_id ON travel_articles(original_id);");
-		conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_image_title ON travel_articles(image_title);");
+		if (!bulk) {
+			conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_image_title ON travel_articles(image_title);");
+		}
 		
 		System.out.println("Processing langlink file " + langlinkFile.getAbsolutePath());
 		createLangLinksIfMissing(langlinkFile, langlinkFolder, conn);
-		System.out.println("Connect translations ");
-		generateSameTripIdForDifferentLang(langlinkFile, conn);
-		System.out.println("Generate missing ids");
-		generateIdsIfMissing(conn, langlinkFile);
+		if (bulk) {
+			System.out.println("Connect translations, generate missing ids and agg part of");
+			generateTripIdsAndPartOfBulk(langlinkFile, conn);
+			conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_image_title ON travel_articles(image_title);");
+		} else {
+			System.out.println("Connect translations ");
+			generateSameTripIdForDifferentLang(langlinkFile, conn);
+			System.out.println("Generate missing ids");
+			generateIdsIfMissing(conn, langlinkFile);
+		}
 		System.out.println("Download/Copy proper headers for articles");
 		updateProperHeaderForArticles(conn, workingDir);
 		System.out.println("Copy headers between lang");
 		copyHeaders(conn);
 		
-		System.out.println("Generate agg part of");
-		generateAggPartOf(conn);
+		if (!bulk) {
+			System.out.println("Generate agg part of");
+			generateAggPartOf(conn);
+		}
 		System.out.println("Generate search table");
-		generateSearchTable(conn);
+		generateSearchTable(conn, bulk);
 		
 		conn.createStatement().execute("DROP INDEX IF EXISTS index_orig_id");
 		conn.createStatement().execute("DROP INDEX IF EXISTS index_image_title ");
 		conn.close();
 	}
 
-	private static void updateProperHeaderForArticles(Connection conn, String workingDir) throws SQLException {
+	private static void updateProperHeaderForArticles(Connection conn, File workingDir) throws SQLException {
 		final File imagesMetadata = new File(workingDir, "images.sqlite");
 		// delete images to fully recreate db
 		// imagesMetadata.delete();
@@ -231,12 +256,13 @@ public class SearchDBCreator {
 		rs.close();
 	}
 
-	private static void generateSearchTable(Connection conn) throws SQLException {
+	private static void generateSearchTable(Connection conn, boolean indexesLast) throws SQLException {
 		conn.createStatement().execute("DROP TABLE IF EXISTS travel_search;");
 		conn.createStatement()
 				.execute("CREATE TABLE travel_search(search_term text, trip_id long, article_title text, lang text)");
-		conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_search_term ON travel_search(search_term);");
-		conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_search_city ON travel_search(trip_id)");
+		if (!indexesLast) {
+			createSearchIndexes(conn);
+		}
 
 		PreparedStatement insertSearch = conn.prepareStatement("INSERT INTO travel_search VALUES (?, ?, ?, ?)");
 		PreparedStatement data = conn.prepareStatement("SELECT trip_id, title, lang, is_part_of FROM travel_articles");
@@ -263,6 +289,195 @@ public class SearchDBCreator {
 		finishPrep(insertSearch);
 		data.close();
 		rs.close();
+		if (indexesLast) {
+			createSearchIndexes(conn);
+		}
+	}
+
+	private static void createSearchIndexes(Connection conn) throws SQLException {
+		conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_search_term ON travel_search(search_term);");
+		conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_search_city ON travel_search(trip_id)");
+	}
+
+	/**
+	 * Same result as {@link #generateSameTripIdForDifferentLang(File, Connection)},
+	 * {@link #generateIdsIfMissing(Connection, File)} and {@link #generateAggPartOf(Connection)}: articles are read
+	 * once and joined with langlinks and with themselves in memory, calculated values go to unindexed staging table
+	 * and travel_articles is rewritten with single INSERT ... SELECT.
+	 */
+	private static void generateTripIdsAndPartOfBulk(File langlinkFile, Connection conn) throws SQLException {
+		long time = System.currentTimeMillis();
+		Statement st = conn.createStatement();
+		ResultSet rs = st.executeQuery("SELECT count(*) FROM travel_articles");
+		int count = rs.next() ? rs.getInt(1) : 0;
+		rs.close();
+		long[] rowIds = new long[count];
+		String[] keys = new String[count];
+		String[] langs = new String[count];
+		String[] partOf = new String[count];
+		// lang + title -> last article with the title
+		Map<String, Integer> articles = new HashMap<String, Integer>();
+		rs = st.executeQuery("SELECT rowid, title, lang, is_part_of FROM travel_articles ORDER BY rowid");
+		int size = 0;
+		while (rs.next() && size < count) {
+			rowIds[size] = rs.getLong(1);
+			langs[size] = rs.getString(3);
+			keys[size] = getArticleKey(rs.getString(2), langs[size]);
+			partOf[size] = rs.getString(4);
+			articles.put(keys[size], size);
+			size++;
+		}
+		rs.close();
+
+		Map<String, Long> links = new HashMap<String, Long>();
+		Long maxLinkId = null;
+		Connection langlinkConn = (Connection) DBDialect.SQLITE.getDatabaseConnection(langlinkFile.getAbsolutePath(), log);
+		Statement langlinkSt = langlinkConn.createStatement();
+		rs = langlinkSt.executeQuery("SELECT id, lang, title FROM langlinks");
+		while (rs.next()) {
+			long id = rs.getLong(1);
+			String key = getArticleKey(rs.getString(3), rs.getString(2));
+			if (articles.containsKey(key)) {
+				links.put(key, id);
+			}
+			maxLinkId = maxLinkId == null ? id : Math.max(maxLinkId, id);
+		}
+		rs.close();
+		langlinkSt.close();
+		langlinkConn.close();
+		long maxId = (maxLinkId == null ? 0 : maxLinkId) + 1;
+		if (maxId == 0) {
+			System.err.println("MAX ID is 0");
+			throw new IllegalStateException();
+		}
+
+		st.execute("DROP TABLE IF EXISTS travel_articles_ids");
+		st.execute("CREATE TABLE travel_articles_ids(rid INTEGER PRIMARY KEY, trip_id long, aggregated_part_of text)");
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO travel_articles_ids VALUES (?, ?, ?)");
+		// as with update by title and lang: every article without link takes next id and articles with the same
+		// title and lang get id of the last one
+		Map<String, Long> generatedIds = new HashMap<String, Long>();
+		int generated = 0;
+		for (int i = 0; i < size; i++) {
+			Long tripId = links.get(keys[i]);
+			if (tripId == null || tripId == 0) {
+				generatedIds.put(keys[i], maxId++);
+				generated++;
+			}
+		}
+		Map<String, String> aggregatedPartOf = new HashMap<String, String>();
+		int batch = 0;
+		for (int i = 0; i < size; i++) {
+			Long tripId = links.get(keys[i]);
+			if (tripId == null || tripId == 0) {
+				tripId = generatedIds.get(keys[i]);
+			}
+			insert.setLong(1, rowIds[i]);
+			insert.setLong(2, tripId);
+			insert.setString(3, getAggregatedPartOf(partOf[i], langs[i], articles, partOf, aggregatedPartOf));
+			insert.addBatch();
+			if (batch++ > BATCH_SIZE) {
+				insert.executeBatch();
+				batch = 0;
+			}
+		}
+		insert.executeBatch();
+		insert.close();
+		System.out.println("Updated " + generated + " trip_id with max id " + maxId);
+
+		rewriteArticles(conn);
+		st.execute("DROP TABLE travel_articles_ids");
+		st.close();
+		System.out.println("Trip ids and agg part of for " + size + " articles in "
+				+ (System.currentTimeMillis() - time) + " ms");
+	}
+
+	private static String getArticleKey(String title, String lang) {
+		return lang + '\n' + title;
+	}
+
+	private static String getAggregatedPartOf(String partOf, String lang, Map<String, Integer> articles,
+			String[] articlesPartOf, Map<String, String> cache) {
+		if (partOf == null || partOf.isEmpty()) {
+			return "";
+		}
+		String key = getArticleKey(partOf, lang);
+		String res = cache.get(key);
+		if (res != null) {
+			return res;
+		}
+		StringBuilder b = new StringBuilder(partOf);
+		Set<String> visited = new HashSet<String>();
+		visited.add(partOf);
+		while (true) {
+			Integer ind = articles.get(getArticleKey(partOf, lang));
+			String parent = ind == null || articlesPartOf[ind] == null ? "" : articlesPartOf[ind];
+			// stop at cycle
+			if (parent.isEmpty() || !visited.add(parent)) {
+				break;
+			}
+			b.append(',').append(parent);
+			partOf = parent;
+		}
+		res = b.toString();
+		cache.put(key, res);
+		return res;
+	}
+
+	/**
+	 * Copies travel_articles into new table with trip_id and aggregated_part_of from travel_articles_ids, indexes
+	 * of travel_articles are created after the copy.
+	 */
+	private static void rewriteArticles(Connection conn) throws SQLException {
+		Statement st = conn.createStatement();
+		ResultSet rs = st.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'travel_articles'");
+		String createTable = rs.next() ? rs.getString(1) : null;
+		rs.close();
+		if (createTable == null) {
+			throw new IllegalStateException("Table travel_articles doesn't exist");
+		}
+		List<String> indexes = new ArrayList<String>();
+		rs = st.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'index' AND tbl_name = 'travel_articles' "
+				+ "AND sql IS NOT NULL");
+		while (rs.next()) {
+			indexes.add(rs.getString(1));
+		}
+		rs.close();
+		List<String> columns = new ArrayList<String>();
+		rs = st.executeQuery("PRAGMA table_info(travel_articles)");
+		while (rs.next()) {
+			columns.add(rs.getString("name"));
+		}
+		rs.close();
+
+		st.execute("DROP TABLE IF EXISTS travel_articles_bulk");
+		st.execute(createTable.replaceFirst("travel_articles", "travel_articles_bulk"));
+		if (!columns.contains("aggregated_part_of")) {
+			st.execute("ALTER TABLE travel_articles_bulk ADD COLUMN aggregated_part_of");
+			columns.add("aggregated_part_of");
+		}
+		StringBuilder insert = new StringBuilder();
+		StringBuilder select = new StringBuilder();
+		for (String c : columns) {
+			if (insert.length() > 0) {
+				insert.append(", ");
+				select.append(", ");
+			}
+			insert.append('"').append(c).append('"');
+			if (c.equals("trip_id") || c.equals("aggregated_part_of")) {
+				select.append("s.").append(c);
+			} else {
+				select.append("a.\"").append(c).append('"');
+			}
+		}
+		st.execute("INSERT INTO travel_articles_bulk(" + insert + ") SELECT " + select
+				+ " FROM travel_articles a JOIN travel_articles_ids s ON s.rid = a.rowid ORDER BY a.rowid");
+		st.execute("DROP TABLE travel_articles");
+		st.execute("ALTER TABLE travel_articles_bulk RENAME TO travel_articles");
+		for (String index : indexes) {
+			st.execute(index);
+		}
+		st.close();
 	}
 
 	private static void generateSameTripIdForDifferentLang(final File langlinkFile, Connection conn)
@@ -356,10 +356,7 @@ public class WikiDatabasePreparation {
 		if(wikiDataconn == null) {
 			return "";
 		}
-		JsonObject metadata = wikiDataconn.getMetadata(wikiData);
-		if(metadata == null) {
-			metadata = wikiDataconn.downloadMetadata(wikiData);
-		}
+		JsonObject metadata = wikiDataconn.loadMetadata(wikiData);
 		if(metadata == null) {
 			return "";
 		}
@@ -18,11 +18,25 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
@@ -52,6 +66,7 @@ import com.google.gson.JsonSyntaxException;
 public class WikiVoyagePreparation {
 	private static final Log log = PlatformUtil.getLog(WikiDatabasePreparation.class);	
 	private static boolean uncompressed;
+	private static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
 	
 	
 	public enum WikivoyageTemplates {
@@ -86,33 +101,122 @@ public class WikiVoyagePreparation {
 	public static void main(String[] args) throws IOException, ParserConfigurationException, SAXException, SQLException {
 		String lang = "";
 		String folder = "";
-		if(args.length == 0) {
+		int threads = DEFAULT_THREADS;
+		List<String> params = new ArrayList<String>();
+		for (String a : args) {
+			if (a.startsWith("--threads=")) {
+				threads = Integer.parseInt(a.substring("--threads=".length()));
+			} else {
+				params.add(a);
+			}
+		}
+		if(params.size() == 0) {
 			lang = "en";
 			folder = "/home/user/osmand/wikivoyage/";
 			uncompressed = true;
 		}
-		if(args.length > 0) {
-			lang = args[0];
+		if(params.size() > 0) {
+			lang = params.get(0);
 		}
-		if(args.length > 1){
-			folder = args[1];
+		if(params.size() > 1){
+			folder = params.get(1);
 		}
-		if(args.length > 2){
-			uncompressed = args[2].equals("uncompressed");
+		if(params.size() > 2){
+			uncompressed = params.get(2).equals("uncompressed");
 		}
-		final String wikiPg = folder + lang + "wikivoyage-latest-pages-articles.xml.bz2";
-		
-		if (!new File(wikiPg).exists()) {
-			System.out.println("Dump for " + lang + " doesn't exist");
+		// several languages (en,de,fr) are processed concurrently
+		List<String> langs = new ArrayList<String>();
+		List<File> dumps = new ArrayList<File>();
+		for (String l : lang.split(",")) {
+			File wikiPg = new File(folder + l + "wikivoyage-latest-pages-articles.xml.bz2");
+			if (!wikiPg.exists()) {
+				System.out.println("Dump for " + l + " doesn't exist");
+				continue;
+			}
+			langs.add(l);
+			dumps.add(wikiPg);
+		}
+		if (langs.isEmpty()) {
 			return;
 		}
-		final String sqliteFileName = folder + (uncompressed ? "full_" : "") + "wikivoyage.sqlite";	
-		processWikivoyage(wikiPg, lang, sqliteFileName);
+		final String sqliteFileName = folder + (uncompressed ? "full_" : "") + "wikivoyage.sqlite";
+		processWikivoyage(dumps, langs, new File(sqliteFileName), threads);
 		System.out.println("Successfully generated.");
     }
-	
+
 	protected static void processWikivoyage(final String wikiPg, String lang, String sqliteFileName)
 			throws ParserConfigurationException, SAXException, FileNotFoundException, IOException, SQLException {
+		processWikivoyage(Collections.singletonList(new File(wikiPg)), Collections.singletonList(lang),
+				new File(sqliteFileName), DEFAULT_THREADS);
+	}
+
+	/**
+	 * Dumps are parsed concurrently (one thread per dump), articles are rendered by pool of threads and stored by
+	 * single writer in order of pages. Dump which was interrupted is continued from last committed page.
+	 */
+	public static void processWikivoyage(List<File> dumps, List<String> langs, File sqliteFile, int threads)
+			throws ParserConfigurationException, SAXException, IOException, SQLException {
+		final ArticleWriter writer = new ArticleWriter(sqliteFile, threads);
+		final WikidataConnection wikidataconn = new WikidataConnection(new File(sqliteFile.getParentFile(),
+				"wikidata.sqlite"));
+		final ExecutorService renderers = Executors.newFixedThreadPool(threads);
+		ExecutorService parsers = Executors.newFixedThreadPool(Math.max(1, dumps.size()));
+		ExecutorService writerService = Executors.newSingleThreadExecutor();
+		try {
+			Future<Void> written = writerService.submit(writer);
+			List<Future<Void>> parsed = new ArrayList<Future<Void>>();
+			for (int i = 0; i < dumps.size(); i++) {
+				final File dump = dumps.get(i);
+				final String lang = langs.get(i);
+				final long checkpoint = writer.getCheckpoint(dump);
+				if (checkpoint == ArticleWriter.FINISHED) {
+					log.info("Dump " + dump.getName() + " is already processed");
+					continue;
+				} else if (checkpoint > 0) {
+					log.info("Continue " + dump.getName() + " after page " + checkpoint);
+				}
+				parsed.add(parsers.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						parseDump(dump, lang, checkpoint, renderers, writer, wikidataconn);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : parsed) {
+				f.get();
+			}
+			writer.add(ArticleWriter.END);
+			written.get();
+			writer.finish();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			} else if (e.getCause() instanceof SAXException) {
+				throw (SAXException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			parsers.shutdownNow();
+			renderers.shutdownNow();
+			writerService.shutdownNow();
+			writer.close();
+			wikidataconn.close();
+		}
+	}
+
+	/**
+	 * Checkpoint is valid only for the same dump, so it is identified by name, size and modification time
+	 */
+	public static String getDumpKey(File dump) {
+		return dump.getName() + ":" + dump.length() + ":" + dump.lastModified();
+	}
+
+	private static void parseDump(File wikiPg, String lang, long checkpoint, ExecutorService renderers,
+			ArticleWriter writer, WikidataConnection wikidataconn) throws ParserConfigurationException, SAXException,
+			IOException, SQLException {
 		SAXParser sx = SAXParserFactory.newInstance().newSAXParser();
 		InputStream streamFile = new BufferedInputStream(new FileInputStream(wikiPg), 8192 * 4);
 		InputStream stream = streamFile;
@@ -120,88 +224,61 @@ public class WikiVoyagePreparation {
 			stream.close();
 			throw new RuntimeException(
 					"The source stream must start with the characters BZ if it is to be read as a BZip2 stream."); //$NON-NLS-1$
-		} 
-		CBZip2InputStream zis = new CBZip2InputStream(stream);
-		Reader reader = new InputStreamReader(zis,"UTF-8");
-		InputSource is = new InputSource(reader);
-		is.setEncoding("UTF-8");
-		final WikiOsmHandler handler = new WikiOsmHandler(sx, streamFile, lang, new File(sqliteFileName));
-		sx.parse(is, handler);
-		handler.finish();
+		}
+		try {
+			CBZip2InputStream zis = new CBZip2InputStream(stream);
+			Reader reader = new InputStreamReader(zis,"UTF-8");
+			InputSource is = new InputSource(reader);
+			is.setEncoding("UTF-8");
+			final WikiOsmHandler handler = new WikiOsmHandler(sx, streamFile, getDumpKey(wikiPg), lang, checkpoint,
+					renderers, writer, wikidataconn);
+			sx.parse(is, handler);
+			handler.finish();
+		} finally {
+			stream.close();
+		}
 	}
-	
+
 	public static class WikiOsmHandler extends DefaultHandler {
-		long id = 1;
 		private final SAXParser saxParser;
 		private boolean page = false;
 		private boolean revision = false;
-		
+
 		private StringBuilder ctext = null;
 		private long cid;
 		private StringBuilder title = new StringBuilder();
 		private StringBuilder text = new StringBuilder();
 		private StringBuilder pageId = new StringBuilder();
-		
+
 		private boolean parseText = false;
 
 		private final InputStream progIS;
 		private ConsoleProgressImplementation progress = new ConsoleProgressImplementation();
-		private DBDialect dialect = DBDialect.SQLITE;
-		private Connection conn;
-		private PreparedStatement prep;
-		private int batch = 0;
-		private final static int BATCH_SIZE = 500;
 		private static final String P_OPENED = "<p>";
 		private static final String P_CLOSED = "</p>";
-		final ByteArrayOutputStream bous = new ByteArrayOutputStream(64000);
 		private String lang;
+		private final String dump;
+		// pages up to checkpoint are stored
+		private final long checkpoint;
+		private final ExecutorService renderers;
+		private final ArticleWriter writer;
 		private WikidataConnection wikidataconn;
-			
-		WikiOsmHandler(SAXParser saxParser, InputStream progIS, String lang, File sqliteFile)
-				throws IOException, SQLException {
+
+		WikiOsmHandler(SAXParser saxParser, InputStream progIS, String dump, String lang, long checkpoint,
+				ExecutorService renderers, ArticleWriter writer, WikidataConnection wikidataconn) throws IOException {
+			this.dump = dump;
 			this.lang = lang;
 			this.saxParser = saxParser;
-			this.progIS = progIS;		
-			progress.startTask("Parse wiki xml", progIS.available());
-
-			conn = (Connection) dialect.getDatabaseConnection(sqliteFile.getAbsolutePath(), log);
-			conn.createStatement()
-					.execute("CREATE TABLE IF NOT EXISTS travel_articles(title text, content_gz blob"
-							+ (uncompressed ? ", content text" : "") + ", is_part_of text, lat double, lon double, image_title text not null, gpx_gz blob"
-							+ (uncompressed ? ", gpx text" : "") + ", trip_id long, original_id long, lang text, contents_json text)");
-			conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_title ON travel_articles(title);");
-			conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_id ON travel_articles(trip_id);");
-			conn.createStatement()
-					.execute("CREATE INDEX IF NOT EXISTS index_part_of ON travel_articles(is_part_of);");
-			prep = conn.prepareStatement("INSERT INTO travel_articles(title, content_gz"
-							+ (uncompressed ? ", content text" : "") + ", is_part_of, lat, lon, image_title, gpx_gz"
-							+ (uncompressed ? ", gpx text" : "") + ", trip_id , original_id , lang, contents_json)"
-					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?" + (uncompressed ? ", ?, ?": "") + ")");
-			
-			wikidataconn  = new WikidataConnection(new File(sqliteFile.getParentFile(), "wikidata.sqlite"));
-			
-		}
-		
-		public void addBatch() throws SQLException {
-			prep.addBatch();
-			if(batch++ > BATCH_SIZE) {
-				prep.executeBatch();
-				batch = 0;
-			}
-		}
-		
-		public void finish() throws SQLException {
-			prep.executeBatch();
-			if(!conn.getAutoCommit()) {
-				conn.commit();
-			}
-			prep.close();
-			conn.close();
-			wikidataconn.close();
+			this.progIS = progIS;
+			this.checkpoint = checkpoint;
+			this.renderers = renderers;
+			this.writer = writer;
+			this.wikidataconn = wikidataconn;
+			progress.startTask("Parse wiki xml " + lang, progIS.available());
 		}
 
-		public int getCount() {
-			return (int) (id - 1);
+		public void finish() throws IOException {
+			writer.add(ArticleWriter.done(Article.finished(dump, lang)));
 		}
 
 		@Override
@@ -239,7 +316,7 @@ public class WikiVoyagePreparation {
 		@Override
 		public void endElement(String uri, String localName, String qName) throws SAXException {
 			String name = saxParser.isNamespaceAware() ? localName : qName;
-			
+
 			try {
 				if (page) {
 					if (name.equals("page")) {
@@ -255,77 +332,55 @@ public class WikiVoyagePreparation {
 						cid = Long.parseLong(pageId.toString());
 						parseText = true;
 					} else if (name.equals("text")) {
-						if (parseText) {
-							Map<String, List<String>> macroBlocks = new HashMap<>();
-							String text = WikiDatabasePreparation.removeMacroBlocks(ctext.toString(), macroBlocks,
-									lang, wikidataconn);
-							try {
-								if (!macroBlocks.isEmpty()) {
-									LatLon ll = getLatLonFromGeoBlock(
-											macroBlocks.get(WikivoyageTemplates.LOCATION.getType()));
-									boolean accepted = !title.toString().contains(":");
-									if(accepted) {
-										int column = 1;
-										String filename = getFileName(macroBlocks.get(WikivoyageTemplates.BANNER.getType()));
-										filename = filename.startsWith("<!--") ? "" : filename;
-										if (id++ % 500 == 0) {
-											log.debug("Article accepted " + cid + " " + title.toString() + " " + ll.getLatitude()
-													+ " " + ll.getLongitude() + " free: "
-													+ (Runtime.getRuntime().freeMemory() / (1024 * 1024)));
-										}
-										final HTMLConverter converter = new HTMLConverter(false);
-										CustomWikiModel wikiModel = new CustomWikiModel("https://upload.wikimedia.org/wikipedia/commons/${image}", 
-												"https://"+lang+".wikivoyage.org/wiki/${title}", false);
-										String plainStr = wikiModel.render(converter, text);
-										plainStr = plainStr.replaceAll("<p>div class=&#34;content&#34;", "<div class=\"content\">\n<p>").replaceAll("<p>/div\n</p>", "</div>");
-										//prep.setString(column++, Encoder.encodeUrl(title.toString()));
-										prep.setString(column++, title.toString());
-										prep.setBytes(column++, stringToCompressedByteArray(bous, plainStr));
-										if (uncompressed) {
-											prep.setString(column++, plainStr);
-										}
-										// part_of
-										prep.setString(column++, parsePartOf(macroBlocks.get(WikivoyageTemplates.PART_OF.getType())));
-										if(ll.isZero()) {
-											prep.setNull(column++, Types.DOUBLE);
-											prep.setNull(column++, Types.DOUBLE); 
-										} else {
-											prep.setDouble(column++, ll.getLatitude());
-											prep.setDouble(column++, ll.getLongitude());
-										}
-										// banner
-										prep.setString(column++, Encoder.encodeUrl(filename).replaceAll("\\(", "%28")
-												.replaceAll("\\)", "%29"));
-										// gpx_gz
-										String gpx = generateGpx(macroBlocks.get(WikivoyageTemplates.POI.getType()), title.toString(), lang, getShortDescr(plainStr));
-										prep.setBytes(column++, stringToCompressedByteArray(bous, gpx));
-										if (uncompressed) {
-											prep.setString(column++, gpx);
-										}
-										// skip trip_id column
-										column++;
-										prep.setLong(column++, cid);
-										prep.setString(column++, lang);
-										prep.setString(column++, wikiModel.getContentsJson());
-										addBatch();
-										
-									}
-								}
-							} catch (SQLException e) {
-								throw new SAXException(e);
-							}
+						// pages of other namespaces are not accepted
+						if (parseText && cid > checkpoint && !title.toString().contains(":")) {
+							writer.add(renderers.submit(new ArticleRenderer(dump, lang, cid, title.toString(),
+									ctext.toString(), wikidataconn)));
 						}
 						ctext = null;
 					}
 				}
 			} catch (IOException e) {
 				throw new SAXException(e);
-			} catch (SQLException e) {
-				throw new SAXException(e);
 			}
 		}
-		
-		private String getShortDescr(String content) {
+
+		static Article renderArticle(String dump, String lang, long cid, String title, String wikiText,
+				WikidataConnection wikidataconn) throws IOException, SQLException {
+			Map<String, List<String>> macroBlocks = new HashMap<>();
+			String text = WikiDatabasePreparation.removeMacroBlocks(wikiText, macroBlocks, lang, wikidataconn);
+			Article article = new Article(dump, lang, cid);
+			if (!macroBlocks.isEmpty()) {
+				LatLon ll = getLatLonFromGeoBlock(
+						macroBlocks.get(WikivoyageTemplates.LOCATION.getType()));
+				String filename = getFileName(macroBlocks.get(WikivoyageTemplates.BANNER.getType()));
+				filename = filename.startsWith("<!--") ? "" : filename;
+				final HTMLConverter converter = new HTMLConverter(false);
+				CustomWikiModel wikiModel = new CustomWikiModel("https://upload.wikimedia.org/wikipedia/commons/${image}",
+						"https://"+lang+".wikivoyage.org/wiki/${title}", false);
+				String plainStr = wikiModel.render(converter, text);
+				plainStr = plainStr.replaceAll("<p>div class=&#34;content&#34;", "<div class=\"content\">\n<p>").replaceAll("<p>/div\n</p>", "</div>");
+				ByteArrayOutputStream bous = new ByteArrayOutputStream(64000);
+				article.title = title;
+				article.contentGz = stringToCompressedByteArray(bous, plainStr);
+				if (uncompressed) {
+					article.content = plainStr;
+				}
+				article.partOf = parsePartOf(macroBlocks.get(WikivoyageTemplates.PART_OF.getType()));
+				article.latLon = ll;
+				// banner
+				article.imageTitle = Encoder.encodeUrl(filename).replaceAll("\\(", "%28").replaceAll("\\)", "%29");
+				String gpx = generateGpx(macroBlocks.get(WikivoyageTemplates.POI.getType()), title, lang, getShortDescr(plainStr));
+				article.gpxGz = stringToCompressedByteArray(bous, gpx);
+				if (uncompressed) {
+					article.gpx = gpx;
+				}
+				article.contentsJson = wikiModel.getContentsJson();
+			}
+			return article;
+		}
+
+		private static String getShortDescr(String content) {
 			if (content == null) {
 				return null;
 			}
@@ -363,7 +418,7 @@ public class WikiVoyagePreparation {
 			}
 		}
 		
-		private String generateGpx(List<String> list, String title, String lang, String descr) {
+		private static String generateGpx(List<String> list, String title, String lang, String descr) {
 			if (list != null && !list.isEmpty()) {
 				GPXFile f = new GPXFile(title, lang, descr);
 				List<WptPt> points = new ArrayList<>(); 
@@ -441,7 +496,7 @@ public class WikiVoyagePreparation {
 			return "";
 		}
 		
-		private String transformCategory(String[] info) {
+		private static String transformCategory(String[] info) {
 			String type = "";
 			for (int i = 1; i < info.length; i++) {
 				if (info[i].trim().startsWith("type")) {
@@ -451,7 +506,7 @@ public class WikiVoyagePreparation {
 			return type;
 		}
 		
-		private byte[] stringToCompressedByteArray(ByteArrayOutputStream baos, String toCompress) {
+		private static byte[] stringToCompressedByteArray(ByteArrayOutputStream baos, String toCompress) {
 			baos.reset();
 			try {
 				GZIPOutputStream gzout = new GZIPOutputStream(baos);
@@ -463,7 +518,7 @@ public class WikiVoyagePreparation {
 			return baos.toByteArray();
 		}
 
-		private String getFileName(List<String> list) {
+		private static String getFileName(List<String> list) {
 			if (list != null && !list.isEmpty()) {
 				String bannerInfo = list.get(0);
 				String[] infoSplit = bannerInfo.split("\\|");
@@ -485,7 +540,7 @@ public class WikiVoyagePreparation {
 			return "";
 		}
 		
-		private LatLon getLatLonFromGeoBlock(List<String> list) {
+		private static LatLon getLatLonFromGeoBlock(List<String> list) {
 			
 			if (list != null && !list.isEmpty()) {
 				String location = list.get(0);
@@ -564,7 +619,7 @@ public class WikiVoyagePreparation {
 			return res;
 		}
 
-		private String parsePartOf(List<String> list) {
+		private static String parsePartOf(List<String> list) {
 			if (list != null && !list.isEmpty()) {
 				String partOf = list.get(0);
 				String lowerCasePartOf = partOf.toLowerCase();
@@ -589,7 +644,7 @@ public class WikiVoyagePreparation {
 			return "";
 		}
 
-		private String parsePartOfFromQuickBar(String partOf) {
+		private static String parsePartOfFromQuickBar(String partOf) {
 			String[] info = partOf.split("\\|");
 			String region = "";
 			for (String s : info) {
@@ -603,11 +658,261 @@ public class WikiVoyagePreparation {
 		}
 	}
 	
+	static class Article {
+		// checkpoint key of the dump, see getDumpKey
+		final String dump;
+		final String lang;
+		final long pageId;
+		// dump is parsed completely
+		boolean finished;
+		// null if article is not accepted
+		String title;
+		byte[] contentGz;
+		String content;
+		String partOf;
+		LatLon latLon;
+		String imageTitle;
+		byte[] gpxGz;
+		String gpx;
+		String contentsJson;
+
+		Article(String dump, String lang, long pageId) {
+			this.dump = dump;
+			this.lang = lang;
+			this.pageId = pageId;
+		}
+
+		static Article finished(String dump, String lang) {
+			Article a = new Article(dump, lang, ArticleWriter.FINISHED);
+			a.finished = true;
+			return a;
+		}
+	}
+
+	static class ArticleRenderer implements Callable<Article> {
+		private final String dump;
+		private final String lang;
+		private final long pageId;
+		private final String title;
+		private final String text;
+		private final WikidataConnection wikidataconn;
+
+		ArticleRenderer(String dump, String lang, long pageId, String title, String text,
+				WikidataConnection wikidataconn) {
+			this.dump = dump;
+			this.lang = lang;
+			this.pageId = pageId;
+			this.title = title;
+			this.text = text;
+			this.wikidataconn = wikidataconn;
+		}
+
+		@Override
+		public Article call() throws Exception {
+			return WikiOsmHandler.renderArticle(dump, lang, pageId, title, text, wikidataconn);
+		}
+	}
+
+	/**
+	 * Stores rendered articles in order they were added. Last stored page of every dump is committed in the
+	 * same transaction as articles (travel_checkpoint table), so interrupted dump could be continued. Checkpoints
+	 * of processed dumps are deleted in the end.
+	 */
+	static class ArticleWriter implements Callable<Void> {
+		// page id of completely processed dump
+		static final long FINISHED = Long.MAX_VALUE;
+		static final Future<Article> END = done(null);
+		private final static int BATCH_SIZE = 500;
+		private final static int COMMIT_SIZE = 5000;
+
+		private DBDialect dialect = DBDialect.SQLITE;
+		private Connection conn;
+		private PreparedStatement prep;
+		private PreparedStatement checkpointPrep;
+		// rendered or being rendered articles
+		private final BlockingQueue<Future<Article>> queue;
+		private final Map<String, Long> checkpoints = new LinkedHashMap<String, Long>();
+		private volatile Throwable error;
+		private int batch = 0;
+		private int pending = 0;
+		private long id = 1;
+
+		ArticleWriter(File sqliteFile, int threads) throws SQLException {
+			queue = new ArrayBlockingQueue<Future<Article>>(threads * 64);
+			conn = (Connection) dialect.getDatabaseConnection(sqliteFile.getAbsolutePath(), log);
+			// articles after the last checkpoint should be rolled back if process is killed (journal is off by default)
+			Statement st = conn.createStatement();
+			st.executeQuery("PRAGMA journal_mode = DELETE");
+			st.executeUpdate("PRAGMA synchronous = NORMAL");
+			st.close();
+			conn.createStatement()
+					.execute("CREATE TABLE IF NOT EXISTS travel_articles(title text, content_gz blob"
+							+ (uncompressed ? ", content text" : "") + ", is_part_of text, lat double, lon double, image_title text not null, gpx_gz blob"
+							+ (uncompressed ? ", gpx text" : "") + ", trip_id long, original_id long, lang text, contents_json text)");
+			conn.createStatement().execute("CREATE TABLE IF NOT EXISTS travel_checkpoint(dump text primary key, page_id long)");
+			conn.setAutoCommit(false);
+			prep = conn.prepareStatement("INSERT INTO travel_articles(title, content_gz"
+							+ (uncompressed ? ", content text" : "") + ", is_part_of, lat, lon, image_title, gpx_gz"
+							+ (uncompressed ? ", gpx text" : "") + ", trip_id , original_id , lang, contents_json)"
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?" + (uncompressed ? ", ?, ?": "") + ")");
+			checkpointPrep = conn.prepareStatement("INSERT OR REPLACE INTO travel_checkpoint(dump, page_id) VALUES (?, ?)");
+		}
+
+		static Future<Article> done(Article a) {
+			FutureTask<Article> f = new FutureTask<Article>(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, a);
+			f.run();
+			return f;
+		}
+
+		/**
+		 * @return last stored page, {@link #FINISHED} if dump is processed completely or 0
+		 */
+		long getCheckpoint(File dump) throws SQLException {
+			PreparedStatement ps = conn.prepareStatement("SELECT page_id FROM travel_checkpoint WHERE dump = ?");
+			ps.setString(1, getDumpKey(dump));
+			ResultSet rs = ps.executeQuery();
+			try {
+				return rs.next() ? rs.getLong(1) : 0;
+			} finally {
+				rs.close();
+				ps.close();
+			}
+		}
+
+		void add(Future<Article> article) throws IOException {
+			try {
+				while (!queue.offer(article, 1, TimeUnit.SECONDS)) {
+					if (error != null) {
+						throw new IOException("Articles are not stored", error);
+					}
+				}
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public Void call() throws Exception {
+			try {
+				Future<Article> f;
+				while ((f = queue.take()) != END) {
+					write(f.get());
+				}
+				commit();
+			} catch (ExecutionException e) {
+				error = e.getCause();
+				throw e;
+			} catch (Exception e) {
+				error = e;
+				throw e;
+			}
+			return null;
+		}
+
+		private void write(Article a) throws SQLException {
+			if (a.finished) {
+				checkpoints.put(a.dump, FINISHED);
+				commit();
+				return;
+			}
+			if (a.title != null) {
+				int column = 1;
+				if (id++ % 500 == 0) {
+					log.debug("Article accepted " + a.pageId + " " + a.title + " " + a.latLon.getLatitude()
+							+ " " + a.latLon.getLongitude() + " free: "
+							+ (Runtime.getRuntime().freeMemory() / (1024 * 1024)));
+				}
+				//prep.setString(column++, Encoder.encodeUrl(title.toString()));
+				prep.setString(column++, a.title);
+				prep.setBytes(column++, a.contentGz);
+				if (uncompressed) {
+					prep.setString(column++, a.content);
+				}
+				// part_of
+				prep.setString(column++, a.partOf);
+				if(a.latLon.isZero()) {
+					prep.setNull(column++, Types.DOUBLE);
+					prep.setNull(column++, Types.DOUBLE);
+				} else {
+					prep.setDouble(column++, a.latLon.getLatitude());
+					prep.setDouble(column++, a.latLon.getLongitude());
+				}
+				// banner
+				prep.setString(column++, a.imageTitle);
+				// gpx_gz
+				prep.setBytes(column++, a.gpxGz);
+				if (uncompressed) {
+					prep.setString(column++, a.gpx);
+				}
+				// skip trip_id column
+				column++;
+				prep.setLong(column++, a.pageId);
+				prep.setString(column++, a.lang);
+				prep.setString(column++, a.contentsJson);
+				prep.addBatch();
+				if (++batch >= BATCH_SIZE) {
+					prep.executeBatch();
+					batch = 0;
+				}
+			}
+			checkpoints.put(a.dump, a.pageId);
+			if (++pending >= COMMIT_SIZE) {
+				commit();
+			}
+		}
+
+		private void commit() throws SQLException {
+			if (batch > 0) {
+				prep.executeBatch();
+				batch = 0;
+			}
+			for (Map.Entry<String, Long> e : checkpoints.entrySet()) {
+				checkpointPrep.setString(1, e.getKey());
+				checkpointPrep.setLong(2, e.getValue());
+				checkpointPrep.executeUpdate();
+			}
+			checkpoints.clear();
+			conn.commit();
+			pending = 0;
+		}
+
+		void finish() throws SQLException {
+			conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_title ON travel_articles(title);");
+			conn.createStatement().execute("CREATE INDEX IF NOT EXISTS index_id ON travel_articles(trip_id);");
+			conn.createStatement()
+					.execute("CREATE INDEX IF NOT EXISTS index_part_of ON travel_articles(is_part_of);");
+			// checkpoints of other dumps (interrupted run with another list of dumps) are kept
+			checkpointPrep.close();
+			conn.createStatement().execute("DELETE FROM travel_checkpoint WHERE page_id = " + FINISHED);
+			ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM travel_checkpoint");
+			boolean empty = rs.next() && rs.getLong(1) == 0;
+			rs.close();
+			if (empty) {
+				conn.createStatement().execute("DROP TABLE travel_checkpoint");
+			}
+			conn.commit();
+		}
+
+		void close() throws SQLException {
+			// not committed articles are rolled back
+			prep.close();
+			checkpointPrep.close();
+			conn.close();
+		}
+	}
+
 	public static class WikidataConnection {
 		private Connection conn;
 		private PreparedStatement pselect;
 		private PreparedStatement pinsert;
-		private int downloadMetadata = 0;
+		private final AtomicInteger downloadMetadata = new AtomicInteger();
+		// metadata being downloaded, so concurrent requests of the same id wait for one download
+		private final ConcurrentHashMap<String, FutureTask<JsonObject>> downloading =
+				new ConcurrentHashMap<String, FutureTask<JsonObject>>();
 
 		public WikidataConnection(File f) throws SQLException {
 			conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(f.getAbsolutePath(), log);
@@ -616,11 +921,50 @@ public class WikiVoyagePreparation {
 			pinsert = conn.prepareStatement("INSERT INTO wikidata( wikidataid, metadata) VALUES(?, ?) ");
 		}
 		
+		/**
+		 * @return stored metadata or downloads it (once for the same id requested by several threads)
+		 */
+		public JsonObject loadMetadata(final String id) throws SQLException {
+			JsonObject obj = getMetadata(id);
+			if (obj != null) {
+				return obj;
+			}
+			FutureTask<JsonObject> task = new FutureTask<JsonObject>(new Callable<JsonObject>() {
+				@Override
+				public JsonObject call() throws Exception {
+					// could be stored by another thread after the check above
+					JsonObject stored = getMetadata(id);
+					return stored != null ? stored : downloadMetadata(id);
+				}
+			});
+			FutureTask<JsonObject> running = downloading.putIfAbsent(id, task);
+			if (running == null) {
+				running = task;
+				try {
+					task.run();
+				} finally {
+					downloading.remove(id, task);
+				}
+			}
+			try {
+				return running.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof SQLException) {
+					throw (SQLException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
 		public JsonObject downloadMetadata(String id) {
 			JsonObject obj = null;
 			try {
-				if(++downloadMetadata % 50 == 0) {
-					System.out.println("Download wiki metadata " + downloadMetadata);
+				int cnt = downloadMetadata.incrementAndGet();
+				if(cnt % 50 == 0) {
+					System.out.println("Download wiki metadata " + cnt);
 				}
 				StringBuilder metadata = new StringBuilder();
 				String metadataUrl = "https://www.wikidata.org/wiki/Special:EntityData/"+id+".json";
@@ -631,9 +975,11 @@ public class WikiVoyagePreparation {
 					metadata.append(s).append("\n");
 				}
 				obj = new JsonParser().parse(metadata.toString()).getAsJsonObject();
-				pinsert.setString(1, id);
-				pinsert.setString(2, metadata.toString());
-				pinsert.execute();
+				synchronized (this) {
+					pinsert.setString(1, id);
+					pinsert.setString(2, metadata.toString());
+					pinsert.execute();
+				}
 			} catch (Exception e) {
 				System.err.println("Error downloading wikidata " + id + " " + e.getMessage());
 			}
@@ -641,7 +987,7 @@ public class WikiVoyagePreparation {
 		}
 		
 		
-		public JsonObject getMetadata(String id) throws SQLException {
+		public synchronized JsonObject getMetadata(String id) throws SQLException {
 			pselect.setString(1, id);
 			ResultSet rs = pselect.executeQuery();
 			try {
@@ -0,0 +1,46 @@
+package net.osmand;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.data.preparation.DBDialect;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Rows of sqlite db written as strings (values separated by '|') to compare dbs in tests.
+ */
+public class SQLiteRows {
+	private static final Log log = LogFactory.getLog(SQLiteRows.class);
+
+	public static List<String> select(File db, String query) throws SQLException {
+		Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(db.getAbsolutePath(), log);
+		ResultSet rs = conn.createStatement().executeQuery(query);
+		ResultSetMetaData md = rs.getMetaData();
+		List<String> res = new ArrayList<String>();
+		while (rs.next()) {
+			StringBuilder row = new StringBuilder();
+			for (int i = 1; i <= md.getColumnCount(); i++) {
+				Object o = rs.getObject(i);
+				row.append(o instanceof byte[] ? Arrays.toString((byte[]) o) : String.valueOf(o)).append('|');
+			}
+			res.add(row.toString());
+		}
+		rs.close();
+		conn.close();
+		return res;
+	}
+
+	public static void execute(File db, String sql) throws SQLException {
+		Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(db.getAbsolutePath(), log);
+		conn.createStatement().execute(sql);
+		conn.close();
+	}
+}
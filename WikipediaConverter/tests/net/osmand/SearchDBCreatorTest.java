@@ -0,0 +1,157 @@
+package net.osmand;
+
+import static net.osmand.SQLiteRows.select;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+
+import net.osmand.data.preparation.DBDialect;
+import net.osmand.osm.util.SearchDBCreator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Search db generated in bulk mode should have same articles and search table as db generated with update per article.
+ */
+public class SearchDBCreatorTest {
+	private static final Log log = LogFactory.getLog(SearchDBCreatorTest.class);
+
+	private static final String[] LANGS = { "en", "de", "fr", "ru" };
+	private static final int PLACES = 1500;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testBulkSameAsUpdates() throws Exception {
+		File updatesDir = folder.newFolder("updates");
+		File bulkDir = folder.newFolder("bulk");
+		createFixture(updatesDir);
+		createFixture(bulkDir);
+		File expected = new File(updatesDir, "wikivoyage.sqlite");
+		File actual = new File(bulkDir, "wikivoyage.sqlite");
+
+		long time = System.currentTimeMillis();
+		SearchDBCreator.generateSearchDB(expected, updatesDir, false);
+		long updates = System.currentTimeMillis() - time;
+		time = System.currentTimeMillis();
+		SearchDBCreator.generateSearchDB(actual, bulkDir, true);
+		long bulk = System.currentTimeMillis() - time;
+		log.info("Search db : updates " + updates + " ms, bulk " + bulk + " ms");
+
+		String articles = "SELECT * FROM travel_articles ORDER BY lang, title, rowid";
+		String search = "SELECT * FROM travel_search ORDER BY search_term, trip_id, article_title, lang";
+		String indexes = "SELECT name FROM sqlite_master WHERE type = 'index' ORDER BY name";
+		List<String> expectedArticles = select(expected, articles);
+		Assert.assertTrue(expectedArticles.size() > 3000);
+		Assert.assertEquals(expectedArticles, select(actual, articles));
+		Assert.assertEquals(select(expected, search), select(actual, search));
+		Assert.assertEquals(select(expected, indexes), select(actual, indexes));
+		// articles with the same title and lang get the same id, each of them takes a generated id as with updates
+		List<String> duplicates = select(actual, "SELECT trip_id FROM travel_articles WHERE title = '"
+				+ getTitle(50, "en") + "'");
+		Assert.assertEquals(2, duplicates.size());
+		Assert.assertEquals(duplicates.get(0), duplicates.get(1));
+	}
+
+	private static String getTitle(int place, String lang) {
+		if (place % 7 == 0) {
+			return lang + " Place-" + place + " (region/" + (place % 10) + ")";
+		}
+		return lang + " Place " + place;
+	}
+
+	private void createFixture(File dir) throws SQLException {
+		Random rnd = new Random(31);
+		Connection conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(
+				new File(dir, "wikivoyage.sqlite").getAbsolutePath(), log);
+		conn.createStatement().execute("CREATE TABLE travel_articles(title text, content_gz blob, is_part_of text, "
+				+ "lat double, lon double, image_title text not null, gpx_gz blob, trip_id long, original_id long, "
+				+ "lang text, contents_json text)");
+		conn.createStatement().execute("CREATE INDEX index_title ON travel_articles(title);");
+		conn.createStatement().execute("CREATE INDEX index_id ON travel_articles(trip_id);");
+		conn.createStatement().execute("CREATE INDEX index_part_of ON travel_articles(is_part_of);");
+		Connection langlinks = (Connection) DBDialect.SQLITE.getDatabaseConnection(
+				new File(dir, "langlink.sqlite").getAbsolutePath(), log);
+		langlinks.createStatement().execute("CREATE TABLE langlinks (id long NOT NULL DEFAULT 0, "
+				+ "lang text NOT NULL DEFAULT '', title text NOT NULL DEFAULT '', UNIQUE (lang, title) ON CONFLICT IGNORE)");
+		Connection images = (Connection) DBDialect.SQLITE.getDatabaseConnection(
+				new File(dir, "images.sqlite").getAbsolutePath(), log);
+		images.createStatement().execute("CREATE TABLE images(file text, url text, metadata text, sourcefile text)");
+
+		PreparedStatement article = conn.prepareStatement("INSERT INTO travel_articles(title, content_gz, is_part_of, "
+				+ "lat, lon, image_title, gpx_gz, trip_id, original_id, lang, contents_json) "
+				+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		PreparedStatement link = langlinks.prepareStatement("INSERT INTO langlinks VALUES (?, ?, ?)");
+		PreparedStatement image = images.prepareStatement("INSERT INTO images VALUES (?, ?, ?, ?)");
+		for (int place = 0; place < PLACES; place++) {
+			// articles of all languages are written one after another like in dumps
+			for (String lang : LANGS) {
+				if (!lang.equals("en") && rnd.nextInt(3) == 0) {
+					continue;
+				}
+				String partOf = "";
+				if (place >= PLACES - 2) {
+					// two articles which are part of each other
+					partOf = getTitle(place == PLACES - 1 ? PLACES - 2 : PLACES - 1, lang);
+				} else if (place == PLACES - 3) {
+					partOf = getTitle(place, lang);
+				} else if (place > 0) {
+					partOf = getTitle(place / 4, lang);
+				}
+				String imageTitle = "";
+				if (place % 3 == 0 && (lang.equals("en") || rnd.nextBoolean())) {
+					imageTitle = "Banner " + lang + place + ".jpg";
+					image.setString(1, imageTitle);
+					image.setString(2, "url");
+					image.setString(3, "metadata");
+					image.setString(4, place % 2 == 0 ? "Source " + place + ".jpg" : null);
+					image.execute();
+				}
+				article.setString(1, getTitle(place, lang));
+				article.setBytes(2, new byte[] { (byte) place, (byte) lang.charAt(0) });
+				article.setString(3, partOf);
+				article.setDouble(4, 40 + rnd.nextDouble());
+				article.setDouble(5, 10 + rnd.nextDouble());
+				article.setString(6, imageTitle);
+				article.setBytes(7, null);
+				article.setLong(8, 0);
+				article.setLong(9, place);
+				article.setString(10, lang);
+				article.setString(11, "{}");
+				article.execute();
+				if (place % 50 <= 1 && lang.equals("en")) {
+					// same title and lang twice, with and without langlink
+					article.setBytes(2, new byte[] { (byte) place, 0 });
+					article.execute();
+				}
+				if (place % 5 != 0) {
+					link.setLong(1, 100 + place);
+					link.setString(2, lang);
+					link.setString(3, getTitle(place, lang));
+					link.execute();
+				}
+			}
+			// links to articles which are not in db
+			link.setLong(1, 100 + PLACES + place);
+			link.setString(2, "it");
+			link.setString(3, "it Place " + place);
+			link.execute();
+		}
+		article.close();
+		link.close();
+		image.close();
+		images.close();
+		langlinks.close();
+		conn.close();
+	}
+}
@@ -0,0 +1,93 @@
+package net.osmand;
+
+import static net.osmand.SQLiteRows.execute;
+import static net.osmand.SQLiteRows.select;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.osm.util.WikiVoyagePreparation;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Articles of bundled dumps processed concurrently (and continued after interruption) should be same as processed
+ * one by one with single thread.
+ */
+public class WikiVoyagePreparationTest {
+
+	private static final File EN = new File("tests/enwikivoyage-test-pages-articles.xml.bz2");
+	private static final File DE = new File("tests/dewikivoyage-test-pages-articles.xml.bz2");
+	private static final String ARTICLES = "SELECT * FROM travel_articles ORDER BY lang, original_id";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testParallelSameAsSequential() throws Exception {
+		File expected = sequential();
+		File actual = new File(folder.newFolder("parallel"), "wikivoyage.sqlite");
+		WikiVoyagePreparation.processWikivoyage(Arrays.asList(EN, DE), Arrays.asList("en", "de"), actual, 4);
+
+		List<String> expectedArticles = select(expected, ARTICLES);
+		// namespace pages and pages without templates are skipped
+		Assert.assertEquals(62 + 47, expectedArticles.size());
+		Assert.assertEquals(expectedArticles, select(actual, ARTICLES));
+		checkOrder(actual);
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		File expected = sequential();
+		File actual = new File(folder.newFolder("resumed"), "wikivoyage.sqlite");
+		WikiVoyagePreparation.processWikivoyage(Arrays.asList(EN, DE), Arrays.asList("en", "de"), actual, 4);
+		// checkpoints are dropped when all dumps are processed
+		Assert.assertEquals(Arrays.asList(),
+				select(actual, "SELECT name FROM sqlite_master WHERE name = 'travel_checkpoint'"));
+
+		// interrupted after commit of en page 100, de dump is processed completely
+		execute(actual, "DELETE FROM travel_articles WHERE lang = 'en' AND original_id > 100");
+		execute(actual, "CREATE TABLE travel_checkpoint(dump text primary key, page_id long)");
+		execute(actual, "INSERT INTO travel_checkpoint VALUES ('" + WikiVoyagePreparation.getDumpKey(EN) + "', 100)");
+		execute(actual, "INSERT INTO travel_checkpoint VALUES ('" + WikiVoyagePreparation.getDumpKey(DE) + "', "
+				+ Long.MAX_VALUE + ")");
+		// checkpoint of another dump with the same language is not used
+		execute(actual, "INSERT INTO travel_checkpoint VALUES ('" + EN.getName() + ":0:0', 50)");
+		Assert.assertTrue(select(actual, ARTICLES).size() < select(expected, ARTICLES).size());
+		WikiVoyagePreparation.processWikivoyage(Arrays.asList(EN, DE), Arrays.asList("en", "de"), actual, 2);
+
+		Assert.assertEquals(select(expected, ARTICLES), select(actual, ARTICLES));
+		checkOrder(actual);
+		// checkpoint of the dump that was not processed is kept
+		Assert.assertEquals(Arrays.asList(EN.getName() + ":0:0|"),
+				select(actual, "SELECT dump FROM travel_checkpoint"));
+	}
+
+	@Test
+	public void testNoDumps() throws Exception {
+		File db = new File(folder.getRoot(), "wikivoyage.sqlite");
+		WikiVoyagePreparation.processWikivoyage(new ArrayList<File>(), new ArrayList<String>(), db, 2);
+		Assert.assertEquals(Arrays.asList(), select(db, ARTICLES));
+	}
+
+	private File sequential() throws Exception {
+		File db = new File(folder.newFolder("sequential"), "wikivoyage.sqlite");
+		WikiVoyagePreparation.processWikivoyage(Arrays.asList(EN), Arrays.asList("en"), db, 1);
+		WikiVoyagePreparation.processWikivoyage(Arrays.asList(DE), Arrays.asList("de"), db, 1);
+		return db;
+	}
+
+	// articles of every language are stored in order of pages
+	private void checkOrder(File db) throws SQLException {
+		for (String lang : new String[] { "en", "de" }) {
+			String q = "SELECT original_id FROM travel_articles WHERE lang = '" + lang + "' ";
+			Assert.assertEquals(select(db, q + "ORDER BY original_id"), select(db, q + "ORDER BY rowid"));
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package net.osmand.osm.util;
+
+import static net.osmand.SQLiteRows.select;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.FutureTask;
+
+import net.osmand.osm.util.WikiDatabasePreparation.LatLon;
+import net.osmand.osm.util.WikiVoyagePreparation.Article;
+import net.osmand.osm.util.WikiVoyagePreparation.ArticleWriter;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Articles written after the last commit of a killed process should be rolled back, so the checkpoint of the dump
+ * matches stored articles.
+ */
+public class ArticleWriterTest {
+	private static final int COMMITTED = 10;
+	private static final int NOT_COMMITTED = 1200;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testKilled() throws Exception {
+		File db = new File(folder.getRoot(), "wikivoyage.sqlite");
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+		Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				ArticleWriterTest.class.getName(), db.getAbsolutePath()).inheritIO().start();
+		Assert.assertEquals(1, p.waitFor());
+		// pages of not committed articles are spilled to the file, original pages are kept in journal
+		Assert.assertTrue(new File(db.getPath() + "-journal").length() > 0);
+
+		// hot journal of killed process is rolled back on open
+		Assert.assertEquals(Arrays.asList(COMMITTED + "|"),
+				select(db, "SELECT COUNT(*) FROM travel_articles WHERE lang = 'en'"));
+		Assert.assertEquals(Arrays.asList("0|"), select(db, "SELECT COUNT(*) FROM travel_articles WHERE lang = 'de'"));
+		Assert.assertEquals(Arrays.asList("a|" + ArticleWriter.FINISHED + "|"),
+				select(db, "SELECT * FROM travel_checkpoint"));
+	}
+
+	/**
+	 * Commits dump "a", executes batches of dump "b" that don't fit in page cache and halts before the next commit.
+	 */
+	public static void main(String[] args) throws Exception {
+		ArticleWriter writer = new ArticleWriter(new File(args[0]), (COMMITTED + NOT_COMMITTED) / 64 + 1);
+		for (int i = 1; i <= COMMITTED; i++) {
+			writer.add(ArticleWriter.done(article("a", "en", i, 10)));
+		}
+		writer.add(ArticleWriter.done(Article.finished("a", "en")));
+		for (int i = 1; i <= NOT_COMMITTED; i++) {
+			writer.add(ArticleWriter.done(article("b", "de", i, 16 * 1024)));
+		}
+		writer.add(new FutureTask<Article>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null) {
+			@Override
+			public Article get() {
+				Runtime.getRuntime().halt(1);
+				return null;
+			}
+		});
+		writer.call();
+	}
+
+	private static Article article(String dump, String lang, long pageId, int size) {
+		Article a = new Article(dump, lang, pageId);
+		a.title = dump + pageId;
+		a.contentGz = new byte[size];
+		new Random(pageId).nextBytes(a.contentGz);
+		a.latLon = new LatLon(pageId, pageId);
+		a.imageTitle = "";
+		return a;
+	}
+}